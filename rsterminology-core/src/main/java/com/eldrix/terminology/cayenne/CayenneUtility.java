@@ -7,6 +7,8 @@ import org.apache.cayenne.ObjectContext;
 import org.apache.cayenne.ResultBatchIterator;
 import org.apache.cayenne.query.SelectQuery;
 
+import com.eldrix.terminology.metrics.Metrics;
+
 public class CayenneUtility {
 
 	/**
@@ -19,10 +21,16 @@ public class CayenneUtility {
 		long estimated = 0;
 		System.out.println("Processing " + count + ((batches == 0) ? "" : (" in " + batches + " batches...")));
 		long start = System.currentTimeMillis();
+		String entity = query.getRoot() instanceof Class ? ((Class<?>) query.getRoot()).getSimpleName() : String.valueOf(query.getRoot());
+		Metrics.Counter items = Metrics.counter("rsterminology_batch_items_total", "Number of items processed in batches", "entity", entity);
+		Metrics.Histogram timer = Metrics.timer("rsterminology_batch_seconds", "Time taken to process a batch", "entity", entity);
 		try (ResultBatchIterator<T> iterator = query.batchIterator(context, batchSize)) {
 			for(List<T> batch : iterator) {
 				System.out.print("\rProcessing batch " + i + "/" + batches + (estimated == 0 ? "" : " Remaining: ~" + estimated / 60000 + " min   "));
+				long batchStart = System.nanoTime();
 				forEach.accept(batch);
+				timer.recordSince(batchStart);
+				items.increment(batch.size());
 				i++;
 				long elapsed = System.currentTimeMillis() - start;
 				estimated = (batches - i) * elapsed / i;
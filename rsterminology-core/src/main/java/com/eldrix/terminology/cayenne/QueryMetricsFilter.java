@@ -0,0 +1,54 @@
+package com.eldrix.terminology.cayenne;
+
+import org.apache.cayenne.DataChannel;
+import org.apache.cayenne.DataChannelFilter;
+import org.apache.cayenne.DataChannelFilterChain;
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.QueryResponse;
+import org.apache.cayenne.graph.GraphDiff;
+import org.apache.cayenne.query.Query;
+
+import com.eldrix.terminology.metrics.Metrics;
+
+/**
+ * A Cayenne filter that counts queries and commits, both in total and for the current thread,
+ * so that the number of queries made in handling a single request can be recorded.
+ *
+ * @author Mark Wardle
+ */
+public class QueryMetricsFilter implements DataChannelFilter {
+	private static final ThreadLocal<int[]> _threadCount = ThreadLocal.withInitial(() -> new int[1]);
+	private final Metrics.Counter _queries = Metrics.counter("rsterminology_cayenne_queries_total", "Number of Cayenne queries");
+	private final Metrics.Counter _syncs = Metrics.counter("rsterminology_cayenne_syncs_total", "Number of Cayenne commits and flushes");
+
+	/**
+	 * Reset the count of queries made by the current thread.
+	 */
+	public static void resetThreadCount() {
+		_threadCount.get()[0] = 0;
+	}
+
+	/**
+	 * Return the number of queries made by the current thread since the count was last reset.
+	 */
+	public static int threadCount() {
+		return _threadCount.get()[0];
+	}
+
+	@Override
+	public void init(DataChannel channel) {
+	}
+
+	@Override
+	public QueryResponse onQuery(ObjectContext originatingContext, Query query, DataChannelFilterChain filterChain) {
+		_queries.increment();
+		_threadCount.get()[0]++;
+		return filterChain.onQuery(originatingContext, query);
+	}
+
+	@Override
+	public GraphDiff onSync(ObjectContext originatingContext, GraphDiff changes, int syncType, DataChannelFilterChain filterChain) {
+		_syncs.increment();
+		return filterChain.onSync(originatingContext, changes, syncType);
+	}
+}
@@ -0,0 +1,101 @@
+package com.eldrix.terminology.cayenne;
+
+import java.util.List;
+
+import org.apache.cayenne.access.translator.DbAttributeBinding;
+import org.apache.cayenne.configuration.RuntimeProperties;
+import org.apache.cayenne.di.Inject;
+import org.apache.cayenne.di.Module;
+import org.apache.cayenne.log.CommonsJdbcEventLogger;
+import org.apache.cayenne.log.JdbcEventLogger;
+import org.apache.cayenne.map.DbAttribute;
+
+import com.eldrix.terminology.metrics.Trace;
+
+/**
+ * A JDBC event logger that, in addition to the usual logging, records each SQL statement
+ * in the active {@link Trace} for the current thread.
+ *
+ * @author Mark Wardle
+ */
+public class TracingJdbcEventLogger extends CommonsJdbcEventLogger {
+
+	public TracingJdbcEventLogger(@Inject RuntimeProperties runtimeProperties) {
+		super(runtimeProperties);
+	}
+
+	/**
+	 * Return a Cayenne module that uses this logger.
+	 */
+	public static Module module() {
+		return binder -> binder.bind(JdbcEventLogger.class).to(TracingJdbcEventLogger.class);
+	}
+
+	/*
+	 * Cayenne only reports statements if the logger is loggable.
+	 */
+	@Override
+	public boolean isLoggable() {
+		return Trace.isActive() || super.isLoggable();
+	}
+
+	/*
+	 * The deprecated overloads are still used by Cayenne for SQL templates, batches and procedures,
+	 * so must be overridden for those statements to be traced.
+	 */
+	@SuppressWarnings("deprecation")
+	@Override
+	public void logQuery(String sql, List<?> params) {
+		Trace.sqlStarted(sql);
+		if (super.isLoggable()) {
+			super.logQuery(sql, params);
+		}
+	}
+
+	@SuppressWarnings("deprecation")
+	@Override
+	public void logQuery(String sql, List<DbAttribute> attrs, List<?> params, long time) {
+		Trace.sqlStarted(sql);
+		if (super.isLoggable()) {
+			super.logQuery(sql, attrs, params, time);
+		}
+	}
+
+	@Override
+	public void logQuery(String sql, DbAttributeBinding[] bindings, long translatedIn) {
+		Trace.sqlStarted(sql);
+		if (super.isLoggable()) {
+			super.logQuery(sql, bindings, translatedIn);
+		}
+	}
+
+	@Override
+	public void logSelectCount(int count, long time) {
+		Trace.sqlFinished();
+		if (super.isLoggable()) {
+			super.logSelectCount(count, time);
+		}
+	}
+
+	@Override
+	public void logSelectCount(int count, long time, String sql) {
+		Trace.sqlFinished();
+		if (super.isLoggable()) {
+			super.logSelectCount(count, time, sql);
+		}
+	}
+
+	@Override
+	public void logUpdateCount(int count) {
+		Trace.sqlFinished();
+		if (super.isLoggable()) {
+			super.logUpdateCount(count);
+		}
+	}
+
+	@Override
+	public void logQueryError(Throwable th) {
+		Trace.sqlFinished();
+		super.logQueryError(th);
+	}
+}
@@ -0,0 +1,112 @@
+package com.eldrix.terminology.medicine;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.lucene.index.CorruptIndexException;
+
+import com.eldrix.terminology.snomedct.Search;
+import com.eldrix.terminology.snomedct.Search.ResultItem;
+
+/**
+ * Parses lists of free-text medications in bulk.
+ *
+ * Lines are tokenised in parallel, and the distinct drug names are then mapped against the
+ * SNOMED-CT index once each, also in parallel, so that a medication history in which the same drug
+ * appears thousands of times results in a single search for that drug. Results are returned
+ * in the same order as the lines provided.
+ *
+ * Instances are thread-safe and may be re-used; the mapping of drug names is cached for the
+ * lifetime of the instance.
+ *
+ * @author Mark Wardle
+ */
+public class BatchMedicationParser {
+	private final Search _search;
+	private final Map<String, Optional<ResultItem>> _mappings = new ConcurrentHashMap<>();
+
+	/**
+	 * Create a parser using the default SNOMED-CT index location.
+	 */
+	public BatchMedicationParser() throws CorruptIndexException, IOException {
+		this(Search.getInstance());
+	}
+
+	public BatchMedicationParser(Search search) {
+		_search = search;
+	}
+
+	/**
+	 * Parse the medications specified, returning the results in the same order.
+	 * @param lines
+	 * @return
+	 * @throws CorruptIndexException
+	 * @throws IOException
+	 */
+	public List<ParsedMedication> parse(List<String> lines) throws CorruptIndexException, IOException {
+		List<ParsedMedicationBuilder> builders = lines.parallelStream()
+				.map(line -> new ParsedMedicationBuilder().parseString(line))
+				.collect(Collectors.toList());
+		try {
+			builders.parallelStream()
+			.map(b -> b._drugName)
+			.distinct()
+			.forEach(this::_map);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		return builders.stream()
+				.map(b -> _build(b, _mappings.get(b._drugName)))
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Parse a stream of medications, returning the results in the same order.
+	 * @param lines
+	 * @return
+	 * @throws CorruptIndexException
+	 * @throws IOException
+	 */
+	public List<ParsedMedication> parse(Stream<String> lines) throws CorruptIndexException, IOException {
+		return parse(lines.collect(Collectors.toList()));
+	}
+
+	/**
+	 * Return the number of distinct drug names mapped so far.
+	 */
+	public int mappedDrugNames() {
+		return _mappings.size();
+	}
+
+	/*
+	 * Map a drug name, searching outside of any lock so that a slow search does not hold up other names.
+	 * Two threads may occasionally search for the same name; the first result to be stored is used.
+	 */
+	private Optional<ResultItem> _map(String drugName) {
+		Optional<ResultItem> result = _mappings.get(drugName);
+		if (result != null) {
+			return result;
+		}
+		try {
+			result = drugName.length() == 0 ? Optional.empty()
+					: Optional.ofNullable(ParsedMedicationBuilder._searchForMedicationConcept(_search, drugName));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		Optional<ResultItem> existing = _mappings.putIfAbsent(drugName, result);
+		return existing != null ? existing : result;
+	}
+
+	private static ParsedMedication _build(ParsedMedicationBuilder b, Optional<ResultItem> mapping) {
+		Long conceptId = mapping.map(ResultItem::getConceptId).orElse(null);
+		String mappedDrugName = mapping.map(ResultItem::getPreferredTerm).orElse(null);
+		return new ParsedMedication(conceptId, b._drugName, mappedDrugName,
+				b._dose, b._units, b._frequency, b._route, b._asRequired, b._notes);
+	}
+}
@@ -0,0 +1,175 @@
+package com.eldrix.terminology.medicine;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+import com.eldrix.terminology.medicine.Medication.Frequency;
+import com.eldrix.terminology.medicine.Medication.PrescribingType;
+import com.eldrix.terminology.medicine.Medication.Units;
+
+/**
+ * Converts doses into equivalent amounts per day, for analytics over large numbers of prescriptions.
+ *
+ * Each frequency is a rational number of doses per day (see {@link Frequency#perDayNumerator()}) and each
+ * unit conversion is held as a long, scaled by {@link #CONVERSION_SCALE}. Doses are given as longs scaled by
+ * {@link #DOSE_SCALE}, so that conversion is exact integer arithmetic: a multiplication by a precomputed factor
+ * and a division by the frequency denominator, rounded half up to the nearest nanogram only when the division does
+ * not terminate. Summing the results therefore accumulates no rounding error beyond half a nanogram per dose, and the
+ * batch methods convert arrays of doses without creating objects.
+ *
+ * Only dose-based units (e.g. mg) can be converted; doses in product-based units (e.g. tablets) result in {@link #NOT_CONVERTIBLE}.
+ *
+ * Unlike {@link Frequency#equivalentDailyDose(BigDecimal)}, no rounding is applied to doses that are given
+ * less often than daily.
+ *
+ * @author Mark Wardle
+ */
+public final class DailyDose {
+	/**
+	 * The scale of unit conversions: nanograms per unit.
+	 */
+	public static final long CONVERSION_SCALE = 1_000_000_000L;
+	/**
+	 * The number of decimal places retained in scaled doses.
+	 */
+	public static final int DOSE_SCALE_DIGITS = 3;
+	/**
+	 * The scale of doses: thousandths of a unit, e.g. 37500 for 37.5mg.
+	 */
+	public static final long DOSE_SCALE = BigDecimal.ONE.movePointRight(DOSE_SCALE_DIGITS).longValueExact();
+	/**
+	 * The result for doses that cannot be converted.
+	 */
+	public static final long NOT_CONVERTIBLE = Long.MIN_VALUE;
+	private static final BigDecimal MILLIGRAMS_PER_SCALED_UNIT = BigDecimal.valueOf(1000).divide(BigDecimal.valueOf(CONVERSION_SCALE));
+	private static final Units[] UNITS = Units.values();
+	private static final Frequency[] FREQUENCIES = Frequency.values();
+	private static final long[] _scaledConversions = new long[UNITS.length];
+	private static final long[] _numerators = new long[UNITS.length * FREQUENCIES.length];		// nanograms per unit * doses per day numerator, or 0
+	private static final long[] _denominators = new long[UNITS.length * FREQUENCIES.length];	// DOSE_SCALE * doses per day denominator
+	static {
+		for (Units u : UNITS) {
+			_scaledConversions[u.ordinal()] = u.conversion.multiply(BigDecimal.valueOf(CONVERSION_SCALE)).longValueExact();
+			for (Frequency f : FREQUENCIES) {
+				int i = u.ordinal() * FREQUENCIES.length + f.ordinal();
+				_numerators[i] = u.prescribingType() == PrescribingType.DOSE_BASED ? _scaledConversions[u.ordinal()] * f.perDayNumerator() : 0;
+				_denominators[i] = DOSE_SCALE * f.perDayDenominator();
+			}
+		}
+	}
+
+	private DailyDose() {}
+
+	/**
+	 * Return the conversion of the units into grams, scaled by {@link #CONVERSION_SCALE}.
+	 */
+	public static long scaledConversion(Units units) {
+		return _scaledConversions[units.ordinal()];
+	}
+
+	/**
+	 * Return a dose scaled by {@link #DOSE_SCALE}, rounded half up.
+	 */
+	public static long scaledDose(BigDecimal dose) {
+		return dose.movePointRight(DOSE_SCALE_DIGITS).setScale(0, RoundingMode.HALF_UP).longValueExact();
+	}
+
+	/**
+	 * Return a number of nanograms as milligrams.
+	 */
+	public static BigDecimal milligrams(long nanograms) {
+		return BigDecimal.valueOf(nanograms, 6);
+	}
+
+	/**
+	 * Return the equivalent milligrams per day using decimal arithmetic.
+	 * @return milligrams per day, or null if the units are not dose-based
+	 */
+	public static BigDecimal milligramsPerDay(BigDecimal dose, Units units, Frequency frequency) {
+		return _exactMilligramsPerDay(dose, units, frequency);
+	}
+
+	/**
+	 * Return the equivalent nanograms per day.
+	 * @param scaledDose - dose, scaled by {@link #DOSE_SCALE}
+	 * @return nanograms per day, or {@link #NOT_CONVERTIBLE} if the units are not dose-based or either units or frequency are null
+	 * @throws ArithmeticException if the result would overflow
+	 */
+	public static long nanogramsPerDay(long scaledDose, Units units, Frequency frequency) {
+		if (units == null || frequency == null) {
+			return NOT_CONVERTIBLE;
+		}
+		return _convert(scaledDose, units.ordinal() * FREQUENCIES.length + frequency.ordinal());
+	}
+
+	/**
+	 * Convert the doses specified into nanograms per day.
+	 * @param scaledDoses - doses, scaled by {@link #DOSE_SCALE}
+	 * @param units - units for each dose
+	 * @param frequencies - frequency for each dose
+	 * @param result - array into which the results are written; {@link #NOT_CONVERTIBLE} for doses that cannot be converted
+	 * @throws ArithmeticException if a result would overflow
+	 */
+	public static void nanogramsPerDay(long[] scaledDoses, Units[] units, Frequency[] frequencies, long[] result) {
+		_checkLengths(scaledDoses.length, units.length, frequencies.length, result.length);
+		int n = FREQUENCIES.length;
+		for (int i=0; i<scaledDoses.length; i++) {
+			Units u = units[i];
+			Frequency f = frequencies[i];
+			result[i] = u == null || f == null ? NOT_CONVERTIBLE : _convert(scaledDoses[i], u.ordinal() * n + f.ordinal());
+		}
+	}
+
+	/**
+	 * Convert the doses specified into nanograms per day, with units and frequencies given as enum ordinals,
+	 * as might be held in columnar data.
+	 * @param scaledDoses - doses, scaled by {@link #DOSE_SCALE}
+	 * @param units - ordinal of the units for each dose
+	 * @param frequencies - ordinal of the frequency for each dose
+	 * @param result - array into which the results are written; {@link #NOT_CONVERTIBLE} for doses that cannot be converted
+	 * @throws ArithmeticException if a result would overflow
+	 * @throws IllegalArgumentException if an ordinal does not correspond to a value of {@link Units} or {@link Frequency}
+	 */
+	public static void nanogramsPerDay(long[] scaledDoses, byte[] units, byte[] frequencies, long[] result) {
+		_checkLengths(scaledDoses.length, units.length, frequencies.length, result.length);
+		int n = FREQUENCIES.length;
+		for (int i=0; i<scaledDoses.length; i++) {
+			int u = units[i];
+			int f = frequencies[i];
+			if (u < 0 || u >= UNITS.length || f < 0 || f >= n) {
+				throw new IllegalArgumentException("Invalid units or frequency ordinal at index " + i);
+			}
+			result[i] = _convert(scaledDoses[i], u * n + f);
+		}
+	}
+
+	private static long _convert(long scaledDose, int i) {
+		long numerator = _numerators[i];
+		if (numerator == 0) {
+			return NOT_CONVERTIBLE;
+		}
+		long denominator = _denominators[i];
+		return Math.floorDiv(Math.addExact(Math.multiplyExact(scaledDose, numerator), denominator / 2), denominator);
+	}
+
+	private static void _checkLengths(int doses, int units, int frequencies, int result) {
+		if (units != doses || frequencies != doses || result < doses) {
+			throw new IllegalArgumentException("Arrays must be of equal length");
+		}
+	}
+
+	/*
+	 * dose * conversion * 1000 * numerator / denominator, rounded only when the division does not terminate.
+	 */
+	private static BigDecimal _exactMilligramsPerDay(BigDecimal dose, Units units, Frequency frequency) {
+		if (units.prescribingType() != PrescribingType.DOSE_BASED) {
+			return null;
+		}
+		BigDecimal result = dose.multiply(BigDecimal.valueOf(scaledConversion(units)))
+				.multiply(MILLIGRAMS_PER_SCALED_UNIT)
+				.multiply(BigDecimal.valueOf(frequency.perDayNumerator()));
+		return frequency.perDayDenominator() == 1 ? result
+				: result.divide(BigDecimal.valueOf(frequency.perDayDenominator()), MathContext.DECIMAL64);
+	}
+}
@@ -0,0 +1,272 @@
+package com.eldrix.terminology.medicine;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.exp.ExpressionFactory;
+import org.apache.cayenne.query.ObjectSelect;
+import org.apache.lucene.index.CorruptIndexException;
+
+import com.eldrix.terminology.metrics.Metrics;
+import com.eldrix.terminology.snomedct.Concept;
+import com.eldrix.terminology.snomedct.Description;
+import com.eldrix.terminology.snomedct.Search;
+import com.eldrix.terminology.snomedct.Search.ResultItem;
+import com.eldrix.terminology.snomedct.semantic.Dmd.Product;
+import com.eldrix.terminology.snomedct.semantic.DmdGraph;
+
+/**
+ * Resolves free-text drug names, such as "amlodipine", to a SNOMED-CT medication concept.
+ *
+ * Most medication lines name one of a few hundred common drugs, so the preferred terms and synonyms
+ * of every DM&D VTM, VMP and AMP are held in an in-memory dictionary, keyed by a normalised form of the term.
+ * Only names that are not found in the dictionary are searched for using the Lucene index, and those results
+ * are kept in a bounded least-recently-used cache.
+ *
+ * Where a term is shared by more than one product, a VTM is preferred to a VMP and a VMP to an AMP,
+ * and a preferred term to a synonym.
+ *
+ * Objects of this class are thread-safe. Usually, a shared instance is obtained using getInstance(). Once loaded,
+ * {@link ParsedMedicationBuilder} and {@link BatchMedicationParser} use the shared resolver automatically.
+ *
+ * @author Mark Wardle
+ */
+public class DrugNameResolver {
+	private static final int DEFAULT_CACHE_SIZE = 10000;
+	private static final String CONCEPT_ID_COLUMN = "concept_id";
+	private static final String TERM_COLUMN = "term";
+	private static final String DESCRIPTION_TYPE_COLUMN = "description_type_code";
+	private static final String DESCRIPTION_STATUS_COLUMN = "description_status_code";
+	private static final String CONCEPT_STATUS_PATH = "concept.concept_status_code";
+	private static final Metrics.Counter _dictionaryHits = Metrics.counter("rsterminology_cache_requests_total", "Cache lookups", "cache", "drug_names", "result", "dictionary");
+	private static final Metrics.Counter _cacheHits = Metrics.counter("rsterminology_cache_requests_total", "Cache lookups", "cache", "drug_names", "result", "hit");
+	private static final Metrics.Counter _cacheMisses = Metrics.counter("rsterminology_cache_requests_total", "Cache lookups", "cache", "drug_names", "result", "miss");
+	private static volatile DrugNameResolver _instance;
+
+	private final Map<String, Entry> _dictionary;
+	private final Map<String, Optional<ResultItem>> _cache;
+
+	private DrugNameResolver(Map<String, Entry> dictionary, int cacheSize) {
+		_dictionary = dictionary;
+		_cache = new LinkedHashMap<String, Optional<ResultItem>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Optional<ResultItem>> eldest) {
+				return size() > cacheSize;
+			}
+		};
+	}
+
+	/**
+	 * Return a shared instance, loading the dictionary from the database if it has not already been loaded.
+	 * @param context
+	 * @return
+	 */
+	public static DrugNameResolver getInstance(ObjectContext context) {
+		DrugNameResolver result = _instance;
+		if (result == null) {
+			synchronized(DrugNameResolver.class) {
+				result = _instance;
+				if (result == null) {
+					_instance = result = load(context);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Return the shared instance, or null if it has not yet been loaded.
+	 */
+	public static DrugNameResolver current() {
+		return _instance;
+	}
+
+	/**
+	 * Load the dictionary from the active preferred terms and synonyms of active DM&D products in the database.
+	 * @param context
+	 * @return
+	 */
+	public static DrugNameResolver load(ObjectContext context) {
+		DmdGraph graph = DmdGraph.getInstance(context);
+		Builder b = new Builder();
+		List<Integer> activeCodes = Description.Status.activeCodes();
+		ObjectSelect.dataRowQuery(Description.class,
+				ExpressionFactory.inDbExp(DESCRIPTION_TYPE_COLUMN, Description.Type.PREFERRED.code, Description.Type.SYNONYM.code)
+				.andExp(ExpressionFactory.inDbExp(CONCEPT_STATUS_PATH, Concept.Status.activeCodes())))
+		.iterate(context, row -> {
+			long conceptId = (Long) row.get(CONCEPT_ID_COLUMN);
+			Product product = graph.productForConcept(conceptId);
+			if (product != null && activeCodes.contains(row.get(DESCRIPTION_STATUS_COLUMN))) {
+				boolean preferred = Description.Type.PREFERRED.code == (Integer) row.get(DESCRIPTION_TYPE_COLUMN);
+				b.add(conceptId, product, (String) row.get(TERM_COLUMN), preferred);
+			}
+		});
+		return b.build();
+	}
+
+	/**
+	 * Return the number of distinct normalised terms in the dictionary.
+	 */
+	public int size() {
+		return _dictionary.size();
+	}
+
+	/**
+	 * Resolve the drug name using the dictionary, falling back to a search of the index specified.
+	 * @param search
+	 * @param drugName
+	 * @return the best matching concept, or null
+	 * @throws CorruptIndexException
+	 * @throws IOException
+	 */
+	public ResultItem resolve(Search search, String drugName) throws CorruptIndexException, IOException {
+		ResultItem result = lookup(drugName);
+		if (result != null) {
+			_dictionaryHits.increment();
+			return result;
+		}
+		Optional<ResultItem> cached;
+		synchronized(_cache) {
+			cached = _cache.get(drugName);
+		}
+		if (cached != null) {
+			_cacheHits.increment();
+		} else {
+			_cacheMisses.increment();
+			cached = Optional.ofNullable(ParsedMedicationBuilder._searchIndex(search, drugName));
+			synchronized(_cache) {
+				_cache.put(drugName, cached);
+			}
+		}
+		return cached.orElse(null);
+	}
+
+	/**
+	 * Resolve the drug name using only the dictionary.
+	 * @param drugName
+	 * @return the matching concept, or null
+	 */
+	public ResultItem lookup(String drugName) {
+		Entry e = _dictionary.get(normalise(drugName));
+		return e == null ? null : Search.resultForConcept(e.conceptId, e.term, e.preferredTerm);
+	}
+
+	/**
+	 * Return the number of index searches currently cached.
+	 */
+	public int cacheSize() {
+		synchronized(_cache) {
+			return _cache.size();
+		}
+	}
+
+	/**
+	 * Normalise a term for matching: lower-case, with punctuation other than "/", "." and "%"
+	 * treated as whitespace and runs of whitespace collapsed to a single space.
+	 */
+	static String normalise(String term) {
+		StringBuilder sb = new StringBuilder(term.length());
+		boolean space = false;
+		for (int i=0; i<term.length(); i++) {
+			char c = term.charAt(i);
+			if (Character.isLetterOrDigit(c) || c == '/' || c == '.' || c == '%') {
+				if (space && sb.length() > 0) {
+					sb.append(' ');
+				}
+				sb.append(Character.toLowerCase(c));
+				space = false;
+			} else {
+				space = true;
+			}
+		}
+		return sb.toString();
+	}
+
+	private static class Entry {
+		final long conceptId;
+		final String term;
+		final Product product;
+		final boolean preferred;
+		String preferredTerm;
+
+		Entry(long conceptId, String term, Product product, boolean preferred) {
+			this.conceptId = conceptId;
+			this.term = term;
+			this.product = product;
+			this.preferred = preferred;
+		}
+
+		/*
+		 * Should this entry be used instead of the other for the same normalised term?
+		 */
+		boolean isBetterThan(Entry other) {
+			if (product != other.product) {
+				return _rank(product) < _rank(other.product);
+			}
+			if (preferred != other.preferred) {
+				return preferred;
+			}
+			return conceptId < other.conceptId;
+		}
+
+		private static int _rank(Product product) {
+			switch (product) {
+			case VIRTUAL_THERAPEUTIC_MOIETY:
+				return 0;
+			case VIRTUAL_MEDICINAL_PRODUCT:
+				return 1;
+			default:
+				return 2;
+			}
+		}
+	}
+
+	/**
+	 * Builds a resolver from the terms of VTMs, VMPs and AMPs. Terms for other products are ignored.
+	 */
+	public static class Builder {
+		private final HashMap<String, Entry> _dictionary = new HashMap<>();
+		private final HashMap<Long, String> _preferredTerms = new HashMap<>();
+		private int _cacheSize = DEFAULT_CACHE_SIZE;
+
+		public Builder add(long conceptId, Product product, String term, boolean preferred) {
+			if (product != Product.VIRTUAL_THERAPEUTIC_MOIETY && product != Product.VIRTUAL_MEDICINAL_PRODUCT
+					&& product != Product.ACTUAL_MEDICINAL_PRODUCT) {
+				return this;
+			}
+			if (preferred) {
+				_preferredTerms.putIfAbsent(conceptId, term);
+			}
+			String key = normalise(term);
+			if (key.length() > 0) {
+				Entry e = new Entry(conceptId, term, product, preferred);
+				Entry existing = _dictionary.get(key);
+				if (existing == null || e.isBetterThan(existing)) {
+					_dictionary.put(key, e);
+				}
+			}
+			return this;
+		}
+
+		/**
+		 * Set the maximum number of index searches to cache.
+		 */
+		public Builder cacheSize(int cacheSize) {
+			_cacheSize = cacheSize;
+			return this;
+		}
+
+		public DrugNameResolver build() {
+			for (Entry e : _dictionary.values()) {
+				e.preferredTerm = _preferredTerms.getOrDefault(e.conceptId, e.term);
+			}
+			return new DrugNameResolver(new HashMap<>(_dictionary), _cacheSize);
+		}
+	}
+}
@@ -8,121 +8,31 @@ import java.util.HashMap;
 public class Medication {
 
 	public enum Frequency {
-		PER_HOUR(286551008L, "/hour", "/hr", "/h","every-hour") {
-			@Override
-			BigDecimal equivalentDailyDose(BigDecimal dose) {
-				return dose.multiply(new BigDecimal(24));
-			}
-		},
-		TWELVE_TIMES_DAILY(396106003L, "12/day", "12/d","twelve-times-daily") {
-			@Override
-			BigDecimal equivalentDailyDose(BigDecimal dose) {
-				return dose.multiply(new BigDecimal(12));
-			}
-		},
-		TEN_TIMES_DAILY(396105004L, "10/day", "10/d","ten-times-daily") {
-			@Override
-			BigDecimal equivalentDailyDose(BigDecimal dose) {
-				return dose.multiply(new BigDecimal(10));
-			}
-		},
-		NINE_TIMES_DAILY(396115005L, "9/day", "9/d","nine-times-daily") {
-			@Override
-			BigDecimal equivalentDailyDose(BigDecimal dose) {
-				return dose.multiply(new BigDecimal(9));
-			}
-		},
-		EIGHT_TIMES_DAILY(307443002L, "8/day", "8/d","eight-times-daily") {
-			@Override
-			BigDecimal equivalentDailyDose(BigDecimal dose) {
-				return dose.multiply(new BigDecimal(8));
-			}
-		},
-		SEVEN_TIMES_DAILY(307442007L, "7/day", "7/d","seven-times-daily") {
-			@Override
-			BigDecimal equivalentDailyDose(BigDecimal dose) {
-				return dose.multiply(new BigDecimal(7));
-			}
-		},
-		SIX_TIMES_DAILY(307441000L, "6/day", "6/d","six-times-daily") {
-			@Override
-			BigDecimal equivalentDailyDose(BigDecimal dose) {
-				return dose.multiply(new BigDecimal(6));
-			}
-		},
-		FIVE_TIMES_DAILY(307440004L, "5/day", "5/d","five-times-daily") {
-			@Override
-			BigDecimal equivalentDailyDose(BigDecimal dose) {
-				return dose.multiply(new BigDecimal(5));
-			}
-		},
-		FOUR_TIMES_DAILY(307439001L, "qds", "4/day", "4/d", "four-times-daily") {
-			@Override
-			BigDecimal equivalentDailyDose(BigDecimal dose) {
-				return dose.multiply(new BigDecimal(4));
-			}
-		},
-		THREE_TIMES_DAILY(229798009L, "tds", "tid", "3/day", "3/d", "three-times-daily") {
-			@Override
-			BigDecimal equivalentDailyDose(BigDecimal dose) {
-				return dose.multiply(new BigDecimal(3));
-			}
-		},
-		TWICE_DAILY(229799001L, "bd", "bid", "2/day", "2/d","twice-daily", "two-times-daily") {
-			@Override
-			BigDecimal equivalentDailyDose(BigDecimal dose) {
-				return dose.multiply(new BigDecimal(2));
-			}
-		},
-		ONCE_DAILY(229797004L, "od", "1/day", "1/d","once-daily", "one-time-daily") {
-			@Override
-			BigDecimal equivalentDailyDose(BigDecimal dose) {
-				return dose;
-			}
-		},
-		ALTERNATE_DAYS(225760004L, "altdays", "alt", "alternate-days") {
-			@Override
-			BigDecimal equivalentDailyDose(BigDecimal dose) {
-				return dose.divide(new BigDecimal(2), 4, RoundingMode.UP);
-			}
-		},
-		ONCE_WEEKLY(225769003L, "/week", "/w", "/wk", "1/w", "once-every-week") {
-			@Override
-			BigDecimal equivalentDailyDose(BigDecimal dose) {
-				return dose.divide(new BigDecimal(7), 4, RoundingMode.UP);
-			}
-		},
-		ONCE_TWO_WEEKLY(20050000L, "/2weeks", "/2w", "/2wk", "once-every-two-weeks") {
-			@Override
-			BigDecimal equivalentDailyDose(BigDecimal dose) {
-				return dose.divide(new BigDecimal(14), 4, RoundingMode.UP);
-			}
-		},
-		ONCE_MONTHLY(307450003L, "/month", "/m", "/mo", "1/m", "once-every-month") {
-			@Override
-			BigDecimal equivalentDailyDose(BigDecimal dose) {
-				return dose.divide(new BigDecimal(30), 1, RoundingMode.UP);
-			}
-		},
-		ONCE_TWO_MONTHLY(445547001L, "/2months", "/2m", "/2mo", "once-every-two-months") {
-			@Override
-			BigDecimal equivalentDailyDose(BigDecimal dose) {
-				return dose.divide(new BigDecimal(60), 1, RoundingMode.UP);
-			}
-		},
-		ONCE_THREE_MONTHLY(396129006L, "/3months", "/3m", "/3mo", "once-every-three-months") {
-			@Override
-			BigDecimal equivalentDailyDose(BigDecimal dose) {
-				return dose.divide(new BigDecimal(90), 1, RoundingMode.UP);
-			}
-		},
-		ONCE_YEARLY(307455008L, "/year", "/y", "/yr", "once-every-year") {
-			@Override
-			BigDecimal equivalentDailyDose(BigDecimal dose) {
-				return dose.divide(new BigDecimal(365), 1, RoundingMode.UP);
-			}
-		};
+		PER_HOUR(286551008L, 24, 1, 0, "/hour", "/hr", "/h","every-hour"),
+		TWELVE_TIMES_DAILY(396106003L, 12, 1, 0, "12/day", "12/d","twelve-times-daily"),
+		TEN_TIMES_DAILY(396105004L, 10, 1, 0, "10/day", "10/d","ten-times-daily"),
+		NINE_TIMES_DAILY(396115005L, 9, 1, 0, "9/day", "9/d","nine-times-daily"),
+		EIGHT_TIMES_DAILY(307443002L, 8, 1, 0, "8/day", "8/d","eight-times-daily"),
+		SEVEN_TIMES_DAILY(307442007L, 7, 1, 0, "7/day", "7/d","seven-times-daily"),
+		SIX_TIMES_DAILY(307441000L, 6, 1, 0, "6/day", "6/d","six-times-daily"),
+		FIVE_TIMES_DAILY(307440004L, 5, 1, 0, "5/day", "5/d","five-times-daily"),
+		FOUR_TIMES_DAILY(307439001L, 4, 1, 0, "qds", "4/day", "4/d", "four-times-daily"),
+		THREE_TIMES_DAILY(229798009L, 3, 1, 0, "tds", "tid", "3/day", "3/d", "three-times-daily"),
+		TWICE_DAILY(229799001L, 2, 1, 0, "bd", "bid", "2/day", "2/d","twice-daily", "two-times-daily"),
+		ONCE_DAILY(229797004L, 1, 1, 0, "od", "1/day", "1/d","once-daily", "one-time-daily"),
+		ALTERNATE_DAYS(225760004L, 1, 2, 4, "altdays", "alt", "alternate-days"),
+		ONCE_WEEKLY(225769003L, 1, 7, 4, "/week", "/w", "/wk", "1/w", "once-every-week"),
+		ONCE_TWO_WEEKLY(20050000L, 1, 14, 4, "/2weeks", "/2w", "/2wk", "once-every-two-weeks"),
+		ONCE_MONTHLY(307450003L, 1, 30, 1, "/month", "/m", "/mo", "1/m", "once-every-month"),
+		ONCE_TWO_MONTHLY(445547001L, 1, 60, 1, "/2months", "/2m", "/2mo", "once-every-two-months"),
+		ONCE_THREE_MONTHLY(396129006L, 1, 90, 1, "/3months", "/3m", "/3mo", "once-every-three-months"),
+		ONCE_YEARLY(307455008L, 1, 365, 1, "/year", "/y", "/yr", "once-every-year");
 		private final long _conceptId;
+		private final int _perDayNumerator;
+		private final int _perDayDenominator;
+		private final int _scale;
+		private final BigDecimal _numerator;
+		private final BigDecimal _denominator;
 		private final String[] _names;
 		@SuppressWarnings("serial")
 		private static final HashMap<String, Medication.Frequency> _frequencies = new HashMap<String, Medication.Frequency>() {
@@ -135,12 +45,25 @@ public class Medication {
 			}
 		};
 
-		Frequency(long conceptId, String... names) {
+		/**
+		 * Define a frequency.
+		 * @param conceptId - SNOMED-CT concept
+		 * @param perDayNumerator - numerator of the number of doses per day
+		 * @param perDayDenominator - denominator of the number of doses per day
+		 * @param scale - scale of the equivalent daily dose when it must be divided
+		 * @param names - names, the first of which is the title
+		 */
+		Frequency(long conceptId, int perDayNumerator, int perDayDenominator, int scale, String... names) {
 			if (names.length == 0) {
 				throw new IllegalStateException(
 						"Each medication frequency must have at least one name");
 			}
 			_conceptId = conceptId;
+			_perDayNumerator = perDayNumerator;
+			_perDayDenominator = perDayDenominator;
+			_scale = scale;
+			_numerator = BigDecimal.valueOf(perDayNumerator);
+			_denominator = BigDecimal.valueOf(perDayDenominator);
 			_names = names;
 		}
 
@@ -160,7 +83,30 @@ public class Medication {
 			return _frequencies.get(name);
 		}
 
-		abstract BigDecimal equivalentDailyDose(BigDecimal dose);
+		/**
+		 * Return the numerator of the number of doses per day, e.g. 3 for "tds" or 1 for "/week".
+		 */
+		public int perDayNumerator() {
+			return _perDayNumerator;
+		}
+
+		/**
+		 * Return the denominator of the number of doses per day, e.g. 1 for "tds" or 7 for "/week".
+		 */
+		public int perDayDenominator() {
+			return _perDayDenominator;
+		}
+
+		/**
+		 * Return the equivalent daily dose, rounding up at the scale of the frequency if the dose must be divided.
+		 * See {@link DailyDose} for exact arithmetic over many doses.
+		 */
+		BigDecimal equivalentDailyDose(BigDecimal dose) {
+			if (_perDayDenominator == 1) {
+				return _perDayNumerator == 1 ? dose : dose.multiply(_numerator);
+			}
+			return dose.multiply(_numerator).divide(_denominator, _scale, RoundingMode.UP);
+		}
 	}
 
 	public enum PrescribingType {
@@ -169,7 +115,7 @@ public class Medication {
 	}
 
 	public enum Units {
-		MICROGRAM(PrescribingType.DOSE_BASED, 258685003L, new String[] { "mcg" }, new BigDecimal("0.00001")),
+		MICROGRAM(PrescribingType.DOSE_BASED, 258685003L, new String[] { "mcg" }, new BigDecimal("0.000001")),
 		MILLIGRAM(PrescribingType.DOSE_BASED, 258684004L, new String[] { "mg" }, new BigDecimal("0.001")),
 		MILLILITRES(PrescribingType.PRODUCT_BASED, 258773002L, new String[] { "ml" }, new BigDecimal("0.001")),
 		GRAM(PrescribingType.DOSE_BASED, 258682000L, new String[] { "g", "gram" }, BigDecimal.ONE),
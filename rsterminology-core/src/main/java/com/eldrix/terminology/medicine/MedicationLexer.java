@@ -0,0 +1,339 @@
+package com.eldrix.terminology.medicine;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+import com.eldrix.terminology.medicine.Medication.Frequency;
+import com.eldrix.terminology.medicine.Medication.Route;
+import com.eldrix.terminology.medicine.Medication.Units;
+import com.eldrix.terminology.medicine.ParsedMedicationBuilder.DosingToken;
+
+/**
+ * A single-pass lexer for free-text medication strings such as "amlodipine 5mg od".
+ *
+ * The input is lower-cased and split into tokens in a re-usable character buffer, with the same
+ * semantics as the StrTokenizer configuration previously used: tokens are separated by whitespace
+ * and text within single or double quotes is kept together. Each token is then classified using
+ * keyword tries built from the {@link Medication} enums (frequency, route and "prn") and a
+ * hand-written matcher for a dose and its units, so that no objects are created until the
+ * strings and BigDecimal for the final result are needed.
+ *
+ * Lexers are not thread-safe; use {@link #get()} to obtain an instance for the current thread.
+ *
+ * @author Mark Wardle
+ */
+final class MedicationLexer {
+	private static final int KIND_AS_REQUIRED = 1;
+	private static final int KIND_FREQUENCY = 2;
+	private static final int KIND_ROUTE = 3;
+	private static final String AS_REQUIRED = "prn";
+	/*
+	 * The units recognised after a dose. This is deliberately narrower than the abbreviations
+	 * known to Units, as only these may be written directly after a number (e.g. "5mg", "2p").
+	 */
+	private static final String[] DOSE_UNITS = new String[] { "mg", "mcg", "g", "u", "units", "t", "tab", "tablets", "puffs", "p", "puff" };
+	private static final Frequency[] FREQUENCIES = Frequency.values();
+	private static final Route[] ROUTES = Route.values();
+	private static final Units[] UNITS = Units.values();
+	private static final Trie KEYWORDS = new Trie();
+	private static final Trie DOSE_UNIT_TRIE = new Trie();
+	static {
+		KEYWORDS.put(AS_REQUIRED, _encode(KIND_AS_REQUIRED, 0));
+		for (Frequency f : FREQUENCIES) {
+			for (String name : f.names()) {
+				KEYWORDS.put(name, _encode(KIND_FREQUENCY, f.ordinal()));
+			}
+		}
+		for (Route r : ROUTES) {
+			KEYWORDS.put(r.abbreviation().toLowerCase(), _encode(KIND_ROUTE, r.ordinal()));
+		}
+		for (String abbreviation : DOSE_UNITS) {
+			DOSE_UNIT_TRIE.put(abbreviation, Units.unitForAbbreviation(abbreviation).ordinal());
+		}
+	}
+	private static final ThreadLocal<MedicationLexer> _lexers = ThreadLocal.withInitial(MedicationLexer::new);
+
+	private char[] _chars = new char[128];
+	private int[] _starts = new int[16];
+	private int[] _ends = new int[16];
+	private int _count;
+	private int _doseEnd;		// end of the numeric part of the last dose matched
+
+	/**
+	 * Return a lexer for use by the current thread.
+	 */
+	static MedicationLexer get() {
+		return _lexers.get();
+	}
+
+	/**
+	 * Split the string into lower-case tokens.
+	 * @param s
+	 * @return the number of tokens
+	 */
+	int tokenize(String s) {
+		int length = s.length();
+		if (_chars.length < length) {
+			_chars = new char[Math.max(length, _chars.length * 2)];
+		}
+		_count = 0;
+		int n = 0;			// characters written to buffer
+		int i = 0;
+		while (i < length) {
+			char c = s.charAt(i);
+			if (c <= ' ') {
+				i++;
+				continue;
+			}
+			int start = n;
+			int trimmedEnd = n;
+			while (i < length) {
+				c = s.charAt(i);
+				if (c == '"' || c == '\'') {
+					// quoted section: copy literally up to the matching quote; a doubled quote is an escaped quote
+					char quote = c;
+					i++;
+					while (i < length) {
+						c = s.charAt(i);
+						if (c == quote) {
+							if (i + 1 < length && s.charAt(i + 1) == quote) {
+								_chars[n++] = Character.toLowerCase(c);
+								i += 2;
+								continue;
+							}
+							i++;
+							break;
+						}
+						_chars[n++] = Character.toLowerCase(c);
+						i++;
+					}
+					trimmedEnd = n;
+				} else if (c <= ' ') {
+					break;
+				} else {
+					_chars[n++] = Character.toLowerCase(c);
+					trimmedEnd = n;
+					i++;
+				}
+			}
+			if (trimmedEnd > start) {
+				_addToken(start, trimmedEnd);
+			}
+			n = trimmedEnd;
+		}
+		return _count;
+	}
+
+	private void _addToken(int start, int end) {
+		if (_count == _starts.length) {
+			_starts = Arrays.copyOf(_starts, _count * 2);
+			_ends = Arrays.copyOf(_ends, _count * 2);
+		}
+		_starts[_count] = start;
+		_ends[_count] = end;
+		_count++;
+	}
+
+	/**
+	 * Return the specified token as a string.
+	 */
+	String token(int i) {
+		return new String(_chars, _starts[i], _ends[i] - _starts[i]);
+	}
+
+	/**
+	 * Return all tokens as strings.
+	 */
+	String[] tokens() {
+		String[] result = new String[_count];
+		for (int i=0; i<_count; i++) {
+			result[i] = token(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Parse the medication string into the builder specified.
+	 *
+	 * All tokens before the first recognised token (dose, frequency, route or "prn") are taken as the drug name.
+	 * Recognised tokens are then consumed until the first unrecognised token, after which all remaining
+	 * tokens are taken as notes.
+	 */
+	void parse(String s, ParsedMedicationBuilder builder) {
+		int count = tokenize(s);
+		boolean asRequired = false;
+		int frequency = -1, route = -1, doseUnit = -1, doseToken = -1, doseEnd = -1;
+		int drugNameEnd = count;
+		int notesStart = count;
+		for (int i=0; i<count; i++) {
+			int start = _starts[i];
+			int end = _ends[i];
+			int keyword = KEYWORDS.get(_chars, start, end);
+			int kind = keyword < 0 ? 0 : keyword >>> 16;
+			if (kind == KIND_AS_REQUIRED) {
+				asRequired = true;
+			} else if (kind == KIND_FREQUENCY) {
+				frequency = keyword & 0xFFFF;
+			} else {
+				int unit = kind == 0 ? _matchDose(_chars, start, end) : -1;
+				if (unit >= 0) {
+					doseUnit = unit;
+					doseToken = i;
+					doseEnd = _doseEnd;
+				} else if (kind == KIND_ROUTE) {
+					route = keyword & 0xFFFF;
+				} else if (drugNameEnd == count) {
+					continue;		// still part of the drug name
+				} else {
+					notesStart = i;
+					break;
+				}
+			}
+			if (drugNameEnd == count) {
+				drugNameEnd = i;
+			}
+		}
+		builder._conceptId = null;
+		builder._drugName = _join(0, drugNameEnd);
+		if (doseToken >= 0) {
+			builder._dose = new BigDecimal(_chars, _starts[doseToken], doseEnd - _starts[doseToken]);
+			builder._units = UNITS[doseUnit];
+		} else {
+			builder._dose = null;
+			builder._units = null;
+		}
+		builder._frequency = frequency >= 0 ? FREQUENCIES[frequency] : null;
+		builder._route = route >= 0 ? ROUTES[route] : null;
+		builder._asRequired = asRequired;
+		builder._notes = notesStart < count ? _join(notesStart, count) : null;
+	}
+
+	/*
+	 * Join the tokens in the range specified with a single space, trimming the result.
+	 */
+	private String _join(int from, int to) {
+		if (from >= to) {
+			return "";
+		}
+		StringBuilder sb = new StringBuilder(_ends[to-1] - _starts[from] + to - from);
+		for (int i=from; i<to; i++) {
+			if (i > from) {
+				sb.append(' ');
+			}
+			sb.append(_chars, _starts[i], _ends[i] - _starts[i]);
+		}
+		return sb.toString().trim();
+	}
+
+	/**
+	 * Match a dose and units, such as "5mg" or "2.5 mg".
+	 * @return the dosing token or null if the string is not a dose
+	 */
+	DosingToken matchDosing(String token) {
+		int length = token.length();
+		if (_chars.length < length) {
+			_chars = new char[Math.max(length, _chars.length * 2)];
+		}
+		token.getChars(0, length, _chars, 0);
+		int unit = _matchDose(_chars, 0, length);
+		return unit < 0 ? null : new DosingToken(new BigDecimal(_chars, 0, _doseEnd), UNITS[unit]);
+	}
+
+	/*
+	 * Match digits, an optional decimal point and further digits, optional whitespace and then units.
+	 * Returns the ordinal of the units, recording the end of the numeric part, or -1 if there is no match.
+	 */
+	private int _matchDose(char[] chars, int start, int end) {
+		int i = start;
+		while (i < end && chars[i] >= '0' && chars[i] <= '9') {
+			i++;
+		}
+		if (i == start) {
+			return -1;
+		}
+		if (i < end && chars[i] == '.') {
+			i++;
+			while (i < end && chars[i] >= '0' && chars[i] <= '9') {
+				i++;
+			}
+		}
+		int numberEnd = i;
+		while (i < end && _isSpace(chars[i])) {
+			i++;
+		}
+		int unit = DOSE_UNIT_TRIE.get(chars, i, end);
+		if (unit >= 0) {
+			_doseEnd = numberEnd;
+		}
+		return unit;
+	}
+
+	private static boolean _isSpace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+
+	private static int _encode(int kind, int ordinal) {
+		return kind << 16 | ordinal;
+	}
+
+	/**
+	 * A keyword trie over ASCII characters, held as a flat array of transitions.
+	 * Lookups return the value stored for the exact key or -1.
+	 */
+	static final class Trie {
+		private static final int ALPHABET = 128;
+		private int[] _next = new int[ALPHABET * 16];
+		private int[] _values = new int[16];
+		private int _nodes = 1;
+
+		Trie() {
+			Arrays.fill(_values, -1);
+		}
+
+		void put(String key, int value) {
+			int node = 0;
+			for (int i=0; i<key.length(); i++) {
+				char c = key.charAt(i);
+				if (c >= ALPHABET) {
+					throw new IllegalArgumentException("Only ASCII keywords supported: " + key);
+				}
+				int next = _next[node * ALPHABET + c];
+				if (next == 0) {
+					next = _newNode();
+					_next[node * ALPHABET + c] = next;
+				}
+				node = next;
+			}
+			if (_values[node] < 0) {
+				_values[node] = value;
+			}
+		}
+
+		private int _newNode() {
+			if (_nodes == _values.length) {
+				_values = Arrays.copyOf(_values, _nodes * 2);
+				Arrays.fill(_values, _nodes, _values.length, -1);
+				_next = Arrays.copyOf(_next, _nodes * 2 * ALPHABET);
+			}
+			return _nodes++;
+		}
+
+		int get(char[] chars, int start, int end) {
+			if (start >= end) {
+				return -1;
+			}
+			int node = 0;
+			for (int i=start; i<end; i++) {
+				char c = chars[i];
+				if (c >= ALPHABET) {
+					return -1;
+				}
+				node = _next[node * ALPHABET + c];
+				if (node == 0) {
+					return -1;
+				}
+			}
+			return _values[node];
+		}
+	}
+}
@@ -3,11 +3,7 @@ package com.eldrix.terminology.medicine;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
-import org.apache.commons.lang3.text.StrMatcher;
-import org.apache.commons.lang3.text.StrTokenizer;
 import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.queryparser.classic.ParseException;
 
@@ -32,8 +28,6 @@ import com.eldrix.terminology.snomedct.Search.ResultItem;
  *
  */
 public class ParsedMedicationBuilder {
-	private final static String DOSING_PATTERN_STRING = "(\\p{Digit}+\\.?\\p{Digit}*)\\p{Space}*(mg|mcg|g|u|units|unit|t|tab|tablets|puffs|p|puff)";
-	private final static Pattern DOSING_PATTERN = Pattern.compile(DOSING_PATTERN_STRING);
 	private final static long MED_PARENT_CONCEPT_ID=373873005L;
 	String _drugName;
 	BigDecimal _dose;
@@ -153,13 +147,9 @@ public class ParsedMedicationBuilder {
 	}
 
 	static String[] _tokenizeString(String string) {
-		final StrTokenizer _tokenizer = new StrTokenizer().
-				setDelimiterMatcher(StrMatcher.trimMatcher()).
-				setQuoteMatcher(StrMatcher.quoteMatcher()).
-				setTrimmerMatcher(StrMatcher.trimMatcher()).
-				setIgnoredMatcher(StrMatcher.quoteMatcher());
-		_tokenizer.reset(string.toLowerCase());
-		return _tokenizer.getTokenArray();
+		MedicationLexer lexer = MedicationLexer.get();
+		lexer.tokenize(string);
+		return lexer.tokens();
 	}
 
 	/**
@@ -173,74 +163,12 @@ public class ParsedMedicationBuilder {
 	 * amlodipine 5mg od
 	 *
 	 * We track the first appropriate parsed token and then assume all tokens before that reflect the
-	 * drug name.
+	 * drug name. See {@link MedicationLexer}.
 	 * @param string
 	 * @return
 	 */
 	static void _parseString(ParsedMedicationBuilder builder, String string) {
-		String[] tokens = _tokenizeString(string);
-		int numberTokens = tokens.length;
-		boolean asRequired = false, _asRequired = false;
-		Frequency frequency = null, _frequency = null;
-		DosingToken dosing = null, _dosing = null;
-		Route route = null, _route = null;
-		StringBuilder drugName = new StringBuilder();
-		StringBuilder notes = new StringBuilder();
-		boolean makingDrugName = true;
-		boolean makingNotes = false;
-		for (int i=0; i < numberTokens; i++) {
-			String token = tokens[i];
-			if (makingNotes) {
-				notes.append(token);
-				notes.append(" ");
-			} else {
-				_asRequired = matchAsRequired(token);
-				if (_asRequired) {
-					asRequired = _asRequired;
-					makingDrugName = false;
-				}
-				else {
-					_frequency = matchFrequency(token);
-					if (_frequency != null) {
-						frequency = _frequency;
-						makingDrugName = false;
-					}
-					else {
-						_dosing = matchDosing(token);
-						if (_dosing != null) {
-							dosing = _dosing;
-							makingDrugName = false;
-						}
-						else {
-							_route = matchRoute(token);
-							if (_route != null) {
-								route = _route;
-								makingDrugName = false;
-							}
-							else if (makingDrugName) {
-								drugName.append(token);
-								drugName.append(" ");
-							}
-							else {
-								makingNotes = true;
-								notes.append(token);
-								notes.append(" ");
-							}
-						}
-					}
-				}
-			}
-		}
-		builder._conceptId = null;
-		builder._drugName = drugName.toString().trim();
-		if (dosing != null) {
-			builder._dose = dosing.dose();
-			builder._units = dosing.units();
-		}
-		builder._frequency = frequency;
-		builder._route = route;
-		builder._asRequired = asRequired;
-		builder._notes = notes.length() > 0 ? notes.toString().trim() : null;
+		MedicationLexer.get().parse(string, builder);
 	}
 
 	/**
@@ -255,23 +183,7 @@ public class ParsedMedicationBuilder {
 		return Frequency.frequencyWithName(token);
 	}
 	static DosingToken matchDosing(String token) {
-		Matcher matcher = DOSING_PATTERN.matcher(token);
-		if (matcher.matches()) {
-			int count = matcher.groupCount();
-			if (count == 2) {
-				try {
-					BigDecimal dose = new BigDecimal(matcher.group(1));
-					Units units = Units.unitForAbbreviation(matcher.group(2));
-					if (dose != null && units != null) {
-						return new DosingToken(dose, units);
-					}
-				}
-				catch(NumberFormatException e) {
-					; //NOP
-				}
-			}
-		}
-		return null;
+		return MedicationLexer.get().matchDosing(token);
 	}
 
 	static Route matchRoute(String token) {
@@ -301,7 +213,15 @@ public class ParsedMedicationBuilder {
 	}
 
 
+	/**
+	 * Find the medication concept for the drug name, using the shared {@link DrugNameResolver} if it has been loaded.
+	 */
 	static ResultItem _searchForMedicationConcept(Search search, String drugName) throws CorruptIndexException, IOException {
+		DrugNameResolver resolver = DrugNameResolver.current();
+		return resolver != null ? resolver.resolve(search, drugName) : _searchIndex(search, drugName);
+	}
+
+	static ResultItem _searchIndex(Search search, String drugName) throws CorruptIndexException, IOException {
 		return _search(search, drugName, new long[]{MED_PARENT_CONCEPT_ID});
 	}
 
@@ -0,0 +1,309 @@
+package com.eldrix.terminology.metrics;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * A minimal registry of application metrics, published in the Prometheus text exposition format.
+ *
+ * Metrics are identified by name and an optional list of label names and values, and are created on first use,
+ * so instrumented code simply asks for the metric it needs, e.g.
+ * <pre>
+ * Metrics.timer("rsterminology_search_seconds", "Search latency", "shape", "text").recordSince(start);
+ * </pre>
+ * Callers on hot paths should keep a reference to the metric rather than looking it up each time.
+ * Recording is lock-free and safe to use from multiple threads.
+ *
+ * @author Mark Wardle
+ */
+public final class Metrics {
+	/**
+	 * Default histogram buckets for timers, in seconds.
+	 */
+	public static final double[] DEFAULT_TIMER_BUCKETS = new double[] { 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10 };
+	private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+	private static final ConcurrentSkipListMap<String, Family> _families = new ConcurrentSkipListMap<>();
+
+	private Metrics() {}
+
+	/**
+	 * Return the counter with the name and labels specified, creating it if necessary.
+	 * @param name - metric name, by convention ending in "_total"
+	 * @param help - a description of the metric
+	 * @param labels - label names and values, alternately
+	 */
+	public static Counter counter(String name, String help, String... labels) {
+		return (Counter) _family(name, help, "counter").metric(labels, () -> new Counter());
+	}
+
+	/**
+	 * Return the histogram with the name, buckets and labels specified, creating it if necessary.
+	 * @param buckets - upper bounds of each bucket, in ascending order
+	 */
+	public static Histogram histogram(String name, String help, double[] buckets, String... labels) {
+		return (Histogram) _family(name, help, "histogram").metric(labels, () -> new Histogram(buckets));
+	}
+
+	/**
+	 * Return the timer with the name and labels specified, creating it if necessary.
+	 * A timer is a histogram of durations in seconds, using the default buckets.
+	 * @param name - metric name, by convention ending in "_seconds"
+	 */
+	public static Histogram timer(String name, String help, String... labels) {
+		return histogram(name, help, DEFAULT_TIMER_BUCKETS, labels);
+	}
+
+	/**
+	 * Register a gauge whose value is obtained when metrics are published, replacing any existing gauge
+	 * with the same name and labels.
+	 */
+	public static void gauge(String name, String help, DoubleSupplier value, String... labels) {
+		_family(name, help, "gauge").register(labels, new Gauge(value));
+	}
+
+	/**
+	 * Write all metrics in the Prometheus text exposition format (version 0.0.4).
+	 * @param out
+	 * @throws IOException
+	 */
+	public static void write(Appendable out) throws IOException {
+		for (Family f : _families.values()) {
+			f.write(out);
+		}
+	}
+
+	/**
+	 * Return all metrics in the Prometheus text exposition format.
+	 */
+	public static String scrape() {
+		StringBuilder sb = new StringBuilder();
+		try {
+			write(sb);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);		// not possible with a StringBuilder
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Remove all metrics. Instrumented code holding references to metrics will continue to update them
+	 * but they will no longer be published.
+	 */
+	public static void clear() {
+		_families.clear();
+	}
+
+	private static Family _family(String name, String help, String type) {
+		Family f = _families.computeIfAbsent(name, n -> new Family(n, help, type));
+		if (!f.type.equals(type)) {
+			throw new IllegalArgumentException("Metric " + name + " is already registered as a " + f.type);
+		}
+		return f;
+	}
+
+	/**
+	 * A monotonically increasing count.
+	 */
+	public static final class Counter implements Metric {
+		private final LongAdder _count = new LongAdder();
+
+		public void increment() {
+			_count.increment();
+		}
+
+		public void increment(long n) {
+			_count.add(n);
+		}
+
+		public long get() {
+			return _count.sum();
+		}
+
+		@Override
+		public void write(Appendable out, String name, String labels) throws IOException {
+			_sample(out, name, labels, null, null, get());
+		}
+	}
+
+	/**
+	 * A distribution of observed values, counted into buckets.
+	 */
+	public static final class Histogram implements Metric {
+		private final double[] _bounds;
+		private final LongAdder[] _buckets;
+		private final LongAdder _count = new LongAdder();
+		private final DoubleAdder _sum = new DoubleAdder();
+
+		Histogram(double[] bounds) {
+			_bounds = bounds.clone();
+			_buckets = new LongAdder[bounds.length];
+			for (int i=0; i<_buckets.length; i++) {
+				_buckets[i] = new LongAdder();
+			}
+		}
+
+		public void observe(double value) {
+			int i = Arrays.binarySearch(_bounds, value);
+			if (i < 0) {
+				i = -i - 1;			// first bound greater than the value
+			}
+			if (i < _buckets.length) {
+				_buckets[i].increment();
+			}
+			_count.increment();
+			_sum.add(value);
+		}
+
+		/**
+		 * Record a duration in seconds.
+		 * @param nanos - duration in nanoseconds
+		 */
+		public void recordNanos(long nanos) {
+			observe(nanos / NANOS_PER_SECOND);
+		}
+
+		/**
+		 * Record the duration since the time specified.
+		 * @param startNanos - start time, from System.nanoTime()
+		 */
+		public void recordSince(long startNanos) {
+			recordNanos(System.nanoTime() - startNanos);
+		}
+
+		public long getCount() {
+			return _count.sum();
+		}
+
+		public double getSum() {
+			return _sum.sum();
+		}
+
+		@Override
+		public void write(Appendable out, String name, String labels) throws IOException {
+			long cumulative = 0;
+			for (int i=0; i<_bounds.length; i++) {
+				cumulative += _buckets[i].sum();
+				_sample(out, name + "_bucket", labels, "le", _format(_bounds[i]), cumulative);
+			}
+			long count = getCount();
+			_sample(out, name + "_bucket", labels, "le", "+Inf", Math.max(count, cumulative));
+			_sample(out, name + "_sum", labels, null, null, getSum());
+			_sample(out, name + "_count", labels, null, null, count);
+		}
+	}
+
+	private static final class Gauge implements Metric {
+		private final DoubleSupplier _value;
+
+		Gauge(DoubleSupplier value) {
+			_value = value;
+		}
+
+		@Override
+		public void write(Appendable out, String name, String labels) throws IOException {
+			_sample(out, name, labels, null, null, _value.getAsDouble());
+		}
+	}
+
+	private interface Metric {
+		void write(Appendable out, String name, String labels) throws IOException;
+	}
+
+	private static final class Family {
+		final String name;
+		final String help;
+		final String type;
+		final ConcurrentHashMap<String, Metric> metrics = new ConcurrentHashMap<>();
+
+		Family(String name, String help, String type) {
+			this.name = name;
+			this.help = help;
+			this.type = type;
+		}
+
+		Metric metric(String[] labels, Supplier<Metric> factory) {
+			return metrics.computeIfAbsent(_labels(labels), l -> factory.get());
+		}
+
+		void register(String[] labels, Metric metric) {
+			metrics.put(_labels(labels), metric);
+		}
+
+		void write(Appendable out) throws IOException {
+			if (metrics.isEmpty()) {
+				return;
+			}
+			out.append("# HELP ").append(name).append(' ').append(_escape(help, false)).append('\n');
+			out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+			for (Map.Entry<String, Metric> e : new ConcurrentSkipListMap<>(metrics).entrySet()) {
+				e.getValue().write(out, name, e.getKey());
+			}
+		}
+	}
+
+	/*
+	 * Format label names and values as name1="value1",name2="value2".
+	 */
+	private static String _labels(String[] labels) {
+		if (labels.length % 2 != 0) {
+			throw new IllegalArgumentException("Labels must be specified as name and value pairs");
+		}
+		StringBuilder sb = new StringBuilder();
+		for (int i=0; i<labels.length; i+=2) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append(labels[i]).append("=\"").append(_escape(String.valueOf(labels[i+1]), true)).append('"');
+		}
+		return sb.toString();
+	}
+
+	private static void _sample(Appendable out, String name, String labels, String extraName, String extraValue, double value) throws IOException {
+		out.append(name);
+		if (labels.length() > 0 || extraName != null) {
+			out.append('{').append(labels);
+			if (extraName != null) {
+				out.append(labels.length() > 0 ? "," : "").append(extraName).append("=\"").append(extraValue).append('"');
+			}
+			out.append('}');
+		}
+		out.append(' ').append(_format(value)).append('\n');
+	}
+
+	private static String _format(double value) {
+		if (value == (long) value) {
+			return Long.toString((long) value);
+		}
+		if (Double.isNaN(value)) {
+			return "NaN";
+		}
+		if (Double.isInfinite(value)) {
+			return value > 0 ? "+Inf" : "-Inf";
+		}
+		return Double.toString(value);
+	}
+
+	private static String _escape(String s, boolean quotes) {
+		StringBuilder sb = new StringBuilder(s.length());
+		for (int i=0; i<s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '\\') {
+				sb.append("\\\\");
+			} else if (c == '\n') {
+				sb.append("\\n");
+			} else if (c == '"' && quotes) {
+				sb.append("\\\"");
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+}
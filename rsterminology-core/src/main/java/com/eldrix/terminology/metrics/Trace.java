@@ -0,0 +1,213 @@
+package com.eldrix.terminology.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A record of the SQL statements and Lucene queries executed while handling a single request, with the time
+ * taken for each, to help find queries issued repeatedly (e.g. when faulting relationships one at a time).
+ *
+ * A trace is bound to the current thread between {@link #start()} and {@link #stop()}; while no trace
+ * is active, recording does nothing.
+ *
+ * @author Mark Wardle
+ */
+public final class Trace {
+	public static final String SQL = "sql";
+	public static final String LUCENE = "lucene";
+	private static final int MAXIMUM_ENTRIES = 1000;
+	private static final ThreadLocal<Trace> _current = new ThreadLocal<>();
+
+	private final long _start = System.nanoTime();
+	private long _end;
+	private final ArrayList<Entry> _entries = new ArrayList<>();
+	private int _dropped;
+	private String _pendingSql;
+	private long _pendingStart;
+
+	private Trace() {}
+
+	/**
+	 * Start a new trace for the current thread, replacing any existing trace.
+	 */
+	public static Trace start() {
+		Trace t = new Trace();
+		_current.set(t);
+		return t;
+	}
+
+	/**
+	 * Return the active trace for the current thread, or null.
+	 */
+	public static Trace current() {
+		return _current.get();
+	}
+
+	/**
+	 * Is a trace active for the current thread?
+	 */
+	public static boolean isActive() {
+		return _current.get() != null;
+	}
+
+	/**
+	 * Stop tracing the current thread.
+	 * @return the trace, or null if there was no active trace
+	 */
+	public static Trace stop() {
+		Trace t = _current.get();
+		_current.remove();
+		if (t != null) {
+			t._finishPending();
+			t._end = System.nanoTime();
+		}
+		return t;
+	}
+
+	/**
+	 * Record an operation in the active trace, if there is one.
+	 * @param kind - e.g. {@link #SQL} or {@link #LUCENE}
+	 * @param text - the statement or query
+	 * @param nanos - time taken
+	 */
+	public static void record(String kind, String text, long nanos) {
+		Trace t = _current.get();
+		if (t != null) {
+			t._add(new Entry(kind, text, nanos));
+		}
+	}
+
+	/**
+	 * Record the start of a SQL statement in the active trace; it is recorded when {@link #sqlFinished()} is called.
+	 */
+	public static void sqlStarted(String sql) {
+		Trace t = _current.get();
+		if (t != null) {
+			t._finishPending();
+			t._pendingSql = sql;
+			t._pendingStart = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Record the end of the current SQL statement in the active trace.
+	 */
+	public static void sqlFinished() {
+		Trace t = _current.get();
+		if (t != null) {
+			t._finishPending();
+		}
+	}
+
+	private void _finishPending() {
+		if (_pendingSql != null) {
+			_add(new Entry(SQL, _pendingSql, System.nanoTime() - _pendingStart));
+			_pendingSql = null;
+		}
+	}
+
+	private void _add(Entry e) {
+		if (_entries.size() < MAXIMUM_ENTRIES) {
+			_entries.add(e);
+		} else {
+			_dropped++;
+		}
+	}
+
+	/**
+	 * Return the operations recorded, in order.
+	 */
+	public List<Entry> getEntries() {
+		return Collections.unmodifiableList(_entries);
+	}
+
+	/**
+	 * Return the number of operations of the kind specified. At most 1000 operations are kept.
+	 */
+	public int count(String kind) {
+		int n = 0;
+		for (Entry e : _entries) {
+			if (e.kind.equals(kind)) {
+				n++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Return the total time taken by operations of the kind specified, in nanoseconds.
+	 */
+	public long nanos(String kind) {
+		long n = 0;
+		for (Entry e : _entries) {
+			if (e.kind.equals(kind)) {
+				n += e.nanos;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Return the time from the start of the trace until it was stopped, or until now if still active, in nanoseconds.
+	 */
+	public long elapsedNanos() {
+		return (_end != 0 ? _end : System.nanoTime()) - _start;
+	}
+
+	/**
+	 * Return a one-line summary, e.g. "total=52ms sql=12/31ms lucene=1/5ms".
+	 */
+	public String summary() {
+		return "total=" + _millis(elapsedNanos()) + "ms"
+				+ " sql=" + count(SQL) + "/" + _millis(nanos(SQL)) + "ms"
+				+ " lucene=" + count(LUCENE) + "/" + _millis(nanos(LUCENE)) + "ms";
+	}
+
+	/**
+	 * Return the summary followed by each operation on a separate line.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(summary());
+		for (Entry e : _entries) {
+			sb.append("\n  ").append(e);
+		}
+		if (_dropped > 0) {
+			sb.append("\n  ... ").append(_dropped).append(" more");
+		}
+		return sb.toString();
+	}
+
+	private static String _millis(long nanos) {
+		return String.valueOf(nanos / 1_000_000);
+	}
+
+	/**
+	 * A single traced operation.
+	 */
+	public static final class Entry {
+		private final String kind;
+		private final String text;
+		private final long nanos;
+
+		Entry(String kind, String text, long nanos) {
+			this.kind = kind;
+			this.text = text;
+			this.nanos = nanos;
+		}
+		public String getKind() {
+			return kind;
+		}
+		public String getText() {
+			return text;
+		}
+		public long getNanos() {
+			return nanos;
+		}
+		@Override
+		public String toString() {
+			return kind + " " + String.format("%.3f", nanos / 1_000_000.0) + "ms: " + text;
+		}
+	}
+}
@@ -0,0 +1,482 @@
+package com.eldrix.terminology.snomedct;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.exp.ExpressionFactory;
+import org.apache.cayenne.query.ObjectSelect;
+
+import com.eldrix.terminology.snomedct.Relationship.CharacteristicType;
+import com.eldrix.terminology.snomedct.semantic.RelationType;
+
+/**
+ * An in-memory index of the attribute (non IS-A) relationships of all concepts, such as
+ * "has active ingredient" or "finding site", for answering attribute queries without SQL.
+ *
+ * Relationships are held as parallel arrays of source, target and role group, referring to concepts by their
+ * internal index in a {@link Hierarchy}. They are grouped by relationship type and sorted by target within each type,
+ * which gives an inverted index from (type, target) to sources, and a forward table lists the relationships
+ * of each source concept in order of type and target.
+ * Relationships involving concepts that are not in the hierarchy are ignored.
+ * By default, only defining and additional relationships are loaded; qualifying and historical relationships
+ * (e.g. "same as" or "was a" for inactive concepts) are not attributes of a concept's meaning.
+ *
+ * Role groups are taken from the relationship group of each relationship. A relationship in group 0 is
+ * ungrouped and is treated as if it were in a group of its own.
+ *
+ * @author Mark Wardle
+ */
+public class Attributes {
+	private static final String SOURCE_CONCEPT_ID_COLUMN = "source_concept_id";
+	private static final String TARGET_CONCEPT_ID_COLUMN = "target_concept_id";
+	private static final String RELATIONSHIP_TYPE_COLUMN = "relationship_type_concept_id";
+	private static final String RELATIONSHIP_GROUP_COLUMN = "relationship_group";
+	private static final String CHARACTERISTIC_TYPE_COLUMN = "characteristic_type";
+	private static final CharacteristicType[] DEFAULT_CHARACTERISTIC_TYPES = { CharacteristicType.DEFINING, CharacteristicType.ADDITIONAL };
+	private static final long[] EMPTY = new long[0];
+	private static final long UNGROUPED = 1L << 31;		// added to the row number to give ungrouped relationships a group of their own
+	private static volatile Attributes _instance;
+
+	private final Hierarchy _hierarchy;
+	private final long[] _typeIds;			// sorted relationship type concept identifiers
+	private final int[] _typeOffsets;		// offsets into the relationship arrays for each type, with a final sentinel
+	private final int[] _sources;			// index of source concept for each relationship
+	private final int[] _targets;			// index of target concept for each relationship
+	private final int[] _groups;			// role group for each relationship
+	private final int[] _forwardOffsets;	// offsets into _forward for each concept, with a final sentinel
+	private final int[] _forward;			// relationships for each source concept, in order of type and target
+
+	private Attributes(Hierarchy hierarchy, long[] typeIds, int[] typeOffsets, int[] sources, int[] targets, int[] groups) {
+		_hierarchy = hierarchy;
+		_typeIds = typeIds;
+		_typeOffsets = typeOffsets;
+		_sources = sources;
+		_targets = targets;
+		_groups = groups;
+		_forwardOffsets = new int[hierarchy.size() + 1];
+		for (int source : sources) {
+			_forwardOffsets[source + 1]++;
+		}
+		for (int i=0; i<hierarchy.size(); i++) {
+			_forwardOffsets[i+1] += _forwardOffsets[i];
+		}
+		_forward = new int[sources.length];
+		int[] position = Arrays.copyOf(_forwardOffsets, hierarchy.size());
+		for (int row=0; row<sources.length; row++) {
+			_forward[position[sources[row]]++] = row;
+		}
+	}
+
+	/**
+	 * Return a shared instance, loading the relationships from the database if they have not already been loaded.
+	 * @param context
+	 * @return
+	 */
+	public static Attributes getInstance(ObjectContext context) {
+		Attributes result = _instance;
+		if (result == null) {
+			synchronized(Attributes.class) {
+				result = _instance;
+				if (result == null) {
+					_instance = result = load(context);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Return the shared instance if it has already been loaded.
+	 * @return the shared instance or null
+	 */
+	public static Attributes current() {
+		return _instance;
+	}
+
+	/**
+	 * Load the defining and additional attribute relationships from the database, using the shared hierarchy.
+	 * @param context
+	 * @return
+	 */
+	public static Attributes load(ObjectContext context) {
+		return load(context, DEFAULT_CHARACTERISTIC_TYPES);
+	}
+
+	/**
+	 * Load the attribute relationships of the specified characteristic types from the database, using the shared hierarchy.
+	 * @param context
+	 * @param types
+	 * @return
+	 */
+	public static Attributes load(ObjectContext context, CharacteristicType... types) {
+		Builder b = new Builder(Hierarchy.getInstance(context));
+		ObjectSelect.dataRowQuery(Relationship.class,
+				ExpressionFactory.noMatchDbExp(RELATIONSHIP_TYPE_COLUMN, RelationType.IS_A.conceptId)
+				.andExp(ExpressionFactory.inDbExp(CHARACTERISTIC_TYPE_COLUMN, Stream.of(types).map(t -> t.code).toArray())))
+		.iterate(context, row -> {
+			b.add((Long) row.get(SOURCE_CONCEPT_ID_COLUMN), (Long) row.get(RELATIONSHIP_TYPE_COLUMN),
+					(Long) row.get(TARGET_CONCEPT_ID_COLUMN), _group((String) row.get(RELATIONSHIP_GROUP_COLUMN)));
+		});
+		return b.build();
+	}
+
+	private static int _group(String group) {
+		try {
+			return group == null ? 0 : Integer.parseInt(group.trim());
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Return the hierarchy whose concepts these relationships refer to.
+	 */
+	public Hierarchy hierarchy() {
+		return _hierarchy;
+	}
+
+	/**
+	 * Return the number of relationships.
+	 */
+	public int size() {
+		return _sources.length;
+	}
+
+	/**
+	 * Return the relationship types in use, in order of concept identifier.
+	 */
+	public long[] types() {
+		return _typeIds.clone();
+	}
+
+	/**
+	 * Return the concepts that have a relationship of the specified type with the specified target,
+	 * e.g. all products with a given active ingredient.
+	 * @return sorted concept identifiers
+	 */
+	public long[] sources(long typeConceptId, long targetConceptId) {
+		int t = Arrays.binarySearch(_typeIds, typeConceptId);
+		int target = _hierarchy.indexOf(targetConceptId);
+		if (t < 0 || target < 0) {
+			return EMPTY;
+		}
+		int from = _firstWithTarget(t, target);
+		long[] result = new long[16];
+		int n = 0;
+		for (int row=from; row<_typeOffsets[t+1] && _targets[row] == target; row++) {
+			if (n == 0 || _sources[row] != _sources[row-1]) {
+				if (n == result.length) {
+					result = Arrays.copyOf(result, n * 2);
+				}
+				result[n++] = _hierarchy.conceptId(_sources[row]);
+			}
+		}
+		return Arrays.copyOf(result, n);
+	}
+
+	/**
+	 * Return the targets of the relationships of the specified type from the specified concept,
+	 * e.g. the active ingredients of a product.
+	 * @return sorted concept identifiers
+	 */
+	public long[] targets(long sourceConceptId, long typeConceptId) {
+		int source = _hierarchy.indexOf(sourceConceptId);
+		if (source < 0) {
+			return EMPTY;
+		}
+		long[] result = new long[_forwardOffsets[source+1] - _forwardOffsets[source]];
+		int n = 0;
+		for (int j=_forwardOffsets[source]; j<_forwardOffsets[source+1]; j++) {
+			int row = _forward[j];
+			if (_typeIds[_typeOf(row)] == typeConceptId && (n == 0 || result[n-1] != _hierarchy.conceptId(_targets[row]))) {
+				result[n++] = _hierarchy.conceptId(_targets[row]);
+			}
+		}
+		return Arrays.copyOf(result, n);
+	}
+
+	/**
+	 * Return all of the attribute relationships of the specified concept, in order of type and target.
+	 */
+	public List<Attribute> attributes(long sourceConceptId) {
+		int source = _hierarchy.indexOf(sourceConceptId);
+		if (source < 0) {
+			return Collections.emptyList();
+		}
+		ArrayList<Attribute> result = new ArrayList<>(_forwardOffsets[source+1] - _forwardOffsets[source]);
+		for (int j=_forwardOffsets[source]; j<_forwardOffsets[source+1]; j++) {
+			int row = _forward[j];
+			result.add(new Attribute(_typeIds[_typeOf(row)], _hierarchy.conceptId(_targets[row]), _groups[row]));
+		}
+		return result;
+	}
+
+	/**
+	 * Return the concepts that have a relationship of one of the specified types with a target in the set specified.
+	 * @param types - relationship types
+	 * @param targets - permitted targets
+	 * @param negate - if true, instead return concepts that have such a relationship with a target not in the set
+	 * @return
+	 */
+	public ConceptSet sources(ConceptSet types, ConceptSet targets, boolean negate) {
+		BitSet result = new BitSet(_hierarchy.size());
+		BitSet permitted = _hierarchy.bits(targets);
+		for (int t=0; t<_typeIds.length; t++) {
+			if (!types.contains(_typeIds[t])) {
+				continue;
+			}
+			if (!negate && permitted.cardinality() < (_typeOffsets[t+1] - _typeOffsets[t]) / 16) {
+				// few targets, so use the inverted index rather than scanning all relationships of the type
+				for (int target = permitted.nextSetBit(0); target >= 0; target = permitted.nextSetBit(target+1)) {
+					for (int row=_firstWithTarget(t, target); row<_typeOffsets[t+1] && _targets[row] == target; row++) {
+						result.set(_sources[row]);
+					}
+				}
+			} else {
+				for (int row=_typeOffsets[t]; row<_typeOffsets[t+1]; row++) {
+					if (permitted.get(_targets[row]) != negate) {
+						result.set(_sources[row]);
+					}
+				}
+			}
+		}
+		return _hierarchy.conceptSet(result);
+	}
+
+	/**
+	 * Return the concepts that are the targets of relationships of one of the specified types from a source in the set specified.
+	 * This is used for reverse attributes, e.g. the ingredients of a set of products.
+	 * @param types - relationship types
+	 * @param sources - permitted sources
+	 * @param negate - if true, instead return targets of such relationships from a source not in the set
+	 * @return
+	 */
+	public ConceptSet targets(ConceptSet types, ConceptSet sources, boolean negate) {
+		BitSet result = new BitSet(_hierarchy.size());
+		BitSet permitted = _hierarchy.bits(sources);
+		for (int t=0; t<_typeIds.length; t++) {
+			if (types.contains(_typeIds[t])) {
+				for (int row=_typeOffsets[t]; row<_typeOffsets[t+1]; row++) {
+					if (permitted.get(_sources[row]) != negate) {
+						result.set(_targets[row]);
+					}
+				}
+			}
+		}
+		return _hierarchy.conceptSet(result);
+	}
+
+	/**
+	 * Return the role groups that have a relationship of one of the specified types with a target in the set specified,
+	 * as sorted, distinct keys that combine the source concept with the group. Keys may be intersected to find
+	 * concepts with several attributes in the same role group and converted to concepts using {@link #sourcesOf(long[])}.
+	 */
+	long[] groups(ConceptSet types, ConceptSet targets, boolean negate) {
+		BitSet permitted = _hierarchy.bits(targets);
+		long[] result = new long[64];
+		int n = 0;
+		for (int t=0; t<_typeIds.length; t++) {
+			if (types.contains(_typeIds[t])) {
+				for (int row=_typeOffsets[t]; row<_typeOffsets[t+1]; row++) {
+					if (permitted.get(_targets[row]) != negate) {
+						if (n == result.length) {
+							result = Arrays.copyOf(result, n * 2);
+						}
+						result[n++] = ((long) _sources[row] << 32) | (_groups[row] != 0 ? _groups[row] : UNGROUPED + row);
+					}
+				}
+			}
+		}
+		Arrays.sort(result, 0, n);
+		int distinct = 0;
+		for (int i=0; i<n; i++) {
+			if (i == 0 || result[i] != result[i-1]) {
+				result[distinct++] = result[i];
+			}
+		}
+		return Arrays.copyOf(result, distinct);
+	}
+
+	/**
+	 * Return the concepts of role group keys from {@link #groups(ConceptSet, ConceptSet, boolean)}.
+	 */
+	ConceptSet sourcesOf(long[] groups) {
+		BitSet result = new BitSet(_hierarchy.size());
+		for (long key : groups) {
+			result.set((int) (key >>> 32));
+		}
+		return _hierarchy.conceptSet(result);
+	}
+
+	/*
+	 * Return the first row of the specified type with the specified target, or the row at which it would be.
+	 */
+	private int _firstWithTarget(int t, int target) {
+		int low = _typeOffsets[t], high = _typeOffsets[t+1];
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (_targets[mid] < target) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private int _typeOf(int row) {
+		int t = Arrays.binarySearch(_typeOffsets, row);
+		if (t < 0) {
+			return -t - 2;
+		}
+		while (_typeOffsets[t+1] == row) {		// skip types with no relationships
+			t++;
+		}
+		return t;
+	}
+
+	/**
+	 * A single attribute relationship of a concept.
+	 */
+	public static final class Attribute {
+		private final long typeId;
+		private final long targetId;
+		private final int group;
+
+		Attribute(long typeId, long targetId, int group) {
+			this.typeId = typeId;
+			this.targetId = targetId;
+			this.group = group;
+		}
+		public long getTypeId() {
+			return typeId;
+		}
+		public long getTargetId() {
+			return targetId;
+		}
+		/**
+		 * Return the role group, or 0 if the relationship is ungrouped.
+		 */
+		public int getGroup() {
+			return group;
+		}
+		@Override
+		public String toString() {
+			return group + ":" + typeId + "=" + targetId;
+		}
+	}
+
+	/**
+	 * Builds an index from a list of relationships.
+	 */
+	public static class Builder {
+		private final Hierarchy _hierarchy;
+		private long[] _types = new long[1024];
+		private int[] _sources = new int[1024];
+		private int[] _targets = new int[1024];
+		private int[] _groups = new int[1024];
+		private int _size;
+
+		public Builder(Hierarchy hierarchy) {
+			_hierarchy = hierarchy;
+		}
+
+		public Builder add(long sourceConceptId, long typeConceptId, long targetConceptId) {
+			return add(sourceConceptId, typeConceptId, targetConceptId, 0);
+		}
+
+		public Builder add(long sourceConceptId, long typeConceptId, long targetConceptId, int group) {
+			int source = _hierarchy.indexOf(sourceConceptId);
+			int target = _hierarchy.indexOf(targetConceptId);
+			if (source < 0 || target < 0) {
+				return this;
+			}
+			if (_size == _types.length) {
+				_types = Arrays.copyOf(_types, _size * 2);
+				_sources = Arrays.copyOf(_sources, _size * 2);
+				_targets = Arrays.copyOf(_targets, _size * 2);
+				_groups = Arrays.copyOf(_groups, _size * 2);
+			}
+			_types[_size] = typeConceptId;
+			_sources[_size] = source;
+			_targets[_size] = target;
+			_groups[_size] = group;
+			_size++;
+			return this;
+		}
+
+		public Attributes build() {
+			long[] typeIds = Arrays.copyOf(_types, _size);
+			Arrays.sort(typeIds);
+			int types = 0;
+			for (int i=0; i<_size; i++) {
+				if (i == 0 || typeIds[i] != typeIds[i-1]) {
+					typeIds[types++] = typeIds[i];
+				}
+			}
+			typeIds = Arrays.copyOf(typeIds, types);
+			int[] counts = new int[types + 1];
+			int[] typeOf = new int[_size];
+			for (int i=0; i<_size; i++) {
+				typeOf[i] = Arrays.binarySearch(typeIds, _types[i]);
+				counts[typeOf[i] + 1]++;
+			}
+			for (int t=0; t<types; t++) {
+				counts[t+1] += counts[t];
+			}
+			int[] order = new int[_size];		// relationships in order of type
+			int[] position = Arrays.copyOf(counts, types);
+			for (int i=0; i<_size; i++) {
+				order[position[typeOf[i]]++] = i;
+			}
+			int[] typeOffsets = new int[types + 1];
+			int[] sources = new int[_size];
+			int[] targets = new int[_size];
+			int[] groups = new int[_size];
+			int n = 0;
+			for (int t=0; t<types; t++) {
+				typeOffsets[t] = n;
+				long[] packed = new long[counts[t+1] - counts[t]];		// target and source, for sorting
+				for (int j=counts[t]; j<counts[t+1]; j++) {
+					packed[j - counts[t]] = ((long) _targets[order[j]] << 32) | _sources[order[j]];
+				}
+				int[] rows = _sortedRows(packed, order, counts[t]);
+				for (int k=0; k<rows.length; k++) {
+					int i = rows[k];
+					if (n > typeOffsets[t] && targets[n-1] == _targets[i] && sources[n-1] == _sources[i] && groups[n-1] == _groups[i]) {
+						continue;		// duplicate
+					}
+					sources[n] = _sources[i];
+					targets[n] = _targets[i];
+					groups[n] = _groups[i];
+					n++;
+				}
+			}
+			typeOffsets[types] = n;
+			return new Attributes(_hierarchy, typeIds, typeOffsets,
+					Arrays.copyOf(sources, n), Arrays.copyOf(targets, n), Arrays.copyOf(groups, n));
+		}
+
+		/*
+		 * Return the relationships of a type ordered by target, source and group.
+		 */
+		private int[] _sortedRows(long[] packed, int[] order, int offset) {
+			Integer[] positions = new Integer[packed.length];
+			for (int i=0; i<packed.length; i++) {
+				positions[i] = i;
+			}
+			Arrays.sort(positions, (a, b) -> packed[a] != packed[b] ? Long.compare(packed[a], packed[b])
+					: Integer.compare(_groups[order[offset + a]], _groups[order[offset + b]]));
+			int[] result = new int[packed.length];
+			for (int i=0; i<packed.length; i++) {
+				result[i] = order[offset + positions[i]];
+			}
+			return result;
+		}
+	}
+}
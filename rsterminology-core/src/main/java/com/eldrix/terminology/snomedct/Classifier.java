@@ -0,0 +1,153 @@
+package com.eldrix.terminology.snomedct;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * Classifies large numbers of concepts against a fixed set of root concepts, such as
+ * deciding which of several hundred condition roots each of millions of coded events falls under.
+ *
+ * The descendants of every root are found once, using the in-memory {@link Hierarchy}, and inverted into
+ * a table that lists the matching roots for each concept. Classifying a concept is then a single lookup,
+ * so work is independent of the number of roots and needs no database access.
+ * Bulk classification is split across all processors using the common fork-join pool.
+ *
+ * A concept matches a root if it is the root or one of its descendants. Concepts and roots that are not in
+ * the hierarchy match nothing.
+ *
+ * Objects of this class are immutable and thread-safe.
+ *
+ * @author Mark Wardle
+ */
+public class Classifier {
+	private static final long[] EMPTY = new long[0];
+	private final Hierarchy _hierarchy;
+	private final long[] _roots;		// sorted root concept identifiers
+	private final int[] _offsets;		// offsets into _matches for each concept, with a final sentinel
+	private final int[] _matches;		// indices into _roots of the roots matched by each concept
+
+	/**
+	 * Create a classifier for the specified roots.
+	 * @param hierarchy
+	 * @param rootConceptIds
+	 */
+	public Classifier(Hierarchy hierarchy, long... rootConceptIds) {
+		_hierarchy = hierarchy;
+		_roots = LongStream.of(rootConceptIds).filter(hierarchy::contains).sorted().distinct().toArray();
+		BitSet[] descendants = new BitSet[_roots.length];
+		IntStream.range(0, _roots.length).parallel().forEach(r -> {
+			descendants[r] = hierarchy.bits(hierarchy.descendants(hierarchy.conceptSet(_roots[r]), true));
+		});
+		_offsets = new int[hierarchy.size() + 1];
+		for (BitSet bits : descendants) {
+			for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i+1)) {
+				_offsets[i+1]++;
+			}
+		}
+		for (int i=0; i<hierarchy.size(); i++) {
+			_offsets[i+1] += _offsets[i];
+		}
+		_matches = new int[_offsets[hierarchy.size()]];
+		int[] position = Arrays.copyOf(_offsets, hierarchy.size());
+		for (int r=0; r<_roots.length; r++) {
+			BitSet bits = descendants[r];
+			for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i+1)) {
+				_matches[position[i]++] = r;
+			}
+		}
+	}
+
+	/**
+	 * Return the roots used for classification, in order of concept identifier.
+	 */
+	public long[] roots() {
+		return _roots.clone();
+	}
+
+	/**
+	 * Return the roots matched by the specified concept.
+	 * @param conceptId
+	 * @return sorted root concept identifiers
+	 */
+	public long[] classify(long conceptId) {
+		int i = _hierarchy.indexOf(conceptId);
+		if (i < 0 || _offsets[i] == _offsets[i+1]) {
+			return EMPTY;
+		}
+		long[] result = new long[_offsets[i+1] - _offsets[i]];
+		for (int j=_offsets[i]; j<_offsets[i+1]; j++) {
+			result[j - _offsets[i]] = _roots[_matches[j]];
+		}
+		return result;
+	}
+
+	/**
+	 * Return the roots matched by each of the specified concepts, classifying in parallel.
+	 * @param conceptIds
+	 * @return the matching roots for each concept, in the order given
+	 */
+	public long[][] classify(long[] conceptIds) {
+		long[][] result = new long[conceptIds.length][];
+		Arrays.parallelSetAll(result, i -> classify(conceptIds[i]));
+		return result;
+	}
+
+	/**
+	 * Classify a stream of concepts in parallel.
+	 * Use forEachOrdered() on the result to process classifications in the order of the input.
+	 * @param conceptIds
+	 * @return
+	 */
+	public Stream<Classification> classify(LongStream conceptIds) {
+		return conceptIds.parallel().mapToObj(id -> new Classification(id, classify(id)));
+	}
+
+	/**
+	 * Return the number of the specified concepts that match each root, counting in parallel.
+	 * @param conceptIds
+	 * @return counts, in the same order as {@link #roots()}
+	 */
+	public long[] count(LongStream conceptIds) {
+		return conceptIds.parallel().collect(() -> new long[_roots.length], (counts, id) -> {
+			int i = _hierarchy.indexOf(id);
+			if (i >= 0) {
+				for (int j=_offsets[i]; j<_offsets[i+1]; j++) {
+					counts[_matches[j]]++;
+				}
+			}
+		}, (a, b) -> {
+			for (int r=0; r<a.length; r++) {
+				a[r] += b[r];
+			}
+		});
+	}
+
+	/**
+	 * The roots matched by a single concept.
+	 */
+	public static final class Classification {
+		private final long conceptId;
+		private final long[] roots;
+
+		Classification(long conceptId, long[] roots) {
+			this.conceptId = conceptId;
+			this.roots = roots;
+		}
+		public long getConceptId() {
+			return conceptId;
+		}
+		public long[] getRoots() {
+			return roots.clone();
+		}
+		public boolean isEmpty() {
+			return roots.length == 0;
+		}
+		@Override
+		public String toString() {
+			return conceptId + ": " + Arrays.toString(roots);
+		}
+	}
+}
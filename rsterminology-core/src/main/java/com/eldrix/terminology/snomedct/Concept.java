@@ -11,7 +11,6 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
 
-import org.apache.cayenne.exp.Expression;
 import org.apache.cayenne.exp.Property;
 import org.apache.cayenne.validation.BeanValidationFailure;
 import org.apache.cayenne.validation.ValidationResult;
@@ -174,8 +173,14 @@ public class Concept extends _Concept {
 	 * @return
 	 */
 	public List<Relationship> getParentRelationshipsOfType(long conceptId) {
-		Expression qual = Relationship.RELATIONSHIP_TYPE_CONCEPT.dot(Concept.CONCEPT_ID).eq(conceptId);
-		return qual.filterObjects(getParentRelationships());
+		List<Relationship> result = new ArrayList<>();
+		for (Relationship r : getParentRelationships()) {
+			Long typeConceptId = r.getRelationshipTypeConceptId();
+			if (typeConceptId != null && typeConceptId == conceptId) {
+				result.add(r);
+			}
+		}
+		return result;
 	}
 
 	/**
@@ -248,6 +253,41 @@ public class Concept extends _Concept {
 				.collect(Collectors.collectingAndThen(Collectors.toList(), Collections::unmodifiableList));
 	}
 
+	/**
+	 * Return the length of the shortest IS-A path from this concept to the root.
+	 * This, and the other statistics, are precomputed for all concepts using the in-memory hierarchy.
+	 * @see ConceptStatistics
+	 */
+	public int getMinDepth() {
+		return _statistics().minDepth(getConceptId());
+	}
+
+	/**
+	 * Return the length of the longest IS-A path from this concept to the root.
+	 */
+	public int getMaxDepth() {
+		return _statistics().maxDepth(getConceptId());
+	}
+
+	/**
+	 * Return the number of descendants of this concept.
+	 */
+	public int getDescendantCount() {
+		return _statistics().descendantCount(getConceptId());
+	}
+
+	/**
+	 * Return the information content of this concept, from 0 for the root to the highest for leaf concepts.
+	 */
+	public double getInformationContent() {
+		return _statistics().informationContent(getConceptId());
+	}
+
+	private ConceptStatistics _statistics() {
+		ConceptStatistics result = ConceptStatistics.current();
+		return result != null ? result : ConceptStatistics.getInstance(getObjectContext());
+	}
+
 	/**
 	 * This determines a list of concept identifiers that are the recursive parents
 	 * of this concept.
@@ -0,0 +1,165 @@
+package com.eldrix.terminology.snomedct;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.LongConsumer;
+import java.util.stream.LongStream;
+
+/**
+ * An immutable set of concepts from a {@link Hierarchy}, such as the result of expanding a concept
+ * to include all of its descendants.
+ *
+ * Concepts are held as a bitmap over the internal indices of the hierarchy, one bit per concept,
+ * so even the largest expansions occupy only a few tens of kilobytes and set operations take microseconds.
+ * Iteration returns concept identifiers in ascending order.
+ *
+ * Sets may only be combined with other sets from the same hierarchy. Objects of this class are thread-safe.
+ *
+ * @author Mark Wardle
+ */
+public final class ConceptSet {
+	private final long[] _conceptIds;		// sorted concept identifiers of the hierarchy
+	private final BitSet _bits;				// indices of concepts in the set
+	private final int _size;
+
+	ConceptSet(long[] conceptIds, BitSet bits) {
+		_conceptIds = conceptIds;
+		_bits = bits;
+		_size = bits.cardinality();
+	}
+
+	/*
+	 * Return the underlying bitmap, which must not be modified.
+	 */
+	BitSet bits() {
+		return _bits;
+	}
+
+	boolean isFrom(long[] conceptIds) {
+		return _conceptIds == conceptIds;
+	}
+
+	/**
+	 * Return the number of concepts in the set.
+	 */
+	public int size() {
+		return _size;
+	}
+
+	public boolean isEmpty() {
+		return _size == 0;
+	}
+
+	/**
+	 * Does the set contain the specified concept?
+	 */
+	public boolean contains(long conceptId) {
+		int i = Arrays.binarySearch(_conceptIds, conceptId);
+		return i >= 0 && _bits.get(i);
+	}
+
+	/**
+	 * Return a set of the concepts in either this set or the other.
+	 */
+	public ConceptSet union(ConceptSet other) {
+		BitSet result = _copy(other);
+		result.or(other._bits);
+		return new ConceptSet(_conceptIds, result);
+	}
+
+	/**
+	 * Return a set of the concepts in both this set and the other.
+	 */
+	public ConceptSet intersect(ConceptSet other) {
+		BitSet result = _copy(other);
+		result.and(other._bits);
+		return new ConceptSet(_conceptIds, result);
+	}
+
+	/**
+	 * Return a set of the concepts in this set but not the other.
+	 */
+	public ConceptSet minus(ConceptSet other) {
+		BitSet result = _copy(other);
+		result.andNot(other._bits);
+		return new ConceptSet(_conceptIds, result);
+	}
+
+	private BitSet _copy(ConceptSet other) {
+		if (other._conceptIds != _conceptIds) {
+			throw new IllegalArgumentException("Concept sets are from different hierarchies");
+		}
+		return (BitSet) _bits.clone();
+	}
+
+	/**
+	 * Return the concept identifiers, in ascending order.
+	 */
+	public long[] toArray() {
+		long[] result = new long[_size];
+		int n = 0;
+		for (int i = _bits.nextSetBit(0); i >= 0; i = _bits.nextSetBit(i+1)) {
+			result[n++] = _conceptIds[i];
+		}
+		return result;
+	}
+
+	/**
+	 * Return the concept identifiers, in ascending order, without copying them into an array.
+	 */
+	public LongStream stream() {
+		return _bits.stream().mapToLong(i -> _conceptIds[i]);
+	}
+
+	/**
+	 * Return an iterator over the concept identifiers, in ascending order.
+	 */
+	public PrimitiveIterator.OfLong iterator() {
+		return new PrimitiveIterator.OfLong() {
+			private int _next = _bits.nextSetBit(0);
+			@Override
+			public boolean hasNext() {
+				return _next >= 0;
+			}
+			@Override
+			public long nextLong() {
+				if (_next < 0) {
+					throw new NoSuchElementException();
+				}
+				long result = _conceptIds[_next];
+				_next = _bits.nextSetBit(_next + 1);
+				return result;
+			}
+		};
+	}
+
+	public void forEach(LongConsumer action) {
+		for (int i = _bits.nextSetBit(0); i >= 0; i = _bits.nextSetBit(i+1)) {
+			action.accept(_conceptIds[i]);
+		}
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof ConceptSet)) {
+			return false;
+		}
+		ConceptSet other = (ConceptSet) obj;
+		return _conceptIds == other._conceptIds && _bits.equals(other._bits);
+	}
+
+	@Override
+	public int hashCode() {
+		return _bits.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return "ConceptSet: " + _size + " concepts";
+	}
+}
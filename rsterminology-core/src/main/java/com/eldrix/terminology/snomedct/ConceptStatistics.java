@@ -0,0 +1,183 @@
+package com.eldrix.terminology.snomedct;
+
+import java.util.Arrays;
+
+import org.apache.cayenne.ObjectContext;
+
+/**
+ * Precomputed statistics for every concept in a {@link Hierarchy}: its minimum and maximum depth, the number
+ * of its descendants and its information content.
+ *
+ * Depth is the number of IS-A relationships between a concept and the root, which has a depth of 0; a concept
+ * with several parents may have different shortest and longest paths. Information content is intrinsic, derived
+ * from descendant counts rather than a corpus: -log((descendants + 1) / concepts), so that the root has an
+ * information content of 0 and leaf concepts have the highest.
+ *
+ * @author Mark Wardle
+ */
+public class ConceptStatistics {
+	private static volatile ConceptStatistics _instance;
+
+	private final Hierarchy _hierarchy;
+	private final int[] _minDepths;
+	private final int[] _maxDepths;
+	private final int[] _descendantCounts;
+	private final double[] _informationContent;
+
+	public ConceptStatistics(Hierarchy hierarchy) {
+		_hierarchy = hierarchy;
+		int size = hierarchy.size();
+		_minDepths = new int[size];
+		_maxDepths = new int[size];
+		_descendantCounts = new int[size];
+		_informationContent = new double[size];
+		_depths(hierarchy, _minDepths, _maxDepths);
+		_descendantCounts(hierarchy, _descendantCounts);
+		double log = Math.log(Math.max(1, size));
+		for (int i=0; i<size; i++) {
+			_informationContent[i] = log - Math.log(_descendantCounts[i] + 1);
+		}
+	}
+
+	/**
+	 * Return a shared instance, using the shared hierarchy.
+	 * @param context
+	 * @return
+	 */
+	public static ConceptStatistics getInstance(ObjectContext context) {
+		ConceptStatistics result = _instance;
+		if (result == null) {
+			synchronized(ConceptStatistics.class) {
+				result = _instance;
+				if (result == null) {
+					_instance = result = new ConceptStatistics(Hierarchy.getInstance(context));
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Return the shared instance if it has already been created.
+	 * @return the shared instance or null
+	 */
+	public static ConceptStatistics current() {
+		return _instance;
+	}
+
+	/**
+	 * Return the hierarchy from which these statistics were computed.
+	 */
+	public Hierarchy hierarchy() {
+		return _hierarchy;
+	}
+
+	/**
+	 * Return the length of the shortest path from the concept to the root, or -1 if the concept is not in the hierarchy.
+	 */
+	public int minDepth(long conceptId) {
+		int i = _hierarchy.indexOf(conceptId);
+		return i < 0 ? -1 : _minDepths[i];
+	}
+
+	/**
+	 * Return the length of the longest path from the concept to the root, or -1 if the concept is not in the hierarchy.
+	 */
+	public int maxDepth(long conceptId) {
+		int i = _hierarchy.indexOf(conceptId);
+		return i < 0 ? -1 : _maxDepths[i];
+	}
+
+	/**
+	 * Return the number of descendants of the concept, not including the concept itself.
+	 */
+	public int descendantCount(long conceptId) {
+		int i = _hierarchy.indexOf(conceptId);
+		return i < 0 ? 0 : _descendantCounts[i];
+	}
+
+	/**
+	 * Return the information content of the concept, or 0 if the concept is not in the hierarchy.
+	 */
+	public double informationContent(long conceptId) {
+		int i = _hierarchy.indexOf(conceptId);
+		return i < 0 ? 0 : _informationContent[i];
+	}
+
+	/*
+	 * Return the statistics of the concept at the specified internal index.
+	 */
+	double informationContentAt(int index) {
+		return _informationContent[index];
+	}
+
+	int maxDepthAt(int index) {
+		return _maxDepths[index];
+	}
+
+	/*
+	 * Calculate depths by visiting concepts in topological order, starting from those without parents.
+	 */
+	private static void _depths(Hierarchy hierarchy, int[] minDepths, int[] maxDepths) {
+		int size = hierarchy.size();
+		int[] parentOffsets = hierarchy.parentOffsets();
+		int[] childOffsets = hierarchy.childOffsets();
+		int[] children = hierarchy.childIndices();
+		int[] remaining = new int[size];		// parents not yet visited
+		int[] queue = new int[size];
+		int head = 0, tail = 0;
+		Arrays.fill(minDepths, Integer.MAX_VALUE);
+		for (int i=0; i<size; i++) {
+			remaining[i] = parentOffsets[i+1] - parentOffsets[i];
+			if (remaining[i] == 0) {
+				minDepths[i] = 0;
+				queue[tail++] = i;
+			}
+		}
+		while (head < tail) {
+			int current = queue[head++];
+			for (int j=childOffsets[current]; j<childOffsets[current+1]; j++) {
+				int child = children[j];
+				minDepths[child] = Math.min(minDepths[child], minDepths[current] + 1);
+				maxDepths[child] = Math.max(maxDepths[child], maxDepths[current] + 1);
+				if (--remaining[child] == 0) {
+					queue[tail++] = child;
+				}
+			}
+		}
+		for (int i=0; i<size; i++) {
+			if (minDepths[i] == Integer.MAX_VALUE) {		// only possible if the hierarchy has a cycle
+				minDepths[i] = 0;
+			}
+		}
+	}
+
+	/*
+	 * Count descendants by walking up from each concept and counting it once against each of its ancestors.
+	 */
+	private static void _descendantCounts(Hierarchy hierarchy, int[] counts) {
+		int size = hierarchy.size();
+		int[] parentOffsets = hierarchy.parentOffsets();
+		int[] parents = hierarchy.parentIndices();
+		int[] visitedBy = new int[size];		// the concept (plus one) whose ancestors last visited each concept
+		int[] stack = new int[16];
+		for (int i=0; i<size; i++) {
+			int n = 0;
+			stack[n++] = i;
+			while (n > 0) {
+				int current = stack[--n];
+				for (int j=parentOffsets[current]; j<parentOffsets[current+1]; j++) {
+					int parent = parents[j];
+					if (visitedBy[parent] != i + 1) {
+						visitedBy[parent] = i + 1;
+						counts[parent]++;
+						if (n == stack.length) {
+							stack = Arrays.copyOf(stack, n * 2);
+						}
+						stack[n++] = parent;
+					}
+				}
+			}
+		}
+	}
+}
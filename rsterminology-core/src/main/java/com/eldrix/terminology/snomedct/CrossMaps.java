@@ -0,0 +1,362 @@
+package com.eldrix.terminology.snomedct;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.query.ObjectSelect;
+
+/**
+ * An in-memory cache of the cross maps from SNOMED-CT to other coding schemes such as ICD-10 and OPCS.
+ *
+ * Each cross map set is held separately. Forward maps (concept to codes) are held in
+ * concept, option and priority order so that the preferred mapping is always first.
+ * Target codes are parsed once using the separator defined for the cross map set,
+ * and a reverse index (code to concepts) is built so that both directions can be
+ * answered without database access.
+ *
+ * @author Mark Wardle
+ */
+public class CrossMaps {
+	private static final String NOT_IN_SCOPE_CODE = "#NIS";
+	private static final String DEFAULT_SEPARATOR = ",";
+	private static volatile CrossMaps _instance;
+
+	private final Map<Long, MapSet> _mapSets;
+
+	private CrossMaps(Map<Long, MapSet> mapSets) {
+		_mapSets = Collections.unmodifiableMap(mapSets);
+	}
+
+	/**
+	 * Return a shared instance, loading all cross map sets from the database if they have not already been loaded.
+	 * @param context
+	 * @return
+	 */
+	public static CrossMaps getInstance(ObjectContext context) {
+		CrossMaps result = _instance;
+		if (result == null) {
+			synchronized(CrossMaps.class) {
+				result = _instance;
+				if (result == null) {
+					_instance = result = load(context);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Load all cross map sets from the database.
+	 * @param context
+	 * @return
+	 */
+	public static CrossMaps load(ObjectContext context) {
+		HashMap<Long, String> targets = new HashMap<>();
+		ObjectSelect.dataRowQuery(CrossMapTarget.class).iterate(context, row -> {
+			targets.put((Long) row.get(CrossMapTarget.TARGET_ID_PK_COLUMN), (String) row.get("codes"));
+		});
+		HashMap<Long, MapSet.Builder> builders = new HashMap<>();
+		ObjectSelect.dataRowQuery(CrossMapSet.class).iterate(context, row -> {
+			long setId = (Long) row.get(CrossMapSet.SET_ID_PK_COLUMN);
+			builders.put(setId, new MapSet.Builder(setId, (String) row.get("separator")));
+		});
+		ObjectSelect.dataRowQuery(CrossMapTable.class).iterate(context, row -> {
+			MapSet.Builder b = builders.get((Long) row.get(CrossMapTable.SET_ID_PK_COLUMN));
+			if (b != null) {
+				long targetId = (Long) row.get("target_id");
+				b.add((Long) row.get(CrossMapTable.CONCEPT_ID_PK_COLUMN),
+						(Integer) row.get(CrossMapTable.OPTION_PK_COLUMN),
+						(Integer) row.get("priority"),
+						targetId, targets.get(targetId));
+			}
+		});
+		HashMap<Long, MapSet> mapSets = new HashMap<>();
+		builders.forEach((setId, b) -> mapSets.put(setId, b.build()));
+		return new CrossMaps(mapSets);
+	}
+
+	/**
+	 * Return the cross map set with the specified identifier.
+	 * @param setId
+	 * @return the cross map set or null if there is no such set.
+	 */
+	public MapSet mapSet(long setId) {
+		return _mapSets.get(setId);
+	}
+
+	/**
+	 * Return the identifiers of the cross map sets available.
+	 */
+	public Set<Long> mapSetIds() {
+		return _mapSets.keySet();
+	}
+
+	/**
+	 * A single row of a cross map table, with its target codes parsed.
+	 */
+	public static class Mapping {
+		private final long _conceptId;
+		private final int _option;
+		private final int _priority;
+		private final long _targetId;
+		private final List<String> _codes;
+
+		Mapping(long conceptId, int option, int priority, long targetId, List<String> codes) {
+			_conceptId = conceptId;
+			_option = option;
+			_priority = priority;
+			_targetId = targetId;
+			_codes = codes;
+		}
+		public long getConceptId() {
+			return _conceptId;
+		}
+		public int getOption() {
+			return _option;
+		}
+		public int getPriority() {
+			return _priority;
+		}
+		public long getTargetId() {
+			return _targetId;
+		}
+		public List<String> getCodes() {
+			return _codes;
+		}
+		/**
+		 * Is this an explicit "not in scope" mapping?
+		 */
+		public boolean isNotInScope() {
+			return _codes.size() == 1 && NOT_IN_SCOPE_CODE.equals(_codes.get(0));
+		}
+		@Override
+		public String toString() {
+			return _conceptId + " [" + _option + "/" + _priority + "] " + _codes;
+		}
+	}
+
+	/**
+	 * A single cross map set, with forward and reverse indexes.
+	 */
+	public static class MapSet {
+		private static final long[] EMPTY = new long[0];
+		private final long _setId;
+		private final long[] _conceptIds;		// sorted concept identifiers, one per mapping
+		private final Mapping[] _mappings;		// mappings in concept, option and priority order
+		private final String[] _codes;			// sorted distinct target codes
+		private final long[][] _codeConcepts;	// concepts for each code, in the same order as the codes
+
+		private MapSet(long setId, Mapping[] mappings, String[] codes, long[][] codeConcepts) {
+			_setId = setId;
+			_mappings = mappings;
+			_conceptIds = new long[mappings.length];
+			for (int i=0; i<mappings.length; i++) {
+				_conceptIds[i] = mappings[i].getConceptId();
+			}
+			_codes = codes;
+			_codeConcepts = codeConcepts;
+		}
+
+		public long getSetId() {
+			return _setId;
+		}
+
+		/**
+		 * Return the number of mappings in this set.
+		 */
+		public int size() {
+			return _mappings.length;
+		}
+
+		/**
+		 * Return the mappings for the specified concept in option and priority order.
+		 * @param conceptId
+		 * @return
+		 */
+		public List<Mapping> mappingsForConcept(long conceptId) {
+			int i = _first(conceptId);
+			if (i < 0) {
+				return Collections.emptyList();
+			}
+			int end = i;
+			while (end < _conceptIds.length && _conceptIds[end] == conceptId) {
+				end++;
+			}
+			return Collections.unmodifiableList(Arrays.asList(_mappings).subList(i, end));
+		}
+
+		/**
+		 * Return the mappings for the specified concept or, if it has none, the mappings of its
+		 * nearest mapped ancestor. If several ancestors are mapped at the same distance, the one with
+		 * the lowest concept identifier is used. The concept actually mapped is available from each mapping.
+		 * @param conceptId
+		 * @param hierarchy
+		 * @return
+		 */
+		public List<Mapping> mappingsForConceptOrAncestor(long conceptId, Hierarchy hierarchy) {
+			List<Mapping> result = mappingsForConcept(conceptId);
+			if (result.isEmpty()) {
+				long[] ancestors = hierarchy.nearest(conceptId, this::hasMapping);
+				if (ancestors.length > 0) {
+					result = mappingsForConcept(ancestors[0]);
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * Does this set contain a mapping for the specified concept?
+		 */
+		public boolean hasMapping(long conceptId) {
+			return _first(conceptId) >= 0;
+		}
+
+		/**
+		 * Return the distinct target codes for the specified concept, in option and priority order.
+		 * "Not in scope" mappings are excluded.
+		 * @param conceptId
+		 * @return
+		 */
+		public List<String> codesForConcept(long conceptId) {
+			LinkedHashSet<String> codes = new LinkedHashSet<>();
+			for (Mapping m : mappingsForConcept(conceptId)) {
+				if (!m.isNotInScope()) {
+					codes.addAll(m.getCodes());
+				}
+			}
+			return new ArrayList<>(codes);
+		}
+
+		/**
+		 * Return the concepts that map to the specified target code.
+		 * @param code
+		 * @return sorted concept identifiers, or an empty array if there are no matches.
+		 */
+		public long[] conceptsForCode(String code) {
+			int i = Arrays.binarySearch(_codes, code);
+			return i >= 0 ? _codeConcepts[i].clone() : EMPTY;
+		}
+
+		/**
+		 * Map a batch of concepts, returning the mappings for each distinct concept in the order requested.
+		 * @param conceptIds
+		 * @return
+		 */
+		public Map<Long, List<Mapping>> mappingsForConcepts(Collection<Long> conceptIds) {
+			LinkedHashMap<Long, List<Mapping>> result = new LinkedHashMap<>();
+			for (Long conceptId : conceptIds) {
+				if (conceptId != null && !result.containsKey(conceptId)) {
+					result.put(conceptId, mappingsForConcept(conceptId));
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * Reverse map a batch of codes, returning the concepts for each distinct code in the order requested.
+		 * @param codes
+		 * @return
+		 */
+		public Map<String, long[]> conceptsForCodes(Collection<String> codes) {
+			LinkedHashMap<String, long[]> result = new LinkedHashMap<>();
+			for (String code : codes) {
+				if (code != null && !result.containsKey(code)) {
+					result.put(code, conceptsForCode(code));
+				}
+			}
+			return result;
+		}
+
+		/*
+		 * Return the index of the first mapping for the concept, or -1.
+		 */
+		private int _first(long conceptId) {
+			int i = Arrays.binarySearch(_conceptIds, conceptId);
+			if (i < 0) {
+				return -1;
+			}
+			while (i > 0 && _conceptIds[i-1] == conceptId) {
+				i--;
+			}
+			return i;
+		}
+
+		/**
+		 * Builds a cross map set from the rows of a cross map table.
+		 */
+		public static class Builder {
+			private final long _setId;
+			private final String _separator;
+			private final ArrayList<Mapping> _mappings = new ArrayList<>();
+			private final HashMap<String, List<String>> _parsed = new HashMap<>();
+
+			public Builder(long setId, String separator) {
+				_setId = setId;
+				_separator = separator == null || separator.length() == 0 ? DEFAULT_SEPARATOR : separator;
+			}
+
+			public Builder add(long conceptId, int option, int priority, long targetId, String codes) {
+				_mappings.add(new Mapping(conceptId, option, priority, targetId, _parse(codes)));
+				return this;
+			}
+
+			/*
+			 * Parse the target codes, sharing the result between rows with the same codes.
+			 */
+			private List<String> _parse(String codes) {
+				if (codes == null) {
+					return Collections.emptyList();
+				}
+				return _parsed.computeIfAbsent(codes, c -> {
+					ArrayList<String> result = new ArrayList<>();
+					int start = 0;
+					while (start <= c.length()) {
+						int end = c.indexOf(_separator, start);
+						if (end < 0) {
+							end = c.length();
+						}
+						String code = c.substring(start, end).trim();
+						if (code.length() > 0) {
+							result.add(code);
+						}
+						start = end + _separator.length();
+					}
+					result.trimToSize();
+					return Collections.unmodifiableList(result);
+				});
+			}
+
+			public MapSet build() {
+				Mapping[] mappings = _mappings.toArray(new Mapping[_mappings.size()]);
+				Arrays.sort(mappings, Comparator.comparingLong(Mapping::getConceptId)
+						.thenComparingInt(Mapping::getOption)
+						.thenComparingInt(Mapping::getPriority));
+				HashMap<String, Set<Long>> reverse = new HashMap<>();
+				for (Mapping m : mappings) {
+					if (!m.isNotInScope()) {
+						for (String code : m.getCodes()) {
+							reverse.computeIfAbsent(code, k -> new LinkedHashSet<>()).add(m.getConceptId());
+						}
+					}
+				}
+				String[] codes = reverse.keySet().toArray(new String[reverse.size()]);
+				Arrays.sort(codes);
+				long[][] codeConcepts = new long[codes.length][];
+				for (int i=0; i<codes.length; i++) {
+					codeConcepts[i] = reverse.get(codes[i]).stream().mapToLong(Long::longValue).sorted().toArray();
+				}
+				return new MapSet(_setId, mappings, codes, codeConcepts);
+			}
+		}
+	}
+}
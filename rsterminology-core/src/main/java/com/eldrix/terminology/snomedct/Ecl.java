@@ -0,0 +1,462 @@
+package com.eldrix.terminology.snomedct;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.cayenne.ObjectContext;
+
+import com.eldrix.terminology.metrics.Metrics;
+
+/**
+ * Evaluates SNOMED CT Expression Constraint Language (ECL) expressions against the in-memory
+ * {@link Hierarchy} and {@link Attributes}, returning the matching concepts as a {@link ConceptSet}.
+ *
+ * The brief syntax is supported, including:
+ * <ul>
+ * <li>constraint operators: &lt; &lt;&lt; &lt;! &gt; &gt;&gt; &gt;! and the wildcard *
+ * <li>compound expressions using AND, OR and MINUS (with "," as AND), with parentheses
+ * <li>refinements using =, != and reverse (R) attributes, combined with AND, OR and ","
+ * <li>optional terms, e.g. "&lt;&lt; 64572001 |Disease|"
+ * </ul>
+ * For example, "&lt;&lt; 64572001 MINUS &lt;&lt; 404684003" or "&lt; 373873005 : 127489000 = &lt;&lt; 387517004".
+ * Attributes within a group ({ }) must be satisfied by the same role group of a concept, e.g.
+ * "&lt; 404684003 : { 363698007 = &lt;&lt; 39057004, 116676008 = &lt;&lt; 415582006 }".
+ * Cardinality, member-of (^), dotted attributes and the long syntax are not supported.
+ *
+ * Results are cached by expression. Objects of this class are thread-safe.
+ *
+ * @author Mark Wardle
+ */
+public class Ecl {
+	private static final int CACHE_SIZE = 128;
+	private static final int MAXIMUM_NESTING = 100;		// of parentheses and braces, to bound the parser's recursion
+	private static final Metrics.Counter _cacheHits = Metrics.counter("rsterminology_cache_requests_total", "Cache lookups", "cache", "ecl", "result", "hit");
+	private static final Metrics.Counter _cacheMisses = Metrics.counter("rsterminology_cache_requests_total", "Cache lookups", "cache", "ecl", "result", "miss");
+	private static final Metrics.Histogram _timer = Metrics.timer("rsterminology_ecl_seconds", "Time taken to evaluate an expression constraint");
+	private static volatile Ecl _instance;
+
+	private final Hierarchy _hierarchy;
+	private final Attributes _attributes;
+	private final Map<String, ConceptSet> _cache = new LinkedHashMap<String, ConceptSet>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, ConceptSet> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	public Ecl(Attributes attributes) {
+		_hierarchy = attributes.hierarchy();
+		_attributes = attributes;
+	}
+
+	/**
+	 * Return a shared instance, using the shared hierarchy and attribute relationships.
+	 * @param context
+	 * @return
+	 */
+	public static Ecl getInstance(ObjectContext context) {
+		Ecl result = _instance;
+		if (result == null) {
+			synchronized(Ecl.class) {
+				result = _instance;
+				if (result == null) {
+					_instance = result = new Ecl(Attributes.getInstance(context));
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * An invalid or unsupported expression.
+	 */
+	public static class ParseException extends Exception {
+		private static final long serialVersionUID = 1L;
+		private final int _position;
+
+		ParseException(String message, String expression, int position) {
+			super(message + " at position " + position + ": " + expression);
+			_position = position;
+		}
+
+		/**
+		 * Return the position in the expression at which the error was found.
+		 */
+		public int getPosition() {
+			return _position;
+		}
+	}
+
+	/**
+	 * Evaluate the expression.
+	 * @param expression
+	 * @return the matching concepts
+	 * @throws ParseException if the expression is invalid or unsupported
+	 */
+	public ConceptSet evaluate(String expression) throws ParseException {
+		String key = expression.trim();
+		synchronized(_cache) {
+			ConceptSet cached = _cache.get(key);
+			if (cached != null) {
+				_cacheHits.increment();
+				return cached;
+			}
+		}
+		_cacheMisses.increment();
+		long start = System.nanoTime();
+		ConceptSet result = new Parser(key).parse();
+		_timer.recordSince(start);
+		synchronized(_cache) {
+			_cache.put(key, result);
+		}
+		return result;
+	}
+
+	/*
+	 * A recursive-descent parser that evaluates as it parses.
+	 */
+	private class Parser {
+		private final String _text;
+		private int _pos;
+		private int _depth;
+
+		Parser(String text) {
+			_text = text;
+		}
+
+		ConceptSet parse() throws ParseException {
+			ConceptSet result = _expression();
+			_skipWhitespace();
+			if (_pos < _text.length()) {
+				throw _error("Unexpected '" + _text.charAt(_pos) + "'");
+			}
+			return result;
+		}
+
+		/*
+		 * expression = refined { ("AND" | "OR" | "MINUS" | ",") refined }, without mixing operators
+		 */
+		private ConceptSet _expression() throws ParseException {
+			ConceptSet result = _refined();
+			String operator = null;
+			String next;
+			while ((next = _binaryOperator(true)) != null) {
+				if (operator != null && !operator.equals(next)) {
+					throw _error("Use parentheses to combine " + operator + " and " + next);
+				}
+				operator = next;
+				ConceptSet other = _refined();
+				result = "OR".equals(operator) ? result.union(other) : "MINUS".equals(operator) ? result.minus(other) : result.intersect(other);
+			}
+			return result;
+		}
+
+		/*
+		 * refined = subExpression [ ":" refinement ]
+		 */
+		private ConceptSet _refined() throws ParseException {
+			ConceptSet focus = _subExpression();
+			if (_accept(":")) {
+				return focus.intersect(_refinement());
+			}
+			return focus;
+		}
+
+		/*
+		 * subExpression = [ operator ] ( focus | "(" expression ")" )
+		 */
+		private ConceptSet _subExpression() throws ParseException {
+			String operator = _constraintOperator();
+			ConceptSet concepts;
+			if (_accept("(")) {
+				_nest();
+				concepts = _expression();
+				_expect(")");
+				_depth--;
+			} else {
+				concepts = _focus();
+			}
+			return _apply(operator, concepts);
+		}
+
+		private ConceptSet _apply(String operator, ConceptSet concepts) {
+			if (operator == null) {
+				return concepts;
+			}
+			switch (operator) {
+			case "<<":
+				return _hierarchy.descendants(concepts, true);
+			case "<!":
+				return _hierarchy.children(concepts);
+			case "<":
+				return _hierarchy.descendants(concepts, false);
+			case ">>":
+				return _hierarchy.ancestors(concepts, true);
+			case ">!":
+				return _hierarchy.parents(concepts);
+			default:
+				return _hierarchy.ancestors(concepts, false);
+			}
+		}
+
+		/*
+		 * focus = "*" | conceptId [ "|" term "|" ]
+		 */
+		private ConceptSet _focus() throws ParseException {
+			_skipWhitespace();
+			if (_accept("*")) {
+				return _hierarchy.all();
+			}
+			if (_peek('^')) {
+				throw _error("Member-of (^) is not supported");
+			}
+			return _hierarchy.conceptSet(_conceptId());
+		}
+
+		private long _conceptId() throws ParseException {
+			_skipWhitespace();
+			int start = _pos;
+			while (_pos < _text.length() && Character.isDigit(_text.charAt(_pos))) {
+				_pos++;
+			}
+			if (_pos == start) {
+				throw _error("Expected a concept identifier");
+			}
+			if (_pos - start > 18) {
+				throw _error("Invalid concept identifier");
+			}
+			long conceptId = Long.parseLong(_text.substring(start, _pos));
+			if (_accept("|")) {
+				int end = _text.indexOf('|', _pos);
+				if (end < 0) {
+					throw _error("Unterminated term");
+				}
+				_pos = end + 1;
+			}
+			return conceptId;
+		}
+
+		/*
+		 * refinement = subRefinement { ("AND" | "OR" | ",") subRefinement }, without mixing operators
+		 */
+		private ConceptSet _refinement() throws ParseException {
+			ConceptSet result = _subRefinement();
+			String operator = null;
+			String next;
+			while ((next = _binaryOperator(false)) != null) {
+				if (operator != null && !operator.equals(next)) {
+					throw _error("Use parentheses to combine " + operator + " and " + next);
+				}
+				operator = next;
+				ConceptSet other = _subRefinement();
+				result = "OR".equals(operator) ? result.union(other) : result.intersect(other);
+			}
+			return result;
+		}
+
+		/*
+		 * subRefinement = "{" groupRefinement "}" | "(" refinement ")" | attribute
+		 */
+		private ConceptSet _subRefinement() throws ParseException {
+			_skipWhitespace();
+			if (_peek('[')) {
+				throw _error("Cardinality is not supported");
+			}
+			if (_accept("{")) {
+				_nest();
+				long[] groups = _groupRefinement();
+				_expect("}");
+				_depth--;
+				return _attributes.sourcesOf(groups);
+			}
+			if (_accept("(")) {
+				_nest();
+				ConceptSet result = _refinement();
+				_expect(")");
+				_depth--;
+				return result;
+			}
+			Constraint attribute = _attribute();
+			return attribute.reverse ? _attributes.targets(attribute.types, attribute.values, attribute.negate)
+					: _attributes.sources(attribute.types, attribute.values, attribute.negate);
+		}
+
+		/*
+		 * groupRefinement = subGroupRefinement { ("AND" | "OR" | ",") subGroupRefinement }, without mixing operators,
+		 * evaluated as role groups so that conjunctions must be satisfied within the same group
+		 */
+		private long[] _groupRefinement() throws ParseException {
+			long[] result = _subGroupRefinement();
+			String operator = null;
+			String next;
+			while ((next = _binaryOperator(false)) != null) {
+				if (operator != null && !operator.equals(next)) {
+					throw _error("Use parentheses to combine " + operator + " and " + next);
+				}
+				operator = next;
+				long[] other = _subGroupRefinement();
+				result = "OR".equals(operator) ? _union(result, other) : _intersect(result, other);
+			}
+			return result;
+		}
+
+		/*
+		 * subGroupRefinement = "(" groupRefinement ")" | attribute
+		 */
+		private long[] _subGroupRefinement() throws ParseException {
+			_skipWhitespace();
+			if (_peek('[')) {
+				throw _error("Cardinality is not supported");
+			}
+			if (_accept("(")) {
+				_nest();
+				long[] result = _groupRefinement();
+				_expect(")");
+				_depth--;
+				return result;
+			}
+			int start = _pos;
+			Constraint attribute = _attribute();
+			if (attribute.reverse) {
+				_pos = start;
+				throw _error("Reverse attributes are not supported within a group");
+			}
+			return _attributes.groups(attribute.types, attribute.values, attribute.negate);
+		}
+
+		/*
+		 * attribute = [ "R" ] [ operator ] ( conceptId | "*" ) ( "=" | "!=" ) subExpression
+		 */
+		private Constraint _attribute() throws ParseException {
+			_skipWhitespace();
+			Constraint result = new Constraint();
+			if (_peek('R') || _peek('r')) {
+				_pos++;
+				result.reverse = true;
+			}
+			String operator = _constraintOperator();
+			_skipWhitespace();
+			result.types = _accept("*") ? _hierarchy.all() : _apply(operator, _hierarchy.conceptSet(_conceptId()));
+			if (_accept("!=")) {
+				result.negate = true;
+			} else {
+				_expect("=");
+			}
+			result.values = _subExpression();
+			return result;
+		}
+
+		private String _constraintOperator() {
+			_skipWhitespace();
+			for (String op : new String[] { "<<", "<!", "<", ">>", ">!", ">" }) {
+				if (_text.startsWith(op, _pos)) {
+					_pos += op.length();
+					return op;
+				}
+			}
+			return null;
+		}
+
+		/*
+		 * Return the next binary operator, if any, consuming it. MINUS is permitted only between expressions.
+		 */
+		private String _binaryOperator(boolean allowMinus) {
+			_skipWhitespace();
+			if (_accept(",")) {
+				return "AND";
+			}
+			for (String op : allowMinus ? new String[] { "AND", "OR", "MINUS" } : new String[] { "AND", "OR" }) {
+				int end = _pos + op.length();
+				if (_text.regionMatches(true, _pos, op, 0, op.length())
+						&& (end == _text.length() || !Character.isLetterOrDigit(_text.charAt(end)))) {
+					_pos = end;
+					return op;
+				}
+			}
+			return null;
+		}
+
+		private boolean _peek(char c) {
+			return _pos < _text.length() && _text.charAt(_pos) == c;
+		}
+
+		private boolean _accept(String s) {
+			_skipWhitespace();
+			if (_text.startsWith(s, _pos)) {
+				_pos += s.length();
+				return true;
+			}
+			return false;
+		}
+
+		private void _expect(String s) throws ParseException {
+			if (!_accept(s)) {
+				throw _error("Expected '" + s + "'");
+			}
+		}
+
+		private void _skipWhitespace() {
+			while (_pos < _text.length() && Character.isWhitespace(_text.charAt(_pos))) {
+				_pos++;
+			}
+		}
+
+		private void _nest() throws ParseException {
+			if (++_depth > MAXIMUM_NESTING) {
+				throw _error("Expression too deeply nested");
+			}
+		}
+
+		private ParseException _error(String message) {
+			return new ParseException(message, _text, _pos);
+		}
+	}
+
+	/*
+	 * A parsed attribute constraint.
+	 */
+	private static class Constraint {
+		boolean reverse;
+		ConceptSet types;
+		boolean negate;
+		ConceptSet values;
+	}
+
+	/*
+	 * Set operations on sorted, distinct role group keys.
+	 */
+	private static long[] _intersect(long[] a, long[] b) {
+		long[] result = new long[Math.min(a.length, b.length)];
+		int i = 0, j = 0, n = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (a[i] > b[j]) {
+				j++;
+			} else {
+				result[n++] = a[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(result, n);
+	}
+
+	private static long[] _union(long[] a, long[] b) {
+		long[] result = new long[a.length + b.length];
+		int i = 0, j = 0, n = 0;
+		while (i < a.length || j < b.length) {
+			if (j == b.length || (i < a.length && a[i] < b[j])) {
+				result[n++] = a[i++];
+			} else if (i == a.length || b[j] < a[i]) {
+				result[n++] = b[j++];
+			} else {
+				result[n++] = a[i++];
+				j++;
+			}
+		}
+		return Arrays.copyOf(result, n);
+	}
+}
@@ -0,0 +1,558 @@
+package com.eldrix.terminology.snomedct;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongPredicate;
+
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.exp.ExpressionFactory;
+import org.apache.cayenne.query.ObjectSelect;
+
+import com.eldrix.terminology.metrics.Metrics;
+import com.eldrix.terminology.snomedct.semantic.RelationType;
+
+/**
+ * An in-memory representation of the SNOMED-CT IS-A hierarchy.
+ *
+ * Concepts are held in a sorted array of identifiers and referred to internally by their
+ * index in that array. Parents and children are held as compressed adjacency lists
+ * (an array of offsets into a single array of indices) so that the whole hierarchy
+ * occupies a few tens of megabytes and may be walked without database access.
+ *
+ * Only concepts that take part in an IS-A relationship are included.
+ *
+ * Expansions of a concept to include all of its descendants are returned as a {@link ConceptSet}
+ * and the most recently used are cached, so that repeated expansions of broad concepts cost nothing.
+ *
+ * @author Mark Wardle
+ */
+public class Hierarchy {
+	private static final String SOURCE_CONCEPT_ID_COLUMN = "source_concept_id";
+	private static final String TARGET_CONCEPT_ID_COLUMN = "target_concept_id";
+	private static final String RELATIONSHIP_TYPE_COLUMN = "relationship_type_concept_id";
+	private static final long[] EMPTY = new long[0];
+	private static final int EXPANSION_CACHE_SIZE = 256;
+	private static final Metrics.Counter _cacheHits = Metrics.counter("rsterminology_cache_requests_total", "Cache lookups", "cache", "expansion", "result", "hit");
+	private static final Metrics.Counter _cacheMisses = Metrics.counter("rsterminology_cache_requests_total", "Cache lookups", "cache", "expansion", "result", "miss");
+	private static volatile Hierarchy _instance;
+
+	private final long[] _conceptIds;		// sorted concept identifiers
+	private final int[] _parentOffsets;		// offsets into _parents for each concept, with a final sentinel
+	private final int[] _parents;			// indices of parents
+	private final int[] _childOffsets;		// offsets into _children for each concept, with a final sentinel
+	private final int[] _children;			// indices of children
+	private final Map<Long, ConceptSet> _expansions = new LinkedHashMap<Long, ConceptSet>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, ConceptSet> eldest) {
+			return size() > EXPANSION_CACHE_SIZE;
+		}
+	};
+
+	private Hierarchy(long[] conceptIds, int[] parentOffsets, int[] parents, int[] childOffsets, int[] children) {
+		_conceptIds = conceptIds;
+		_parentOffsets = parentOffsets;
+		_parents = parents;
+		_childOffsets = childOffsets;
+		_children = children;
+	}
+
+	/**
+	 * Return a shared instance, loading the hierarchy from the database if it has not already been loaded.
+	 * @param context
+	 * @return
+	 */
+	public static Hierarchy getInstance(ObjectContext context) {
+		Hierarchy result = _instance;
+		if (result == null) {
+			synchronized(Hierarchy.class) {
+				result = _instance;
+				if (result == null) {
+					_instance = result = load(context);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Return the shared instance if it has already been loaded.
+	 * @return the shared instance or null
+	 */
+	public static Hierarchy current() {
+		return _instance;
+	}
+
+	/**
+	 * Load the IS-A hierarchy from the relationships in the database.
+	 * @param context
+	 * @return
+	 */
+	public static Hierarchy load(ObjectContext context) {
+		Builder b = new Builder();
+		ObjectSelect.dataRowQuery(Relationship.class,
+				ExpressionFactory.matchDbExp(RELATIONSHIP_TYPE_COLUMN, RelationType.IS_A.conceptId))
+		.iterate(context, row -> {
+			b.add((Long) row.get(SOURCE_CONCEPT_ID_COLUMN), (Long) row.get(TARGET_CONCEPT_ID_COLUMN));
+		});
+		return b.build();
+	}
+
+	/**
+	 * Return the number of concepts in the hierarchy.
+	 */
+	public int size() {
+		return _conceptIds.length;
+	}
+
+	/**
+	 * Return the internal index of the specified concept.
+	 * @param conceptId
+	 * @return the index, or a negative number if the concept is not in the hierarchy.
+	 */
+	public int indexOf(long conceptId) {
+		int i = Arrays.binarySearch(_conceptIds, conceptId);
+		return i >= 0 ? i : -1;
+	}
+
+	/**
+	 * Return the concept identifier at the specified internal index.
+	 */
+	public long conceptId(int index) {
+		return _conceptIds[index];
+	}
+
+	/**
+	 * Does the hierarchy contain the specified concept?
+	 */
+	public boolean contains(long conceptId) {
+		return indexOf(conceptId) >= 0;
+	}
+
+	/**
+	 * Return the direct parents of the specified concept.
+	 */
+	public long[] parents(long conceptId) {
+		int i = indexOf(conceptId);
+		return i < 0 ? EMPTY : _identifiers(_parents, _parentOffsets[i], _parentOffsets[i+1]);
+	}
+
+	/**
+	 * Return the direct children of the specified concept.
+	 */
+	public long[] children(long conceptId) {
+		int i = indexOf(conceptId);
+		return i < 0 ? EMPTY : _identifiers(_children, _childOffsets[i], _childOffsets[i+1]);
+	}
+
+	/**
+	 * Return all ancestors of the specified concept, not including the concept itself.
+	 * @param conceptId
+	 * @return sorted concept identifiers
+	 */
+	public long[] ancestors(long conceptId) {
+		int i = indexOf(conceptId);
+		if (i < 0) {
+			return EMPTY;
+		}
+		BitSet visited = new BitSet(_conceptIds.length);
+		_walk(i, _parentOffsets, _parents, visited);
+		visited.clear(i);
+		return _identifiers(visited);
+	}
+
+	/**
+	 * Return all descendants of the specified concept, not including the concept itself.
+	 * @param conceptId
+	 * @return sorted concept identifiers
+	 */
+	public long[] descendants(long conceptId) {
+		int i = indexOf(conceptId);
+		if (i < 0) {
+			return EMPTY;
+		}
+		BitSet visited = new BitSet(_conceptIds.length);
+		_walk(i, _childOffsets, _children, visited);
+		visited.clear(i);
+		return _identifiers(visited);
+	}
+
+	/**
+	 * Return the specified concepts together with all of their descendants.
+	 * Concepts that are not in the hierarchy are ignored.
+	 * @param conceptIds
+	 * @return
+	 */
+	public ConceptSet expand(long... conceptIds) {
+		if (conceptIds.length == 1) {
+			return _expand(conceptIds[0]);
+		}
+		BitSet visited = new BitSet(_conceptIds.length);
+		for (long conceptId : conceptIds) {
+			int i = indexOf(conceptId);
+			if (i >= 0 && !visited.get(i)) {
+				_walk(i, _childOffsets, _children, visited);
+			}
+		}
+		return new ConceptSet(_conceptIds, visited);
+	}
+
+	private ConceptSet _expand(long conceptId) {
+		synchronized(_expansions) {
+			ConceptSet cached = _expansions.get(conceptId);
+			if (cached != null) {
+				_cacheHits.increment();
+				return cached;
+			}
+		}
+		_cacheMisses.increment();
+		BitSet visited = new BitSet(_conceptIds.length);
+		int i = indexOf(conceptId);
+		if (i >= 0) {
+			_walk(i, _childOffsets, _children, visited);
+		}
+		ConceptSet result = new ConceptSet(_conceptIds, visited);
+		synchronized(_expansions) {
+			_expansions.put(conceptId, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Return a set of all concepts in the hierarchy.
+	 */
+	public ConceptSet all() {
+		BitSet bits = new BitSet(_conceptIds.length);
+		bits.set(0, _conceptIds.length);
+		return new ConceptSet(_conceptIds, bits);
+	}
+
+	/**
+	 * Return the descendants of all of the concepts in the set.
+	 * @param concepts
+	 * @param includeSelf - whether to include the concepts themselves
+	 */
+	public ConceptSet descendants(ConceptSet concepts, boolean includeSelf) {
+		if (includeSelf && concepts.size() == 1) {
+			return _expand(concepts.iterator().nextLong());
+		}
+		return _closure(concepts, _childOffsets, _children, includeSelf);
+	}
+
+	/**
+	 * Return the ancestors of all of the concepts in the set.
+	 * @param concepts
+	 * @param includeSelf - whether to include the concepts themselves
+	 */
+	public ConceptSet ancestors(ConceptSet concepts, boolean includeSelf) {
+		return _closure(concepts, _parentOffsets, _parents, includeSelf);
+	}
+
+	/**
+	 * Return the direct children of all of the concepts in the set.
+	 */
+	public ConceptSet children(ConceptSet concepts) {
+		return _neighbours(concepts, _childOffsets, _children);
+	}
+
+	/**
+	 * Return the direct parents of all of the concepts in the set.
+	 */
+	public ConceptSet parents(ConceptSet concepts) {
+		return _neighbours(concepts, _parentOffsets, _parents);
+	}
+
+	private ConceptSet _closure(ConceptSet concepts, int[] offsets, int[] targets, boolean includeSelf) {
+		BitSet start = bits(concepts);
+		BitSet visited = new BitSet(_conceptIds.length);
+		for (int i = start.nextSetBit(0); i >= 0; i = start.nextSetBit(i+1)) {
+			for (int j=offsets[i]; j<offsets[i+1]; j++) {
+				if (!visited.get(targets[j])) {
+					_walk(targets[j], offsets, targets, visited);
+				}
+			}
+		}
+		if (includeSelf) {
+			visited.or(start);
+		}
+		return new ConceptSet(_conceptIds, visited);
+	}
+
+	private ConceptSet _neighbours(ConceptSet concepts, int[] offsets, int[] targets) {
+		BitSet start = bits(concepts);
+		BitSet result = new BitSet(_conceptIds.length);
+		for (int i = start.nextSetBit(0); i >= 0; i = start.nextSetBit(i+1)) {
+			for (int j=offsets[i]; j<offsets[i+1]; j++) {
+				result.set(targets[j]);
+			}
+		}
+		return new ConceptSet(_conceptIds, result);
+	}
+
+	/*
+	 * Return the bitmap of a set, checking that it is from this hierarchy.
+	 */
+	BitSet bits(ConceptSet concepts) {
+		if (!concepts.isFrom(_conceptIds)) {
+			throw new IllegalArgumentException("Concept set is from a different hierarchy");
+		}
+		return concepts.bits();
+	}
+
+	/*
+	 * Return a set from a bitmap of internal indices.
+	 */
+	ConceptSet conceptSet(BitSet bits) {
+		return new ConceptSet(_conceptIds, bits);
+	}
+
+	/*
+	 * Return the sorted indices of the concept at the specified index together with all of its ancestors.
+	 */
+	int[] ancestorIndices(int index) {
+		BitSet visited = new BitSet(_conceptIds.length);
+		_walk(index, _parentOffsets, _parents, visited);
+		return visited.stream().toArray();
+	}
+
+	/*
+	 * Return the adjacency lists, which must not be modified.
+	 */
+	int[] parentOffsets() {
+		return _parentOffsets;
+	}
+
+	int[] parentIndices() {
+		return _parents;
+	}
+
+	int[] childOffsets() {
+		return _childOffsets;
+	}
+
+	int[] childIndices() {
+		return _children;
+	}
+
+	/**
+	 * Return a set of the specified concepts, for combining with expansions.
+	 * Concepts that are not in the hierarchy are ignored.
+	 */
+	public ConceptSet conceptSet(long... conceptIds) {
+		BitSet bits = new BitSet(_conceptIds.length);
+		for (long conceptId : conceptIds) {
+			int i = indexOf(conceptId);
+			if (i >= 0) {
+				bits.set(i);
+			}
+		}
+		return new ConceptSet(_conceptIds, bits);
+	}
+
+	/**
+	 * Is the concept the same as, or a descendant of, the specified parent?
+	 */
+	public boolean isA(long conceptId, long parentConceptId) {
+		if (conceptId == parentConceptId) {
+			return true;
+		}
+		int target = indexOf(parentConceptId);
+		int i = indexOf(conceptId);
+		if (i < 0 || target < 0) {
+			return false;
+		}
+		BitSet visited = new BitSet(_conceptIds.length);
+		int[] queue = new int[16];
+		int head = 0, tail = 0;
+		queue[tail++] = i;
+		visited.set(i);
+		while (head < tail) {
+			int current = queue[head++];
+			for (int j=_parentOffsets[current]; j<_parentOffsets[current+1]; j++) {
+				int parent = _parents[j];
+				if (parent == target) {
+					return true;
+				}
+				if (!visited.get(parent)) {
+					visited.set(parent);
+					if (tail == queue.length) {
+						queue = Arrays.copyOf(queue, queue.length * 2);
+					}
+					queue[tail++] = parent;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Return the nearest concepts, starting with the concept itself and then walking up through
+	 * its ancestors, that match the specified predicate.
+	 * All matching concepts at the nearest distance are returned, in order of concept identifier.
+	 * @param conceptId
+	 * @param predicate
+	 * @return sorted concept identifiers, or an empty array if no concept matches.
+	 */
+	public long[] nearest(long conceptId, LongPredicate predicate) {
+		if (predicate.test(conceptId)) {
+			return new long[] { conceptId };
+		}
+		int i = indexOf(conceptId);
+		if (i < 0) {
+			return EMPTY;
+		}
+		BitSet visited = new BitSet(_conceptIds.length);
+		visited.set(i);
+		int[] level = new int[] { i };
+		int levelSize = 1;
+		while (levelSize > 0) {
+			int[] next = new int[16];
+			int nextSize = 0;
+			BitSet matches = null;
+			for (int k=0; k<levelSize; k++) {
+				int current = level[k];
+				for (int j=_parentOffsets[current]; j<_parentOffsets[current+1]; j++) {
+					int parent = _parents[j];
+					if (!visited.get(parent)) {
+						visited.set(parent);
+						if (predicate.test(_conceptIds[parent])) {
+							if (matches == null) {
+								matches = new BitSet();
+							}
+							matches.set(parent);
+						}
+						if (nextSize == next.length) {
+							next = Arrays.copyOf(next, next.length * 2);
+						}
+						next[nextSize++] = parent;
+					}
+				}
+			}
+			if (matches != null) {
+				return _identifiers(matches);
+			}
+			level = next;
+			levelSize = nextSize;
+		}
+		return EMPTY;
+	}
+
+	/*
+	 * Mark all concepts reachable from the start index using the specified adjacency list.
+	 */
+	private static void _walk(int start, int[] offsets, int[] targets, BitSet visited) {
+		int[] stack = new int[16];
+		int size = 0;
+		stack[size++] = start;
+		visited.set(start);
+		while (size > 0) {
+			int current = stack[--size];
+			for (int j=offsets[current]; j<offsets[current+1]; j++) {
+				int next = targets[j];
+				if (!visited.get(next)) {
+					visited.set(next);
+					if (size == stack.length) {
+						stack = Arrays.copyOf(stack, stack.length * 2);
+					}
+					stack[size++] = next;
+				}
+			}
+		}
+	}
+
+	private long[] _identifiers(int[] indices, int from, int to) {
+		long[] result = new long[to - from];
+		for (int i=from; i<to; i++) {
+			result[i-from] = _conceptIds[indices[i]];
+		}
+		return result;
+	}
+
+	private long[] _identifiers(BitSet indices) {
+		long[] result = new long[indices.cardinality()];
+		int n = 0;
+		for (int i = indices.nextSetBit(0); i >= 0; i = indices.nextSetBit(i+1)) {
+			result[n++] = _conceptIds[i];
+		}
+		return result;
+	}
+
+	/**
+	 * Builds a hierarchy from a list of child-parent pairs.
+	 */
+	public static class Builder {
+		private long[] _childIds = new long[1024];
+		private long[] _parentIds = new long[1024];
+		private int _size;
+
+		public Builder add(long childConceptId, long parentConceptId) {
+			if (_size == _childIds.length) {
+				_childIds = Arrays.copyOf(_childIds, _size * 2);
+				_parentIds = Arrays.copyOf(_parentIds, _size * 2);
+			}
+			_childIds[_size] = childConceptId;
+			_parentIds[_size] = parentConceptId;
+			_size++;
+			return this;
+		}
+
+		public Hierarchy build() {
+			long[] all = new long[_size * 2];
+			System.arraycopy(_childIds, 0, all, 0, _size);
+			System.arraycopy(_parentIds, 0, all, _size, _size);
+			Arrays.sort(all);
+			int count = 0;
+			for (int i=0; i<all.length; i++) {
+				if (i == 0 || all[i] != all[i-1]) {
+					all[count++] = all[i];
+				}
+			}
+			long[] conceptIds = Arrays.copyOf(all, count);
+			int[] children = new int[_size];
+			int[] parents = new int[_size];
+			for (int i=0; i<_size; i++) {
+				children[i] = Arrays.binarySearch(conceptIds, _childIds[i]);
+				parents[i] = Arrays.binarySearch(conceptIds, _parentIds[i]);
+			}
+			int[] parentOffsets = new int[count + 1];
+			int[] parentList = _adjacency(count, children, parents, parentOffsets);
+			int[] childOffsets = new int[count + 1];
+			int[] childList = _adjacency(count, parents, children, childOffsets);
+			return new Hierarchy(conceptIds, parentOffsets, parentList, childOffsets, childList);
+		}
+
+		/*
+		 * Build a compressed adjacency list from "from" to "to", removing duplicates.
+		 */
+		private int[] _adjacency(int count, int[] from, int[] to, int[] offsets) {
+			int[] counts = new int[count + 1];
+			for (int i=0; i<from.length; i++) {
+				counts[from[i]+1]++;
+			}
+			for (int i=0; i<count; i++) {
+				counts[i+1] += counts[i];
+			}
+			int[] result = new int[from.length];
+			int[] position = Arrays.copyOf(counts, count);
+			for (int i=0; i<from.length; i++) {
+				result[position[from[i]]++] = to[i];
+			}
+			int n = 0;
+			for (int i=0; i<count; i++) {
+				offsets[i] = n;
+				int start = counts[i];
+				int end = counts[i+1];
+				Arrays.sort(result, start, end);
+				for (int j=start; j<end; j++) {
+					if (j == start || result[j] != result[j-1]) {
+						result[n++] = result[j];
+					}
+				}
+			}
+			offsets[count] = n;
+			return n == result.length ? result : Arrays.copyOf(result, n);
+		}
+	}
+}
@@ -0,0 +1,166 @@
+package com.eldrix.terminology.snomedct;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.query.ObjectSelect;
+
+/**
+ * An in-memory index of Read codes (CTV3 identifiers) to SNOMED-CT concept identifiers.
+ *
+ * Every concept in the RF1 concept file carries a CTV3 identifier, and legacy GP systems
+ * will usually send a Read code rather than a SNOMED-CT concept. This index holds the codes
+ * in a single sorted array so that exact and prefix lookups are simple binary searches and
+ * require no database access.
+ *
+ * @author Mark Wardle
+ */
+public class ReadCodes {
+	private static final String CTV_ID_COLUMN = "ctv_id";
+	private static volatile ReadCodes _instance;
+
+	private final String[] _codes;			// sorted read codes
+	private final long[] _conceptIds;		// concept identifiers, in the same order as the codes
+
+	private ReadCodes(String[] codes, long[] conceptIds) {
+		_codes = codes;
+		_conceptIds = conceptIds;
+	}
+
+	/**
+	 * Return a shared instance, loading the index from the database if it has not already been loaded.
+	 * @param context
+	 * @return
+	 */
+	public static ReadCodes getInstance(ObjectContext context) {
+		ReadCodes result = _instance;
+		if (result == null) {
+			synchronized(ReadCodes.class) {
+				result = _instance;
+				if (result == null) {
+					_instance = result = load(context);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Load the index from the concepts in the database.
+	 * @param context
+	 * @return
+	 */
+	public static ReadCodes load(ObjectContext context) {
+		Builder b = new Builder();
+		ObjectSelect.dataRowQuery(Concept.class).iterate(context, row -> {
+			b.add((String) row.get(CTV_ID_COLUMN), (Long) row.get(Concept.CONCEPT_ID_PK_COLUMN));
+		});
+		return b.build();
+	}
+
+	/**
+	 * Return the number of codes in this index.
+	 */
+	public int size() {
+		return _codes.length;
+	}
+
+	/**
+	 * Return the concept identifiers for the specified Read code.
+	 * @param readCode
+	 * @return concept identifiers, or an empty array if there are no matches.
+	 */
+	public long[] conceptsForCode(String readCode) {
+		int start = _lowerBound(readCode);
+		int end = start;
+		while (end < _codes.length && _codes[end].equals(readCode)) {
+			end++;
+		}
+		return Arrays.copyOfRange(_conceptIds, start, end);
+	}
+
+	/**
+	 * Return the concept identifiers for all Read codes starting with the specified prefix.
+	 * @param prefix
+	 * @return concept identifiers, or an empty array if there are no matches.
+	 */
+	public long[] conceptsForPrefix(String prefix) {
+		int start = _lowerBound(prefix);
+		int end = start;
+		while (end < _codes.length && _codes[end].startsWith(prefix)) {
+			end++;
+		}
+		return Arrays.copyOfRange(_conceptIds, start, end);
+	}
+
+	/**
+	 * Map a batch of Read codes to concept identifiers.
+	 * The result contains an entry for every distinct code requested, in the order requested.
+	 * @param readCodes
+	 * @param prefix - whether to treat each code as a prefix
+	 * @return
+	 */
+	public Map<String, long[]> conceptsForCodes(Collection<String> readCodes, boolean prefix) {
+		LinkedHashMap<String, long[]> result = new LinkedHashMap<>();
+		for (String code : readCodes) {
+			if (code != null && !result.containsKey(code)) {
+				result.put(code, prefix ? conceptsForPrefix(code) : conceptsForCode(code));
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * Return the index of the first code that is greater than or equal to the key.
+	 */
+	private int _lowerBound(String key) {
+		int low = 0;
+		int high = _codes.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (_codes[mid].compareTo(key) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Builds a Read code index.
+	 */
+	public static class Builder {
+		private final ArrayList<String> _codes = new ArrayList<>();
+		private final ArrayList<Long> _conceptIds = new ArrayList<>();
+
+		public Builder add(String readCode, long conceptId) {
+			if (readCode != null && readCode.length() > 0) {
+				_codes.add(readCode);
+				_conceptIds.add(conceptId);
+			}
+			return this;
+		}
+
+		public ReadCodes build() {
+			int size = _codes.size();
+			Integer[] order = new Integer[size];
+			for (int i=0; i<size; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, Comparator.comparing((Integer i) -> _codes.get(i)).thenComparing(i -> _conceptIds.get(i)));
+			String[] codes = new String[size];
+			long[] conceptIds = new long[size];
+			for (int i=0; i<size; i++) {
+				codes[i] = _codes.get(order[i]);
+				conceptIds[i] = _conceptIds.get(order[i]);
+			}
+			return new ReadCodes(codes, conceptIds);
+		}
+	}
+}
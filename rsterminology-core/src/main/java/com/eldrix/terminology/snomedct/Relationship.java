@@ -1,30 +1,70 @@
 package com.eldrix.terminology.snomedct;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
 
+import org.apache.cayenne.Cayenne;
+
 import com.eldrix.terminology.snomedct.auto._Relationship;
 import com.eldrix.terminology.snomedct.semantic.RelationType;
 
 public class Relationship extends _Relationship {
 	private static final long serialVersionUID = 1L; 
 
+	/**
+	 * The characteristic type of a relationship, from the RF1 release.
+	 */
+	public enum CharacteristicType {
+		DEFINING(0, "Defining"),
+		QUALIFYING(1, "Qualifying"),
+		HISTORICAL(2, "Historical"),
+		ADDITIONAL(3, "Additional");
+		public final int code;
+		String name;
+		CharacteristicType(int code, String name) {
+			this.code = code;
+			this.name = name;
+		}
+		private static final Map<Integer, CharacteristicType> _lookup = new HashMap<Integer, CharacteristicType>();
+		static {
+			for (CharacteristicType t : values()) {
+				_lookup.put(t.code, t);
+			}
+		};
+		public static Optional<CharacteristicType> getCharacteristicType(int code) {
+			return Optional.ofNullable(_lookup.get(code));
+		}
+	}
+
+	/**
+	 * Return the characteristic type of this relationship.
+	 */
+	public Optional<CharacteristicType> getType() {
+		Integer code = getCharacteristicType();
+		return code != null ? CharacteristicType.getCharacteristicType(code) : Optional.empty();
+	}
+
 	public Optional<RelationType> getRelationType() {
 		return Optional.ofNullable(RelationType.relationTypeForConceptId(getRelationshipTypeConceptId()));
 	}
 
+	/*
+	 * These read the identifier of the related concept without fetching it.
+	 */
 	public Long getRelationshipTypeConceptId() {
 		Concept c = getRelationshipTypeConcept();
-		return c != null ? c.getConceptId() : null;
+		return c != null ? Cayenne.longPKForObject(c) : null;
 	}
 	
 	public Long getSourceConceptId() {
 		Concept c = getSourceConcept();
-		return c != null ? c.getConceptId() : null;
+		return c != null ? Cayenne.longPKForObject(c) : null;
 	}
 	
 	public Long getTargetConceptId() {
 		Concept c = getTargetConcept();
-		return c != null ? c.getConceptId() : null;
+		return c != null ? Cayenne.longPKForObject(c) : null;
 	}
 
 }
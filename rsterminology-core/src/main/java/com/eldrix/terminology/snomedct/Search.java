@@ -5,55 +5,92 @@ import java.io.IOException;
 import java.net.URI;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.PrimitiveIterator;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.LongStream;
 
 import org.apache.cayenne.ObjectContext;
 import org.apache.cayenne.query.EJBQLQuery;
+import org.apache.cayenne.query.ObjectSelect;
 import org.apache.cayenne.query.SelectQuery;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DoubleDocValuesField;
 import org.apache.lucene.document.Field.Store;
 import org.apache.lucene.document.IntPoint;
 import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedNumericDocValuesField;
 import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValues;
 import org.apache.lucene.index.FieldInvertState;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
 import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SortedNumericDocValues;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.queries.CustomScoreProvider;
+import org.apache.lucene.queries.CustomScoreQuery;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.ConstantScoreScorer;
+import org.apache.lucene.search.ConstantScoreWeight;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.FilterCollector;
+import org.apache.lucene.search.FilterLeafCollector;
 import org.apache.lucene.search.FuzzyQuery;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.LeafCollector;
+import org.apache.lucene.search.MultiCollector;
 import org.apache.lucene.search.MultiTermQuery;
 import org.apache.lucene.search.PrefixQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.SimpleCollector;
 import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TimeLimitingCollector;
 import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.search.TwoPhaseIterator;
+import org.apache.lucene.search.Weight;
 import org.apache.lucene.search.similarities.ClassicSimilarity;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.store.LockObtainFailedException;
+import org.apache.lucene.util.Bits;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.eldrix.terminology.cayenne.CayenneUtility;
+import com.eldrix.terminology.metrics.Metrics;
+import com.eldrix.terminology.metrics.Trace;
+import com.eldrix.terminology.snomedct.semantic.Category;
 import com.eldrix.terminology.snomedct.semantic.Dmd;
+import com.eldrix.terminology.snomedct.semantic.DmdGraph;
+import com.eldrix.terminology.snomedct.semantic.DmdPrescribing;
 import com.eldrix.terminology.snomedct.semantic.RelationType;
 
 
@@ -72,6 +109,7 @@ public class Search {
 
 	private static final int BATCH_ITERATOR_COUNT = 500;		// number of descriptions to process in a single batch.
 	private static final int DEFAULT_MAXIMUM_HITS = 200;		// default maximum of hits to return.
+	private static final int DEFAULT_MAXIMUM_EXPANSIONS = BooleanQuery.getMaxClauseCount();	// default maximum terms for a prefix or wildcard.
 	private static final String INDEX_LOCATION_PROPERTY_KEY="com.eldrix.snomedct.search.lucene.IndexLocation";
 	private static final String DEFAULT_INDEX_LOCATION="/var/rsdb/sct_lucene6/";
 
@@ -89,9 +127,24 @@ public class Search {
 	private static final String FIELD_DESCRIPTION_ID="descriptionId";
 	private static final String FIELD_DESCRIPTION_ID_INDEX="descriptionIdIndex";
 	private static final String FIELD_DESCRIPTION_TYPE="descriptionType";
+	private static final String FIELD_DMD_PRODUCT="dmdProduct";				// ordinal of Dmd.Product, for DM&D products only
+	private static final String FIELD_DMD_PRESCRIBABLE="dmdPrescribable";
+	private static final String FIELD_DMD_AVAILABLE="dmdAvailable";
+	private static final String FIELD_MIN_DEPTH="minDepth";						// docvalues only, from ConceptStatistics
+	private static final String FIELD_MAX_DEPTH="maxDepth";
+	private static final String FIELD_DESCENDANT_COUNT="descendantCount";
+	private static final String FIELD_INFORMATION_CONTENT="informationContent";
+	private static final Set<String> TERM_FIELDS = Collections.singleton(FIELD_TERM);
+	private static final Set<String> CONCEPT_ID_FIELDS = Collections.singleton(FIELD_CONCEPT_ID);
+	private static final Dmd.Product[] DMD_PRODUCTS = Dmd.Product.values();
+	private static final String METRIC_SEARCH = "rsterminology_search_seconds";
+	private static final Metrics.Counter _partialSearches = Metrics.counter("rsterminology_search_partial_total", "Number of searches that exceeded their time limit");
+	private static final Metrics.Counter _indexedDescriptions = Metrics.counter("rsterminology_index_descriptions_total", "Number of descriptions indexed");
+	private static final Metrics.Histogram _searcherRefresh = Metrics.timer("rsterminology_searcher_refresh_seconds", "Time taken to open the index for searching");
 
 	private Analyzer _analyzer = new StandardAnalyzer();
 	private IndexSearcher _searcher;
+	private volatile SpellingCorrector _spelling;
 	private String _indexLocation; 
 
 	/**
@@ -210,15 +263,59 @@ public class Search {
 		 */
 		public static final Query DMD_VMP_OR_AMP = forDirectParent(dmdVmpOrAmpIds);
 
+		/**
+		 * Return a filter for DM&D products of the specified types.
+		 */
+		public static Query forDmdProduct(Dmd.Product... products) {
+			int[] ordinals = new int[products.length];
+			for (int i=0; i<products.length; i++) {
+				ordinals[i] = products[i].ordinal();
+			}
+			return IntPoint.newSetQuery(FIELD_DMD_PRODUCT, ordinals);
+		}
+
+		/**
+		 * Return DM&D products that are prescribable (see {@link DmdPrescribing#isPrescribable(long)}).
+		 */
+		public static final Query DMD_PRESCRIBABLE = IntPoint.newExactQuery(FIELD_DMD_PRESCRIBABLE, 1);
+
+		/**
+		 * Return DM&D VMPs and AMPs that are available (see {@link DmdPrescribing#isAvailable(long)}).
+		 */
+		public static final Query DMD_AVAILABLE = IntPoint.newExactQuery(FIELD_DMD_AVAILABLE, 1);
+
 		/**
 		 * Return concepts that are active.
 		 */
 		public static final Query CONCEPT_ACTIVE = IntPoint.newSetQuery(FIELD_CONCEPT_STATUS, Concept.Status.activeCodes());
 
+		/**
+		 * Return descriptions that are active.
+		 */
+		public static final Query DESCRIPTION_ACTIVE = IntPoint.newSetQuery(FIELD_DESCRIPTION_STATUS, Description.Status.activeCodes());
+
 		/**
 		 * Return descriptions of all types except fully specified names.
 		 */
 		public static final Query WITHOUT_FULLY_SPECIFIED_NAMES = withoutDescriptionType(Description.Type.FULLY_SPECIFIED_NAME);
+
+		/**
+		 * Return a filter for descriptions of the concepts in the specified set, such as an expansion
+		 * from {@link Hierarchy#expand(long...)}. The set is tested for each description rather than
+		 * being turned into a query clause per concept, so it may be of any size.
+		 */
+		public static Query forConcepts(ConceptSet concepts) {
+			return new ConceptSetQuery(concepts);
+		}
+
+		/**
+		 * Return a filter for descriptions of the concepts matching an expression constraint,
+		 * e.g. "&lt;&lt; 64572001 MINUS &lt;&lt; 404684003".
+		 * @throws Ecl.ParseException if the expression is invalid
+		 */
+		public static Query forExpression(Ecl ecl, String expression) throws Ecl.ParseException {
+			return forConcepts(ecl.evaluate(expression));
+		}
 	}
 
 	/**
@@ -259,13 +356,24 @@ public class Search {
 		_searcher.setSimilarity(new SnomedSimilarity());
 	}
 
+	/*
+	 * Search an index that is already open, such as an in-memory index for testing.
+	 */
+	Search(IndexReader reader) {
+		_searcher = new IndexSearcher(reader);
+		_searcher.setSimilarity(new SnomedSimilarity());
+	}
+
 	@Override
 	public String toString() {
 		return super.toString() + ": loc: `" + _indexLocation + "'";
 	}
 
 	private IndexSearcher createSearcher() throws CorruptIndexException, IOException {
-		return new IndexSearcher(createOrLoadIndexReader(indexFile(), analyser()));
+		long start = System.nanoTime();
+		IndexSearcher searcher = new IndexSearcher(createOrLoadIndexReader(indexFile(), analyser()));
+		_searcherRefresh.recordSince(start);
+		return searcher;
 	}
 
 	/**
@@ -277,6 +385,8 @@ public class Search {
 	 *
 	 */
 	public void processAllDescriptions(ObjectContext context) throws CorruptIndexException, LockObtainFailedException, IOException {
+		DmdPrescribing dmd = DmdPrescribing.load(context);
+		ConceptStatistics statistics = ConceptStatistics.getInstance(context);
 		IndexWriter writer = createOrLoadIndexWriter(indexFile(), analyser());
 		EJBQLQuery countQuery = new EJBQLQuery("select COUNT(d) FROM Description d");
 		@SuppressWarnings("unchecked") long count = ((List<Long>) context.performQuery(countQuery)).get(0);
@@ -285,7 +395,7 @@ public class Search {
 		CayenneUtility.timedBatchIterator(context, query, BATCH_ITERATOR_COUNT, count, (batch) -> {
 			try {
 				for (Description d : batch) {
-					processDescription(writer, d);
+					processDescription(writer, d, dmd, statistics);
 				}
 				writer.commit();			
 			} catch (IOException e) {
@@ -299,6 +409,77 @@ public class Search {
 		_searcher = createSearcher();		// create a new searcher now the index has changed.
 	}
 
+	/**
+	 * Update the index for the descriptions of DM&D products only, including concepts previously indexed as products
+	 * that no longer are.
+	 * This is much quicker than rebuilding the whole index and should be run after the DM&D is updated, so that
+	 * product type, prescribability and availability remain correct.
+	 * @throws IOException
+	 * @throws LockObtainFailedException
+	 * @throws CorruptIndexException
+	 */
+	public void processDmdDescriptions(ObjectContext context) throws CorruptIndexException, LockObtainFailedException, IOException {
+		DmdPrescribing dmd = DmdPrescribing.load(context);
+		ConceptStatistics statistics = ConceptStatistics.getInstance(context);
+		IndexWriter writer = createOrLoadIndexWriter(indexFile(), analyser());
+		System.out.println("Updating search index for DM&D products:");
+		ArrayList<Long> batch = new ArrayList<>(BATCH_ITERATOR_COUNT);
+		PrimitiveIterator.OfLong conceptIds = LongStream.concat(
+				Arrays.stream(DMD_PRODUCTS).flatMapToLong(product -> Arrays.stream(dmd.getGraph().conceptsForProduct(product))),
+				Arrays.stream(formerProducts(dmd.getGraph())))		// reindexed without DM&D fields
+				.iterator();
+		while (conceptIds.hasNext()) {
+			batch.add(conceptIds.nextLong());
+			if (batch.size() == BATCH_ITERATOR_COUNT) {
+				_processDescriptionsForConcepts(context, writer, batch, dmd, statistics);
+			}
+		}
+		_processDescriptionsForConcepts(context, writer, batch, dmd, statistics);
+		writer.forceMerge(1);
+		writer.close();
+		System.out.println("Finished updating search index");
+		_searcher = createSearcher();
+	}
+
+	/*
+	 * Return the concepts indexed as DM&D products that are not products in the specified graph.
+	 */
+	long[] formerProducts(DmdGraph graph) throws IOException {
+		LongStream.Builder result = LongStream.builder();
+		searcher().search(Filter.forDmdProduct(DMD_PRODUCTS), new SimpleCollector() {
+			private LeafReaderContext _context;
+			private NumericDocValues _values;
+			@Override
+			protected void doSetNextReader(LeafReaderContext context) throws IOException {
+				_context = context;
+				_values = context.reader().getNumericDocValues(FIELD_CONCEPT_ID);
+			}
+			@Override
+			public void collect(int doc) throws IOException {
+				long conceptId = _values != null ? _values.get(doc)
+						: _context.reader().document(doc, CONCEPT_ID_FIELDS).getField(FIELD_CONCEPT_ID).numericValue().longValue();
+				if (graph.productForConcept(conceptId) == null) {
+					result.add(conceptId);
+				}
+			}
+			@Override
+			public boolean needsScores() {
+				return false;
+			}
+		});
+		return result.build().distinct().toArray();
+	}
+
+	private void _processDescriptionsForConcepts(ObjectContext context, IndexWriter writer, List<Long> conceptIds, DmdPrescribing dmd, ConceptStatistics statistics) throws IOException {
+		if (conceptIds.size() > 0) {
+			for (Description d : ObjectSelect.query(Description.class, Description.CONCEPT.dot(Concept.CONCEPT_ID).in(conceptIds)).select(context)) {
+				processDescription(writer, d, dmd, statistics);
+			}
+			writer.commit();
+			conceptIds.clear();
+		}
+	}
+
 	/**
 	 * Process a single description.
 	 *
@@ -308,6 +489,34 @@ public class Search {
 	 * @throws IOException
 	 */
 	protected void processDescription(IndexWriter writer, Description d) throws CorruptIndexException, IOException {
+		processDescription(writer, d, null);
+	}
+
+	/**
+	 * Process a single description, including product type, prescribability and availability for DM&D products.
+	 *
+	 * @param writer
+	 * @param d
+	 * @param dmd - precomputed DM&D prescribing information, or null
+	 * @throws CorruptIndexException
+	 * @throws IOException
+	 */
+	protected void processDescription(IndexWriter writer, Description d, DmdPrescribing dmd) throws CorruptIndexException, IOException {
+		processDescription(writer, d, dmd, null);
+	}
+
+	/**
+	 * Process a single description, including DM&D information and the depth, descendant count and
+	 * information content of its concept, which are stored as docvalues for use in ranking.
+	 *
+	 * @param writer
+	 * @param d
+	 * @param dmd - precomputed DM&D prescribing information, or null
+	 * @param statistics - precomputed concept statistics, or null
+	 * @throws CorruptIndexException
+	 * @throws IOException
+	 */
+	protected void processDescription(IndexWriter writer, Description d, DmdPrescribing dmd, ConceptStatistics statistics) throws CorruptIndexException, IOException {
 		writer.deleteDocuments(LongPoint.newExactQuery(FIELD_DESCRIPTION_ID_INDEX, d.getDescriptionId()));
 		Document doc = new Document();
 		doc.add(new TextField(FIELD_TERM, d.getTerm(), Store.YES));
@@ -319,13 +528,44 @@ public class Search {
 		doc.add(new StoredField(FIELD_DESCRIPTION_ID, d.getDescriptionId()));		// for storage and retrieval
 		doc.add(new LongPoint(FIELD_DESCRIPTION_ID_INDEX, d.getDescriptionId()));	// for indexing and search
 		doc.add(new StoredField(FIELD_CONCEPT_ID, d.getConcept().getConceptId()));
+		doc.add(new NumericDocValuesField(FIELD_CONCEPT_ID, d.getConcept().getConceptId()));	// for grouping by concept
 		for (long parent : d.getConcept().getCachedRecursiveParents()) {
 			doc.add(new LongPoint(FIELD_RECURSIVE_PARENT_CONCEPT_ID, parent));
+			doc.add(new SortedNumericDocValuesField(FIELD_RECURSIVE_PARENT_CONCEPT_ID, parent));	// for facet counts
 		}
 		for (Relationship parent : d.getConcept().getParentRelationshipsOfType(RelationType.IS_A)) {
 			doc.add(new LongPoint(FIELD_DIRECT_PARENT_CONCEPT_ID, parent.getTargetConceptId()));
 		}
+		if (dmd != null) {
+			addDmdFields(doc, d.getConcept().getConceptId(), dmd);
+		}
+		if (statistics != null) {
+			_addStatisticsFields(doc, d.getConcept().getConceptId(), statistics);
+		}
 		writer.addDocument(doc);
+		_indexedDescriptions.increment();
+	}
+
+	/*
+	 * Add the product type, prescribability and availability of a DM&D product; other concepts are left unchanged.
+	 */
+	static void addDmdFields(Document doc, long conceptId, DmdPrescribing dmd) {
+		Dmd.Product product = dmd.getGraph().productForConcept(conceptId);
+		if (product != null) {
+			doc.add(new IntPoint(FIELD_DMD_PRODUCT, product.ordinal()));
+			doc.add(new NumericDocValuesField(FIELD_DMD_PRODUCT, product.ordinal()));
+			doc.add(new IntPoint(FIELD_DMD_PRESCRIBABLE, dmd.isPrescribable(conceptId) ? 1 : 0));
+			doc.add(new IntPoint(FIELD_DMD_AVAILABLE, dmd.isAvailable(conceptId) ? 1 : 0));
+		}
+	}
+
+	private static void _addStatisticsFields(Document doc, long conceptId, ConceptStatistics statistics) {
+		if (statistics.hierarchy().contains(conceptId)) {
+			doc.add(new NumericDocValuesField(FIELD_MIN_DEPTH, statistics.minDepth(conceptId)));
+			doc.add(new NumericDocValuesField(FIELD_MAX_DEPTH, statistics.maxDepth(conceptId)));
+			doc.add(new NumericDocValuesField(FIELD_DESCENDANT_COUNT, statistics.descendantCount(conceptId)));
+			doc.add(new DoubleDocValuesField(FIELD_INFORMATION_CONTENT, statistics.informationContent(conceptId)));
+		}
 	}
 
 	/**
@@ -352,23 +592,137 @@ public class Search {
 		final Search _searcher;
 		final Query _query;
 		final int _maxHits;
+		final long[] _facetRoots;
+		final boolean _groupByConcept;
+		final long _timeoutMillis;
+		final Metrics.Histogram _timer;
+
+		/*
+		 * The type of query, for metrics, with a timer for ungrouped and grouped searches of each type
+		 * so that these are not looked up for every request.
+		 */
+		enum Shape {
+			FILTER, QUERY, PARSER, TEXT, FUZZY, CORRECTED;
+			private final Metrics.Histogram[] _timers = new Metrics.Histogram[2];
+
+			Shape() {
+				for (int grouped=0; grouped<2; grouped++) {
+					_timers[grouped] = Metrics.timer(METRIC_SEARCH, "Time taken to search the index, by type of query",
+							"shape", name().toLowerCase(), "grouped", String.valueOf(grouped == 1));
+				}
+			}
+
+			Metrics.Histogram timer(boolean grouped) {
+				return _timers[grouped ? 1 : 0];
+			}
+		}
 
 		Request(Search search, Query query, int maxHits) {
+			this(search, query, maxHits, new long[0], false, 0, Shape.QUERY);
+		}
+
+		Request(Search search, Query query, int maxHits, long[] facetRoots, boolean groupByConcept, long timeoutMillis, Shape shape) {
 			_searcher = search;
 			_query = query;
 			_maxHits = maxHits;
+			_facetRoots = facetRoots;
+			_groupByConcept = groupByConcept;
+			_timeoutMillis = timeoutMillis;
+			_timer = shape.timer(groupByConcept);
 		}
 
 		/**
 		 * Search, returning the raw TopDocs results from Lucene.
+		 * If grouped by concept, only the best matching description for each concept is returned.
 		 * @return
 		 * @throws CorruptIndexException
 		 * @throws IOException
 		 */
 		public TopDocs searchForTopDocs() throws CorruptIndexException, IOException {
-			return _searcher.searcher().search(_query, _maxHits);
+			if (_groupByConcept) {
+				ConceptGroupingCollector top = new ConceptGroupingCollector(_maxHits);
+				_collect(_searcher.searcher(), top, 0);
+				return top.topDocs();
+			}
+			TopScoreDocCollector top = TopScoreDocCollector.create(Math.max(1, _maxHits));
+			_collect(_searcher.searcher(), top, 0);
+			return top.topDocs(0, _maxHits);
+		}
+
+		/*
+		 * Run the query, stopping collection if the time limit, if any, is exceeded.
+		 * Returns whether the time limit was exceeded. Only entry points that can report this
+		 * to the caller, as part of the Results, should pass a time limit.
+		 */
+		private boolean _collect(IndexSearcher searcher, Collector collector, long timeoutMillis) throws IOException {
+			long start = System.nanoTime();
+			boolean partial = false;
+			if (timeoutMillis > 0) {
+				try {
+					searcher.search(_query, new TimeLimitingCollector(collector, TimeLimitingCollector.getGlobalCounter(), timeoutMillis));
+				} catch (TimeLimitingCollector.TimeExceededException e) {
+					log.debug("Search exceeded time limit of " + timeoutMillis + "ms: " + _query);
+					partial = true;
+					_partialSearches.increment();
+				}
+			} else {
+				searcher.search(_query, collector);
+			}
+			long elapsed = System.nanoTime() - start;
+			_timer.recordNanos(elapsed);
+			if (Trace.isActive()) {
+				Trace.record(Trace.LUCENE, _query + (partial ? " [partial]" : ""), elapsed);
+			}
+			return partial;
+		}
+
+
+		/**
+		 * Search, returning the ordered results together with the total number of hits,
+		 * the number of hits for each type of DM&D product and the number of hits for each of the facet roots
+		 * specified using {@link Builder#withFacets(long...)}, all counted in the same pass.
+		 * If grouped by concept, the counts by product type and facet root are of concepts rather than descriptions.
+		 * @return
+		 * @throws CorruptIndexException
+		 * @throws IOException
+		 */
+		public Results searchWithFacets() throws CorruptIndexException, IOException {
+			IndexSearcher searcher = _searcher.searcher();
+			TopScoreDocCollector top = _groupByConcept ? null : TopScoreDocCollector.create(Math.max(1, _maxHits));
+			ConceptGroupingCollector grouped = _groupByConcept ? new ConceptGroupingCollector(_maxHits) : null;
+			ProductCountCollector products = new ProductCountCollector();
+			RootCountCollector roots = new RootCountCollector(_facetRoots);
+			Collector counts = MultiCollector.wrap(products, _facetRoots.length > 0 ? roots : null);
+			if (_groupByConcept) {
+				counts = new FirstPerConceptCollector(counts);
+			}
+			boolean partial = _collect(searcher, MultiCollector.wrap(top, grouped, counts), _timeoutMillis);
+			TopDocs docs = _groupByConcept ? grouped.topDocs() : top.topDocs(0, _maxHits);
+			return new Results(resultsFromTopDocs(searcher, docs), docs.totalHits, products.counts(), roots.counts(), partial);
 		}
 
+		/**
+		 * Search, returning the ordered results together with the total number of hits and whether the
+		 * search ran out of time (see {@link Builder#withTimeout(long)}), without counting hits by facet.
+		 * @return
+		 * @throws CorruptIndexException
+		 * @throws IOException
+		 */
+		public Results searchWithTotal() throws CorruptIndexException, IOException {
+			IndexSearcher searcher = _searcher.searcher();
+			boolean partial;
+			TopDocs docs;
+			if (_groupByConcept) {
+				ConceptGroupingCollector top = new ConceptGroupingCollector(_maxHits);
+				partial = _collect(searcher, top, _timeoutMillis);
+				docs = top.topDocs();
+			} else {
+				TopScoreDocCollector top = TopScoreDocCollector.create(Math.max(1, _maxHits));
+				partial = _collect(searcher, top, _timeoutMillis);
+				docs = top.topDocs(0, _maxHits);
+			}
+			return new Results(resultsFromTopDocs(searcher, docs), docs.totalHits, Collections.emptyMap(), Collections.emptyMap(), partial);
+		}
 
 		/**
 		 * Search, returning the ordered results as a list of ResultItems.
@@ -399,7 +753,9 @@ public class Search {
 
 		/**
 		 * Search, returning the results as a list of concept identifiers.
-		 * There will be no duplicates in the returned results.
+		 * There will be no duplicates in the returned results. Unless grouped by concept
+		 * (see {@link Builder#groupByConcept()}), there may be fewer concepts than the maximum number of hits
+		 * as multiple descriptions of the same concept may match.
 		 * @return
 		 * @throws CorruptIndexException
 		 * @throws IOException
@@ -420,20 +776,54 @@ public class Search {
 			return Search.descriptionsFromTopDocs(_searcher.searcher(), docs);
 		}
 
+		/**
+		 * Search, returning the terms of all matching descriptions in index order, regardless of the maximum number of hits.
+		 * This is intended for filter-only requests, such as listing the synonyms of an expansion.
+		 * @return
+		 * @throws CorruptIndexException
+		 * @throws IOException
+		 */
+		public List<String> searchForAllDescriptions() throws CorruptIndexException, IOException {
+			ArrayList<String> result = new ArrayList<>();
+			_collect(_searcher.searcher(), new SimpleCollector() {
+				private LeafReaderContext _context;
+				@Override
+				protected void doSetNextReader(LeafReaderContext context) throws IOException {
+					_context = context;
+				}
+				@Override
+				public void collect(int doc) throws IOException {
+					result.add(_context.reader().document(doc, TERM_FIELDS).get(FIELD_TERM));
+				}
+				@Override
+				public boolean needsScores() {
+					return false;
+				}
+			}, 0);
+			return result;
+		}
+
 		/**
 		 * A search request builder.
 		 *
 		 */
 		public static class Builder {
-			private static final int MINIMUM_CHARS_FOR_PREFIX_SEARCH = 3;
+			static final int MINIMUM_CHARS_FOR_PREFIX_SEARCH = 3;
 			private static final int MINIMUM_CHARS_FOR_FUZZY_SEARCH = MINIMUM_CHARS_FOR_PREFIX_SEARCH;
 			private static final int DEFAULT_FUZZY_MAXIMUM_EDITS = 2;
 			Search _searcher;
 			int _maxHits = DEFAULT_MAXIMUM_HITS;
 			int _fuzzyMaxEdits = 0;
 			String _searchText;
+			Shape _shape = Shape.FILTER;
 			Query _query;
 			ArrayList<Query> _filters;
+			long[] _facetRoots = new long[0];
+			boolean _groupByConcept;
+			boolean _correctSpelling;
+			float _generalityBoost;
+			long _timeoutMillis;
+			int _maxExpansions = DEFAULT_MAXIMUM_EXPANSIONS;
 			QueryParser _queryParser;
 			private StandardAnalyzer _analyzer = new StandardAnalyzer();
 
@@ -446,7 +836,7 @@ public class Search {
 				if (_queryParser == null) {
 					_queryParser = new QueryParser(FIELD_TERM, _analyzer);
 					_queryParser.setDefaultOperator(QueryParser.Operator.AND);
-					_queryParser.setMultiTermRewriteMethod(MultiTermQuery.SCORING_BOOLEAN_REWRITE);
+					_queryParser.setMultiTermRewriteMethod(new MultiTermQuery.TopTermsScoringBooleanQueryRewrite(_maxExpansions));
 				}
 				return _queryParser;
 			}
@@ -471,6 +861,34 @@ public class Search {
 				return this;
 			}
 
+			/**
+			 * Limit the time spent collecting results. If the limit is exceeded, the best results found so far are
+			 * returned and the {@link Results} are flagged as partial. The limit applies only to
+			 * {@link Request#searchWithTotal()} and {@link Request#searchWithFacets()}, which can report this;
+			 * other types of search always run to completion.
+			 * Time spent expanding prefix, wildcard and fuzzy terms is not included; see {@link #setMaxExpansions(int)}.
+			 * @param millis - time allowed in milliseconds, or zero for no limit (the default)
+			 * @return
+			 */
+			public Builder withTimeout(long millis) {
+				_timeoutMillis = millis;
+				return this;
+			}
+
+			/**
+			 * Set the maximum number of index terms to which a prefix or wildcard term may expand.
+			 * When using a query parser, this must be set before the query is parsed.
+			 * @param maxExpansions
+			 * @return
+			 */
+			public Builder setMaxExpansions(int maxExpansions) {
+				_maxExpansions = Math.max(1, Math.min(maxExpansions, BooleanQuery.getMaxClauseCount()));
+				if (_queryParser != null) {
+					_queryParser.setMultiTermRewriteMethod(new MultiTermQuery.TopTermsScoringBooleanQueryRewrite(_maxExpansions));
+				}
+				return this;
+			}
+
 			/**
 			 * Set the main query for this search.
 			 * This allows complete control over the query by client applications
@@ -481,6 +899,7 @@ public class Search {
 			 */
 			public Builder searchUsingQuery(Query query) {
 				_query = query;
+				_shape = Shape.QUERY;
 				return this;
 			}
 
@@ -495,6 +914,7 @@ public class Search {
 			 */
 			public Builder searchUsingQueryParser(String searchText) throws ParseException {
 				_query = queryParser().parse(searchText);
+				_shape = Shape.PARSER;
 				return this;
 			}
 
@@ -509,6 +929,7 @@ public class Search {
 			public Builder search(String search) {
 				_searchText = search;
 				_query = null;
+				_shape = Shape.TEXT;
 				return this;
 			}
 
@@ -531,6 +952,16 @@ public class Search {
 				return this;
 			}
 
+			/**
+			 * Correct misspelt tokens using the terms in the index before searching, when the built-in parser is used.
+			 * This is much faster than a fuzzy search, and so is a better fallback for misspelt searches.
+			 * @return
+			 */
+			public Builder correctSpelling() {
+				_correctSpelling = true;
+				return this;
+			}
+
 			/**
 			 * Filter only for concepts with the specified (recursive) parents.
 			 * @param parents
@@ -573,6 +1004,68 @@ public class Search {
 				return withFilters(Search.Filter.WITHOUT_FULLY_SPECIFIED_NAMES);
 			}
 
+			/**
+			 * Group results by concept, so that the maximum number of hits applies to distinct concepts
+			 * and each is returned with its best matching description.
+			 * @return
+			 */
+			public Builder groupByConcept() {
+				_groupByConcept = true;
+				return this;
+			}
+
+			/**
+			 * Rank descriptions of general concepts, such as "disease", above those of more specific concepts
+			 * that match equally well, using the information content stored in the index.
+			 * The score of each hit is multiplied by 1 + weight / (1 + information content).
+			 * This has no effect on indexes built before concept statistics were added.
+			 * @param weight - how strongly to prefer general concepts, e.g. 1
+			 * @return
+			 */
+			public Builder preferGeneralConcepts(float weight) {
+				_generalityBoost = weight;
+				return this;
+			}
+
+			/**
+			 * Count hits that are a type of each of the specified concepts when using {@link Request#searchWithFacets()}.
+			 * @param roots - facet roots, such as the top-level concepts of the SNOMED-CT hierarchy
+			 * @return
+			 */
+			public Builder withFacets(long... roots) {
+				_facetRoots = roots.clone();
+				return this;
+			}
+
+			/**
+			 * Count hits in each of the specified categories when using {@link Request#searchWithFacets()}.
+			 */
+			public Builder withFacets(Category... categories) {
+				_facetRoots = Arrays.stream(categories).mapToLong(c -> c.conceptId).toArray();
+				return this;
+			}
+
+			/**
+			 * Include only DM&D products of the specified types.
+			 */
+			public Builder withDmdProducts(Dmd.Product... products) {
+				return withFilters(Search.Filter.forDmdProduct(products));
+			}
+
+			/**
+			 * Include only prescribable DM&D products.
+			 */
+			public Builder onlyPrescribable() {
+				return withFilters(Search.Filter.DMD_PRESCRIBABLE);
+			}
+
+			/**
+			 * Include only available DM&D VMPs and AMPs.
+			 */
+			public Builder onlyAvailable() {
+				return withFilters(Search.Filter.DMD_AVAILABLE);
+			}
+
 			/**
 			 * Include only active concepts during search.
 			 * @return
@@ -581,6 +1074,14 @@ public class Search {
 				return withFilters(Search.Filter.CONCEPT_ACTIVE);
 			}
 
+			/**
+			 * Include only active descriptions during search.
+			 * @return
+			 */
+			public Builder onlyActiveDescriptions() {
+				return withFilters(Search.Filter.DESCRIPTION_ACTIVE);
+			}
+
 			/**
 			 * Filter for concepts with the specified queries.
 			 * @param queries
@@ -606,20 +1107,27 @@ public class Search {
 				return this;
 			}
 
-			// determine query from plain search string with optional fuzziness.
-			private static Query queryFromString(Analyzer analyzer, String searchText, int fuzzy) {
+			// determine query from plain search string with optional fuzziness and spelling correction.
+			private static Query queryFromString(Analyzer analyzer, String searchText, int fuzzy, SpellingCorrector spelling, int maxExpansions) {
 				if (searchText != null && !searchText.isEmpty()) {
 					BooleanQuery.Builder b = new BooleanQuery.Builder();
 					try (TokenStream stream = analyzer.tokenStream(FIELD_TERM, searchText)) {
 						CharTermAttribute termAtt = stream.addAttribute(CharTermAttribute.class);
 						stream.reset();
+						ArrayList<String> tokens = new ArrayList<>();
 						while (stream.incrementToken()) {
-							String s = termAtt.toString();
+							tokens.add(termAtt.toString());
+						}
+						stream.end();
+						if (spelling != null) {
+							tokens = new ArrayList<>(spelling.correct(tokens));
+						}
+						for (String s : tokens) {
 							Term term = new Term("term", s);
 							Query tq = s.length() > MINIMUM_CHARS_FOR_FUZZY_SEARCH && fuzzy > 0 ? new FuzzyQuery(term, fuzzy) : new TermQuery(term);
 							if (s.length() >= MINIMUM_CHARS_FOR_PREFIX_SEARCH) {
 								PrefixQuery pq = new PrefixQuery(new Term("term", s));
-								pq.setRewriteMethod(PrefixQuery.SCORING_BOOLEAN_REWRITE);
+								pq.setRewriteMethod(new MultiTermQuery.TopTermsScoringBooleanQueryRewrite(maxExpansions));
 								BooleanQuery bq = new BooleanQuery.Builder().add(tq, Occur.SHOULD).add(pq, Occur.SHOULD).build();
 								b.add(bq, Occur.MUST);
 							}
@@ -627,7 +1135,6 @@ public class Search {
 								b.add(tq,Occur.MUST);
 							}
 						}
-						stream.end();
 					} catch (IOException e) {
 						e.printStackTrace();
 					}
@@ -636,12 +1143,23 @@ public class Search {
 				return null;
 			}
 
+			private SpellingCorrector _spellingCorrector() {
+				if (_correctSpelling && _fuzzyMaxEdits == 0) {
+					try {
+						return _searcher.spellingCorrector();
+					} catch (IOException e) {
+						log.warn("Unable to correct spelling: " + e.getLocalizedMessage(), e);
+					}
+				}
+				return null;
+			}
+
 			/**
 			 * Create the search request.
 			 * @return
 			 */
 			public Request build() {
-				Query query = _query != null ? _query : queryFromString(_analyzer, _searchText, _fuzzyMaxEdits);
+				Query query = _query != null ? _query : queryFromString(_analyzer, _searchText, _fuzzyMaxEdits, _spellingCorrector(), _maxExpansions);
 				if (_filters != null && _filters.size() > 0) {
 					BooleanQuery.Builder bqBuilder = new BooleanQuery.Builder();
 					if (query != null) {
@@ -652,8 +1170,497 @@ public class Search {
 					}
 					query = bqBuilder.build();
 				}
-				return new Request(_searcher, query, _maxHits);
+				if (query != null && _generalityBoost > 0) {
+					query = new GeneralityQuery(query, _generalityBoost);
+				}
+				Shape shape = _shape == Shape.TEXT && _fuzzyMaxEdits > 0 ? Shape.FUZZY : _shape == Shape.TEXT && _correctSpelling ? Shape.CORRECTED : _shape;
+				return new Request(_searcher, query, _maxHits, _facetRoots, _groupByConcept, _timeoutMillis, shape);
+			}
+		}
+	}
+
+	/**
+	 * The results of a search, with counts of all hits by facet.
+	 */
+	public static class Results {
+		private final List<ResultItem> _items;
+		private final int _totalHits;
+		private final Map<Dmd.Product, Integer> _productCounts;
+		private final Map<Long, Integer> _facetCounts;
+		private final boolean _partial;
+
+		Results(List<ResultItem> items, int totalHits, Map<Dmd.Product, Integer> productCounts, Map<Long, Integer> facetCounts, boolean partial) {
+			_items = items;
+			_totalHits = totalHits;
+			_productCounts = productCounts;
+			_facetCounts = facetCounts;
+			_partial = partial;
+		}
+		/**
+		 * Return the top hits.
+		 */
+		public List<ResultItem> getItems() {
+			return _items;
+		}
+		/**
+		 * Return the total number of matching descriptions, of which only the top hits are returned.
+		 */
+		public int getTotalHits() {
+			return _totalHits;
+		}
+		/**
+		 * Return the number of hits for each type of DM&D product. Types without hits are omitted.
+		 * If grouped by concept, these are the number of concepts.
+		 */
+		public Map<Dmd.Product, Integer> getProductCounts() {
+			return _productCounts;
+		}
+		/**
+		 * Return the number of hits that are a type of each of the facet roots requested, in the order requested.
+		 * If grouped by concept, these are the number of concepts.
+		 */
+		public Map<Long, Integer> getFacetCounts() {
+			return _facetCounts;
+		}
+		/**
+		 * Return whether the search ran out of time, in which case the results and counts are incomplete.
+		 */
+		public boolean isPartial() {
+			return _partial;
+		}
+	}
+
+	/*
+	 * Passes only the first matching description of each concept to the wrapped collector, so that it counts
+	 * concepts rather than descriptions.
+	 */
+	private static class FirstPerConceptCollector extends FilterCollector {
+		private final ConceptMap<Boolean> _seen = new ConceptMap<>(DEFAULT_MAXIMUM_HITS);
+
+		FirstPerConceptCollector(Collector collector) {
+			super(collector);
+		}
+
+		@Override
+		public LeafCollector getLeafCollector(LeafReaderContext context) throws IOException {
+			NumericDocValues values = context.reader().getNumericDocValues(FIELD_CONCEPT_ID);
+			return new FilterLeafCollector(super.getLeafCollector(context)) {
+				@Override
+				public void collect(int doc) throws IOException {
+					long conceptId = values != null ? values.get(doc)
+							: context.reader().document(doc, CONCEPT_ID_FIELDS).getField(FIELD_CONCEPT_ID).numericValue().longValue();
+					if (_seen.get(conceptId) == null) {
+						_seen.put(conceptId, Boolean.TRUE);
+						super.collect(doc);
+					}
+				}
+			};
+		}
+	}
+
+	/*
+	 * A hash map keyed by concept identifier, using open addressing so that keys are not boxed.
+	 * Values may not be null.
+	 */
+	static final class ConceptMap<V> {
+		private long[] _keys;
+		private Object[] _values;
+		private int _size;
+
+		ConceptMap(int expectedSize) {
+			int capacity = Integer.highestOneBit(Math.max(2, Math.min(expectedSize, 1 << 20)) * 2 - 1) << 1;
+			_keys = new long[capacity];
+			_values = new Object[capacity];
+		}
+
+		int size() {
+			return _size;
+		}
+
+		@SuppressWarnings("unchecked")
+		V get(long key) {
+			return (V) _values[_slot(key)];
+		}
+
+		void put(long key, V value) {
+			int i = _slot(key);
+			if (_values[i] == null) {
+				if ((_size + 1) * 2 > _values.length) {
+					_resize();
+					i = _slot(key);
+				}
+				_keys[i] = key;
+				_size++;
+			}
+			_values[i] = value;
+		}
+
+		void remove(long key) {
+			int mask = _values.length - 1;
+			int i = _slot(key);
+			if (_values[i] == null) {
+				return;
+			}
+			_values[i] = null;
+			_size--;
+			// move later entries of the same probe sequence into the gap, so that they can still be found
+			for (int j = (i + 1) & mask; _values[j] != null; j = (j + 1) & mask) {
+				int home = _home(_keys[j]);
+				if (i <= j ? (home <= i || home > j) : (home <= i && home > j)) {
+					_keys[i] = _keys[j];
+					_values[i] = _values[j];
+					_values[j] = null;
+					i = j;
+				}
+			}
+		}
+
+		private int _home(long key) {
+			return Long.hashCode(key * 0x9E3779B97F4A7C15L) & (_values.length - 1);
+		}
+
+		private int _slot(long key) {
+			int mask = _values.length - 1;
+			int i = _home(key);
+			while (_values[i] != null && _keys[i] != key) {
+				i = (i + 1) & mask;
+			}
+			return i;
+		}
+
+		private void _resize() {
+			long[] keys = _keys;
+			Object[] values = _values;
+			_keys = new long[keys.length * 2];
+			_values = new Object[values.length * 2];
+			for (int i=0; i<keys.length; i++) {
+				if (values[i] != null) {
+					int slot = _slot(keys[i]);
+					_keys[slot] = keys[i];
+					_values[slot] = values[i];
+				}
+			}
+		}
+	}
+
+	/*
+	 * Counts hits that are a type of each of a set of root concepts, using the recursive parent docvalues.
+	 * Indexes built before these docvalues were added will result in zero counts.
+	 */
+	private static class RootCountCollector extends SimpleCollector {
+		private final long[] _roots;			// in the order requested
+		private final long[] _sortedRoots;
+		private final int[] _counts;
+		private SortedNumericDocValues _values;
+
+		RootCountCollector(long[] roots) {
+			_roots = roots;
+			_sortedRoots = roots.clone();
+			Arrays.sort(_sortedRoots);
+			_counts = new int[roots.length];
+		}
+
+		@Override
+		protected void doSetNextReader(LeafReaderContext context) throws IOException {
+			_values = DocValues.getSortedNumeric(context.reader(), FIELD_RECURSIVE_PARENT_CONCEPT_ID);
+		}
+
+		@Override
+		public void collect(int doc) throws IOException {
+			_values.setDocument(doc);
+			int count = _values.count();
+			for (int i=0; i<count; i++) {
+				int root = Arrays.binarySearch(_sortedRoots, _values.valueAt(i));
+				if (root >= 0) {
+					_counts[root]++;
+				}
+			}
+		}
+
+		@Override
+		public boolean needsScores() {
+			return false;
+		}
+
+		Map<Long, Integer> counts() {
+			LinkedHashMap<Long, Integer> result = new LinkedHashMap<>();
+			for (long root : _roots) {
+				result.put(root, _counts[Arrays.binarySearch(_sortedRoots, root)]);
+			}
+			return result;
+		}
+	}
+
+	/*
+	 * Boosts the score of descriptions of general concepts, using the information content docvalues.
+	 * Descriptions without information content, such as those of inactive concepts, are not boosted.
+	 */
+	static class GeneralityQuery extends CustomScoreQuery {
+		private final float _weight;
+
+		GeneralityQuery(Query query, float weight) {
+			super(query);
+			_weight = weight;
+		}
+
+		@Override
+		protected CustomScoreProvider getCustomScoreProvider(LeafReaderContext context) throws IOException {
+			NumericDocValues values = DocValues.getNumeric(context.reader(), FIELD_INFORMATION_CONTENT);
+			Bits docsWithField = DocValues.getDocsWithField(context.reader(), FIELD_INFORMATION_CONTENT);
+			return new CustomScoreProvider(context) {
+				@Override
+				public float customScore(int doc, float subQueryScore, float valSrcScore) {
+					if (!docsWithField.get(doc)) {
+						return subQueryScore;
+					}
+					double informationContent = Double.longBitsToDouble(values.get(doc));
+					return (float) (subQueryScore * (1 + _weight / (1 + informationContent)));
+				}
+			};
+		}
+
+		@Override
+		public String name() {
+			return "generality";
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return super.equals(other) && _weight == ((GeneralityQuery) other)._weight;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * super.hashCode() + Float.hashCode(_weight);
+		}
+	}
+
+	/*
+	 * Matches descriptions whose concept is in a set, testing the concept identifier docvalues of each
+	 * document in turn, or the stored field for indexes built before those were added.
+	 */
+	private static class ConceptSetQuery extends Query {
+		private final ConceptSet _concepts;
+
+		ConceptSetQuery(ConceptSet concepts) {
+			_concepts = concepts;
+		}
+
+		@Override
+		public Weight createWeight(IndexSearcher searcher, boolean needsScores) throws IOException {
+			return new ConstantScoreWeight(this) {
+				@Override
+				public Scorer scorer(LeafReaderContext context) throws IOException {
+					if (_concepts.isEmpty()) {
+						return null;
+					}
+					NumericDocValues values = context.reader().getNumericDocValues(FIELD_CONCEPT_ID);
+					DocIdSetIterator all = DocIdSetIterator.all(context.reader().maxDoc());
+					TwoPhaseIterator matches = new TwoPhaseIterator(all) {
+						@Override
+						public boolean matches() throws IOException {
+							int doc = all.docID();
+							long conceptId = values != null ? values.get(doc)
+									: context.reader().document(doc, CONCEPT_ID_FIELDS).getField(FIELD_CONCEPT_ID).numericValue().longValue();
+							return _concepts.contains(conceptId);
+						}
+						@Override
+						public float matchCost() {
+							return 10;
+						}
+					};
+					return new ConstantScoreScorer(this, score(), matches);
+				}
+			};
+		}
+
+		@Override
+		public String toString(String field) {
+			return "concepts(" + _concepts + ")";
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return sameClassAs(obj) && _concepts.equals(((ConceptSetQuery) obj)._concepts);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * classHash() + _concepts.hashCode();
+		}
+	}
+
+	/*
+	 * Collects the top hits grouped by concept, keeping only the best scoring description for each concept.
+	 * Groups are held in a heap, lowest ranked first, and the lowest is evicted and reused once there are more
+	 * than the maximum; as the lowest score retained only ever increases, a concept that is evicted can only return
+	 * with a better match. Indexes built before concept identifiers were added as docvalues fall back to
+	 * reading the stored field.
+	 */
+	private static class ConceptGroupingCollector extends SimpleCollector {
+		private final int _maxHits;
+		private final ConceptMap<GroupDoc> _groups;
+		private final GroupDoc[] _heap;		// lowest ranked group first
+		private int _size;
+		private LeafReaderContext _context;
+		private NumericDocValues _values;
+		private Scorer _scorer;
+		private int _totalHits;
+
+		/*
+		 * The best scoring description for a concept, with its position in the heap.
+		 */
+		private static final class GroupDoc extends ScoreDoc {
+			long conceptId;
+			int index;
+
+			GroupDoc(int doc, float score, long conceptId) {
+				super(doc, score);
+				this.conceptId = conceptId;
+			}
+		}
+
+		ConceptGroupingCollector(int maxHits) {
+			_maxHits = Math.max(0, maxHits);
+			_groups = new ConceptMap<>(_maxHits);
+			_heap = new GroupDoc[_maxHits];
+		}
+
+		@Override
+		protected void doSetNextReader(LeafReaderContext context) throws IOException {
+			_context = context;
+			_values = context.reader().getNumericDocValues(FIELD_CONCEPT_ID);
+		}
+
+		@Override
+		public void setScorer(Scorer scorer) throws IOException {
+			_scorer = scorer;
+		}
+
+		@Override
+		public void collect(int doc) throws IOException {
+			_totalHits++;
+			if (_maxHits == 0) {
+				return;
 			}
+			float score = _scorer.score();
+			if (_size == _maxHits && score <= _heap[0].score) {
+				return;
+			}
+			long conceptId = _values != null ? _values.get(doc)
+					: _context.reader().document(doc, CONCEPT_ID_FIELDS).getField(FIELD_CONCEPT_ID).numericValue().longValue();
+			GroupDoc group = _groups.get(conceptId);
+			if (group != null) {
+				if (score <= group.score) {
+					return;
+				}
+				group.doc = _context.docBase + doc;
+				group.score = score;
+				_siftDown(group.index);		// only ever ranked higher than before
+			} else if (_size == _maxHits) {
+				group = _heap[0];		// evict the lowest ranked group, reusing it for this concept
+				_groups.remove(group.conceptId);
+				group.conceptId = conceptId;
+				group.doc = _context.docBase + doc;
+				group.score = score;
+				_groups.put(conceptId, group);
+				_siftDown(0);
+			} else {
+				group = new GroupDoc(_context.docBase + doc, score, conceptId);
+				_set(_size++, group);
+				_groups.put(conceptId, group);
+				_siftUp(group.index);
+			}
+		}
+
+		// is a ranked lower than b?
+		private static boolean _lower(GroupDoc a, GroupDoc b) {
+			return a.score < b.score || (a.score == b.score && a.doc > b.doc);
+		}
+
+		private void _siftUp(int i) {
+			GroupDoc group = _heap[i];
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (!_lower(group, _heap[parent])) {
+					break;
+				}
+				_set(i, _heap[parent]);
+				i = parent;
+			}
+			_set(i, group);
+		}
+
+		private void _siftDown(int i) {
+			GroupDoc group = _heap[i];
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= _size) {
+					break;
+				}
+				if (child + 1 < _size && _lower(_heap[child + 1], _heap[child])) {
+					child++;
+				}
+				if (!_lower(_heap[child], group)) {
+					break;
+				}
+				_set(i, _heap[child]);
+				i = child;
+			}
+			_set(i, group);
+		}
+
+		private void _set(int i, GroupDoc group) {
+			_heap[i] = group;
+			group.index = i;
+		}
+
+		@Override
+		public boolean needsScores() {
+			return true;
+		}
+
+		TopDocs topDocs() {
+			ScoreDoc[] sds = Arrays.copyOf(_heap, _size, ScoreDoc[].class);
+			Arrays.sort(sds, (a, b) -> a.score != b.score ? Float.compare(b.score, a.score) : Integer.compare(a.doc, b.doc));
+			return new TopDocs(_totalHits, sds, sds.length > 0 ? sds[0].score : Float.NaN);
+		}
+	}
+
+	/*
+	 * Counts hits by DM&D product type, using the product docvalues.
+	 */
+	private static class ProductCountCollector extends SimpleCollector {
+		private final int[] _counts = new int[DMD_PRODUCTS.length];
+		private NumericDocValues _values;
+		private Bits _docsWithField;
+
+		@Override
+		protected void doSetNextReader(LeafReaderContext context) throws IOException {
+			_values = DocValues.getNumeric(context.reader(), FIELD_DMD_PRODUCT);
+			_docsWithField = DocValues.getDocsWithField(context.reader(), FIELD_DMD_PRODUCT);
+		}
+
+		@Override
+		public void collect(int doc) throws IOException {
+			if (_docsWithField.get(doc)) {
+				_counts[(int) _values.get(doc)]++;
+			}
+		}
+
+		@Override
+		public boolean needsScores() {
+			return false;
+		}
+
+		Map<Dmd.Product, Integer> counts() {
+			EnumMap<Dmd.Product, Integer> result = new EnumMap<>(Dmd.Product.class);
+			for (int i=0; i<_counts.length; i++) {
+				if (_counts[i] > 0) {
+					result.put(DMD_PRODUCTS[i], _counts[i]);
+				}
+			}
+			return result;
 		}
 	}
 
@@ -722,6 +1729,20 @@ public class Search {
 		return _searcher;
 	}
 
+	/**
+	 * Returns a spelling corrector for the current index.
+	 * @return
+	 * @throws IOException
+	 */
+	public SpellingCorrector spellingCorrector() throws IOException {
+		IndexReader reader = searcher().getIndexReader();
+		SpellingCorrector result = _spelling;
+		if (result == null || result.reader() != reader) {
+			_spelling = result = new SpellingCorrector(reader, FIELD_TERM);
+		}
+		return result;
+	}
+
 	/**
 	 * This loads an IndexReader in read-only mode.
 	 * @return
@@ -0,0 +1,205 @@
+package com.eldrix.terminology.snomedct;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import org.apache.cayenne.ObjectContext;
+
+/**
+ * Finds the lowest common ancestors of concepts and measures how similar they are, for example to group
+ * related diagnoses, using the in-memory {@link Hierarchy} and precomputed {@link ConceptStatistics}.
+ *
+ * The lowest common ancestors of two concepts are the concepts that subsume both (including the concepts
+ * themselves) but have no descendant that also subsumes both; as the hierarchy permits multiple parents,
+ * there may be more than one. Similarity is measured using either information content or depth:
+ * <ul>
+ * <li>Resnik: the information content of the most informative common ancestor
+ * <li>Lin: Resnik similarity scaled by the information content of both concepts, from 0 to 1
+ * <li>Wu-Palmer: twice the depth of the deepest common ancestor divided by the sum of the depths of the concepts, from 0 to 1
+ * </ul>
+ * Concepts that are not in the hierarchy have no common ancestors and a similarity of 0.
+ *
+ * The batch methods find the ancestors of each concept once and then compare in parallel, so that thousands of
+ * concepts may be compared pairwise interactively. Objects of this class are immutable and thread-safe.
+ *
+ * @author Mark Wardle
+ */
+public class SemanticSimilarity {
+	private static final int[] EMPTY = new int[0];
+	private static volatile SemanticSimilarity _instance;
+
+	private final Hierarchy _hierarchy;
+	private final ConceptStatistics _statistics;
+
+	/**
+	 * A measure of similarity.
+	 */
+	public enum Measure {
+		RESNIK, LIN, WU_PALMER;
+	}
+
+	public SemanticSimilarity(ConceptStatistics statistics) {
+		_hierarchy = statistics.hierarchy();
+		_statistics = statistics;
+	}
+
+	/**
+	 * Return a shared instance, using the shared hierarchy and statistics.
+	 * @param context
+	 * @return
+	 */
+	public static SemanticSimilarity getInstance(ObjectContext context) {
+		SemanticSimilarity result = _instance;
+		if (result == null) {
+			synchronized(SemanticSimilarity.class) {
+				result = _instance;
+				if (result == null) {
+					_instance = result = new SemanticSimilarity(ConceptStatistics.getInstance(context));
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Return the lowest common ancestors of the two concepts.
+	 * @return sorted concept identifiers
+	 */
+	public long[] lowestCommonAncestors(long conceptId1, long conceptId2) {
+		int[] common = _intersect(_ancestors(conceptId1), _ancestors(conceptId2));
+		int[] childOffsets = _hierarchy.childOffsets();
+		int[] children = _hierarchy.childIndices();
+		long[] result = new long[common.length];
+		int n = 0;
+		for (int c : common) {
+			boolean lowest = true;
+			for (int j=childOffsets[c]; j<childOffsets[c+1] && lowest; j++) {
+				lowest = Arrays.binarySearch(common, children[j]) < 0;
+			}
+			if (lowest) {
+				result[n++] = _hierarchy.conceptId(c);
+			}
+		}
+		return Arrays.copyOf(result, n);
+	}
+
+	/**
+	 * Return the similarity of two concepts.
+	 */
+	public double similarity(Measure measure, long conceptId1, long conceptId2) {
+		return _similarity(measure, _hierarchy.indexOf(conceptId1), _ancestors(conceptId1), _hierarchy.indexOf(conceptId2), _ancestors(conceptId2));
+	}
+
+	/**
+	 * Return the similarity of a concept to each of the others, comparing in parallel.
+	 * @return similarities, in the order given
+	 */
+	public double[] similarities(Measure measure, long conceptId, long[] others) {
+		int index = _hierarchy.indexOf(conceptId);
+		int[] ancestors = _ancestors(conceptId);
+		double[] result = new double[others.length];
+		Arrays.parallelSetAll(result, i -> _similarity(measure, index, ancestors, _hierarchy.indexOf(others[i]), _ancestors(others[i])));
+		return result;
+	}
+
+	/**
+	 * Return the similarity of every pair of the concepts, comparing in parallel.
+	 * @return a symmetric matrix of similarities, in the order given
+	 */
+	public double[][] similarities(Measure measure, long[] conceptIds) {
+		int[] indices = new int[conceptIds.length];
+		int[][] ancestors = new int[conceptIds.length][];
+		IntStream.range(0, conceptIds.length).parallel().forEach(i -> {
+			indices[i] = _hierarchy.indexOf(conceptIds[i]);
+			ancestors[i] = _ancestors(conceptIds[i]);
+		});
+		double[][] result = new double[conceptIds.length][conceptIds.length];
+		IntStream.range(0, conceptIds.length).parallel().forEach(i -> {
+			for (int j=i; j<conceptIds.length; j++) {
+				result[i][j] = result[j][i] = _similarity(measure, indices[i], ancestors[i], indices[j], ancestors[j]);
+			}
+		});
+		return result;
+	}
+
+	private double _similarity(Measure measure, int index1, int[] ancestors1, int index2, int[] ancestors2) {
+		if (index1 < 0 || index2 < 0) {
+			return 0;
+		}
+		switch (measure) {
+		case RESNIK:
+			return _resnik(ancestors1, ancestors2);
+		case LIN:
+			double total = _statistics.informationContentAt(index1) + _statistics.informationContentAt(index2);
+			return total == 0 ? (index1 == index2 ? 1 : 0) : 2 * _resnik(ancestors1, ancestors2) / total;
+		default:
+			int depths = _statistics.maxDepthAt(index1) + _statistics.maxDepthAt(index2);
+			return depths == 0 ? (index1 == index2 ? 1 : 0) : 2.0 * _deepest(ancestors1, ancestors2) / depths;
+		}
+	}
+
+	/*
+	 * Return the information content of the most informative common ancestor.
+	 */
+	private double _resnik(int[] ancestors1, int[] ancestors2) {
+		double result = 0;
+		int i = 0, j = 0;
+		while (i < ancestors1.length && j < ancestors2.length) {
+			if (ancestors1[i] < ancestors2[j]) {
+				i++;
+			} else if (ancestors1[i] > ancestors2[j]) {
+				j++;
+			} else {
+				result = Math.max(result, _statistics.informationContentAt(ancestors1[i]));
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * Return the depth of the deepest common ancestor.
+	 */
+	private int _deepest(int[] ancestors1, int[] ancestors2) {
+		int result = 0;
+		int i = 0, j = 0;
+		while (i < ancestors1.length && j < ancestors2.length) {
+			if (ancestors1[i] < ancestors2[j]) {
+				i++;
+			} else if (ancestors1[i] > ancestors2[j]) {
+				j++;
+			} else {
+				result = Math.max(result, _statistics.maxDepthAt(ancestors1[i]));
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * Return the sorted indices of the concept and its ancestors.
+	 */
+	private int[] _ancestors(long conceptId) {
+		int i = _hierarchy.indexOf(conceptId);
+		return i < 0 ? EMPTY : _hierarchy.ancestorIndices(i);
+	}
+
+	private static int[] _intersect(int[] a, int[] b) {
+		int[] result = new int[Math.min(a.length, b.length)];
+		int i = 0, j = 0, n = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (a[i] > b[j]) {
+				j++;
+			} else {
+				result[n++] = a[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(result, n);
+	}
+}
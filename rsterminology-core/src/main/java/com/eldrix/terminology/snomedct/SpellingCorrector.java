@@ -0,0 +1,144 @@
+package com.eldrix.terminology.snomedct;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.BoostAttribute;
+import org.apache.lucene.search.FuzzyTermsEnum;
+import org.apache.lucene.util.AttributeSource;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.StringHelper;
+
+import com.eldrix.terminology.metrics.Metrics;
+
+/**
+ * Corrects misspelt search tokens using the term dictionary of the index, so that a misspelt search
+ * can be rewritten before it is executed rather than repeated as a fuzzy search.
+ *
+ * A token is left unchanged if it is found in the index, or, for tokens long enough to be used as a prefix
+ * by a search, if any term in the index starts with it, so that abbreviations such as "diab mell" are kept.
+ * Otherwise, it is replaced by the term with the fewest edits (at most one edit for short tokens and two
+ * for longer tokens, with the first character unchanged), preferring the most frequent term when there
+ * is more than one. Corrections are cached, so repeated misspellings cost only a lookup.
+ *
+ * Objects of this class are thread-safe and are bound to a single IndexReader; obtain one
+ * using {@link Search#spellingCorrector()}.
+ *
+ * @author Mark Wardle
+ */
+public class SpellingCorrector {
+	private static final int MINIMUM_CHARS_FOR_CORRECTION = 4;
+	private static final int MINIMUM_CHARS_FOR_TWO_EDITS = 6;
+	private static final int PREFIX_LENGTH = 1;
+	private static final int MAXIMUM_CANDIDATES = 1000;
+	private static final int CACHE_SIZE = 10000;
+	private static final Metrics.Counter _cacheHits = Metrics.counter("rsterminology_cache_requests_total", "Cache lookups", "cache", "spelling", "result", "hit");
+	private static final Metrics.Counter _cacheMisses = Metrics.counter("rsterminology_cache_requests_total", "Cache lookups", "cache", "spelling", "result", "miss");
+
+	private final IndexReader _reader;
+	private final String _field;
+	private final Terms _terms;
+	private final Map<String, String> _cache = new LinkedHashMap<String, String>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	SpellingCorrector(IndexReader reader, String field) throws IOException {
+		_reader = reader;
+		_field = field;
+		_terms = MultiFields.getTerms(reader, field);
+	}
+
+	IndexReader reader() {
+		return _reader;
+	}
+
+	/**
+	 * Correct each of the (analysed) tokens of a search, treating each token as a prefix if the search would do so.
+	 * @param tokens
+	 * @return
+	 * @throws IOException
+	 */
+	public List<String> correct(List<String> tokens) throws IOException {
+		ArrayList<String> result = new ArrayList<>(tokens.size());
+		for (int i=0; i<tokens.size(); i++) {
+			String token = tokens.get(i);
+			result.add(correct(token, token.length() >= Search.Request.Builder.MINIMUM_CHARS_FOR_PREFIX_SEARCH));
+		}
+		return result;
+	}
+
+	/**
+	 * Correct a single (analysed) token.
+	 * @param token
+	 * @param prefix - whether the token is used as a prefix, and so needs correction only if no term starts with it
+	 * @return the corrected token, or the token itself if it is known or no correction is found
+	 * @throws IOException
+	 */
+	public String correct(String token, boolean prefix) throws IOException {
+		if (_terms == null || token.length() < MINIMUM_CHARS_FOR_CORRECTION || _isKnown(token, prefix)) {
+			return token;
+		}
+		synchronized(_cache) {
+			String cached = _cache.get(token);
+			if (cached != null) {
+				_cacheHits.increment();
+				return cached;
+			}
+		}
+		_cacheMisses.increment();
+		String result = _suggest(token);
+		synchronized(_cache) {
+			_cache.put(token, result);
+		}
+		return result;
+	}
+
+	private boolean _isKnown(String token, boolean prefix) throws IOException {
+		BytesRef bytes = new BytesRef(token);
+		if (!prefix) {
+			return _reader.docFreq(new Term(_field, bytes)) > 0;
+		}
+		TermsEnum te = _terms.iterator();
+		switch (te.seekCeil(bytes)) {
+		case FOUND:
+			return true;
+		case NOT_FOUND:
+			return StringHelper.startsWith(te.term(), bytes);
+		default:
+			return false;
+		}
+	}
+
+	private String _suggest(String token) throws IOException {
+		int maxEdits = token.length() < MINIMUM_CHARS_FOR_TWO_EDITS ? 1 : 2;
+		FuzzyTermsEnum fte = new FuzzyTermsEnum(_terms, new AttributeSource(), new Term(_field, token), maxEdits, PREFIX_LENGTH, true);
+		BoostAttribute boost = fte.attributes().addAttribute(BoostAttribute.class);
+		String best = token;
+		float bestBoost = 0;
+		int bestDocFreq = 0;
+		BytesRef candidate;
+		int count = 0;
+		while ((candidate = fte.next()) != null && count++ < MAXIMUM_CANDIDATES) {
+			float b = boost.getBoost();
+			int docFreq = fte.docFreq();
+			if (b > bestBoost || (b == bestBoost && docFreq > bestDocFreq)) {
+				best = candidate.utf8ToString();
+				bestBoost = b;
+				bestDocFreq = docFreq;
+			}
+		}
+		return best;
+	}
+}
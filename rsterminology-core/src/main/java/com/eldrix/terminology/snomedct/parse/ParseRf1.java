@@ -13,6 +13,7 @@ import org.apache.cayenne.exp.Expression;
 import org.apache.cayenne.query.ObjectSelect;
 import org.apache.cayenne.query.SelectById;
 
+import com.eldrix.terminology.metrics.Metrics;
 import com.eldrix.terminology.snomedct.Concept;
 import com.eldrix.terminology.snomedct.CrossMapSet;
 import com.eldrix.terminology.snomedct.CrossMapTable;
@@ -53,11 +54,15 @@ public class ParseRf1 {
 				Rf1FileParser p = parser.get();
 				String entityName = context.getEntityResolver().getObjEntity(p.getEntityClass()).getName();
 				System.out.println("Processing SNOMED RF-1 file. Type:" + entityName);
+				Metrics.Counter imported = Metrics.counter("rsterminology_import_rows_total", "Number of rows imported", "entity", entityName);
+				Metrics.Counter errors = Metrics.counter("rsterminology_import_errors_total", "Number of rows that could not be imported", "entity", entityName);
 				while ((csv = reader.readNext()) != null) {
 					try {
 						p.createOrUpdate(context, csv);
 						context.commitChanges();
+						imported.increment();
 					} catch (Exception e) {
+						errors.increment();
 						System.err.println("Error: couldn't import: " + Arrays.toString(csv));
 						e.printStackTrace();
 					}
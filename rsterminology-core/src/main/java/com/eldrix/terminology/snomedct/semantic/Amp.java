@@ -33,6 +33,10 @@ public class Amp extends Dmd {
 	 * @return
 	 */
 	public static Optional<Concept> getTf(Concept amp) {
+		DmdGraph graph = DmdGraph.current();
+		if (graph != null) {
+			return _concept(amp, graph.sources(DmdGraph.Link.TF_AMP, amp.getConceptId()));
+		}
 		return amp.getParentConcepts().stream()
 				.filter(parent -> Product.TRADE_FAMILY.isAProduct(parent))
 				.findFirst();
@@ -49,6 +53,10 @@ public class Amp extends Dmd {
 	 * @return
 	 */
 	public static Stream<Concept> getAmpps(Concept amp) {
+		DmdGraph graph = DmdGraph.current();
+		if (graph != null) {
+			return _concepts(amp, graph.targets(DmdGraph.Link.AMP_AMPP, amp.getConceptId()));
+		}
 		return amp.getChildRelationships().stream()
 				.filter(r -> r.getRelationshipTypeConcept().getConceptId() == RelationType.HAS_AMP.conceptId)
 				.map(Relationship::getSourceConcept);
@@ -64,6 +72,10 @@ public class Amp extends Dmd {
 	 * @return
 	 */
 	public static Optional<Concept> getVmp(Concept amp) {
+		DmdGraph graph = DmdGraph.current();
+		if (graph != null) {
+			return _concept(amp, graph.sources(DmdGraph.Link.VMP_AMP, amp.getConceptId()));
+		}
 		return amp.getParentConcepts().stream()
 				.filter(parent -> Product.VIRTUAL_MEDICINAL_PRODUCT.isAProduct(parent))
 				.findFirst();
@@ -31,6 +31,10 @@ public class Ampp extends Dmd {
 	 * @return
 	 */
 	public static Optional<Concept> getAmp(Concept ampp) {
+		DmdGraph graph = DmdGraph.current();
+		if (graph != null) {
+			return _concept(ampp, graph.sources(DmdGraph.Link.AMP_AMPP, ampp.getConceptId()));
+		}
 		return ampp.getParentRelationships().stream()
 				.filter(r -> r.getRelationshipTypeConcept().getConceptId() == RelationType.HAS_AMP.conceptId)
 				.findFirst()
@@ -48,6 +52,10 @@ public class Ampp extends Dmd {
 	 * @return
 	 */
 	public static Optional<Concept> getVmpp(Concept ampp) {
+		DmdGraph graph = DmdGraph.current();
+		if (graph != null) {
+			return _concept(ampp, graph.sources(DmdGraph.Link.VMPP_AMPP, ampp.getConceptId()));
+		}
 		return ampp.getParentConcepts().stream()
 				.filter(parent -> Product.VIRTUAL_MEDICINAL_PRODUCT_PACK.isAProduct(parent))
 				.findFirst();
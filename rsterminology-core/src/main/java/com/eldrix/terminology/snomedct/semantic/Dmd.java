@@ -1,7 +1,15 @@
 package com.eldrix.terminology.snomedct.semantic;
 
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import org.apache.cayenne.Cayenne;
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.query.ObjectSelect;
 
 import com.eldrix.terminology.snomedct.Concept;
 import com.eldrix.terminology.snomedct.Relationship;
@@ -54,6 +62,10 @@ public abstract class Dmd {
 		 * @return
 		 */
 		public static Optional<Dmd.Product> productForConcept(Concept c) {
+			DmdGraph graph = DmdGraph.current();
+			if (graph != null) {
+				return Optional.ofNullable(graph.productForConcept(c.getConceptId()));
+			}
 			for (Concept p : c.getParentConcepts()) {
 				for (Dmd.Product med : Product.values()) {
 					if (p.getConceptId() == med.conceptId) {
@@ -75,6 +87,10 @@ public abstract class Dmd {
 		 */
 		public boolean isAProduct(Concept c) {
 			if (c != null) {
+				DmdGraph graph = DmdGraph.current();
+				if (graph != null) {
+					return graph.productForConcept(c.getConceptId()) == this;
+				}
 				for (Relationship r : c.getParentRelationships()) {
 					if (r.getRelationshipTypeConceptId() == RelationType.IS_A.conceptId && conceptId == r.getTargetConceptId()) {
 						return true;
@@ -104,6 +120,32 @@ public abstract class Dmd {
 	public Concept getConcept() {
 		return _concept;
 	}
+
+	/**
+	 * Return the concepts with the specified identifiers, fetched using the object context of
+	 * the concept specified. This is used to turn the results of a DmdGraph lookup into concepts.
+	 * @param c
+	 * @param conceptIds
+	 * @return
+	 */
+	static Stream<Concept> _concepts(Concept c, long[] conceptIds) {
+		if (conceptIds.length == 0) {
+			return Stream.empty();
+		}
+		ObjectContext context = c.getObjectContext();
+		if (conceptIds.length == 1) {
+			return Stream.of(Cayenne.objectForPK(context, Concept.class, conceptIds[0]));
+		}
+		List<Long> ids = LongStream.of(conceptIds).boxed().collect(Collectors.toList());
+		return ObjectSelect.query(Concept.class, Concept.CONCEPT_ID.in(ids)).select(context).stream();
+	}
+
+	/**
+	 * Return the first of the concepts with the specified identifiers.
+	 */
+	static Optional<Concept> _concept(Concept c, long[] conceptIds) {
+		return conceptIds.length == 0 ? Optional.empty() : Optional.of(Cayenne.objectForPK(c.getObjectContext(), Concept.class, conceptIds[0]));
+	}
 	
 	@Override
 	public boolean equals(Object obj) {
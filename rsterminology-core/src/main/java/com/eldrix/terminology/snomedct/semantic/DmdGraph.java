@@ -0,0 +1,362 @@
+package com.eldrix.terminology.snomedct.semantic;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.exp.ExpressionFactory;
+import org.apache.cayenne.query.ObjectSelect;
+
+import com.eldrix.terminology.snomedct.Hierarchy;
+import com.eldrix.terminology.snomedct.Relationship;
+import com.eldrix.terminology.snomedct.semantic.Dmd.Product;
+
+/**
+ * A precomputed graph of the DM&D product structures.
+ *
+ * This holds the product type of every DM&D concept and the links between them:
+ * <ul>
+ * <li>VTM <->> VMP (including VMPs nested beneath intermediate concepts)
+ * <li>VMP <->> AMP
+ * <li>TF <->> AMP
+ * <li>AMP <->> AMPP
+ * <li>VMP <->> VMPP
+ * <li>VMPP <->> AMPP
+ * </ul>
+ * Each link is held in both directions as sorted primitive arrays so that navigation does not need to
+ * fault Cayenne relationships one concept at a time. The graph is built once from the IS-A hierarchy
+ * and the HAS_AMP and HAS_VMP relationships.
+ *
+ * Like the other in-memory indexes, objects of this class are immutable and thread-safe. A shared instance
+ * is built from the database by {@link #getInstance(ObjectContext)} on first use; {@link #current()} returns
+ * it without building it, so that callers such as the classes in this package use the graph once loaded
+ * and otherwise fall back to the database.
+ *
+ * @author Mark Wardle
+ */
+public class DmdGraph {
+	private static final String SOURCE_CONCEPT_ID_COLUMN = "source_concept_id";
+	private static final String TARGET_CONCEPT_ID_COLUMN = "target_concept_id";
+	private static final String RELATIONSHIP_TYPE_COLUMN = "relationship_type_concept_id";
+	private static final long[] EMPTY = new long[0];
+	private static final Product[] PRODUCTS = Product.values();
+	private static volatile DmdGraph _instance;
+
+	/**
+	 * The links between DM&D products, from the "one" side to the "many" side.
+	 */
+	public enum Link {
+		VTM_VMP(Product.VIRTUAL_THERAPEUTIC_MOIETY, Product.VIRTUAL_MEDICINAL_PRODUCT),
+		VMP_AMP(Product.VIRTUAL_MEDICINAL_PRODUCT, Product.ACTUAL_MEDICINAL_PRODUCT),
+		TF_AMP(Product.TRADE_FAMILY, Product.ACTUAL_MEDICINAL_PRODUCT),
+		AMP_AMPP(Product.ACTUAL_MEDICINAL_PRODUCT, Product.ACTUAL_MEDICINAL_PRODUCT_PACK),
+		VMP_VMPP(Product.VIRTUAL_MEDICINAL_PRODUCT, Product.VIRTUAL_MEDICINAL_PRODUCT_PACK),
+		VMPP_AMPP(Product.VIRTUAL_MEDICINAL_PRODUCT_PACK, Product.ACTUAL_MEDICINAL_PRODUCT_PACK);
+
+		public final Product from;
+		public final Product to;
+
+		Link(Product from, Product to) {
+			this.from = from;
+			this.to = to;
+		}
+	}
+
+	private final long[] _conceptIds;		// sorted identifiers of all DM&D product concepts
+	private final byte[] _products;			// product type (ordinal) for each concept
+	private final Map<Link, Adjacency> _forward;
+	private final Map<Link, Adjacency> _reverse;
+
+	private DmdGraph(long[] conceptIds, byte[] products, Map<Link, Adjacency> forward, Map<Link, Adjacency> reverse) {
+		_conceptIds = conceptIds;
+		_products = products;
+		_forward = forward;
+		_reverse = reverse;
+	}
+
+	/**
+	 * Return a shared instance, building the graph from the database if it has not already been built.
+	 * @param context
+	 * @return
+	 */
+	public static DmdGraph getInstance(ObjectContext context) {
+		DmdGraph result = _instance;
+		if (result == null) {
+			synchronized(DmdGraph.class) {
+				result = _instance;
+				if (result == null) {
+					_instance = result = load(context);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Return the shared instance if it has already been built.
+	 * @return the shared instance or null
+	 */
+	public static DmdGraph current() {
+		return _instance;
+	}
+
+	/**
+	 * Build the graph from the hierarchy and relationships in the database.
+	 * @param context
+	 * @return
+	 */
+	public static DmdGraph load(ObjectContext context) {
+		Builder b = new Builder(Hierarchy.getInstance(context));
+		ObjectSelect.dataRowQuery(Relationship.class,
+				ExpressionFactory.inDbExp(RELATIONSHIP_TYPE_COLUMN, RelationType.HAS_AMP.conceptId, RelationType.HAS_VMP.conceptId))
+		.iterate(context, row -> {
+			long type = (Long) row.get(RELATIONSHIP_TYPE_COLUMN);
+			long source = (Long) row.get(SOURCE_CONCEPT_ID_COLUMN);
+			long target = (Long) row.get(TARGET_CONCEPT_ID_COLUMN);
+			if (type == RelationType.HAS_AMP.conceptId) {
+				b.add(Link.AMP_AMPP, target, source);
+			} else {
+				b.add(Link.VMP_VMPP, target, source);
+			}
+		});
+		return b.build();
+	}
+
+	/**
+	 * Return the number of DM&D product concepts.
+	 */
+	public int size() {
+		return _conceptIds.length;
+	}
+
+	/*
+	 * Return the internal index of the specified concept, or a negative number if it is not a DM&D product.
+	 */
+	int indexOf(long conceptId) {
+		int i = Arrays.binarySearch(_conceptIds, conceptId);
+		return i >= 0 ? i : -1;
+	}
+
+	/*
+	 * Return the concept identifier at the specified internal index.
+	 */
+	long conceptId(int index) {
+		return _conceptIds[index];
+	}
+
+	/**
+	 * Return the type of product for the specified concept.
+	 * @param conceptId
+	 * @return the product type or null if the concept is not a DM&D product
+	 */
+	public Product productForConcept(long conceptId) {
+		int i = Arrays.binarySearch(_conceptIds, conceptId);
+		return i >= 0 ? PRODUCTS[_products[i]] : null;
+	}
+
+	/**
+	 * Return the products on the "many" side of the link for the specified concept.
+	 * For example, targets(Link.VMP_AMP, vmp) returns the AMPs for a VMP.
+	 */
+	public long[] targets(Link link, long conceptId) {
+		return _forward.get(link).get(conceptId);
+	}
+
+	/**
+	 * Return the products on the "one" side of the link for the specified concept.
+	 * For example, sources(Link.VMP_AMP, amp) returns the VMP for an AMP.
+	 */
+	public long[] sources(Link link, long conceptId) {
+		return _reverse.get(link).get(conceptId);
+	}
+
+	/**
+	 * Return all concepts of the specified product type.
+	 * @param product
+	 * @return sorted concept identifiers
+	 */
+	public long[] conceptsForProduct(Product product) {
+		int count = 0;
+		for (byte p : _products) {
+			if (p == product.ordinal()) {
+				count++;
+			}
+		}
+		long[] result = new long[count];
+		int n = 0;
+		for (int i=0; i<_products.length; i++) {
+			if (_products[i] == product.ordinal()) {
+				result[n++] = _conceptIds[i];
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * A one-way adjacency list held as sorted keys, offsets and values.
+	 */
+	static class Adjacency {
+		private final long[] _keys;
+		private final int[] _offsets;
+		private final long[] _values;
+
+		Adjacency(long[] from, long[] to, int size) {
+			long[] keys = Arrays.copyOf(from, size);
+			Arrays.sort(keys);
+			int count = 0;
+			for (int i=0; i<size; i++) {
+				if (i == 0 || keys[i] != keys[i-1]) {
+					keys[count++] = keys[i];
+				}
+			}
+			_keys = Arrays.copyOf(keys, count);
+			int[] starts = new int[count + 1];
+			int[] positions = new int[size];
+			for (int i=0; i<size; i++) {
+				positions[i] = Arrays.binarySearch(_keys, from[i]);
+				starts[positions[i] + 1]++;
+			}
+			for (int i=0; i<count; i++) {
+				starts[i+1] += starts[i];
+			}
+			long[] values = new long[size];
+			int[] fill = Arrays.copyOf(starts, count);
+			for (int i=0; i<size; i++) {
+				values[fill[positions[i]]++] = to[i];
+			}
+			_offsets = new int[count + 1];
+			int n = 0;
+			for (int i=0; i<count; i++) {
+				_offsets[i] = n;
+				Arrays.sort(values, starts[i], starts[i+1]);
+				for (int j=starts[i]; j<starts[i+1]; j++) {
+					if (j == starts[i] || values[j] != values[j-1]) {
+						values[n++] = values[j];
+					}
+				}
+			}
+			_offsets[count] = n;
+			_values = Arrays.copyOf(values, n);
+		}
+
+		long[] get(long key) {
+			int i = Arrays.binarySearch(_keys, key);
+			return i >= 0 ? Arrays.copyOfRange(_values, _offsets[i], _offsets[i+1]) : EMPTY;
+		}
+	}
+
+	/**
+	 * Builds a DM&D graph from the IS-A hierarchy and explicitly added links.
+	 */
+	public static class Builder {
+		private final Hierarchy _hierarchy;
+		private final EnumMap<Link, long[][]> _pairs = new EnumMap<>(Link.class);
+		private final EnumMap<Link, Integer> _sizes = new EnumMap<>(Link.class);
+
+		public Builder(Hierarchy hierarchy) {
+			_hierarchy = hierarchy;
+			for (Link link : Link.values()) {
+				_pairs.put(link, new long[][] { new long[256], new long[256] });
+				_sizes.put(link, 0);
+			}
+		}
+
+		/**
+		 * Add a link from a product on the "one" side to a product on the "many" side.
+		 */
+		public Builder add(Link link, long from, long to) {
+			long[][] pairs = _pairs.get(link);
+			int size = _sizes.get(link);
+			if (size == pairs[0].length) {
+				pairs[0] = Arrays.copyOf(pairs[0], size * 2);
+				pairs[1] = Arrays.copyOf(pairs[1], size * 2);
+			}
+			pairs[0][size] = from;
+			pairs[1][size] = to;
+			_sizes.put(link, size + 1);
+			return this;
+		}
+
+		public DmdGraph build() {
+			// the product type of a concept is determined by its direct IS-A parent
+			int total = 0;
+			long[][] members = new long[PRODUCTS.length][];
+			for (Product p : PRODUCTS) {
+				members[p.ordinal()] = _hierarchy.children(p.conceptId);
+				total += members[p.ordinal()].length;
+			}
+			long[] ids = new long[total];
+			int n = 0;
+			for (long[] m : members) {
+				System.arraycopy(m, 0, ids, n, m.length);
+				n += m.length;
+			}
+			Arrays.sort(ids);
+			int count = 0;
+			for (int i=0; i<ids.length; i++) {
+				if (i == 0 || ids[i] != ids[i-1]) {
+					ids[count++] = ids[i];
+				}
+			}
+			long[] conceptIds = Arrays.copyOf(ids, count);
+			byte[] products = new byte[count];
+			Arrays.fill(products, (byte) -1);
+			for (Product p : PRODUCTS) {
+				for (long conceptId : members[p.ordinal()]) {
+					int i = Arrays.binarySearch(conceptIds, conceptId);
+					if (products[i] < 0) {
+						products[i] = (byte) p.ordinal();
+					}
+				}
+			}
+			// links implied by the IS-A hierarchy
+			for (int i=0; i<count; i++) {
+				Product p = PRODUCTS[products[i]];
+				long conceptId = conceptIds[i];
+				switch (p) {
+				case VIRTUAL_THERAPEUTIC_MOIETY:
+					for (long descendant : _hierarchy.descendants(conceptId)) {
+						if (_product(conceptIds, products, descendant) == Product.VIRTUAL_MEDICINAL_PRODUCT) {
+							add(Link.VTM_VMP, conceptId, descendant);
+						}
+					}
+					break;
+				case ACTUAL_MEDICINAL_PRODUCT:
+					for (long parent : _hierarchy.parents(conceptId)) {
+						Product pp = _product(conceptIds, products, parent);
+						if (pp == Product.VIRTUAL_MEDICINAL_PRODUCT) {
+							add(Link.VMP_AMP, parent, conceptId);
+						} else if (pp == Product.TRADE_FAMILY) {
+							add(Link.TF_AMP, parent, conceptId);
+						}
+					}
+					break;
+				case ACTUAL_MEDICINAL_PRODUCT_PACK:
+					for (long parent : _hierarchy.parents(conceptId)) {
+						if (_product(conceptIds, products, parent) == Product.VIRTUAL_MEDICINAL_PRODUCT_PACK) {
+							add(Link.VMPP_AMPP, parent, conceptId);
+						}
+					}
+					break;
+				default:
+					break;
+				}
+			}
+			EnumMap<Link, Adjacency> forward = new EnumMap<>(Link.class);
+			EnumMap<Link, Adjacency> reverse = new EnumMap<>(Link.class);
+			for (Link link : Link.values()) {
+				long[][] pairs = _pairs.get(link);
+				int size = _sizes.get(link);
+				forward.put(link, new Adjacency(pairs[0], pairs[1], size));
+				reverse.put(link, new Adjacency(pairs[1], pairs[0], size));
+			}
+			return new DmdGraph(conceptIds, products, forward, reverse);
+		}
+
+		private static Product _product(long[] conceptIds, byte[] products, long conceptId) {
+			int i = Arrays.binarySearch(conceptIds, conceptId);
+			return i >= 0 ? PRODUCTS[products[i]] : null;
+		}
+	}
+}
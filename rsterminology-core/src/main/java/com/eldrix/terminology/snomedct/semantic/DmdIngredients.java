@@ -0,0 +1,411 @@
+package com.eldrix.terminology.snomedct.semantic;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.LongStream;
+
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.exp.ExpressionFactory;
+import org.apache.cayenne.query.ObjectSelect;
+
+import com.eldrix.terminology.medicine.DailyDose;
+import com.eldrix.terminology.medicine.Medication.PrescribingType;
+import com.eldrix.terminology.medicine.Medication.Units;
+import com.eldrix.terminology.snomedct.Description;
+import com.eldrix.terminology.snomedct.Hierarchy;
+import com.eldrix.terminology.snomedct.Relationship;
+import com.eldrix.terminology.snomedct.semantic.Dmd.Product;
+import com.eldrix.terminology.snomedct.semantic.DmdGraph.Adjacency;
+import com.eldrix.terminology.snomedct.semantic.DmdGraph.Link;
+
+/**
+ * A precomputed index of the active ingredients and strengths of DM&D products.
+ *
+ * This holds ingredient to product (VMP and AMP) and product to ingredient links, the basis of strength
+ * substance for each product, and the strength of every product with a single active ingredient, in
+ * primitive arrays. Questions such as "which products contain valproate?" then become in-memory lookups
+ * rather than walks of the relationships of each product.
+ *
+ * The UK SNOMED-CT release does not include strengths as attributes, so the strength of a VMP is parsed
+ * from its preferred term (e.g. "Sodium valproate 200mg gastro-resistant tablets" or "Amoxicillin
+ * 250mg/5ml oral suspension"). An AMP has the strength of its VMP. Strengths are not recorded
+ * for products with more than one active ingredient, as these cannot be reliably matched to ingredients
+ * from the term alone.
+ *
+ * Once loaded, {@link Vmp#getDose(com.eldrix.terminology.snomedct.Concept)} uses the shared index.
+ *
+ * @author Mark Wardle
+ */
+public class DmdIngredients {
+	private static final String SOURCE_CONCEPT_ID_COLUMN = "source_concept_id";
+	private static final String TARGET_CONCEPT_ID_COLUMN = "target_concept_id";
+	private static final String RELATIONSHIP_TYPE_COLUMN = "relationship_type_concept_id";
+	private static final String CONCEPT_ID_COLUMN = "concept_id";
+	private static final String TERM_COLUMN = "term";
+	private static final String DESCRIPTION_TYPE_COLUMN = "description_type_code";
+	private static final String DESCRIPTION_STATUS_COLUMN = "description_status_code";
+	private static final Units[] UNITS = Units.values();
+	private static final byte NO_UNITS = -1;
+	private static final String UNIT_PATTERN = "micrograms?|mg|grams?|g|ml|units?";
+	private static final Pattern STRENGTH_PATTERN = Pattern.compile(
+			"(?<![\\w.])(\\d+(?:\\.\\d+)?)\\s?(" + UNIT_PATTERN + ")\\b(?:/(\\d+(?:\\.\\d+)?)?\\s?([a-z]+)\\b)?",
+			Pattern.CASE_INSENSITIVE);
+	private static final Map<String, Units> _units = new HashMap<>();
+	static {
+		_units.put("microgram", Units.MICROGRAM);
+		_units.put("micrograms", Units.MICROGRAM);
+		_units.put("mg", Units.MILLIGRAM);
+		_units.put("g", Units.GRAM);
+		_units.put("gram", Units.GRAM);
+		_units.put("grams", Units.GRAM);
+		_units.put("ml", Units.MILLILITRES);
+		_units.put("unit", Units.UNITS);
+		_units.put("units", Units.UNITS);
+	}
+	private static volatile DmdIngredients _instance;
+
+	private final Adjacency _ingredientProducts;	// ingredient -> VMPs and AMPs
+	private final Adjacency _productIngredients;	// VMP or AMP -> ingredients
+	private final Adjacency _basisOfStrength;		// VMP or AMP -> basis of strength substances
+	private final long[] _strengthProducts;			// sorted products with a known strength
+	private final double[] _strengths;
+	private final byte[] _strengthUnits;
+	private final double[] _perQuantities;
+	private final byte[] _perUnits;					// NO_UNITS if per dose form unit (e.g. tablet or dose)
+
+	private DmdIngredients(Adjacency ingredientProducts, Adjacency productIngredients, Adjacency basisOfStrength,
+			long[] strengthProducts, double[] strengths, byte[] strengthUnits, double[] perQuantities, byte[] perUnits) {
+		_ingredientProducts = ingredientProducts;
+		_productIngredients = productIngredients;
+		_basisOfStrength = basisOfStrength;
+		_strengthProducts = strengthProducts;
+		_strengths = strengths;
+		_strengthUnits = strengthUnits;
+		_perQuantities = perQuantities;
+		_perUnits = perUnits;
+	}
+
+	/**
+	 * Return a shared instance, loading the index from the database if it has not already been loaded.
+	 * @param context
+	 * @return
+	 */
+	public static DmdIngredients getInstance(ObjectContext context) {
+		DmdIngredients result = _instance;
+		if (result == null) {
+			synchronized(DmdIngredients.class) {
+				result = _instance;
+				if (result == null) {
+					_instance = result = load(context);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Return the shared instance, or null if it has not yet been loaded.
+	 */
+	public static DmdIngredients current() {
+		return _instance;
+	}
+
+	/**
+	 * Build the index from the active ingredient and basis of strength relationships, and the
+	 * active preferred terms of VMPs, in the database.
+	 * @param context
+	 * @return
+	 */
+	public static DmdIngredients load(ObjectContext context) {
+		DmdGraph graph = DmdGraph.getInstance(context);
+		Builder b = new Builder(graph);
+		ObjectSelect.dataRowQuery(Relationship.class,
+				ExpressionFactory.inDbExp(RELATIONSHIP_TYPE_COLUMN, RelationType.HAS_ACTIVE_INGREDIENT.conceptId, RelationType.HAS_BASIS_OF_STRENGTH.conceptId))
+		.iterate(context, row -> {
+			long source = (Long) row.get(SOURCE_CONCEPT_ID_COLUMN);
+			long target = (Long) row.get(TARGET_CONCEPT_ID_COLUMN);
+			if ((Long) row.get(RELATIONSHIP_TYPE_COLUMN) == RelationType.HAS_ACTIVE_INGREDIENT.conceptId) {
+				b.ingredient(source, target);
+			} else {
+				b.basisOfStrength(source, target);
+			}
+		});
+		ObjectSelect.dataRowQuery(Description.class,
+				ExpressionFactory.matchDbExp(DESCRIPTION_TYPE_COLUMN, Description.Type.PREFERRED.code)
+				.andExp(ExpressionFactory.inDbExp(DESCRIPTION_STATUS_COLUMN, Description.Status.activeCodes())))
+		.iterate(context, row -> {
+			long conceptId = (Long) row.get(CONCEPT_ID_COLUMN);
+			if (graph.productForConcept(conceptId) == Product.VIRTUAL_MEDICINAL_PRODUCT) {
+				b.term(conceptId, (String) row.get(TERM_COLUMN));
+			}
+		});
+		return b.build();
+	}
+
+	/**
+	 * Return the VMPs and AMPs with the specified active ingredient.
+	 * @return sorted concept identifiers
+	 */
+	public long[] productsForIngredient(long ingredientConceptId) {
+		return _ingredientProducts.get(ingredientConceptId);
+	}
+
+	/**
+	 * Return the VMPs and AMPs with any of the specified active ingredients.
+	 * @return sorted, distinct concept identifiers
+	 */
+	public long[] productsForIngredients(long... ingredientConceptIds) {
+		return LongStream.of(ingredientConceptIds)
+				.flatMap(id -> LongStream.of(_ingredientProducts.get(id)))
+				.sorted().distinct().toArray();
+	}
+
+	/**
+	 * Return the VMPs and AMPs with the specified active ingredient or any of its descendants
+	 * (e.g. "valproic acid" including "sodium valproate").
+	 * @return sorted, distinct concept identifiers
+	 */
+	public long[] productsForIngredient(long ingredientConceptId, Hierarchy hierarchy) {
+		long[] descendants = hierarchy.descendants(ingredientConceptId);
+		long[] ingredients = Arrays.copyOf(descendants, descendants.length + 1);
+		ingredients[descendants.length] = ingredientConceptId;
+		return productsForIngredients(ingredients);
+	}
+
+	/**
+	 * Return the active ingredients of the specified VMP or AMP.
+	 * @return sorted concept identifiers
+	 */
+	public long[] ingredientsForProduct(long productConceptId) {
+		return _productIngredients.get(productConceptId);
+	}
+
+	/**
+	 * Return the basis of strength substances for the specified VMP or AMP.
+	 * @return sorted concept identifiers
+	 */
+	public long[] basisOfStrength(long productConceptId) {
+		return _basisOfStrength.get(productConceptId);
+	}
+
+	/**
+	 * Return the strength of the specified VMP or AMP.
+	 * @return the strength, or null if the product does not have a single active ingredient or its strength is not known
+	 */
+	public Strength strength(long productConceptId) {
+		int i = Arrays.binarySearch(_strengthProducts, productConceptId);
+		if (i < 0) {
+			return null;
+		}
+		long[] ingredients = ingredientsForProduct(productConceptId);
+		long[] basis = basisOfStrength(productConceptId);
+		return new Strength(ingredients.length == 1 ? ingredients[0] : 0, basis.length == 1 ? basis[0] : 0,
+				_strengths[i], UNITS[_strengthUnits[i]], _perQuantities[i], _perUnits[i] == NO_UNITS ? null : UNITS[_perUnits[i]]);
+	}
+
+	/**
+	 * Return the number of milligrams of active ingredient in a single unit (e.g. tablet or dose) of the specified product.
+	 * @return milligrams, or NaN if not known or the product is not dose-based (e.g. a liquid measured in ml)
+	 */
+	public double milligrams(long productConceptId) {
+		int i = Arrays.binarySearch(_strengthProducts, productConceptId);
+		return i >= 0 ? _milligrams(i) : Double.NaN;
+	}
+
+	/**
+	 * Return the number of milligrams of active ingredient in a single unit of each of the specified products.
+	 * Combined with {@link DailyDose}, this gives the total daily exposure to an ingredient for a list of prescriptions.
+	 * @param productConceptIds
+	 * @param result - array into which milligrams are written, or NaN if not known
+	 */
+	public void milligrams(long[] productConceptIds, double[] result) {
+		if (result.length < productConceptIds.length) {
+			throw new IllegalArgumentException("Result array too small");
+		}
+		for (int j=0; j<productConceptIds.length; j++) {
+			int i = Arrays.binarySearch(_strengthProducts, productConceptIds[j]);
+			result[j] = i >= 0 ? _milligrams(i) : Double.NaN;
+		}
+	}
+
+	private double _milligrams(int i) {
+		if (_perUnits[i] != NO_UNITS || _perQuantities[i] != 1) {
+			return Double.NaN;
+		}
+		Units units = UNITS[_strengthUnits[i]];
+		if (units.prescribingType() != PrescribingType.DOSE_BASED) {
+			return Double.NaN;
+		}
+		return _strengths[i] * DailyDose.scaledConversion(units) * 1000 / DailyDose.CONVERSION_SCALE;
+	}
+
+	/**
+	 * Parse the first strength from the term of a product, e.g. "200mg" or "250mg/5ml".
+	 * @return the strength, or null if no strength is found
+	 */
+	static Strength parseStrength(String term) {
+		Matcher m = STRENGTH_PATTERN.matcher(term);
+		if (!m.find()) {
+			return null;
+		}
+		Units units = _units.get(m.group(2).toLowerCase());
+		double perQuantity = m.group(3) != null ? Double.parseDouble(m.group(3)) : 1;
+		Units perUnits = m.group(4) != null ? _units.get(m.group(4).toLowerCase()) : null;
+		return new Strength(0, 0, Double.parseDouble(m.group(1)), units, perQuantity, perUnits);
+	}
+
+	/**
+	 * The strength of a product with a single active ingredient, such as 250mg per 5ml.
+	 */
+	public static class Strength {
+		private final long _ingredientConceptId;
+		private final long _basisOfStrengthConceptId;
+		private final double _strength;
+		private final Units _units;
+		private final double _perQuantity;
+		private final Units _perUnits;
+
+		Strength(long ingredientConceptId, long basisOfStrengthConceptId, double strength, Units units, double perQuantity, Units perUnits) {
+			_ingredientConceptId = ingredientConceptId;
+			_basisOfStrengthConceptId = basisOfStrengthConceptId;
+			_strength = strength;
+			_units = units;
+			_perQuantity = perQuantity;
+			_perUnits = perUnits;
+		}
+		public long getIngredientConceptId() {
+			return _ingredientConceptId;
+		}
+		/**
+		 * Return the basis of strength substance, or 0 if none is recorded.
+		 */
+		public long getBasisOfStrengthConceptId() {
+			return _basisOfStrengthConceptId;
+		}
+		public double getStrength() {
+			return _strength;
+		}
+		public Units getUnits() {
+			return _units;
+		}
+		/**
+		 * Return the quantity to which the strength applies, e.g. 5 for 250mg/5ml, usually 1.
+		 */
+		public double getPerQuantity() {
+			return _perQuantity;
+		}
+		/**
+		 * Return the units of the quantity to which the strength applies, e.g. ml for 250mg/5ml,
+		 * or null if the strength is per unit of dose form (e.g. tablet or dose).
+		 */
+		public Units getPerUnits() {
+			return _perUnits;
+		}
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(_format(_strength)).append(_units.abbreviation());
+			if (_perUnits != null) {
+				sb.append('/');
+				if (_perQuantity != 1) {
+					sb.append(_format(_perQuantity));
+				}
+				sb.append(_perUnits.abbreviation());
+			}
+			return sb.toString();
+		}
+		private static String _format(double value) {
+			return value == Math.rint(value) ? String.valueOf((long) value) : String.valueOf(value);
+		}
+	}
+
+	/**
+	 * Builds an ingredient index from active ingredient and basis of strength relationships and the terms of VMPs.
+	 * Relationships for concepts that are not VMPs or AMPs are ignored.
+	 */
+	public static class Builder {
+		private final DmdGraph _graph;
+		private long[][] _ingredients = new long[][] { new long[256], new long[256] };
+		private int _ingredientCount;
+		private long[][] _basis = new long[][] { new long[256], new long[256] };
+		private int _basisCount;
+		private final HashMap<Long, String> _terms = new HashMap<>();
+
+		public Builder(DmdGraph graph) {
+			_graph = graph;
+		}
+
+		public Builder ingredient(long productConceptId, long ingredientConceptId) {
+			if (_isVmpOrAmp(productConceptId)) {
+				_ingredients = _add(_ingredients, _ingredientCount++, productConceptId, ingredientConceptId);
+			}
+			return this;
+		}
+
+		public Builder basisOfStrength(long productConceptId, long substanceConceptId) {
+			if (_isVmpOrAmp(productConceptId)) {
+				_basis = _add(_basis, _basisCount++, productConceptId, substanceConceptId);
+			}
+			return this;
+		}
+
+		/**
+		 * Record the preferred term of a VMP, from which its strength is parsed.
+		 */
+		public Builder term(long vmpConceptId, String term) {
+			_terms.putIfAbsent(vmpConceptId, term);
+			return this;
+		}
+
+		public DmdIngredients build() {
+			Adjacency productIngredients = new Adjacency(_ingredients[0], _ingredients[1], _ingredientCount);
+			Adjacency ingredientProducts = new Adjacency(_ingredients[1], _ingredients[0], _ingredientCount);
+			Adjacency basis = new Adjacency(_basis[0], _basis[1], _basisCount);
+			HashMap<Long, Strength> strengths = new HashMap<>();
+			for (Map.Entry<Long, String> e : _terms.entrySet()) {
+				long vmp = e.getKey();
+				if (productIngredients.get(vmp).length == 1) {
+					Strength s = parseStrength(e.getValue());
+					if (s != null && s._units != null) {
+						strengths.put(vmp, s);
+						for (long amp : _graph.targets(Link.VMP_AMP, vmp)) {
+							if (Arrays.equals(productIngredients.get(amp), productIngredients.get(vmp))) {
+								strengths.put(amp, s);
+							}
+						}
+					}
+				}
+			}
+			long[] products = strengths.keySet().stream().mapToLong(Long::longValue).sorted().toArray();
+			double[] values = new double[products.length];
+			byte[] units = new byte[products.length];
+			double[] perQuantities = new double[products.length];
+			byte[] perUnits = new byte[products.length];
+			for (int i=0; i<products.length; i++) {
+				Strength s = strengths.get(products[i]);
+				values[i] = s._strength;
+				units[i] = (byte) s._units.ordinal();
+				perQuantities[i] = s._perQuantity;
+				perUnits[i] = s._perUnits == null ? NO_UNITS : (byte) s._perUnits.ordinal();
+			}
+			return new DmdIngredients(ingredientProducts, productIngredients, basis, products, values, units, perQuantities, perUnits);
+		}
+
+		private boolean _isVmpOrAmp(long conceptId) {
+			Product p = _graph.productForConcept(conceptId);
+			return p == Product.VIRTUAL_MEDICINAL_PRODUCT || p == Product.ACTUAL_MEDICINAL_PRODUCT;
+		}
+
+		private static long[][] _add(long[][] pairs, int i, long from, long to) {
+			if (i == pairs[0].length) {
+				pairs = new long[][] { Arrays.copyOf(pairs[0], i * 2), Arrays.copyOf(pairs[1], i * 2) };
+			}
+			pairs[0][i] = from;
+			pairs[1][i] = to;
+			return pairs;
+		}
+	}
+}
@@ -0,0 +1,289 @@
+package com.eldrix.terminology.snomedct.semantic;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.LongFunction;
+import java.util.stream.LongStream;
+
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.exp.ExpressionFactory;
+import org.apache.cayenne.query.ObjectSelect;
+
+import com.eldrix.terminology.snomedct.Concept;
+import com.eldrix.terminology.snomedct.Relationship;
+import com.eldrix.terminology.snomedct.semantic.Dmd.Product;
+import com.eldrix.terminology.snomedct.semantic.DmdGraph.Link;
+
+/**
+ * Precomputed prescribing information for every product in the DM&D.
+ *
+ * This computes, in a single pass, whether each VMP and AMP is available and prescribable
+ * and whether an AMP should be prescribed as its VMP. The values for trade families and VTMs
+ * are then derived bottom-up from those results, rather than walking the product structures
+ * again for every concept. The rules are the same as those of {@link Vmp#isPrescribable(Concept)}
+ * and {@link Amp#shouldPrescribeVmp(Concept)}.
+ *
+ * Objects of this class are immutable and thread-safe.
+ *
+ * @author Mark Wardle
+ */
+public class DmdPrescribing {
+	private static final String SOURCE_CONCEPT_ID_COLUMN = "source_concept_id";
+	private static final String TARGET_CONCEPT_ID_COLUMN = "target_concept_id";
+	private static final String RELATIONSHIP_TYPE_COLUMN = "relationship_type_concept_id";
+	private static final String CONCEPT_STATUS_COLUMN = "concept_status_code";
+	private static final long[] EMPTY = new long[0];
+
+	private final DmdGraph _graph;
+	private final BitSet _active;
+	private final BitSet _available;		// for VMPs and AMPs only
+	private final BitSet _prescribable;
+	private final BitSet _searchable;
+	private final BitSet _shouldPrescribeVmp;		// for AMPs only
+
+	private DmdPrescribing(DmdGraph graph, BitSet active, BitSet available, BitSet prescribable, BitSet searchable, BitSet shouldPrescribeVmp) {
+		_graph = graph;
+		_active = active;
+		_available = available;
+		_prescribable = prescribable;
+		_searchable = searchable;
+		_shouldPrescribeVmp = shouldPrescribeVmp;
+	}
+
+	/**
+	 * Compute prescribing information for all products using the database.
+	 * @param context
+	 * @return
+	 */
+	public static DmdPrescribing load(ObjectContext context) {
+		DmdGraph graph = DmdGraph.getInstance(context);
+		Builder b = new Builder(graph);
+		List<Integer> activeCodes = Concept.Status.activeCodes();
+		ObjectSelect.dataRowQuery(Concept.class).iterate(context, row -> {
+			if (activeCodes.contains(row.get(CONCEPT_STATUS_COLUMN))) {
+				b.active((Long) row.get(Concept.CONCEPT_ID_PK_COLUMN));
+			}
+		});
+		ObjectSelect.dataRowQuery(Relationship.class,
+				ExpressionFactory.inDbExp(RELATIONSHIP_TYPE_COLUMN, RelationType.VMP_NON_AVAILABILITY_INDICATOR.conceptId, RelationType.VMP_PRESCRIBING_STATUS.conceptId))
+		.iterate(context, row -> {
+			long source = (Long) row.get(SOURCE_CONCEPT_ID_COLUMN);
+			long target = (Long) row.get(TARGET_CONCEPT_ID_COLUMN);
+			if ((Long) row.get(RELATIONSHIP_TYPE_COLUMN) == RelationType.VMP_NON_AVAILABILITY_INDICATOR.conceptId) {
+				b.availability(source, target);
+			} else {
+				b.prescribingStatus(source, target);
+			}
+		});
+		return b.build();
+	}
+
+	public DmdGraph getGraph() {
+		return _graph;
+	}
+
+	/**
+	 * Is the specified product active?
+	 */
+	public boolean isActive(long conceptId) {
+		int i = _graph.indexOf(conceptId);
+		return i >= 0 && _active.get(i);
+	}
+
+	/**
+	 * Is the specified VMP or AMP available? See {@link Vmp#isAvailable(Concept)}.
+	 * Other types of product are never recorded as available.
+	 */
+	public boolean isAvailable(long conceptId) {
+		int i = _graph.indexOf(conceptId);
+		return i >= 0 && _available.get(i);
+	}
+
+	/**
+	 * Is the specified product prescribable?
+	 * <ul>
+	 * <li>A VMP is prescribable if it is available and has a valid prescribing status.
+	 * <li>An AMP is prescribable only if its VMP is not.
+	 * <li>A TF is prescribable if any of its AMPs are prescribable.
+	 * <li>A VTM is prescribable if any of its VMPs are prescribable.
+	 * <li>Packs are not prescribable.
+	 * </ul>
+	 */
+	public boolean isPrescribable(long conceptId) {
+		int i = _graph.indexOf(conceptId);
+		return i >= 0 && _prescribable.get(i);
+	}
+
+	/**
+	 * Should users be able to search for the specified product?
+	 * Only active VTMs, VMPs, and AMPs that should not be prescribed as a VMP, are searchable.
+	 */
+	public boolean isSearchable(long conceptId) {
+		int i = _graph.indexOf(conceptId);
+		return i >= 0 && _searchable.get(i);
+	}
+
+	/**
+	 * Should the specified AMP be prescribed as its VMP instead?
+	 */
+	public boolean shouldPrescribeVmp(long ampConceptId) {
+		int i = _graph.indexOf(ampConceptId);
+		return i >= 0 && _shouldPrescribeVmp.get(i);
+	}
+
+	/**
+	 * Return the products that should be prescribed instead of the specified active product.
+	 * <ul>
+	 * <li>AMP: its VMP, if the AMP should be prescribed as a VMP.
+	 * <li>AMPP: its AMP.
+	 * <li>VMPP: its VMP.
+	 * <li>TF: if any of its AMPs should be prescribed as a VMP, its VTMs or, if there are none, its VMPs.
+	 * <li>VMP: if it is not prescribable, its trade families or, if there are none, its AMPs.
+	 * <li>VTM: if none of its VMPs are prescribable, its trade families.
+	 * </ul>
+	 * @param conceptId
+	 * @return concept identifiers, or an empty array if the product should be prescribed as itself
+	 */
+	public long[] prescribeAs(long conceptId) {
+		Product product = _graph.productForConcept(conceptId);
+		if (product == null) {
+			return EMPTY;
+		}
+		switch (product) {
+		case ACTUAL_MEDICINAL_PRODUCT:
+			return shouldPrescribeVmp(conceptId) ? _graph.sources(Link.VMP_AMP, conceptId) : EMPTY;
+		case ACTUAL_MEDICINAL_PRODUCT_PACK:
+			return _graph.sources(Link.AMP_AMPP, conceptId);
+		case VIRTUAL_MEDICINAL_PRODUCT_PACK:
+			return _graph.sources(Link.VMP_VMPP, conceptId);
+		case TRADE_FAMILY:
+			long[] amps = _graph.targets(Link.TF_AMP, conceptId);
+			if (LongStream.of(amps).anyMatch(this::shouldPrescribeVmp)) {
+				long[] vmps = _distinct(amps, amp -> _graph.sources(Link.VMP_AMP, amp));
+				long[] vtms = _distinct(vmps, vmp -> _graph.sources(Link.VTM_VMP, vmp));
+				return vtms.length > 0 ? vtms : vmps;
+			}
+			return EMPTY;
+		case VIRTUAL_MEDICINAL_PRODUCT:
+			if (!isPrescribable(conceptId)) {
+				long[] vmpAmps = _graph.targets(Link.VMP_AMP, conceptId);
+				long[] tfs = _distinct(vmpAmps, amp -> _graph.sources(Link.TF_AMP, amp));
+				return tfs.length > 0 ? tfs : vmpAmps;
+			}
+			return EMPTY;
+		case VIRTUAL_THERAPEUTIC_MOIETY:
+			long[] vtmVmps = _graph.targets(Link.VTM_VMP, conceptId);
+			if (LongStream.of(vtmVmps).noneMatch(this::isPrescribable)) {
+				long[] vtmAmps = _distinct(vtmVmps, vmp -> _graph.targets(Link.VMP_AMP, vmp));
+				return _distinct(vtmAmps, amp -> _graph.sources(Link.TF_AMP, amp));
+			}
+			return EMPTY;
+		default:
+			return EMPTY;
+		}
+	}
+
+	private static long[] _distinct(long[] conceptIds, LongFunction<long[]> mapper) {
+		return LongStream.of(conceptIds).flatMap(id -> LongStream.of(mapper.apply(id))).distinct().sorted().toArray();
+	}
+
+	/**
+	 * Builds prescribing information from concept status, availability and prescribing status.
+	 */
+	public static class Builder {
+		private final DmdGraph _graph;
+		private final BitSet _active = new BitSet();
+		private final BitSet _available = new BitSet();
+		private final BitSet _validStatus = new BitSet();
+
+		public Builder(DmdGraph graph) {
+			_graph = graph;
+		}
+
+		/**
+		 * Record that the specified concept is active.
+		 */
+		public Builder active(long conceptId) {
+			int i = _graph.indexOf(conceptId);
+			if (i >= 0) {
+				_active.set(i);
+			}
+			return this;
+		}
+
+		/**
+		 * Record the target of a VMP_NON_AVAILABILITY_INDICATOR relationship for a VMP or AMP.
+		 */
+		public Builder availability(long conceptId, long availabilityConceptId) {
+			int i = _graph.indexOf(conceptId);
+			if (i >= 0 && Vmp.VmpAvailability.isAvailable(availabilityConceptId)) {
+				_available.set(i);
+			}
+			return this;
+		}
+
+		/**
+		 * Record the target of a VMP_PRESCRIBING_STATUS relationship for a VMP.
+		 */
+		public Builder prescribingStatus(long conceptId, long statusConceptId) {
+			int i = _graph.indexOf(conceptId);
+			if (i >= 0 && Vmp.PrescribingStatus.statusForConcept(statusConceptId).isValid) {
+				_validStatus.set(i);
+			}
+			return this;
+		}
+
+		public DmdPrescribing build() {
+			BitSet prescribable = new BitSet(_graph.size());
+			BitSet searchable = new BitSet(_graph.size());
+			BitSet shouldPrescribeVmp = new BitSet(_graph.size());
+			// first pass: VMPs
+			for (long vmp : _graph.conceptsForProduct(Product.VIRTUAL_MEDICINAL_PRODUCT)) {
+				int i = _graph.indexOf(vmp);
+				if (_available.get(i) && _validStatus.get(i)) {
+					prescribable.set(i);
+				}
+			}
+			// second pass: AMPs, derived from their VMPs
+			for (long amp : _graph.conceptsForProduct(Product.ACTUAL_MEDICINAL_PRODUCT)) {
+				int i = _graph.indexOf(amp);
+				long[] vmps = _graph.sources(Link.VMP_AMP, amp);
+				if (vmps.length > 0 && prescribable.get(_graph.indexOf(vmps[0]))) {
+					shouldPrescribeVmp.set(i);
+				} else {
+					prescribable.set(i);
+				}
+			}
+			// bottom-up: trade families and VTMs
+			for (long tf : _graph.conceptsForProduct(Product.TRADE_FAMILY)) {
+				if (_anyMatch(_graph.targets(Link.TF_AMP, tf), prescribable)) {
+					prescribable.set(_graph.indexOf(tf));
+				}
+			}
+			for (long vtm : _graph.conceptsForProduct(Product.VIRTUAL_THERAPEUTIC_MOIETY)) {
+				if (_anyMatch(_graph.targets(Link.VTM_VMP, vtm), prescribable)) {
+					prescribable.set(_graph.indexOf(vtm));
+				}
+			}
+			for (int i=0; i<_graph.size(); i++) {
+				if (_active.get(i)) {
+					Product p = _graph.productForConcept(_graph.conceptId(i));
+					if (p == Product.VIRTUAL_THERAPEUTIC_MOIETY || p == Product.VIRTUAL_MEDICINAL_PRODUCT
+							|| (p == Product.ACTUAL_MEDICINAL_PRODUCT && !shouldPrescribeVmp.get(i))) {
+						searchable.set(i);
+					}
+				}
+			}
+			return new DmdPrescribing(_graph, _active, _available, prescribable, searchable, shouldPrescribeVmp);
+		}
+
+		private boolean _anyMatch(long[] conceptIds, BitSet bits) {
+			for (long conceptId : conceptIds) {
+				if (bits.get(_graph.indexOf(conceptId))) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
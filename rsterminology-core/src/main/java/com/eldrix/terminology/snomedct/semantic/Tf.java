@@ -31,6 +31,10 @@ public class Tf extends Dmd {
 	 * @return
 	 */
 	public static Stream<Concept> getAmps(Concept tf) {
+		DmdGraph graph = DmdGraph.current();
+		if (graph != null) {
+			return _concepts(tf, graph.targets(DmdGraph.Link.TF_AMP, tf.getConceptId()));
+		}
 		return tf.getChildConcepts().stream()
 				.filter(child -> Product.ACTUAL_MEDICINAL_PRODUCT.isAProduct(child));
 	}
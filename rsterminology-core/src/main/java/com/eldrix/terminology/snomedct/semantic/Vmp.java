@@ -5,6 +5,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Optional;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
 
 import org.apache.cayenne.exp.Expression;
@@ -91,6 +92,10 @@ public class Vmp extends Dmd {
 	 * @return
 	 */
 	public static Stream<Concept> getVtms(Concept vmp) {
+		DmdGraph graph = DmdGraph.current();
+		if (graph != null) {
+			return _concepts(vmp, graph.sources(DmdGraph.Link.VTM_VMP, vmp.getConceptId()));
+		}
 		HashSet<Concept> vtms = new HashSet<>();
 		_findVtm(vmp, vtms);
 		return vtms.stream();
@@ -124,6 +129,10 @@ public class Vmp extends Dmd {
 	 * @return
 	 */
 	public static Stream<Concept> getAmps(Concept vmp) {
+		DmdGraph graph = DmdGraph.current();
+		if (graph != null) {
+			return _concepts(vmp, graph.targets(DmdGraph.Link.VMP_AMP, vmp.getConceptId()));
+		}
 		return vmp.getChildConcepts().stream()
 				.filter(child -> Product.ACTUAL_MEDICINAL_PRODUCT.isAProduct(child));
 	}
@@ -139,6 +148,13 @@ public class Vmp extends Dmd {
 	 * @return
 	 */
 	public static Stream<Concept> getTfs(Concept vmp) {
+		DmdGraph graph = DmdGraph.current();
+		if (graph != null) {
+			long[] tfs = LongStream.of(graph.targets(DmdGraph.Link.VMP_AMP, vmp.getConceptId()))
+					.flatMap(amp -> LongStream.of(graph.sources(DmdGraph.Link.TF_AMP, amp)))
+					.distinct().toArray();
+			return _concepts(vmp, tfs);
+		}
 		return getAmps(vmp)
 				.map(amp -> Amp.getTf(amp))
 				.filter(Optional::isPresent)
@@ -157,6 +173,10 @@ public class Vmp extends Dmd {
 	 * @return
 	 */
 	public static Stream<Concept> getVmpps(Concept vmp) {
+		DmdGraph graph = DmdGraph.current();
+		if (graph != null) {
+			return _concepts(vmp, graph.targets(DmdGraph.Link.VMP_VMPP, vmp.getConceptId()));
+		}
 		return vmp.getChildRelationships().stream()
 				.filter(r -> r.getRelationshipTypeConcept().getConceptId() == RelationType.HAS_VMP.conceptId)
 				.map(Relationship::getSourceConcept);
@@ -265,14 +285,36 @@ public class Vmp extends Dmd {
 	}
 
 	/**
-	 * Parse the dose and units for a given VMP.
-	 * TODO: not implemented
-	 * TODO: how would this work for liquids? getDose() as an API doesn't really work!
-	 * TODO: remove and replace with something that can cope with VMPs of multiple types.
+	 * Return the strength of a VMP with a single active ingredient, e.g. 5mg for "Amlodipine 5mg tablets"
+	 * or 250mg/5ml for "Amoxicillin 250mg/5ml oral suspension".
+	 * This uses the shared {@link DmdIngredients} if it has been loaded, or otherwise parses the preferred term.
+	 * @param vmp
+	 * @return the strength, or null if the VMP has more than one active ingredient or the strength cannot be parsed
+	 */
+	public static DmdIngredients.Strength getStrength(Concept vmp) {
+		DmdIngredients ingredients = DmdIngredients.current();
+		if (ingredients != null) {
+			return ingredients.strength(vmp.getConceptId());
+		}
+		if (getActiveIngredients(vmp).count() != 1) {
+			return null;
+		}
+		DmdIngredients.Strength strength = DmdIngredients.parseStrength(vmp.getPreferredDescription().getTerm());
+		return strength != null && strength.getUnits() != null ? strength : null;
+	}
+	public DmdIngredients.Strength getStrength() {
+		return getStrength(_concept);
+	}
+
+	/**
+	 * Return the dose of a VMP with a single active ingredient, in the units of its strength (see {@link #getStrength(Concept)}).
+	 * For liquids, this is the amount in the quantity given by the strength (e.g. 250 for 250mg/5ml).
+	 * Use {@link #getStrength(Concept)} to distinguish a VMP without a single, parseable strength.
+	 * @return the dose, or zero if it cannot be determined
 	 */
 	public static BigDecimal getDose(Concept vmp) {
-		//String term = vmp.getPreferredDescription().getTerm();
-		return BigDecimal.ZERO;
+		DmdIngredients.Strength strength = getStrength(vmp);
+		return strength != null ? BigDecimal.valueOf(strength.getStrength()) : BigDecimal.ZERO;
 	}
 	public BigDecimal getDose() {
 		return getDose(_concept);
@@ -32,6 +32,10 @@ public class Vmpp extends Dmd {
 	 * @return
 	 */
 	public static Optional<Concept> getVmp(Concept vmpp) {
+		DmdGraph graph = DmdGraph.current();
+		if (graph != null) {
+			return _concept(vmpp, graph.sources(DmdGraph.Link.VMP_VMPP, vmpp.getConceptId()));
+		}
 		return vmpp.getParentRelationships().stream()
 				.filter(r -> r.getRelationshipTypeConcept().getConceptId() == RelationType.HAS_VMP.conceptId)
 				.findFirst()
@@ -54,6 +58,10 @@ public class Vmpp extends Dmd {
 	 * VMPP <->> AMPP
 	 */
 	public static Stream<Concept>getAmpps(Concept vmpp) {
+		DmdGraph graph = DmdGraph.current();
+		if (graph != null) {
+			return _concepts(vmpp, graph.targets(DmdGraph.Link.VMPP_AMPP, vmpp.getConceptId()));
+		}
 		return vmpp.getChildConcepts().stream()
 				.filter(child -> Product.ACTUAL_MEDICINAL_PRODUCT_PACK.isAProduct(child));
 	}	
@@ -34,6 +34,10 @@ public class Vtm extends Dmd {
 	 * @return
 	 */
 	public static Stream<Concept> getVmps(Concept vtm) {
+		DmdGraph graph = DmdGraph.current();
+		if (graph != null) {
+			return _concepts(vtm, graph.targets(DmdGraph.Link.VTM_VMP, vtm.getConceptId()));
+		}
 		ArrayList<Concept> vmps = new ArrayList<>();
 		_addVmps(vtm, vmps);
 		return vmps.stream()
@@ -0,0 +1,105 @@
+package com.eldrix.terminology.medicine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import org.junit.Test;
+
+import com.eldrix.terminology.medicine.Medication.Frequency;
+import com.eldrix.terminology.medicine.Medication.PrescribingType;
+import com.eldrix.terminology.medicine.Medication.Units;
+
+public class DailyDoseTest {
+
+	@Test
+	public void testEquivalentDailyDose() {
+		assertEquals(0, Frequency.THREE_TIMES_DAILY.equivalentDailyDose(new BigDecimal(500)).compareTo(new BigDecimal(1500)));
+		assertEquals(new BigDecimal("2.5"), Frequency.ONCE_DAILY.equivalentDailyDose(new BigDecimal("2.5")));
+		assertEquals(new BigDecimal("2.1429"), Frequency.ONCE_WEEKLY.equivalentDailyDose(new BigDecimal(15)));
+		assertEquals(new BigDecimal("0.2"), Frequency.ONCE_MONTHLY.equivalentDailyDose(new BigDecimal(5)));
+	}
+
+	@Test
+	public void testConversions() {
+		assertEquals(1000L, DailyDose.scaledConversion(Units.MICROGRAM));
+		assertEquals(1000000L, DailyDose.scaledConversion(Units.MILLIGRAM));
+		assertEquals(DailyDose.CONVERSION_SCALE, DailyDose.scaledConversion(Units.GRAM));
+		assertEquals(1500_000_000L, DailyDose.nanogramsPerDay(500_000, Units.MILLIGRAM, Frequency.THREE_TIMES_DAILY));
+		assertEquals(200_000L, DailyDose.nanogramsPerDay(200_000, Units.MICROGRAM, Frequency.ONCE_DAILY));
+		assertEquals(2000_000_000L, DailyDose.nanogramsPerDay(1000, Units.GRAM, Frequency.TWICE_DAILY));
+		assertEquals(2142857L, DailyDose.nanogramsPerDay(15_000, Units.MILLIGRAM, Frequency.ONCE_WEEKLY));
+		assertEquals(37500L, DailyDose.scaledDose(new BigDecimal("37.5")));
+		assertEquals(1000L, DailyDose.DOSE_SCALE);
+		assertEquals(3L, DailyDose.scaledDose(new BigDecimal("0.0025")));
+		assertEquals(0, DailyDose.milligrams(2142857L).compareTo(new BigDecimal("2.142857")));
+		assertEquals(0, DailyDose.milligramsPerDay(new BigDecimal(15), Units.MILLIGRAM, Frequency.ALTERNATE_DAYS).compareTo(new BigDecimal("7.5")));
+		assertEquals(DailyDose.NOT_CONVERTIBLE, DailyDose.nanogramsPerDay(2000, Units.TABLETS, Frequency.ONCE_DAILY));
+		assertEquals(DailyDose.NOT_CONVERTIBLE, DailyDose.nanogramsPerDay(2000, null, Frequency.ONCE_DAILY));
+		assertNull(DailyDose.milligramsPerDay(BigDecimal.ONE, Units.PUFFS, Frequency.ONCE_DAILY));
+	}
+
+	@Test
+	public void testInvalidOrdinals() {
+		long[] result = new long[1];
+		for (byte[] ordinals : new byte[][] { { -1, 0 }, { (byte) Units.values().length, 0 }, { 0, (byte) Frequency.values().length }, { 0, -1 } }) {
+			try {
+				DailyDose.nanogramsPerDay(new long[] { 1000 }, new byte[] { ordinals[0] }, new byte[] { ordinals[1] }, result);
+				fail("Accepted ordinals " + ordinals[0] + " and " + ordinals[1]);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	/**
+	 * Check the batch conversion against the decimal path for every combination of units and frequency.
+	 */
+	@Test
+	public void testBatchMatchesDecimal() {
+		String[] doses = new String[] { "0", "0.5", "2.5", "5", "37.5", "500", "1234.567" };
+		int n = doses.length * Units.values().length * Frequency.values().length;
+		long[] values = new long[n];
+		Units[] units = new Units[n];
+		Frequency[] frequencies = new Frequency[n];
+		byte[] unitOrdinals = new byte[n];
+		byte[] frequencyOrdinals = new byte[n];
+		int i = 0;
+		for (String dose : doses) {
+			for (Units u : Units.values()) {
+				for (Frequency f : Frequency.values()) {
+					values[i] = DailyDose.scaledDose(new BigDecimal(dose));
+					units[i] = u;
+					frequencies[i] = f;
+					unitOrdinals[i] = (byte) u.ordinal();
+					frequencyOrdinals[i] = (byte) f.ordinal();
+					i++;
+				}
+			}
+		}
+		long[] result = new long[n];
+		long[] resultOrdinals = new long[n];
+		DailyDose.nanogramsPerDay(values, units, frequencies, result);
+		DailyDose.nanogramsPerDay(values, unitOrdinals, frequencyOrdinals, resultOrdinals);
+		for (i=0; i<n; i++) {
+			BigDecimal dose = new BigDecimal(doses[i / (Units.values().length * Frequency.values().length)]);
+			BigDecimal exact = DailyDose.milligramsPerDay(dose, units[i], frequencies[i]);
+			assertEquals(result[i], resultOrdinals[i]);
+			if (units[i].prescribingType() != PrescribingType.DOSE_BASED) {
+				assertEquals(DailyDose.NOT_CONVERTIBLE, result[i]);
+				continue;
+			}
+			// exact to the nearest nanogram
+			assertEquals(exact.movePointRight(6).setScale(0, RoundingMode.HALF_UP).longValueExact(), result[i]);
+			// the rounded path differs by no more than its rounding step
+			BigDecimal rounded = frequencies[i].equivalentDailyDose(dose).multiply(units[i].conversion).movePointRight(3);
+			BigDecimal step = frequencies[i].perDayDenominator() == 1 ? BigDecimal.ZERO
+					: (frequencies[i].perDayDenominator() < 30 ? new BigDecimal("0.0001") : new BigDecimal("0.1")).multiply(units[i].conversion).movePointRight(3);
+			assertTrue(rounded.subtract(exact).abs().compareTo(step) <= 0);
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package com.eldrix.terminology.medicine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import com.eldrix.terminology.snomedct.Search.ResultItem;
+import com.eldrix.terminology.snomedct.semantic.Dmd.Product;
+
+public class DrugNameResolverTest {
+
+	private static DrugNameResolver resolver() {
+		return new DrugNameResolver.Builder()
+				.add(108537001L, Product.VIRTUAL_THERAPEUTIC_MOIETY, "Amlodipine", true)
+				.add(319283006L, Product.VIRTUAL_MEDICINAL_PRODUCT, "Amlodipine 5mg tablets", true)
+				.add(319283006L, Product.VIRTUAL_MEDICINAL_PRODUCT, "Amlodipine", false)
+				.add(100L, Product.ACTUAL_MEDICINAL_PRODUCT, "Istin 5mg tablets", true)
+				.add(101L, Product.ACTUAL_MEDICINAL_PRODUCT, "Co-careldopa 25mg/100mg tablets", true)
+				.add(102L, Product.ACTUAL_MEDICINAL_PRODUCT_PACK, "Istin 5mg tablets (Pfizer) 28 tablet", true)
+				.build();
+	}
+
+	@Test
+	public void testNormalise() {
+		assertEquals("amlodipine 5mg", DrugNameResolver.normalise("  Amlodipine   5mg "));
+		assertEquals("co careldopa 25mg/100mg", DrugNameResolver.normalise("co-careldopa (25mg/100mg)"));
+		assertEquals("", DrugNameResolver.normalise(" - "));
+	}
+
+	@Test
+	public void testLookup() {
+		DrugNameResolver r = resolver();
+		ResultItem ri = r.lookup("amlodipine");
+		assertEquals(108537001L, ri.getConceptId());		// VTM preferred to the VMP synonym
+		assertEquals("Amlodipine", ri.getPreferredTerm());
+		assertEquals(319283006L, r.lookup("AMLODIPINE 5mg  tablets").getConceptId());
+		assertEquals(101L, r.lookup("co-careldopa 25mg/100mg tablets").getConceptId());
+		assertNull(r.lookup("istin 5mg tablets (pfizer) 28 tablet"));		// packs are not included
+		assertNull(r.lookup("metformin"));
+		assertEquals(0, r.cacheSize());
+	}
+}
@@ -9,6 +9,7 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 
@@ -286,6 +287,20 @@ public class MedicationParserTest {
 
 
 
+	@Test
+	public void testBatchParsing() throws CorruptIndexException, IOException {
+		ParsedMedicationBuilder pmb = new ParsedMedicationBuilder();
+		List<String> lines = Arrays.asList("amlodipine 5mg od", "bendroflumethiazide 2.5mg od", "AMLODIPINE 10mg bd", "salbutamol 2p qds inh PRN");
+		BatchMedicationParser parser = new BatchMedicationParser();
+		List<ParsedMedication> parsed = parser.parse(lines);
+		assertEquals(lines.size(), parsed.size());
+		assertEquals(3, parser.mappedDrugNames());
+		for (int i=0; i<lines.size(); i++) {
+			assertEquals(pmb.parseString(lines.get(i)).build(), parsed.get(i));
+		}
+		assertEquals(Long.valueOf(108537001L), parsed.get(2).getConceptId());
+	}
+
 	@Test
 	public void testSplitting() {
 		String n1 = "amlodipine 5mg od\nsimvastatin 40mg od";
@@ -293,6 +308,44 @@ public class MedicationParserTest {
 		assertEquals("amlodipine 5mg".split("\n").length, 1);
 	}
 
+	@Test
+	public void testLexer() {
+		ParsedMedicationBuilder pmb = new ParsedMedicationBuilder().parseString("Bendroflumethiazide 2.5mg OD po prn");
+		assertEquals("bendroflumethiazide", pmb._drugName);
+		assertEquals(0, pmb._dose.compareTo(new BigDecimal("2.5")));
+		assertEquals(Units.MILLIGRAM, pmb._units);
+		assertEquals(Frequency.ONCE_DAILY, pmb._frequency);
+		assertEquals(Route.ORAL, pmb._route);
+		assertTrue(pmb._asRequired);
+		assertNull(pmb._notes);
+
+		pmb.parseString("'co-careldopa 25/100' 2t 4/day then increase");
+		assertEquals("co-careldopa 25/100", pmb._drugName);
+		assertEquals(0, pmb._dose.compareTo(new BigDecimal(2)));
+		assertEquals(Units.TABLETS, pmb._units);
+		assertEquals(Frequency.FOUR_TIMES_DAILY, pmb._frequency);
+		assertNull(pmb._route);
+		assertFalse(pmb._asRequired);
+		assertEquals("then increase", pmb._notes);
+
+		pmb.parseString("levetiracetam 500mg bd start at 250mg od");
+		assertEquals("levetiracetam", pmb._drugName);
+		assertEquals(0, pmb._dose.compareTo(new BigDecimal(500)));
+		assertEquals("start at 250mg od", pmb._notes);
+
+		pmb.parseString("insulin 10unit od");		// "unit" is not a recognised abbreviation
+		assertEquals("insulin 10unit", pmb._drugName);
+		assertNull(pmb._dose);
+		assertEquals(Frequency.ONCE_DAILY, pmb._frequency);
+
+		pmb.parseString("");
+		assertEquals("", pmb._drugName);
+		assertNull(pmb._frequency);
+		assertNull(ParsedMedicationBuilder.matchDosing("mg"));
+		assertNull(ParsedMedicationBuilder.matchDosing("5"));
+		assertNull(ParsedMedicationBuilder.matchDosing("5.5.5mg"));
+	}
+
 	@Test
 	public void testPartialNames() throws CorruptIndexException, IOException, ParseException {
 		ParsedMedicationBuilder pmb = new ParsedMedicationBuilder();
@@ -0,0 +1,48 @@
+package com.eldrix.terminology.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class MetricsTest {
+
+	@Test
+	public void testPrometheusFormat() {
+		Metrics.Counter c = Metrics.counter("test_requests_total", "Test \"requests\"", "endpoint", "a\"b");
+		assertSame(c, Metrics.counter("test_requests_total", "Test \"requests\"", "endpoint", "a\"b"));
+		c.increment();
+		c.increment(2);
+		Metrics.Histogram h = Metrics.histogram("test_sizes", "Test sizes", new double[] { 1, 5 });
+		h.observe(0.5);
+		h.observe(1);
+		h.observe(3);
+		h.observe(10);
+		Metrics.gauge("test_level", "Test level", () -> 2.5);
+		String text = Metrics.scrape();
+		assertTrue(text.contains("# TYPE test_requests_total counter\n"));
+		assertTrue(text.contains("test_requests_total{endpoint=\"a\\\"b\"} 3\n"));
+		assertTrue(text.contains("# TYPE test_sizes histogram\n"));
+		assertTrue(text.contains("test_sizes_bucket{le=\"1\"} 2\n"));
+		assertTrue(text.contains("test_sizes_bucket{le=\"5\"} 3\n"));
+		assertTrue(text.contains("test_sizes_bucket{le=\"+Inf\"} 4\n"));
+		assertTrue(text.contains("test_sizes_sum 14.5\n"));
+		assertTrue(text.contains("test_sizes_count 4\n"));
+		assertTrue(text.contains("test_level 2.5\n"));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testTypeMismatch() {
+		Metrics.counter("test_mismatch", "Test");
+		Metrics.timer("test_mismatch", "Test");
+	}
+
+	@Test
+	public void testTimer() {
+		Metrics.Histogram t = Metrics.timer("test_seconds", "Test timer", "shape", "text");
+		t.recordNanos(2_000_000);
+		assertEquals(1, t.getCount());
+		assertEquals(0.002, t.getSum(), 1e-12);
+	}
+}
@@ -0,0 +1,33 @@
+package com.eldrix.terminology.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TraceTest {
+
+	@Test
+	public void testTrace() {
+		Trace.record(Trace.LUCENE, "ignored", 10);		// no active trace
+		assertNull(Trace.stop());
+		Trace t = Trace.start();
+		assertTrue(Trace.isActive());
+		Trace.sqlStarted("SELECT 1");
+		Trace.sqlStarted("SELECT 2");			// finishes the first
+		Trace.sqlFinished();
+		Trace.sqlFinished();					// nothing pending
+		Trace.record(Trace.LUCENE, "+term:ms", 2_000_000);
+		Trace.sqlStarted("SELECT 3");
+		assertEquals(t, Trace.stop());			// finishes the pending statement
+		assertFalse(Trace.isActive());
+		assertEquals(3, t.count(Trace.SQL));
+		assertEquals(1, t.count(Trace.LUCENE));
+		assertEquals(2_000_000, t.nanos(Trace.LUCENE));
+		assertEquals("SELECT 2", t.getEntries().get(1).getText());
+		assertTrue(t.summary().contains("sql=3/"));
+		assertTrue(t.summary().contains("lucene=1/2ms"));
+	}
+}
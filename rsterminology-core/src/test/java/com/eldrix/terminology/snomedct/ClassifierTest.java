@@ -0,0 +1,49 @@
+package com.eldrix.terminology.snomedct;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import org.junit.Test;
+
+public class ClassifierTest {
+
+	/*
+	 * 1 root
+	 *   2 finding: 3 disorder, 4 (a type of 3 and 5), 6 (a type of 4)
+	 *   5 procedure
+	 */
+	private static Hierarchy hierarchy() {
+		return new Hierarchy.Builder()
+				.add(2, 1).add(5, 1)
+				.add(3, 2).add(4, 3).add(4, 5).add(6, 4)
+				.build();
+	}
+
+	@Test
+	public void testClassify() {
+		Classifier c = new Classifier(hierarchy(), 5, 3, 3, 404684003);
+		assertArrayEquals(new long[] { 3, 5 }, c.roots());
+		assertArrayEquals(new long[] { 3, 5 }, c.classify(6));
+		assertArrayEquals(new long[] { 3 }, c.classify(3));
+		assertArrayEquals(new long[0], c.classify(2));
+		assertArrayEquals(new long[0], c.classify(99));
+		long[][] all = c.classify(new long[] { 1, 2, 3, 4, 5, 6 });
+		assertArrayEquals(new long[][] { {}, {}, { 3 }, { 3, 5 }, { 5 }, { 3, 5 } }, all);
+	}
+
+	@Test
+	public void testStream() {
+		Classifier c = new Classifier(hierarchy(), 2, 5);
+		long[] input = LongStream.range(0, 10000).map(i -> 1 + i % 7).toArray();
+		List<String> result = c.classify(LongStream.of(input)).map(Object::toString).collect(Collectors.toList());
+		assertEquals(input.length, result.size());
+		assertEquals("1: []", result.get(0));
+		assertEquals("4: [2, 5]", result.get(3));
+		assertEquals("7: []", result.get(6));
+		assertArrayEquals(new long[] { 5715, 4285 }, c.count(LongStream.of(input)));
+	}
+}
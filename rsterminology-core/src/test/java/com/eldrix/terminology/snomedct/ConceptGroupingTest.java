@@ -0,0 +1,132 @@
+package com.eldrix.terminology.snomedct;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Test;
+
+import com.eldrix.terminology.snomedct.Search.ResultItem;
+
+public class ConceptGroupingTest {
+
+	/*
+	 * Index descriptions as pairs of concept identifier and term, in order. Shorter terms score more highly.
+	 */
+	private static IndexReader reader(boolean docValues, Object... descriptions) throws IOException {
+		RAMDirectory directory = new RAMDirectory();
+		try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()).setSimilarity(new Search.SnomedSimilarity()))) {
+			for (int i=0; i<descriptions.length; i+=2) {
+				long conceptId = ((Number) descriptions[i]).longValue();
+				String term = (String) descriptions[i+1];
+				Document doc = new Document();
+				doc.add(new TextField("term", term, Store.YES));
+				doc.add(new StoredField("preferredTerm", term));
+				doc.add(new StoredField("conceptId", conceptId));
+				if (docValues) {
+					doc.add(new NumericDocValuesField("conceptId", conceptId));
+				}
+				writer.addDocument(doc);
+			}
+		}
+		return DirectoryReader.open(directory);
+	}
+
+	private static List<ResultItem> grouped(IndexReader reader, int maxHits) throws IOException {
+		return new Search(reader).newBuilder().search("sclerosis").groupByConcept().setMaxHits(maxHits).build().searchWithTotal().getItems();
+	}
+
+	private static List<Long> concepts(List<ResultItem> items) {
+		return items.stream().map(ResultItem::getConceptId).collect(Collectors.toList());
+	}
+
+	private static List<String> terms(List<ResultItem> items) {
+		return items.stream().map(ResultItem::getTerm).collect(Collectors.toList());
+	}
+
+	@Test
+	public void testDistinctConcepts() throws IOException {
+		try (IndexReader reader = reader(true,
+				1, "sclerosis x1", 1, "sclerosis x1 x2",
+				2, "sclerosis x1 x2 x3", 2, "sclerosis x1 x2 x3 x4",
+				3, "sclerosis x1 x2 x3 x4 x5 x6", 3, "sclerosis x1 x2 x3 x4 x5 x6 x7 x8")) {
+			assertEquals(Arrays.asList(1L, 2L, 3L), concepts(grouped(reader, 10)));
+			assertEquals(Arrays.asList(1L, 2L), concepts(grouped(reader, 2)));
+			assertEquals(6, new Search(reader).newBuilder().search("sclerosis").groupByConcept().setMaxHits(2).build().searchWithTotal().getTotalHits());
+		}
+	}
+
+	@Test
+	public void testBestDescription() throws IOException {
+		try (IndexReader reader = reader(true,
+				1, "sclerosis x1 x2 x3", 2, "sclerosis x1 x2 x3 x4 x5 x6",
+				1, "sclerosis",					// later and better, so replaces the first description of concept 1
+				2, "sclerosis x1 x2 x3 x4 x5 x6 x7 x8")) {	// later but worse, so ignored
+			List<ResultItem> items = grouped(reader, 10);
+			assertEquals(Arrays.asList(1L, 2L), concepts(items));
+			assertEquals(Arrays.asList("sclerosis", "sclerosis x1 x2 x3 x4 x5 x6"), terms(items));
+		}
+	}
+
+	@Test
+	public void testEviction() throws IOException {
+		try (IndexReader reader = reader(true,
+				1, "sclerosis x1 x2 x3 x4 x5 x6 x7 x8",
+				2, "sclerosis x1 x2 x3 x4 x5 x6",
+				3, "sclerosis x1 x2 x3",		// evicts concept 1
+				4, "sclerosis x1",				// evicts concept 2
+				1, "sclerosis")) {				// concept 1 returns with a better match, evicting concept 3
+			List<ResultItem> items = grouped(reader, 2);
+			assertEquals(Arrays.asList(1L, 4L), concepts(items));
+			assertEquals(Arrays.asList("sclerosis", "sclerosis x1"), terms(items));
+		}
+	}
+
+	@Test
+	public void testEqualScores() throws IOException {
+		try (IndexReader reader = reader(true,
+				1, "sclerosis x1", 2, "sclerosis x2", 3, "sclerosis x3")) {
+			assertEquals(Arrays.asList(1L, 2L), concepts(grouped(reader, 2)));		// ties are ranked in index order
+		}
+	}
+
+	@Test
+	public void testStoredFieldFallback() throws IOException {
+		try (IndexReader reader = reader(false,
+				1, "sclerosis x1 x2 x3", 2, "sclerosis x1 x2 x3 x4 x5 x6", 1, "sclerosis", 3, "sclerosis x1")) {
+			List<ResultItem> items = grouped(reader, 10);
+			assertEquals(Arrays.asList(1L, 3L, 2L), concepts(items));
+			assertEquals("sclerosis", items.get(0).getTerm());
+		}
+	}
+
+	@Test
+	public void testConceptMap() {
+		Search.ConceptMap<String> map = new Search.ConceptMap<>(2);
+		for (long i=0; i<1000; i++) {
+			map.put(i * 31, String.valueOf(i));
+		}
+		assertEquals(1000, map.size());
+		for (long i=0; i<1000; i+=2) {
+			map.remove(i * 31);
+		}
+		assertEquals(500, map.size());
+		for (long i=0; i<1000; i++) {
+			assertEquals(i % 2 == 0 ? null : String.valueOf(i), map.get(i * 31));
+		}
+	}
+}
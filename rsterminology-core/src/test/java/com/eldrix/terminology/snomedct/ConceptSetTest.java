@@ -0,0 +1,57 @@
+package com.eldrix.terminology.snomedct;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.PrimitiveIterator;
+
+import org.junit.Test;
+
+public class ConceptSetTest {
+
+	@Test
+	public void testExpand() {
+		Hierarchy h = HierarchyTest.hierarchy();
+		ConceptSet all = h.expand(1);
+		assertEquals(6, all.size());
+		assertArrayEquals(new long[] { 1, 2, 3, 4, 5, 6 }, all.toArray());
+		assertArrayEquals(new long[] { 2, 4, 5, 6 }, h.expand(2).toArray());
+		assertArrayEquals(new long[] { 2, 3, 4, 5, 6 }, h.expand(2, 3).toArray());
+		assertTrue(h.expand(99).isEmpty());
+		assertSame(all, h.expand(1));
+		assertEquals(all, h.expand(2, 3, 1));
+	}
+
+	@Test
+	public void testAlgebra() {
+		Hierarchy h = HierarchyTest.hierarchy();
+		ConceptSet a = h.expand(2);
+		ConceptSet b = h.expand(3);
+		assertArrayEquals(new long[] { 6 }, a.intersect(b).toArray());
+		assertArrayEquals(new long[] { 2, 3, 4, 5, 6 }, a.union(b).toArray());
+		assertArrayEquals(new long[] { 2, 4, 5 }, a.minus(b).toArray());
+		assertArrayEquals(new long[] { 4, 5, 6 }, a.minus(h.conceptSet(2)).toArray());
+		assertTrue(a.contains(6));
+		assertFalse(a.contains(3));
+		assertFalse(a.contains(99));
+		assertEquals(4, a.size());		// unchanged
+	}
+
+	@Test
+	public void testIteration() {
+		ConceptSet s = HierarchyTest.hierarchy().expand(3);
+		PrimitiveIterator.OfLong it = s.iterator();
+		assertEquals(3, it.nextLong());
+		assertEquals(6, it.nextLong());
+		assertFalse(it.hasNext());
+		assertEquals(9, s.stream().sum());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDifferentHierarchies() {
+		HierarchyTest.hierarchy().expand(1).union(HierarchyTest.hierarchy().expand(1));
+	}
+}
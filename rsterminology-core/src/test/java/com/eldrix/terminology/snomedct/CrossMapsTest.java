@@ -0,0 +1,62 @@
+package com.eldrix.terminology.snomedct;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.eldrix.terminology.snomedct.CrossMaps.Mapping;
+import com.eldrix.terminology.snomedct.CrossMaps.MapSet;
+
+public class CrossMapsTest {
+
+	private static MapSet mapSet() {
+		return new MapSet.Builder(1L, ",")
+				.add(24700007L, 1, 0, 10L, "G35X")
+				.add(230258005L, 2, 1, 12L, "I10X, I15.9")
+				.add(230258005L, 1, 0, 11L, "I10X")
+				.add(118940003L, 1, 0, 13L, "#NIS")
+				.add(192928003L, 1, 0, 10L, "G35X")
+				.build();
+	}
+
+	@Test
+	public void testForward() {
+		MapSet ms = mapSet();
+		assertEquals(5, ms.size());
+		List<Mapping> mappings = ms.mappingsForConcept(230258005L);
+		assertEquals(2, mappings.size());
+		assertEquals(11L, mappings.get(0).getTargetId());
+		assertEquals(Arrays.asList("I10X", "I15.9"), mappings.get(1).getCodes());
+		assertEquals(Arrays.asList("I10X", "I15.9"), ms.codesForConcept(230258005L));
+		assertTrue(ms.mappingsForConcept(118940003L).get(0).isNotInScope());
+		assertTrue(ms.codesForConcept(118940003L).isEmpty());
+		assertTrue(ms.mappingsForConcept(1L).isEmpty());
+		assertFalse(ms.hasMapping(1L));
+	}
+
+	@Test
+	public void testReverse() {
+		MapSet ms = mapSet();
+		assertArrayEquals(new long[] { 24700007L, 192928003L }, ms.conceptsForCode("G35X"));
+		assertArrayEquals(new long[] { 230258005L }, ms.conceptsForCode("I15.9"));
+		assertEquals(0, ms.conceptsForCode("#NIS").length);
+		Map<String, long[]> batch = ms.conceptsForCodes(Arrays.asList("I10X", "G35X", "XXX"));
+		assertEquals(3, batch.size());
+		assertArrayEquals(new long[] { 230258005L }, batch.get("I10X"));
+		assertEquals(0, batch.get("XXX").length);
+	}
+
+	@Test
+	public void testBatch() {
+		Map<Long, List<Mapping>> batch = mapSet().mappingsForConcepts(Arrays.asList(192928003L, 24700007L, 192928003L));
+		assertEquals(Arrays.asList(192928003L, 24700007L), Arrays.asList(batch.keySet().toArray()));
+		assertEquals(Arrays.asList("G35X"), batch.get(24700007L).get(0).getCodes());
+	}
+}
@@ -0,0 +1,123 @@
+package com.eldrix.terminology.snomedct;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class EclTest {
+
+	/*
+	 * 1 root
+	 *   2 product: 3 drug A, 4 drug B, 5 combination (a type of drug A)
+	 *   10 substance: 11 substance X, 12 substance Y, 13 (a type of substance X)
+	 *   20 attribute: 21 has active ingredient, 22 has precise ingredient (a type of 21), 23 has strength
+	 *   30 value: 31 high, 32 low
+	 * Combination 5 has ingredient 12 at low strength and ingredient 13 at high strength, in role groups 1 and 2.
+	 */
+	static Attributes attributes() {
+		Hierarchy h = new Hierarchy.Builder()
+				.add(2, 1).add(10, 1).add(20, 1)
+				.add(3, 2).add(4, 2).add(5, 3)
+				.add(11, 10).add(12, 10).add(13, 11)
+				.add(21, 20).add(22, 21).add(23, 20)
+				.add(30, 1).add(31, 30).add(32, 30)
+				.build();
+		return new Attributes.Builder(h)
+				.add(3, 21, 11)
+				.add(4, 21, 12)
+				.add(5, 22, 13, 2).add(5, 21, 12, 1).add(5, 21, 12, 1)
+				.add(5, 23, 32, 1).add(5, 23, 31, 2)
+				.add(99, 21, 12)		// not in the hierarchy
+				.build();
+	}
+
+	private static String _nested(int depth, String expression) {
+		return String.join("", Collections.nCopies(depth, "(")) + expression + String.join("", Collections.nCopies(depth, ")"));
+	}
+
+	private static long[] evaluate(Ecl ecl, String expression) throws Ecl.ParseException {
+		return ecl.evaluate(expression).toArray();
+	}
+
+	@Test
+	public void testAttributes() {
+		Attributes a = attributes();
+		assertEquals(6, a.size());
+		assertArrayEquals(new long[] { 21, 22, 23 }, a.types());
+		assertArrayEquals(new long[] { 4, 5 }, a.sources(21, 12));
+		assertArrayEquals(new long[0], a.sources(22, 12));
+		assertArrayEquals(new long[0], a.sources(404684003, 12));
+		assertArrayEquals(new long[] { 12 }, a.targets(5, 21));
+		assertArrayEquals(new long[] { 31, 32 }, a.targets(5, 23));
+		assertArrayEquals(new long[0], a.targets(3, 22));
+		assertEquals("[1:21=12, 2:22=13, 2:23=31, 1:23=32]", a.attributes(5).toString());
+		assertEquals(0, a.attributes(2).size());
+	}
+
+	@Test
+	public void testHierarchy() throws Ecl.ParseException {
+		Ecl ecl = new Ecl(attributes());
+		assertArrayEquals(new long[] { 2, 3, 4, 5 }, evaluate(ecl, "<< 2"));
+		assertArrayEquals(new long[] { 3, 4, 5 }, evaluate(ecl, "< 2 |Product|"));
+		assertArrayEquals(new long[] { 3, 4 }, evaluate(ecl, "<! 2"));
+		assertArrayEquals(new long[] { 1, 2, 3, 5 }, evaluate(ecl, ">> 5"));
+		assertArrayEquals(new long[] { 3 }, evaluate(ecl, ">! 5"));
+		assertArrayEquals(new long[] { 2, 4 }, evaluate(ecl, "<< 2 MINUS << 3"));
+		assertArrayEquals(new long[] { 3, 5, 11, 13 }, evaluate(ecl, "<< 3 OR << 11"));
+		assertArrayEquals(new long[] { 5 }, evaluate(ecl, "< 3 AND (< 2 MINUS 4)"));
+		assertArrayEquals(new long[] { 3, 4, 5, 11, 12, 13 }, evaluate(ecl, "< (2 OR 10)"));
+		assertArrayEquals(new long[0], evaluate(ecl, "<< 404684003"));
+		assertEquals(16, ecl.evaluate("*").size());
+	}
+
+	@Test
+	public void testRefinements() throws Ecl.ParseException {
+		Ecl ecl = new Ecl(attributes());
+		assertArrayEquals(new long[] { 3 }, evaluate(ecl, "< 2 : 21 = << 11"));
+		assertArrayEquals(new long[] { 3, 5 }, evaluate(ecl, "< 2 : << 21 = << 11"));
+		assertArrayEquals(new long[] { 4, 5 }, evaluate(ecl, "< 2 : 21 = 12"));
+		assertArrayEquals(new long[] { 3 }, evaluate(ecl, "< 2 : 21 != 12"));
+		assertArrayEquals(new long[] { 5 }, evaluate(ecl, "< 2 : 21 = 12, 22 = 13"));
+		assertArrayEquals(new long[] { 3, 4, 5 }, evaluate(ecl, "< 2 : 21 = 11 OR 21 = 12"));
+		assertArrayEquals(new long[] { 3, 5 }, evaluate(ecl, "< 2 : * = << 11"));
+		assertArrayEquals(new long[] { 12 }, evaluate(ecl, "* : R 21 = 4"));
+		assertArrayEquals(new long[] { 4 }, evaluate(ecl, "(< 2 : 21 = 12) MINUS (< 2 : 22 = *)"));
+	}
+
+	@Test
+	public void testGroups() throws Ecl.ParseException {
+		Ecl ecl = new Ecl(attributes());
+		assertArrayEquals(new long[] { 5 }, evaluate(ecl, "< 2 : 21 = 12, 23 = 31"));
+		assertArrayEquals(new long[0], evaluate(ecl, "< 2 : { 21 = 12, 23 = 31 }"));
+		assertArrayEquals(new long[] { 5 }, evaluate(ecl, "< 2 : { 21 = 12, 23 = 32 }"));
+		assertArrayEquals(new long[] { 5 }, evaluate(ecl, "< 2 : { << 21 = 13, 23 = 31 }"));
+		assertArrayEquals(new long[] { 3, 5 }, evaluate(ecl, "< 2 : { 21 = 11 OR 23 = 31 }"));
+		assertArrayEquals(new long[] { 5 }, evaluate(ecl, "< 2 : { 21 = 12, 23 = 32 }, { 22 = 13, 23 = 31 }"));
+		assertArrayEquals(new long[0], evaluate(ecl, "< 2 : { 21 = 11, 21 = 12 }"));
+	}
+
+	@Test
+	public void testNesting() throws Ecl.ParseException {
+		Ecl ecl = new Ecl(attributes());
+		assertArrayEquals(new long[] { 2, 3, 4, 5 }, evaluate(ecl, _nested(100, "<< 2")));
+		assertArrayEquals(new long[] { 4, 5 }, evaluate(ecl, "<< 2 : " + _nested(100, "21 = 12")));
+	}
+
+	@Test
+	public void testInvalid() {
+		Ecl ecl = new Ecl(attributes());
+		for (String expression : new String[] { "<< 2 AND << 3 OR << 4", "<<", "^ 700", "< 2 : [1..*] 21 = 12", "* : { R 21 = 4 }", "(<< 2", "<< 2 |Product",
+				_nested(10000, "<< 2"), _nested(101, "<< 2") }) {
+			try {
+				ecl.evaluate(expression);
+				fail("Expected parse exception: " + expression);
+			} catch (Ecl.ParseException e) {
+				// expected
+			}
+		}
+	}
+}
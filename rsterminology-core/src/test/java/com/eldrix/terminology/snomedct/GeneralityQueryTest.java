@@ -0,0 +1,66 @@
+package com.eldrix.terminology.snomedct;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DoubleDocValuesField;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Test;
+
+public class GeneralityQueryTest {
+
+	/*
+	 * Index the same term for each document, with the information content given, or none if null.
+	 */
+	private static IndexReader reader(Double... informationContent) throws IOException {
+		RAMDirectory directory = new RAMDirectory();
+		try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+			for (Double ic : informationContent) {
+				Document doc = new Document();
+				doc.add(new TextField("term", "Multiple sclerosis", Store.NO));
+				if (ic != null) {
+					doc.add(new DoubleDocValuesField("informationContent", ic));
+				}
+				writer.addDocument(doc);
+			}
+		}
+		return DirectoryReader.open(directory);
+	}
+
+	private static float[] scores(IndexSearcher searcher, Query query, int n) throws IOException {
+		float[] result = new float[n];
+		for (ScoreDoc sd : searcher.search(query, n).scoreDocs) {
+			result[sd.doc] = sd.score;
+		}
+		return result;
+	}
+
+	@Test
+	public void testBoost() throws IOException {
+		try (IndexReader reader = reader(0.0, 5.0, null)) {
+			IndexSearcher searcher = new IndexSearcher(reader);
+			Query query = new TermQuery(new Term("term", "sclerosis"));
+			float[] unboosted = scores(searcher, query, 3);
+			float[] boosted = scores(searcher, new Search.GeneralityQuery(query, 1), 3);
+			assertEquals(unboosted[0] * 2, boosted[0], 1e-6);
+			assertEquals(unboosted[1] * (1 + 1 / 6.0), boosted[1], 1e-6);
+			assertEquals(unboosted[2], boosted[2], 0);		// no information content, so no boost
+			assertTrue(boosted[0] > boosted[1] && boosted[1] > boosted[2]);
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package com.eldrix.terminology.snomedct;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.eldrix.terminology.snomedct.CrossMaps.MapSet;
+
+public class HierarchyTest {
+
+	/*
+	 *         1
+	 *       /   \
+	 *      2     3
+	 *     / \   /
+	 *    4   5 /
+	 *         6
+	 */
+	static Hierarchy hierarchy() {
+		return new Hierarchy.Builder()
+				.add(2, 1).add(3, 1)
+				.add(4, 2).add(5, 2)
+				.add(6, 5).add(6, 3)
+				.add(6, 3)
+				.build();
+	}
+
+	@Test
+	public void testStructure() {
+		Hierarchy h = hierarchy();
+		assertEquals(6, h.size());
+		assertArrayEquals(new long[] { 3, 5 }, h.parents(6));
+		assertArrayEquals(new long[] { 2, 3 }, h.children(1));
+		assertArrayEquals(new long[] { 1, 2, 3, 5 }, h.ancestors(6));
+		assertArrayEquals(new long[] { 2, 3, 4, 5, 6 }, h.descendants(1));
+		assertArrayEquals(new long[0], h.parents(99));
+		assertTrue(h.isA(6, 1));
+		assertTrue(h.isA(6, 6));
+		assertFalse(h.isA(4, 3));
+		assertFalse(h.isA(1, 6));
+	}
+
+	@Test
+	public void testNearest() {
+		Hierarchy h = hierarchy();
+		assertArrayEquals(new long[] { 6 }, h.nearest(6, id -> id == 6 || id == 1));
+		assertArrayEquals(new long[] { 3, 5 }, h.nearest(6, id -> id == 3 || id == 5 || id == 2));
+		assertArrayEquals(new long[] { 1, 2 }, h.nearest(6, id -> id == 2 || id == 1));
+		assertArrayEquals(new long[] { 2 }, h.nearest(4, id -> id == 2 || id == 1));
+		assertArrayEquals(new long[0], h.nearest(6, id -> id == 4));
+	}
+
+	@Test
+	public void testCrossMapFallback() {
+		MapSet ms = new MapSet.Builder(1, ",")
+				.add(2, 1, 0, 20, "G35X")
+				.add(3, 1, 0, 30, "G36X")
+				.build();
+		Hierarchy h = hierarchy();
+		assertEquals(Arrays.asList("G35X"), ms.mappingsForConceptOrAncestor(4, h).get(0).getCodes());
+		assertEquals(3, ms.mappingsForConceptOrAncestor(6, h).get(0).getConceptId());
+		assertTrue(ms.mappingsForConceptOrAncestor(1, h).isEmpty());
+	}
+}
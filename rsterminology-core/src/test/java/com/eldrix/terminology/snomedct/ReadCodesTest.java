@@ -0,0 +1,50 @@
+package com.eldrix.terminology.snomedct;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ReadCodesTest {
+
+	private static ReadCodes readCodes() {
+		return new ReadCodes.Builder()
+				.add("F20..", 24700007L)
+				.add("X0035", 24700007L)
+				.add("F2...", 118940003L)
+				.add("F21..", 230258005L)
+				.add("F20..", 155023009L)
+				.add("X00..", 118940003L)
+				.add("", 1L)
+				.build();
+	}
+
+	@Test
+	public void testExact() {
+		ReadCodes rc = readCodes();
+		assertEquals(6, rc.size());
+		assertArrayEquals(new long[] { 24700007L, 155023009L }, rc.conceptsForCode("F20.."));
+		assertArrayEquals(new long[] { 118940003L }, rc.conceptsForCode("F2..."));
+		assertEquals(0, rc.conceptsForCode("F2").length);
+		assertEquals(0, rc.conceptsForCode("ZZZZZ").length);
+	}
+
+	@Test
+	public void testPrefix() {
+		ReadCodes rc = readCodes();
+		assertArrayEquals(new long[] { 118940003L, 24700007L, 155023009L, 230258005L }, rc.conceptsForPrefix("F2"));
+		assertEquals(2, rc.conceptsForPrefix("X00").length);
+		assertEquals(0, rc.conceptsForPrefix("A").length);
+	}
+
+	@Test
+	public void testBatch() {
+		Map<String, long[]> result = readCodes().conceptsForCodes(Arrays.asList("X0035", "F21..", "X0035", "nothing"), false);
+		assertEquals(Arrays.asList("X0035", "F21..", "nothing"), Arrays.asList(result.keySet().toArray()));
+		assertArrayEquals(new long[] { 24700007L }, result.get("X0035"));
+		assertEquals(0, result.get("nothing").length);
+	}
+}
@@ -0,0 +1,140 @@
+package com.eldrix.terminology.snomedct;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Test;
+
+import com.eldrix.terminology.snomedct.semantic.Dmd.Product;
+import com.eldrix.terminology.snomedct.semantic.DmdGraph;
+import com.eldrix.terminology.snomedct.semantic.DmdPrescribing;
+import com.eldrix.terminology.snomedct.semantic.Vmp;
+
+public class SearchDmdTest {
+	private static final long VTM = 1, VMP = 3, TF = 4, AMP = 5, UNAVAILABLE_VMP = 9, FINDING = 100;
+	private static final long VALID_PRESCRIBING_STATUS = 8940201000001104L;		// see Vmp.PrescribingStatus.VALID
+
+	private static DmdGraph graph(boolean withUnavailableVmp) {
+		Hierarchy.Builder h = new Hierarchy.Builder()
+				.add(VTM, Product.VIRTUAL_THERAPEUTIC_MOIETY.conceptId)
+				.add(VMP, VTM).add(VMP, Product.VIRTUAL_MEDICINAL_PRODUCT.conceptId)
+				.add(TF, Product.TRADE_FAMILY.conceptId)
+				.add(AMP, VMP).add(AMP, TF).add(AMP, Product.ACTUAL_MEDICINAL_PRODUCT.conceptId);
+		if (withUnavailableVmp) {
+			h.add(UNAVAILABLE_VMP, VTM).add(UNAVAILABLE_VMP, Product.VIRTUAL_MEDICINAL_PRODUCT.conceptId);
+		}
+		return new DmdGraph.Builder(h.build()).build();
+	}
+
+	private static DmdPrescribing prescribing() {
+		DmdPrescribing.Builder b = new DmdPrescribing.Builder(graph(true));
+		for (long id : new long[] { VTM, VMP, TF, AMP, UNAVAILABLE_VMP }) {
+			b.active(id);
+		}
+		return b.availability(VMP, Vmp.VmpAvailability.VMP_IS_AVAILABLE.conceptId)
+				.prescribingStatus(VMP, VALID_PRESCRIBING_STATUS)
+				.availability(UNAVAILABLE_VMP, Vmp.VmpAvailability.VMP_NOT_AVAILABLE.conceptId)
+				.prescribingStatus(UNAVAILABLE_VMP, VALID_PRESCRIBING_STATUS)
+				.build();
+	}
+
+	private static void add(IndexWriter writer, long conceptId, String term, DmdPrescribing dmd) throws IOException {
+		Document doc = new Document();
+		doc.add(new TextField("term", term, Store.YES));
+		doc.add(new StoredField("preferredTerm", term));
+		doc.add(new StoredField("conceptId", conceptId));
+		doc.add(new NumericDocValuesField("conceptId", conceptId));
+		Search.addDmdFields(doc, conceptId, dmd);
+		writer.addDocument(doc);
+	}
+
+	private static IndexReader reader(DmdPrescribing dmd) throws IOException {
+		RAMDirectory directory = new RAMDirectory();
+		try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+			add(writer, VTM, "Amlodipine", dmd);
+			add(writer, VMP, "Amlodipine 5mg tablets", dmd);
+			add(writer, VMP, "Amlodipine 5mg oral tablets", dmd);
+			add(writer, TF, "Istin tablets", dmd);
+			add(writer, AMP, "Istin 5mg tablets", dmd);
+			add(writer, UNAVAILABLE_VMP, "Amlodipine 7.5mg tablets", dmd);
+			add(writer, FINDING, "Tablets too big to swallow", dmd);
+		}
+		return DirectoryReader.open(directory);
+	}
+
+	private static long[] concepts(Search.Request.Builder b) throws IOException {
+		List<Long> concepts = b.setMaxHits(100).build().searchForConcepts();
+		return concepts.stream().mapToLong(Long::longValue).sorted().toArray();
+	}
+
+	@Test
+	public void testProductFilters() throws IOException {
+		DmdPrescribing dmd = prescribing();
+		try (IndexReader reader = reader(dmd)) {
+			Search search = new Search(reader);
+			assertArrayEquals(new long[] { VMP, UNAVAILABLE_VMP }, concepts(search.newBuilder().search("tablets").withDmdProducts(Product.VIRTUAL_MEDICINAL_PRODUCT)));
+			assertArrayEquals(new long[] { TF, AMP }, concepts(search.newBuilder().search("tablets").withDmdProducts(Product.TRADE_FAMILY, Product.ACTUAL_MEDICINAL_PRODUCT)));
+			assertArrayEquals(new long[] { VTM, VMP, TF, AMP, UNAVAILABLE_VMP }, concepts(search.newBuilder().withDmdProducts(Product.values())));
+		}
+	}
+
+	@Test
+	public void testPrescribableAndAvailable() throws IOException {
+		DmdPrescribing dmd = prescribing();
+		assertTrue(dmd.isPrescribable(VMP));
+		assertFalse(dmd.isPrescribable(AMP));		// prescribed as its VMP
+		try (IndexReader reader = reader(dmd)) {
+			Search search = new Search(reader);
+			assertArrayEquals(new long[] { VTM, VMP }, concepts(search.newBuilder().withDmdProducts(Product.values()).onlyPrescribable()));
+			long[] available = concepts(search.newBuilder().withDmdProducts(Product.values()).onlyAvailable());
+			assertTrue(Arrays.binarySearch(available, VMP) >= 0);
+			assertTrue(Arrays.binarySearch(available, UNAVAILABLE_VMP) < 0);
+			assertTrue(Arrays.binarySearch(available, VTM) < 0);
+			assertArrayEquals(new long[] { VMP }, concepts(search.newBuilder().withDmdProducts(Product.VIRTUAL_MEDICINAL_PRODUCT).onlyPrescribable().onlyAvailable()));
+		}
+	}
+
+	@Test
+	public void testProductCounts() throws IOException {
+		try (IndexReader reader = reader(prescribing())) {
+			Search search = new Search(reader);
+			Map<Product, Integer> expected = new EnumMap<>(Product.class);
+			expected.put(Product.VIRTUAL_MEDICINAL_PRODUCT, 3);
+			expected.put(Product.TRADE_FAMILY, 1);
+			expected.put(Product.ACTUAL_MEDICINAL_PRODUCT, 1);
+			Search.Results results = search.newBuilder().search("tablets").setMaxHits(1).build().searchWithFacets();
+			assertEquals(6, results.getTotalHits());		// including the finding, which is not a product
+			assertEquals(expected, results.getProductCounts());
+			expected.put(Product.VIRTUAL_MEDICINAL_PRODUCT, 2);		// concepts rather than descriptions
+			assertEquals(expected, search.newBuilder().search("tablets").groupByConcept().build().searchWithFacets().getProductCounts());
+		}
+	}
+
+	@Test
+	public void testFormerProducts() throws IOException {
+		try (IndexReader reader = reader(prescribing())) {
+			Search search = new Search(reader);
+			assertArrayEquals(new long[0], search.formerProducts(graph(true)));
+			assertArrayEquals(new long[] { UNAVAILABLE_VMP }, search.formerProducts(graph(false)));
+		}
+	}
+}
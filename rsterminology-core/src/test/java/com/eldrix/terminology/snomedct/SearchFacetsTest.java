@@ -0,0 +1,106 @@
+package com.eldrix.terminology.snomedct;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedNumericDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Test;
+
+public class SearchFacetsTest {
+	private static final long FINDING = 10;
+	private static final long DISEASE = 20;
+	private static final long PROCEDURE = 30;
+
+	/*
+	 * Index a description of a concept with the recursive parents given.
+	 */
+	private static void add(IndexWriter writer, long conceptId, String term, long... parents) throws IOException {
+		Document doc = new Document();
+		doc.add(new TextField("term", term, Store.YES));
+		doc.add(new StoredField("preferredTerm", term));
+		doc.add(new StoredField("conceptId", conceptId));
+		doc.add(new NumericDocValuesField("conceptId", conceptId));
+		for (long parent : parents) {
+			doc.add(new LongPoint("recursiveParentConceptId", parent));
+			doc.add(new SortedNumericDocValuesField("recursiveParentConceptId", parent));
+		}
+		writer.addDocument(doc);
+	}
+
+	private static IndexReader reader() throws IOException {
+		RAMDirectory directory = new RAMDirectory();
+		try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+			add(writer, 1, "Multiple sclerosis", FINDING, DISEASE);
+			add(writer, 1, "Disseminated sclerosis", FINDING, DISEASE);
+			add(writer, 2, "Systemic sclerosis", FINDING, DISEASE);
+			add(writer, 3, "Sclerosis", FINDING);
+			add(writer, 4, "Sclerotherapy of varicose vein", PROCEDURE);
+			add(writer, 5, "Asthma", FINDING, DISEASE);
+		}
+		return DirectoryReader.open(directory);
+	}
+
+	@Test
+	public void testRequestOrder() throws IOException {
+		try (IndexReader reader = reader()) {
+			Search search = new Search(reader);
+			Map<Long, Integer> counts = search.newBuilder().search("scler").withFacets(PROCEDURE, FINDING, DISEASE).build().searchWithFacets().getFacetCounts();
+			assertEquals(Arrays.asList(PROCEDURE, FINDING, DISEASE), new ArrayList<>(counts.keySet()));
+			assertEquals(Integer.valueOf(1), counts.get(PROCEDURE));
+			assertEquals(Integer.valueOf(4), counts.get(FINDING));
+			assertEquals(Integer.valueOf(3), counts.get(DISEASE));
+		}
+	}
+
+	@Test
+	public void testUnknownRoot() throws IOException {
+		try (IndexReader reader = reader()) {
+			Search search = new Search(reader);
+			Map<Long, Integer> counts = search.newBuilder().search("scler").withFacets(999, FINDING).build().searchWithFacets().getFacetCounts();
+			assertEquals(Arrays.asList(999L, FINDING), new ArrayList<>(counts.keySet()));
+			assertEquals(Integer.valueOf(0), counts.get(999L));
+			assertEquals(Integer.valueOf(4), counts.get(FINDING));
+			assertEquals(0, search.newBuilder().search("scler").build().searchWithFacets().getFacetCounts().size());
+		}
+	}
+
+	@Test
+	public void testSamePassAsTopHits() throws IOException {
+		try (IndexReader reader = reader()) {
+			Search search = new Search(reader);
+			Search.Results results = search.newBuilder().search("scler").setMaxHits(2).withFacets(FINDING, PROCEDURE).build().searchWithFacets();
+			assertEquals(2, results.getItems().size());
+			assertEquals(5, results.getTotalHits());
+			assertEquals(Integer.valueOf(4), results.getFacetCounts().get(FINDING));		// counts are of all hits, not only the top hits
+			assertEquals(Integer.valueOf(1), results.getFacetCounts().get(PROCEDURE));
+		}
+	}
+
+	@Test
+	public void testGrouped() throws IOException {
+		try (IndexReader reader = reader()) {
+			Search search = new Search(reader);
+			Search.Results results = search.newBuilder().search("scler").groupByConcept().withFacets(FINDING, DISEASE, PROCEDURE).build().searchWithFacets();
+			assertEquals(4, results.getItems().size());
+			assertEquals(Integer.valueOf(3), results.getFacetCounts().get(FINDING));		// concepts 1, 2 and 3
+			assertEquals(Integer.valueOf(2), results.getFacetCounts().get(DISEASE));
+			assertEquals(Integer.valueOf(1), results.getFacetCounts().get(PROCEDURE));
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package com.eldrix.terminology.snomedct;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.ConstantScoreScorer;
+import org.apache.lucene.search.ConstantScoreWeight;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TwoPhaseIterator;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Test;
+
+public class SearchLimitsTest {
+
+	/*
+	 * Index one description for each concept, with a distinct term starting "abc" for each.
+	 */
+	private static IndexReader reader(int count) throws IOException {
+		RAMDirectory directory = new RAMDirectory();
+		try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+			for (int i = 0; i < count; i++) {
+				Document doc = new Document();
+				doc.add(new TextField("term", "abc" + i, Store.YES));
+				doc.add(new StoredField("preferredTerm", "abc" + i));
+				doc.add(new StoredField("conceptId", (long) i));
+				doc.add(new NumericDocValuesField("conceptId", i));
+				writer.addDocument(doc);
+			}
+		}
+		return DirectoryReader.open(directory);
+	}
+
+	/*
+	 * Matches every document, slowly.
+	 */
+	private static class SlowQuery extends Query {
+		@Override
+		public Weight createWeight(IndexSearcher searcher, boolean needsScores) throws IOException {
+			return new ConstantScoreWeight(this) {
+				@Override
+				public Scorer scorer(LeafReaderContext context) throws IOException {
+					DocIdSetIterator all = DocIdSetIterator.all(context.reader().maxDoc());
+					return new ConstantScoreScorer(this, score(), new TwoPhaseIterator(all) {
+						@Override
+						public boolean matches() throws IOException {
+							try {
+								Thread.sleep(2);
+							} catch (InterruptedException e) {
+								Thread.currentThread().interrupt();
+							}
+							return true;
+						}
+						@Override
+						public float matchCost() {
+							return 1000;
+						}
+					});
+				}
+			};
+		}
+
+		@Override
+		public String toString(String field) {
+			return "slow";
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return sameClassAs(obj);
+		}
+
+		@Override
+		public int hashCode() {
+			return classHash();
+		}
+	}
+
+	@Test
+	public void testTimeout() throws IOException {
+		try (IndexReader reader = reader(200)) {
+			Search search = new Search(reader);
+			Search.Results results = search.newBuilder().withFilters(new SlowQuery()).setMaxHits(500).withTimeout(1).build().searchWithTotal();
+			assertTrue(results.isPartial());
+			assertTrue(results.getTotalHits() < 200);
+			assertEquals(results.getTotalHits(), results.getItems().size());
+
+			Search.Results grouped = search.newBuilder().withFilters(new SlowQuery()).setMaxHits(500).withTimeout(1).groupByConcept().build().searchWithFacets();
+			assertTrue(grouped.isPartial());
+			assertTrue(grouped.getItems().size() < 200);
+
+			Search.Results complete = search.newBuilder().withFilters(new SlowQuery()).setMaxHits(500).build().searchWithTotal();
+			assertFalse(complete.isPartial());
+			assertEquals(200, complete.getTotalHits());
+
+			// entry points that cannot report a partial result are not limited
+			assertEquals(200, search.newBuilder().withFilters(new SlowQuery()).setMaxHits(500).withTimeout(1).build().searchForConcepts().size());
+		}
+	}
+
+	@Test
+	public void testMaxExpansions() throws IOException {
+		try (IndexReader reader = reader(100)) {
+			Search search = new Search(reader);
+			assertEquals(100, search.newBuilder().search("abc").setMaxHits(500).build().searchWithTotal().getTotalHits());
+			Search.Results capped = search.newBuilder().setMaxExpansions(10).search("abc").setMaxHits(500).build().searchWithTotal();
+			assertEquals(10, capped.getTotalHits());
+			assertEquals(10, capped.getItems().size());
+			assertEquals(1, search.newBuilder().setMaxExpansions(0).search("abc").setMaxHits(500).build().searchWithTotal().getTotalHits());
+		}
+	}
+}
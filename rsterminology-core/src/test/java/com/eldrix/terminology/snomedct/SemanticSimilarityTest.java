@@ -0,0 +1,72 @@
+package com.eldrix.terminology.snomedct;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.eldrix.terminology.snomedct.SemanticSimilarity.Measure;
+
+public class SemanticSimilarityTest {
+	private static final double DELTA = 1e-9;
+
+	/*
+	 * 1 root
+	 *   2, 5
+	 *   3 (a type of 2)
+	 *   4 and 7 (types of 3 and 5)
+	 *   6 (a type of 4)
+	 */
+	private static ConceptStatistics statistics() {
+		return new ConceptStatistics(new Hierarchy.Builder()
+				.add(2, 1).add(5, 1).add(3, 2)
+				.add(4, 3).add(4, 5).add(7, 3).add(7, 5).add(6, 4)
+				.build());
+	}
+
+	@Test
+	public void testStatistics() {
+		ConceptStatistics s = statistics();
+		assertEquals(0, s.minDepth(1));
+		assertEquals(2, s.minDepth(4));
+		assertEquals(3, s.maxDepth(4));
+		assertEquals(4, s.maxDepth(6));
+		assertEquals(-1, s.maxDepth(99));
+		assertEquals(6, s.descendantCount(1));
+		assertEquals(3, s.descendantCount(5));
+		assertEquals(0, s.descendantCount(6));
+		assertEquals(0, s.informationContent(1), DELTA);
+		assertEquals(Math.log(7), s.informationContent(6), DELTA);
+		assertEquals(Math.log(3.5), s.informationContent(4), DELTA);
+	}
+
+	@Test
+	public void testLowestCommonAncestors() {
+		SemanticSimilarity s = new SemanticSimilarity(statistics());
+		assertArrayEquals(new long[] { 3, 5 }, s.lowestCommonAncestors(4, 7));
+		assertArrayEquals(new long[] { 5 }, s.lowestCommonAncestors(6, 5));
+		assertArrayEquals(new long[] { 1 }, s.lowestCommonAncestors(2, 5));
+		assertArrayEquals(new long[] { 6 }, s.lowestCommonAncestors(6, 6));
+		assertArrayEquals(new long[0], s.lowestCommonAncestors(6, 99));
+	}
+
+	@Test
+	public void testSimilarity() {
+		SemanticSimilarity s = new SemanticSimilarity(statistics());
+		assertEquals(Math.log(1.75), s.similarity(Measure.RESNIK, 4, 7), DELTA);
+		assertEquals(2 * Math.log(1.75) / (Math.log(3.5) + Math.log(7)), s.similarity(Measure.LIN, 4, 7), DELTA);
+		assertEquals(4.0 / 6, s.similarity(Measure.WU_PALMER, 4, 7), DELTA);
+		assertEquals(1, s.similarity(Measure.LIN, 6, 6), DELTA);
+		assertEquals(0, s.similarity(Measure.LIN, 2, 5), DELTA);
+		assertEquals(0, s.similarity(Measure.LIN, 6, 99), DELTA);
+		long[] concepts = new long[] { 4, 7, 6, 99 };
+		double[] one = s.similarities(Measure.LIN, 4, concepts);
+		double[][] all = s.similarities(Measure.LIN, concepts);
+		for (int i=0; i<concepts.length; i++) {
+			assertEquals(s.similarity(Measure.LIN, 4, concepts[i]), one[i], DELTA);
+			for (int j=0; j<concepts.length; j++) {
+				assertEquals(s.similarity(Measure.LIN, concepts[i], concepts[j]), all[i][j], DELTA);
+			}
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package com.eldrix.terminology.snomedct;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Test;
+
+public class SpellingCorrectorTest {
+
+	private static IndexReader reader(String... terms) throws IOException {
+		RAMDirectory directory = new RAMDirectory();
+		try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+			for (String term : terms) {
+				Document doc = new Document();
+				doc.add(new TextField("term", term, Store.NO));
+				writer.addDocument(doc);
+			}
+		}
+		return DirectoryReader.open(directory);
+	}
+
+	@Test
+	public void testCorrection() throws IOException {
+		try (IndexReader reader = reader("Multiple sclerosis", "Systemic sclerosis", "Sclerosing cholangitis", "Myocardial infarction", "Myocarditis")) {
+			SpellingCorrector sc = new SpellingCorrector(reader, "term");
+			assertEquals("sclerosis", sc.correct("sclerosis", false));
+			assertEquals("sclerosis", sc.correct("sclerosus", false));
+			assertEquals("sclerosis", sc.correct("scelrosis", false));		// transposition
+			assertEquals("multiple", sc.correct("multipel", false));
+			assertEquals("myocardial", sc.correct("myocardail", false));
+			assertEquals("xyzzy", sc.correct("xyzzy", false));			// no suggestion
+			assertEquals("ms", sc.correct("ms", false));				// too short
+			assertEquals("myocard", sc.correct("myocard", true));		// a valid prefix
+			assertEquals("myocardial", sc.correct("myocardia", false));
+			assertEquals(Arrays.asList("multiple", "scler"), sc.correct(Arrays.asList("mutliple", "scler")));
+		}
+	}
+
+	/**
+	 * Abbreviated tokens are searched as prefixes wherever they appear, so must not be corrected.
+	 */
+	@Test
+	public void testAbbreviations() throws IOException {
+		try (IndexReader reader = reader("Multiple sclerosis", "Diabetes mellitus", "Malt worker's lung")) {
+			SpellingCorrector sc = new SpellingCorrector(reader, "term");
+			assertEquals("malt", sc.correct("mult", false));
+			assertEquals(Arrays.asList("mult", "scler"), sc.correct(Arrays.asList("mult", "scler")));
+			assertEquals(Arrays.asList("diab", "mell"), sc.correct(Arrays.asList("diab", "mell")));
+			assertEquals(Arrays.asList("multiple", "scler"), sc.correct(Arrays.asList("mutliple", "scler")));
+		}
+	}
+}
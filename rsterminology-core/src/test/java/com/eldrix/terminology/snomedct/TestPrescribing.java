@@ -7,6 +7,7 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.math.BigDecimal;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
@@ -193,7 +194,7 @@ public class TestPrescribing {
 		Vmp amlodipineVmp = new Vmp(a2);
 		assertEquals(1, amlodipineVmp.getActiveIngredients().count());	// this VMP has only a single active ingredient.
 		// and now check that the dose is correctly parsed
-		//assertEquals(new BigDecimal("5.0"), amlodipineVmp.getDose());
+		assertEquals(0, new BigDecimal("5.0").compareTo(amlodipineVmp.getDose()));
 	}
 
 	public static void assertDrugType(Concept concept, Dmd.Product product) {
@@ -0,0 +1,56 @@
+package com.eldrix.terminology.snomedct.semantic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import com.eldrix.terminology.snomedct.Hierarchy;
+import com.eldrix.terminology.snomedct.semantic.DmdGraph.Link;
+import com.eldrix.terminology.snomedct.semantic.Dmd.Product;
+
+public class DmdGraphTest {
+	private static final long VTM = 1, GROUPER = 2, VMP = 3, TF = 4, AMP = 5, VMPP = 6, AMPP = 7, NESTED_VMP = 8;
+
+	static DmdGraph graph() {
+		Hierarchy h = new Hierarchy.Builder()
+				.add(VTM, Product.VIRTUAL_THERAPEUTIC_MOIETY.conceptId)
+				.add(GROUPER, VTM)
+				.add(VMP, GROUPER).add(VMP, Product.VIRTUAL_MEDICINAL_PRODUCT.conceptId)
+				.add(NESTED_VMP, VMP).add(NESTED_VMP, Product.VIRTUAL_MEDICINAL_PRODUCT.conceptId)
+				.add(TF, Product.TRADE_FAMILY.conceptId)
+				.add(AMP, VMP).add(AMP, TF).add(AMP, Product.ACTUAL_MEDICINAL_PRODUCT.conceptId)
+				.add(VMPP, Product.VIRTUAL_MEDICINAL_PRODUCT_PACK.conceptId)
+				.add(AMPP, VMPP).add(AMPP, Product.ACTUAL_MEDICINAL_PRODUCT_PACK.conceptId)
+				.build();
+		return new DmdGraph.Builder(h)
+				.add(Link.AMP_AMPP, AMP, AMPP)
+				.add(Link.VMP_VMPP, VMP, VMPP)
+				.build();
+	}
+
+	@Test
+	public void testProducts() {
+		DmdGraph g = graph();
+		assertEquals(7, g.size());
+		assertEquals(Product.VIRTUAL_THERAPEUTIC_MOIETY, g.productForConcept(VTM));
+		assertEquals(Product.ACTUAL_MEDICINAL_PRODUCT, g.productForConcept(AMP));
+		assertNull(g.productForConcept(GROUPER));
+		assertArrayEquals(new long[] { VMP, NESTED_VMP }, g.conceptsForProduct(Product.VIRTUAL_MEDICINAL_PRODUCT));
+	}
+
+	@Test
+	public void testLinks() {
+		DmdGraph g = graph();
+		assertArrayEquals(new long[] { VMP, NESTED_VMP }, g.targets(Link.VTM_VMP, VTM));
+		assertArrayEquals(new long[] { VTM }, g.sources(Link.VTM_VMP, NESTED_VMP));
+		assertArrayEquals(new long[] { AMP }, g.targets(Link.VMP_AMP, VMP));
+		assertArrayEquals(new long[] { VMP }, g.sources(Link.VMP_AMP, AMP));
+		assertArrayEquals(new long[] { TF }, g.sources(Link.TF_AMP, AMP));
+		assertArrayEquals(new long[] { AMPP }, g.targets(Link.AMP_AMPP, AMP));
+		assertArrayEquals(new long[] { VMPP }, g.targets(Link.VMP_VMPP, VMP));
+		assertArrayEquals(new long[] { VMPP }, g.sources(Link.VMPP_AMPP, AMPP));
+		assertArrayEquals(new long[0], g.targets(Link.VMP_AMP, NESTED_VMP));
+	}
+}
@@ -0,0 +1,71 @@
+package com.eldrix.terminology.snomedct.semantic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.eldrix.terminology.medicine.Medication.Units;
+import com.eldrix.terminology.snomedct.Hierarchy;
+import com.eldrix.terminology.snomedct.semantic.DmdIngredients.Strength;
+
+public class DmdIngredientsTest {
+	private static final long VMP = 3, AMP = 5, NESTED_VMP = 8;
+	private static final long VALPROIC_ACID = 100, SODIUM_VALPROATE = 101, CARBIDOPA = 102, LEVODOPA = 103;
+
+	private static DmdIngredients ingredients() {
+		return new DmdIngredients.Builder(DmdGraphTest.graph())
+				.ingredient(VMP, SODIUM_VALPROATE).basisOfStrength(VMP, SODIUM_VALPROATE)
+				.ingredient(AMP, SODIUM_VALPROATE)
+				.ingredient(NESTED_VMP, CARBIDOPA).ingredient(NESTED_VMP, LEVODOPA)
+				.ingredient(SODIUM_VALPROATE, VALPROIC_ACID)		// not a product: ignored
+				.term(VMP, "Sodium valproate 200mg gastro-resistant tablets")
+				.term(NESTED_VMP, "Co-careldopa 25mg/100mg tablets")
+				.build();
+	}
+
+	@Test
+	public void testIngredients() {
+		DmdIngredients i = ingredients();
+		assertArrayEquals(new long[] { VMP, AMP }, i.productsForIngredient(SODIUM_VALPROATE));
+		assertArrayEquals(new long[0], i.productsForIngredient(VALPROIC_ACID));
+		Hierarchy h = new Hierarchy.Builder().add(SODIUM_VALPROATE, VALPROIC_ACID).build();
+		assertArrayEquals(new long[] { VMP, AMP }, i.productsForIngredient(VALPROIC_ACID, h));
+		assertArrayEquals(new long[] { VMP, AMP, NESTED_VMP }, i.productsForIngredients(LEVODOPA, SODIUM_VALPROATE));
+		assertArrayEquals(new long[] { CARBIDOPA, LEVODOPA }, i.ingredientsForProduct(NESTED_VMP));
+		assertArrayEquals(new long[] { SODIUM_VALPROATE }, i.basisOfStrength(VMP));
+	}
+
+	@Test
+	public void testStrengths() {
+		DmdIngredients i = ingredients();
+		Strength s = i.strength(VMP);
+		assertEquals(SODIUM_VALPROATE, s.getIngredientConceptId());
+		assertEquals(SODIUM_VALPROATE, s.getBasisOfStrengthConceptId());
+		assertEquals(200, s.getStrength(), 0);
+		assertEquals(Units.MILLIGRAM, s.getUnits());
+		assertEquals("200mg", i.strength(AMP).toString());		// AMP inherits from VMP
+		assertNull(i.strength(NESTED_VMP));						// multiple ingredients
+		double[] mg = new double[3];
+		i.milligrams(new long[] { VMP, AMP, NESTED_VMP }, mg);
+		assertEquals(200, mg[0], 1e-9);
+		assertEquals(200, mg[1], 1e-9);
+		assertTrue(Double.isNaN(mg[2]));
+	}
+
+	@Test
+	public void testParseStrength() {
+		assertEquals("5mg", DmdIngredients.parseStrength("Amlodipine 5mg tablets").toString());
+		assertEquals("250mg/5ml", DmdIngredients.parseStrength("Amoxicillin 250mg/5ml oral suspension").toString());
+		assertEquals("25mcg", DmdIngredients.parseStrength("Levothyroxine sodium 25microgram tablets").toString());
+		assertEquals("100mcg", DmdIngredients.parseStrength("Salbutamol 100micrograms/dose inhaler CFC free").toString());
+		assertEquals("100units/ml", DmdIngredients.parseStrength("Insulin glargine 100units/ml solution for injection").toString());
+		assertEquals("0.5mg", DmdIngredients.parseStrength("Colchicine 0.5mg tablets").toString());
+		assertNull(DmdIngredients.parseStrength("Generic cream"));
+		assertTrue(Double.isNaN(new DmdIngredients.Builder(DmdGraphTest.graph())
+				.ingredient(VMP, SODIUM_VALPROATE).term(VMP, "Sodium valproate 200mg/5ml oral solution").build()
+				.milligrams(VMP)));
+	}
+}
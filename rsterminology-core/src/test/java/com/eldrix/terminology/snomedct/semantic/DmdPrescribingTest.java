@@ -0,0 +1,60 @@
+package com.eldrix.terminology.snomedct.semantic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class DmdPrescribingTest {
+	private static final long VTM = 1, VMP = 3, TF = 4, AMP = 5, VMPP = 6, AMPP = 7, NESTED_VMP = 8;
+
+	private static DmdPrescribing.Builder builder() {
+		DmdPrescribing.Builder b = new DmdPrescribing.Builder(DmdGraphTest.graph());
+		for (long id : new long[] { VTM, VMP, TF, AMP, VMPP, AMPP, NESTED_VMP }) {
+			b.active(id);
+		}
+		return b;
+	}
+
+	@Test
+	public void testPrescribableVmp() {
+		DmdPrescribing p = builder()
+				.availability(VMP, Vmp.VmpAvailability.VMP_IS_AVAILABLE.conceptId)
+				.prescribingStatus(VMP, Vmp.PrescribingStatus.VALID.conceptId)
+				.build();
+		assertTrue(p.isPrescribable(VMP));
+		assertTrue(p.isAvailable(VMP));
+		assertFalse(p.isAvailable(VTM));
+		assertFalse(p.isPrescribable(NESTED_VMP));
+		assertTrue(p.shouldPrescribeVmp(AMP));
+		assertFalse(p.isPrescribable(AMP));
+		assertFalse(p.isSearchable(AMP));
+		assertFalse(p.isPrescribable(TF));
+		assertTrue(p.isPrescribable(VTM));
+		assertTrue(p.isSearchable(VTM));
+		assertFalse(p.isPrescribable(AMPP));
+		assertArrayEquals(new long[] { VMP }, p.prescribeAs(AMP));
+		assertArrayEquals(new long[] { VTM }, p.prescribeAs(TF));
+		assertArrayEquals(new long[] { AMP }, p.prescribeAs(AMPP));
+		assertArrayEquals(new long[] { VMP }, p.prescribeAs(VMPP));
+		assertArrayEquals(new long[0], p.prescribeAs(VMP));
+	}
+
+	@Test
+	public void testUnprescribableVmp() {
+		DmdPrescribing p = builder()
+				.availability(VMP, Vmp.VmpAvailability.VMP_NOT_AVAILABLE.conceptId)
+				.prescribingStatus(VMP, Vmp.PrescribingStatus.VALID.conceptId)
+				.build();
+		assertFalse(p.isPrescribable(VMP));
+		assertFalse(p.isAvailable(VMP));
+		assertTrue(p.isPrescribable(AMP));
+		assertTrue(p.isSearchable(AMP));
+		assertTrue(p.isPrescribable(TF));
+		assertFalse(p.isPrescribable(VTM));
+		assertArrayEquals(new long[] { TF }, p.prescribeAs(VMP));
+		assertArrayEquals(new long[] { TF }, p.prescribeAs(VTM));
+		assertArrayEquals(new long[0], p.prescribeAs(AMP));
+	}
+}
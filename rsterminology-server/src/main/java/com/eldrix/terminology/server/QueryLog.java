@@ -0,0 +1,210 @@
+package com.eldrix.terminology.server;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A compact log of requests, for replaying realistic load against a build.
+ *
+ * Each line is tab-separated: milliseconds since recording started, duration in microseconds, response status
+ * and the request path with its query string, relative to the application root,
+ * e.g. "1520	3200	200	snomedct/search?s=multiple+scl&maxHits=20".
+ *
+ * Requests are anonymised when recorded. Query parameters other than those used by the API are removed. Runs of eight
+ * or more digits, which may be patient identifiers, are replaced by zeros in free text: the search text ("s"), prefix
+ * and project name, and the quoted literals and |terms| of expressions ("ecl" and "cayenneExp"). Everything else is
+ * kept verbatim, including the path, concept identifiers given as parameters or in expressions, and any free text in
+ * expressions that is not quoted.
+ * A line without tabs is treated as a plain search term.
+ */
+public final class QueryLog {
+	private static final Set<String> PARAMETERS = new HashSet<>(Arrays.asList(
+			"s", "root", "is", "maxHits", "fsn", "inactive", "fuzzy", "fallbackFuzzy", "grouped", "facet", "project",
+			"includeChildren", "product", "prescribable", "available", "prefix", "code", "set", "ecl", "general",
+			"include", "exclude", "sort", "dir", "start", "limit", "mapBy", "cayenneExp"));
+	private static final Set<String> FREE_TEXT = new HashSet<>(Arrays.asList("s", "prefix", "project"));
+	private static final Set<String> EXPRESSIONS = new HashSet<>(Arrays.asList("ecl", "cayenneExp"));
+	private static final Pattern IDENTIFIER = Pattern.compile("\\d{8,}");
+	private static final Pattern LITERAL = Pattern.compile("'[^']*'|\"[^\"]*\"|\\|[^|]*\\|");
+	private static final String SEARCH_PATH = "snomedct/search";
+
+	private QueryLog() {}
+
+	/**
+	 * A single recorded request.
+	 */
+	public static final class Entry {
+		public final long offsetMillis;
+		public final long durationMicros;
+		public final int status;
+		public final String path;
+		public final Map<String, List<String>> parameters;
+
+		Entry(long offsetMillis, long durationMicros, int status, String path, Map<String, List<String>> parameters) {
+			this.offsetMillis = offsetMillis;
+			this.durationMicros = durationMicros;
+			this.status = status;
+			this.path = path;
+			this.parameters = parameters;
+		}
+
+		/**
+		 * Return the first value of the parameter specified, or null.
+		 */
+		public String parameter(String name) {
+			List<String> values = parameters.get(name);
+			return values == null || values.isEmpty() ? null : values.get(0);
+		}
+
+		/**
+		 * Is this a request to the main search endpoint?
+		 */
+		public boolean isSearch() {
+			return SEARCH_PATH.equals(path);
+		}
+
+		/**
+		 * Return the path and query string.
+		 */
+		public String request() {
+			return path + _queryString(parameters);
+		}
+
+		@Override
+		public String toString() {
+			return offsetMillis + "\t" + durationMicros + "\t" + status + "\t" + request();
+		}
+	}
+
+	/**
+	 * Create an anonymised entry for a request.
+	 * @param path - path relative to the application root
+	 * @param parameters - query parameters
+	 */
+	public static Entry entry(long offsetMillis, long durationMicros, int status, String path, Map<String, List<String>> parameters) {
+		LinkedHashMap<String, List<String>> anonymised = new LinkedHashMap<>();
+		for (Map.Entry<String, List<String>> e : parameters.entrySet()) {
+			if (PARAMETERS.contains(e.getKey())) {
+				anonymised.put(e.getKey(), e.getValue().stream()
+						.map(v -> _anonymise(e.getKey(), v))
+						.collect(Collectors.toList()));
+			}
+		}
+		return new Entry(offsetMillis, durationMicros, status, path.startsWith("/") ? path.substring(1) : path, anonymised);
+	}
+
+	private static String _anonymise(String name, String value) {
+		if (FREE_TEXT.contains(name)) {
+			return IDENTIFIER.matcher(value).replaceAll("0");
+		}
+		if (EXPRESSIONS.contains(name)) {
+			Matcher m = LITERAL.matcher(value);
+			StringBuffer sb = new StringBuffer();
+			while (m.find()) {
+				m.appendReplacement(sb, Matcher.quoteReplacement(IDENTIFIER.matcher(m.group()).replaceAll("0")));
+			}
+			return m.appendTail(sb).toString();
+		}
+		return value;
+	}
+
+	/**
+	 * Parse a line from a query log.
+	 * @return the entry, or null for blank lines and comments
+	 */
+	public static Entry parse(String line) {
+		line = line.trim();
+		if (line.isEmpty() || line.startsWith("#")) {
+			return null;
+		}
+		String[] fields = line.split("\t");
+		if (fields.length == 1) {
+			return new Entry(0, 0, 200, SEARCH_PATH, Collections.singletonMap("s", Collections.singletonList(line)));
+		}
+		if (fields.length != 4) {
+			throw new IllegalArgumentException("Invalid query log entry: " + line);
+		}
+		String request = fields[3];
+		int q = request.indexOf('?');
+		return new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]), Integer.parseInt(fields[2]),
+				q < 0 ? request : request.substring(0, q), q < 0 ? Collections.emptyMap() : _parseQueryString(request.substring(q + 1)));
+	}
+
+	/**
+	 * Read all entries from a query log.
+	 */
+	public static List<Entry> read(Path file) throws IOException {
+		try (Stream<String> lines = Files.lines(file, StandardCharsets.UTF_8)) {
+			ArrayList<Entry> result = new ArrayList<>();
+			lines.map(QueryLog::parse).filter(e -> e != null).forEach(result::add);
+			return result;
+		}
+	}
+
+	/**
+	 * Return the search text of each search request in a query log.
+	 */
+	public static List<String> searches(Path file) throws IOException {
+		return read(file).stream()
+				.filter(e -> e.isSearch() && e.parameter("s") != null)
+				.map(e -> e.parameter("s"))
+				.collect(Collectors.toList());
+	}
+
+	private static Map<String, List<String>> _parseQueryString(String query) {
+		LinkedHashMap<String, List<String>> result = new LinkedHashMap<>();
+		for (String pair : query.split("&")) {
+			if (pair.isEmpty()) {
+				continue;
+			}
+			int eq = pair.indexOf('=');
+			String name = _decode(eq < 0 ? pair : pair.substring(0, eq));
+			String value = eq < 0 ? "" : _decode(pair.substring(eq + 1));
+			result.computeIfAbsent(name, k -> new ArrayList<>()).add(value);
+		}
+		return result;
+	}
+
+	private static String _queryString(Map<String, List<String>> parameters) {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, List<String>> e : parameters.entrySet()) {
+			for (String value : e.getValue()) {
+				sb.append(sb.length() == 0 ? '?' : '&').append(_encode(e.getKey())).append('=').append(_encode(value));
+			}
+		}
+		return sb.toString();
+	}
+
+	private static String _encode(String s) {
+		try {
+			return URLEncoder.encode(s, StandardCharsets.UTF_8.name());
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String _decode(String s) {
+		try {
+			return URLDecoder.decode(s, StandardCharsets.UTF_8.name());
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -1,19 +1,31 @@
 package com.eldrix.terminology.server;
 
+import com.eldrix.terminology.cayenne.QueryMetricsFilter;
+import com.eldrix.terminology.cayenne.TracingJdbcEventLogger;
 import com.eldrix.terminology.server.commands.Browser;
 import com.eldrix.terminology.server.commands.BuildIndex;
 import com.eldrix.terminology.server.commands.BuildParentCache;
+import com.eldrix.terminology.server.commands.ClassifyConcepts;
+import com.eldrix.terminology.server.commands.ExportCrossMaps;
 import com.eldrix.terminology.server.commands.ExportDmdMain;
 import com.eldrix.terminology.server.commands.ImportRf1;
+import com.eldrix.terminology.server.commands.RecordQueries;
+import com.eldrix.terminology.server.commands.ReplayQueries;
 import com.eldrix.terminology.server.resources.ConceptResource;
 import com.eldrix.terminology.server.resources.CrossMapResource;
+import com.eldrix.terminology.server.resources.MetricsResource;
 import com.eldrix.terminology.server.resources.ProjectResource;
+import com.eldrix.terminology.server.resources.QueryRecorder;
+import com.eldrix.terminology.server.resources.ReadyResource;
+import com.eldrix.terminology.server.resources.RequestMetrics;
+import com.eldrix.terminology.server.resources.RequestTracing;
 import com.eldrix.terminology.server.resources.SearchResource;
 import com.google.inject.Binder;
 import com.google.inject.Module;
 
 import io.bootique.BQCoreModule;
 import io.bootique.Bootique;
+import io.bootique.cayenne.CayenneModule;
 import io.bootique.jersey.JerseyModule;
 
 /**
@@ -35,11 +47,24 @@ public class SnomedCTApplication implements Module {
 			.addCommand(BuildParentCache.class)
 			.addCommand(ImportRf1.class)
 			.addCommand(Browser.class)
-			.addCommand(ExportDmdMain.class);
+			.addCommand(ExportDmdMain.class)
+			.addCommand(ExportCrossMaps.class)
+			.addCommand(ClassifyConcepts.class)
+			.addCommand(RecordQueries.class)
+			.addCommand(ReplayQueries.class);
 		JerseyModule.extend(binder)
 			.addResource(SearchResource.class)
 			.addResource(ConceptResource.class)
 			.addResource(ProjectResource.class)
-			.addResource(CrossMapResource.class);
+			.addResource(CrossMapResource.class)
+			.addResource(MetricsResource.class)
+			.addResource(ReadyResource.class)
+			.addFeature(ReadyResource.Startup.class)
+			.addDynamicFeature(RequestMetrics.class)
+			.addDynamicFeature(RequestTracing.class)
+			.addDynamicFeature(QueryRecorder.class);
+		CayenneModule.extend(binder)
+			.addFilter(QueryMetricsFilter.class)
+			.addModule(TracingJdbcEventLogger.module());
 	}
 }
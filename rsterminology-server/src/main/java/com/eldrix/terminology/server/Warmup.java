@@ -0,0 +1,196 @@
+package com.eldrix.terminology.server;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.cayenne.ObjectContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eldrix.terminology.medicine.DrugNameResolver;
+import com.eldrix.terminology.metrics.Metrics;
+import com.eldrix.terminology.snomedct.Attributes;
+import com.eldrix.terminology.snomedct.ConceptStatistics;
+import com.eldrix.terminology.snomedct.CrossMaps;
+import com.eldrix.terminology.snomedct.Hierarchy;
+import com.eldrix.terminology.snomedct.ReadCodes;
+import com.eldrix.terminology.snomedct.Search;
+import com.eldrix.terminology.snomedct.semantic.Category;
+import com.eldrix.terminology.snomedct.semantic.DmdGraph;
+import com.eldrix.terminology.snomedct.semantic.DmdIngredients;
+
+/**
+ * Warms up the server after startup so that the first requests are not slow.
+ *
+ * This preloads the in-memory hierarchy, attribute relationships, concept statistics, DM&D, cross map and Read code structures
+ * and then replays searches through the index, in rounds, until the 99th centile latency of a round is stable,
+ * or a maximum number of rounds have been run. Searches are read from the query log specified by the system property
+ * "com.eldrix.terminology.server.warmup.queries", a {@link QueryLog} such as one recorded by
+ * {@link com.eldrix.terminology.server.commands.RecordQueries}, or else are taken from a built-in list of
+ * common clinical terms, searched for as if typed one character at a time.
+ *
+ * Warm-up runs once, in the background; the server should be considered ready only once {@link #isReady()}.
+ * Set the system property "com.eldrix.terminology.server.warmup" to false to disable it.
+ */
+public class Warmup {
+	private static final Logger log = LoggerFactory.getLogger(Warmup.class);
+	private static final String ENABLED_PROPERTY_KEY = "com.eldrix.terminology.server.warmup";
+	private static final String QUERIES_PROPERTY_KEY = "com.eldrix.terminology.server.warmup.queries";
+	private static final int MINIMUM_ROUNDS = 2;
+	private static final int MAXIMUM_ROUNDS = 10;
+	private static final double STABLE_RATIO = 0.1;			// p99 must change by less than 10% between rounds
+	private static final long STABLE_NANOS = 5_000_000;		// or be below 5ms
+	private static final int MINIMUM_PREFIX = 3;
+	private static final String[] COMMON_TERMS = new String[] {
+			"diabetes mellitus", "hypertension", "asthma", "multiple sclerosis", "myocardial infarction", "stroke",
+			"epilepsy", "parkinson disease", "heart failure", "chronic obstructive pulmonary disease", "pneumonia",
+			"depression", "anxiety", "migraine", "dementia", "fracture of neck of femur", "urinary tract infection",
+			"chest pain", "headache", "back pain", "renal failure", "atrial fibrillation", "breast cancer", "lung cancer",
+			"obesity", "pregnancy", "appendicectomy", "hip replacement", "cataract", "anaemia",
+			"amlodipine", "metformin", "paracetamol", "ibuprofen", "atorvastatin", "levothyroxine", "omeprazole",
+			"aspirin", "warfarin", "insulin", "salbutamol", "amoxicillin"
+	};
+
+	public enum State { NOT_STARTED, WARMING, READY, FAILED }
+
+	private static volatile State _state = State.NOT_STARTED;
+	private static volatile int _rounds;
+	private static volatile long _p99Nanos;
+
+	static {
+		Metrics.gauge("rsterminology_ready", "Whether warm-up has completed and the server is ready", () -> isReady() ? 1 : 0);
+	}
+
+	private Warmup() {}
+
+	public static State state() {
+		return _state;
+	}
+
+	public static boolean isReady() {
+		return _state == State.READY;
+	}
+
+	/**
+	 * Return the number of rounds of searches run so far.
+	 */
+	public static int rounds() {
+		return _rounds;
+	}
+
+	/**
+	 * Return the 99th centile latency of the last round of searches, in milliseconds.
+	 */
+	public static double p99Millis() {
+		return _p99Nanos / 1_000_000.0;
+	}
+
+	/**
+	 * Start warm-up in the background, if it has not already been started.
+	 * @param context - a shared context for loading in-memory structures
+	 */
+	public static synchronized void start(ObjectContext context) {
+		if (_state != State.NOT_STARTED) {
+			return;
+		}
+		if (!Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY_KEY, "true"))) {
+			_state = State.READY;
+			return;
+		}
+		_state = State.WARMING;
+		Thread t = new Thread(() -> {
+			try {
+				run(context);
+				_state = State.READY;
+			} catch (Exception e) {
+				log.error("Warm-up failed", e);
+				_state = State.FAILED;
+			}
+		}, "warmup");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	static void run(ObjectContext context) throws IOException {
+		long start = System.nanoTime();
+		Hierarchy.getInstance(context);
+		Attributes.getInstance(context);
+		ConceptStatistics.getInstance(context);
+		DmdGraph.getInstance(context);
+		DmdIngredients.getInstance(context);
+		DrugNameResolver.getInstance(context);
+		CrossMaps.getInstance(context);
+		ReadCodes.getInstance(context);
+		log.info("Warm-up: loaded in-memory structures in " + (System.nanoTime() - start) / 1_000_000 + "ms");
+		Search search = Search.getInstance();
+		List<String> queries = queries();
+		long previous = Long.MAX_VALUE;
+		for (int round = 1; round <= MAXIMUM_ROUNDS; round++) {
+			long p99 = percentile(replay(search, queries), 0.99);
+			_rounds = round;
+			_p99Nanos = p99;
+			log.info("Warm-up: round " + round + " of " + queries.size() + " searches: p99 " + p99 / 1_000_000.0 + "ms");
+			if (round >= MINIMUM_ROUNDS && isStable(previous, p99)) {
+				break;
+			}
+			previous = p99;
+		}
+		log.info("Warm-up: complete in " + (System.nanoTime() - start) / 1_000_000 + "ms");
+	}
+
+	/**
+	 * Run each of the searches as the search endpoint would, returning the time taken for each in nanoseconds.
+	 */
+	public static long[] replay(Search search, List<String> queries) throws IOException {
+		long[] result = new long[queries.size()];
+		for (int i=0; i<queries.size(); i++) {
+			long start = System.nanoTime();
+			search.newBuilder().search(queries.get(i))
+			.withRecursiveParent(new long[] { Category.SNOMED_CT_ROOT.conceptId })
+			.onlyActive().withoutFullySpecifiedNames().correctSpelling()
+			.build().search();
+			result[i] = System.nanoTime() - start;
+		}
+		return result;
+	}
+
+	/**
+	 * Return the value at the centile specified, using the nearest-rank method.
+	 * @param values - values, which will be sorted
+	 * @param centile - e.g. 0.99
+	 */
+	public static long percentile(long[] values, double centile) {
+		if (values.length == 0) {
+			return 0;
+		}
+		Arrays.sort(values);
+		int rank = (int) Math.ceil(centile * values.length);
+		return values[Math.max(0, Math.min(values.length, rank) - 1)];
+	}
+
+	static boolean isStable(long previous, long current) {
+		return current <= STABLE_NANOS || Math.abs(current - previous) <= previous * STABLE_RATIO;
+	}
+
+	/**
+	 * Return the searches to replay, from the configured query log or the built-in list.
+	 */
+	static List<String> queries() throws IOException {
+		String file = System.getProperty(QUERIES_PROPERTY_KEY);
+		if (file != null) {
+			return QueryLog.searches(Paths.get(file));
+		}
+		ArrayList<String> result = new ArrayList<>();
+		for (String term : COMMON_TERMS) {
+			for (int i=MINIMUM_PREFIX; i<=term.length(); i++) {
+				if (term.charAt(i - 1) != ' ') {
+					result.add(term.substring(0, i));
+				}
+			}
+		}
+		return result;
+	}
+}
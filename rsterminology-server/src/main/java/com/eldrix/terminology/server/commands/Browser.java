@@ -12,6 +12,7 @@ import org.apache.cayenne.ObjectContext;
 import org.apache.cayenne.configuration.server.ServerRuntime;
 import org.apache.cayenne.query.ObjectSelect;
 
+import com.eldrix.terminology.metrics.Trace;
 import com.eldrix.terminology.snomedct.Concept;
 import com.eldrix.terminology.snomedct.Search;
 import com.eldrix.terminology.snomedct.Search.ResultItem;
@@ -43,6 +44,7 @@ public class Browser extends CommandWithMetadata {
 	public Provider<ServerRuntime> cayenne;
 
 	private Concept _currentConcept;
+	private boolean _trace;
 
 	private static CommandMetadata createMetadata() {
 		return CommandMetadata.builder(Browser.class)
@@ -81,12 +83,20 @@ public class Browser extends CommandWithMetadata {
 		if (performQuit(line) == true) {
 			return true;
 		}
+		if (_trace) {
+			Trace.start();
+		}
 		performHelp(line);
+		performTrace(line);
 		performShowConcept(line);
 		performShowDescriptions(line);
 		performShowChildRelationships(line);
 		performShowRecursiveChildRelationships(line);
 		performFind(line);
+		Trace trace = Trace.stop();
+		if (trace != null && _trace) {
+			System.out.println(trace);
+		}
 		return false;
 	}
 	private boolean performQuit(String line) {
@@ -103,6 +113,14 @@ public class Browser extends CommandWithMetadata {
 			System.out.println("cc       : Show recursive children (IS-A) for currently selected concept");
 			System.out.println("f <name> : Find a concept matching the specified name");
 			System.out.println("dmd      : Displays DMD information for currently selected concept");
+			System.out.println("t        : Toggle tracing of SQL statements and searches for each command");
+		}
+	}
+
+	private void performTrace(String line) {
+		if ("t".equalsIgnoreCase(line)) {
+			_trace = !_trace;
+			System.out.println("Tracing " + (_trace ? "on" : "off"));
 		}
 	}
 
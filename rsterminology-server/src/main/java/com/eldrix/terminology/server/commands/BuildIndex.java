@@ -19,6 +19,7 @@ import io.bootique.command.CommandWithMetadata;
 
 /**
  * Create or update a lucene index.
+ * If "dmd" is given after the index location, only the descriptions of DM&D products are updated.
  * @author Mark Wardle
  *
  */
@@ -29,7 +30,7 @@ public class BuildIndex extends CommandWithMetadata {
 
 	private static CommandMetadata createMetadata() {
 		return CommandMetadata.builder(BuildIndex.class)
-				.description("Builds a lucene index.")
+				.description("Builds a lucene index. Usage: <index> [dmd]")
 				.build();
 	}
 
@@ -41,7 +42,8 @@ public class BuildIndex extends CommandWithMetadata {
 	public CommandOutcome run(Cli cli) {
 		List<String> args = cli.standaloneArguments();
 		String filename = null;
-		if (args.size() == 1) {
+		boolean dmdOnly = args.size() == 2 && "dmd".equalsIgnoreCase(args.get(1));
+		if (args.size() == 1 || dmdOnly) {
 			filename = args.get(0);
 		}
 		else {
@@ -58,7 +60,11 @@ public class BuildIndex extends CommandWithMetadata {
 			System.out.println("Building lucene index at location: " + filename);
 			ObjectContext context = cayenne.get().newContext();
 			try {
-				Search.getInstance(filename).processAllDescriptions(context);
+				if (dmdOnly) {
+					Search.getInstance(filename).processDmdDescriptions(context);
+				} else {
+					Search.getInstance(filename).processAllDescriptions(context);
+				}
 				return CommandOutcome.succeeded();
 			} catch (IOException e) {
 				e.printStackTrace();
@@ -0,0 +1,101 @@
+package com.eldrix.terminology.server.commands;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eldrix.terminology.snomedct.Classifier;
+import com.eldrix.terminology.snomedct.Hierarchy;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+
+import io.bootique.meta.application.CommandMetadata;
+import io.bootique.cli.Cli;
+import io.bootique.command.CommandOutcome;
+import io.bootique.command.CommandWithMetadata;
+
+/**
+ * Classifies a file of concept identifiers against a set of root concepts.
+ *
+ * Usage: classify-concepts roots [input file] [output file]
+ *
+ * Roots are a comma-separated list of concept identifiers, or the name of a file containing one per line.
+ * Input is read from the file specified, or standard input, one concept identifier per line, as UTF-8.
+ * Output is tab-separated, one line per input line, in the same order:
+ * input, and the roots matched by that concept separated by ",".
+ *
+ * @author Mark Wardle
+ */
+public class ClassifyConcepts extends CommandWithMetadata {
+	private static final Logger log = LoggerFactory.getLogger(ClassifyConcepts.class);
+
+	@Inject
+	public Provider<ServerRuntime> cayenne;
+
+	private static CommandMetadata createMetadata() {
+		return CommandMetadata.builder(ClassifyConcepts.class)
+				.description("Classify a file of concept identifiers against a set of root concepts.")
+				.build();
+	}
+
+	public ClassifyConcepts() {
+		super(createMetadata());
+	}
+
+	@Override
+	public CommandOutcome run(Cli cli) {
+		List<String> args = cli.standaloneArguments();
+		if (args.size() < 1 || args.size() > 3) {
+			return CommandOutcome.failed(1, "Usage: roots [input file] [output file]");
+		}
+		long[] roots;
+		try {
+			roots = _roots(args.get(0));
+		} catch (IOException | NumberFormatException e) {
+			return CommandOutcome.failed(1, "Invalid roots: " + e.getMessage());
+		}
+		Classifier classifier = new Classifier(Hierarchy.getInstance(cayenne.get().newContext()), roots);
+		long start = System.currentTimeMillis();
+		try (BufferedReader reader = ParallelPipeline.reader(args.size() > 1 ? args.get(1) : null);
+				Writer writer = ParallelPipeline.writer(args.size() > 2 ? args.get(2) : null)) {
+			long count = new ParallelPipeline().run(reader, writer, lines -> classify(lines, classifier));
+			long elapsed = Math.max(1, System.currentTimeMillis() - start);
+			log.info("Classified " + count + " rows against " + classifier.roots().length + " roots in " + elapsed + "ms (" + (count * 1000 / elapsed) + " rows/sec)");
+		} catch (IOException e) {
+			e.printStackTrace();
+			return CommandOutcome.failed(-1, e);
+		}
+		return CommandOutcome.succeeded();
+	}
+
+	private static long[] _roots(String arg) throws IOException {
+		Stream<String> roots = Files.isRegularFile(Paths.get(arg)) ? Files.readAllLines(Paths.get(arg)).stream() : Stream.of(arg.split(","));
+		return roots.map(String::trim).filter(root -> root.length() > 0).mapToLong(Long::parseLong).toArray();
+	}
+
+	static String classify(List<String> lines, Classifier classifier) {
+		StringBuilder sb = new StringBuilder(lines.size() * 32);
+		for (String line : lines) {
+			String trimmed = line.trim();
+			sb.append(trimmed);
+			try {
+				long[] roots = classifier.classify(Long.parseLong(trimmed));
+				for (int i=0; i<roots.length; i++) {
+					sb.append(i == 0 ? '\t' : ',').append(roots[i]);
+				}
+			} catch (NumberFormatException e) {
+				// leave unparseable lines unclassified
+			}
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+}
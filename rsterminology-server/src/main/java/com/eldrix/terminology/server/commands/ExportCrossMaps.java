@@ -0,0 +1,116 @@
+package com.eldrix.terminology.server.commands;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eldrix.terminology.snomedct.CrossMaps;
+import com.eldrix.terminology.snomedct.CrossMaps.MapSet;
+import com.eldrix.terminology.snomedct.CrossMaps.Mapping;
+import com.eldrix.terminology.snomedct.Hierarchy;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+
+import io.bootique.meta.application.CommandMetadata;
+import io.bootique.cli.Cli;
+import io.bootique.command.CommandOutcome;
+import io.bootique.command.CommandWithMetadata;
+
+/**
+ * Translates a file of concept identifiers using a cross map set.
+ *
+ * Usage: export-cross-maps setId [input file] [output file]
+ *
+ * Input is read from the file specified, or standard input, one concept identifier per line, as UTF-8.
+ * Output is tab-separated, one line per input line, in the same order:
+ * input, mapped concept, codes of the preferred option and any alternative options separated by "|".
+ * If a concept has no mapping, the mappings of its nearest mapped ancestor are used.
+ *
+ * @author Mark Wardle
+ */
+public class ExportCrossMaps extends CommandWithMetadata {
+	private static final Logger log = LoggerFactory.getLogger(ExportCrossMaps.class);
+
+	@Inject
+	public Provider<ServerRuntime> cayenne;
+
+	private static CommandMetadata createMetadata() {
+		return CommandMetadata.builder(ExportCrossMaps.class)
+				.description("Translate a file of concept identifiers using a cross map set.")
+				.build();
+	}
+
+	public ExportCrossMaps() {
+		super(createMetadata());
+	}
+
+	@Override
+	public CommandOutcome run(Cli cli) {
+		List<String> args = cli.standaloneArguments();
+		if (args.size() < 1 || args.size() > 3) {
+			return CommandOutcome.failed(1, "Usage: setId [input file] [output file]");
+		}
+		long setId;
+		try {
+			setId = Long.parseLong(args.get(0));
+		} catch (NumberFormatException e) {
+			return CommandOutcome.failed(1, "Invalid cross map set: " + args.get(0));
+		}
+		ObjectContext context = cayenne.get().newContext();
+		MapSet mapSet = CrossMaps.getInstance(context).mapSet(setId);
+		if (mapSet == null) {
+			return CommandOutcome.failed(1, "No cross map set with id: " + setId);
+		}
+		Hierarchy hierarchy = Hierarchy.getInstance(context);
+		long start = System.currentTimeMillis();
+		try (BufferedReader reader = ParallelPipeline.reader(args.size() > 1 ? args.get(1) : null);
+				Writer writer = ParallelPipeline.writer(args.size() > 2 ? args.get(2) : null)) {
+			long count = new ParallelPipeline().run(reader, writer, lines -> translate(lines, mapSet, hierarchy));
+			long elapsed = Math.max(1, System.currentTimeMillis() - start);
+			log.info("Translated " + count + " rows in " + elapsed + "ms (" + (count * 1000 / elapsed) + " rows/sec)");
+		} catch (IOException e) {
+			e.printStackTrace();
+			return CommandOutcome.failed(-1, e);
+		}
+		return CommandOutcome.succeeded();
+	}
+
+	static String translate(List<String> lines, MapSet mapSet, Hierarchy hierarchy) {
+		StringBuilder sb = new StringBuilder(lines.size() * 32);
+		for (String line : lines) {
+			String trimmed = line.trim();
+			sb.append(trimmed);
+			try {
+				List<Mapping> mappings = mapSet.mappingsForConceptOrAncestor(Long.parseLong(trimmed), hierarchy);
+				if (!mappings.isEmpty()) {
+					sb.append('\t').append(mappings.get(0).getConceptId()).append('\t');
+					for (int i=0; i<mappings.size(); i++) {
+						if (i > 0) {
+							sb.append('|');
+						}
+						_appendCodes(sb, mappings.get(i).getCodes());
+					}
+				}
+			} catch (NumberFormatException e) {
+				// leave unparseable lines unmapped
+			}
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+
+	private static void _appendCodes(StringBuilder sb, List<String> codes) {
+		for (int i=0; i<codes.size(); i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append(codes.get(i));
+		}
+	}
+}
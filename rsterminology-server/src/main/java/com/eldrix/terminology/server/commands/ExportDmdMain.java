@@ -1,25 +1,27 @@
 package com.eldrix.terminology.server.commands;
 
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 
+import org.apache.cayenne.Cayenne;
 import org.apache.cayenne.ObjectContext;
-import org.apache.cayenne.ResultBatchIterator;
 import org.apache.cayenne.configuration.server.ServerRuntime;
-import org.apache.cayenne.query.SelectQuery;
+import org.apache.cayenne.exp.ExpressionFactory;
+import org.apache.cayenne.query.ObjectSelect;
 
 import com.eldrix.terminology.snomedct.Concept;
-import com.eldrix.terminology.snomedct.semantic.Amp;
-import com.eldrix.terminology.snomedct.semantic.Ampp;
-import com.eldrix.terminology.snomedct.semantic.Category;
-import com.eldrix.terminology.snomedct.semantic.Dmd;
+import com.eldrix.terminology.snomedct.Description;
 import com.eldrix.terminology.snomedct.semantic.Dmd.Product;
-import com.eldrix.terminology.snomedct.semantic.Tf;
-import com.eldrix.terminology.snomedct.semantic.Vmp;
-import com.eldrix.terminology.snomedct.semantic.Vmpp;
-import com.eldrix.terminology.snomedct.semantic.Vtm;
+import com.eldrix.terminology.snomedct.semantic.DmdGraph;
+import com.eldrix.terminology.snomedct.semantic.DmdPrescribing;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.opencsv.CSVWriter;
@@ -31,10 +33,15 @@ import io.bootique.command.CommandWithMetadata;
 
 /**
  * Exports the DMD structures ready to populate pick-lists in standalone applications
+ *
+ * Prescribability and "prescribe as" are computed for all products up-front (see {@link DmdPrescribing})
+ * and preferred terms are loaded in a single query, so that rows can then be generated in parallel
+ * and written in order.
  * @author mark
  *
  */
 public class ExportDmdMain extends CommandWithMetadata {
+	private static final String[] HEADER = new String[] {"product", "isPrescribable","conceptIdentifier","type", "isSearchable", "prescribeAs" };
 
 	@Inject
 	public Provider<ServerRuntime> cayenne;
@@ -52,27 +59,28 @@ public class ExportDmdMain extends CommandWithMetadata {
 	@Override
 	public CommandOutcome run(Cli cli) {
 		ObjectContext context = cayenne.get().newContext();
-		PrintWriter writer = new PrintWriter(System.out);
-		try (CSVWriter csv = new CSVWriter(writer)) {
-			SelectQuery<Concept> query = SelectQuery.query(Concept.class, Concept.RECURSIVE_PARENT_CONCEPTS.dot(Concept.CONCEPT_ID).eq(Category.PHARMACEUTICAL_OR_BIOLOGICAL_PRODUCT.conceptId));
-			String[] row = new String[] {"product", "isPrescribable","conceptIdentifier","type", "isSearchable", "prescribeAs" };
-			csv.writeNext(row);
-			try (ResultBatchIterator<Concept> iterator = query.batchIterator(context, 500)) {
-				while (iterator.hasNext()) {
-					List<Concept> batch = iterator.next();
-					for (Concept c : batch) {
-						Dmd.Product.productForConcept(c).ifPresent(p -> {
-							row[0] = c.getPreferredDescription().getTerm();
-							row[1] = String.valueOf(_productIsPrescribable(c, p));
-							row[2] = c.getConceptId().toString();
-							row[3] = p.abbreviation();
-							row[4] = String.valueOf(_productIsSearchable(c, p));
-							row[5] = _prescribingNotes(c,  p);
-							csv.writeNext(row);
-						});
-					}
+		DmdPrescribing prescribing = DmdPrescribing.load(context);
+		DmdGraph graph = prescribing.getGraph();
+		Map<Long, String> terms = preferredTerms(context, graph);
+		try (Writer writer = ParallelPipeline.writer(null)) {
+			writer.write(_csv(w -> w.writeNext(HEADER)));
+			long[] conceptIds = Stream.of(Product.values())
+					.flatMapToLong(p -> LongStream.of(graph.conceptsForProduct(p)))
+					.sorted().toArray();
+			new ParallelPipeline().run(LongStream.of(conceptIds).iterator(), writer, chunk -> _csv(csv -> {
+				String[] row = new String[HEADER.length];
+				for (long conceptId : chunk) {
+					Product p = graph.productForConcept(conceptId);
+					row[0] = terms.get(conceptId);
+					row[1] = String.valueOf(prescribing.isPrescribable(conceptId));
+					row[2] = String.valueOf(conceptId);
+					row[3] = p.abbreviation();
+					row[4] = String.valueOf(prescribing.isSearchable(conceptId));
+					row[5] = _prescribingNotes(conceptId, p, prescribing, terms);
+					csv.writeNext(row);
 				}
-			}
+			}));
+			writer.flush();
 		} catch (IOException e) {
 			e.printStackTrace();
 			return CommandOutcome.failed(-1, e);
@@ -80,109 +88,75 @@ public class ExportDmdMain extends CommandWithMetadata {
 		return CommandOutcome.succeeded();
 	}
 
-	boolean _productIsPrescribable(Concept c, Product product) {
-		switch (product) {
-		case ACTUAL_MEDICINAL_PRODUCT:
-			return !Amp.shouldPrescribeVmp(c);		// an AMP is prescribable only when VMP is not
-		case ACTUAL_MEDICINAL_PRODUCT_PACK:
-			return false;
-		case TRADE_FAMILY:
-			return Tf.getAmps(c).anyMatch(amp -> Amp.shouldPrescribeVmp(amp) == false);
-		case VIRTUAL_MEDICINAL_PRODUCT:
-			return Vmp.isPrescribable(c);
-		case VIRTUAL_MEDICINAL_PRODUCT_PACK:
-			return false;
-		case VIRTUAL_THERAPEUTIC_MOIETY:
-			return Vtm.getVmps(c).anyMatch(vmp -> Vmp.isPrescribable(vmp));
-		default:
-			return false;
+	private interface CsvBlock {
+		void write(CSVWriter csv);
+	}
+
+	private static String _csv(CsvBlock block) {
+		StringWriter sw = new StringWriter();
+		CSVWriter csv = new CSVWriter(sw);
+		block.write(csv);
+		try {
+			csv.close();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
 		}
+		return sw.toString();
 	}
 
 	/**
-	 * If a product is searchable by users - 
-	 * @return
+	 * Load the preferred term for every product in the graph, using a single query.
+	 * As in {@link Concept#getPreferredDescription()}, the language best matching the system locale is chosen;
+	 * for the few concepts without a preferred term, we fall back to the concept itself.
 	 */
-	boolean _productIsSearchable(Concept c, Product product) {
-		if (c.isActive()) {
-			if (product == Product.VIRTUAL_THERAPEUTIC_MOIETY || product == Product.VIRTUAL_MEDICINAL_PRODUCT) {
-				return true;
+	static Map<Long, String> preferredTerms(ObjectContext context, DmdGraph graph) {
+		HashMap<Long, Map<String, String>> candidates = new HashMap<>();
+		ObjectSelect.dataRowQuery(Description.class,
+				ExpressionFactory.matchDbExp("description_type_code", Description.Type.PREFERRED.code))
+		.iterate(context, row -> {
+			long conceptId = (Long) row.get("concept_id");
+			if (graph.productForConcept(conceptId) != null) {
+				candidates.computeIfAbsent(conceptId, k -> new HashMap<>()).put((String) row.get("language_code"), (String) row.get("term"));
 			}
-			if (product == Product.ACTUAL_MEDICINAL_PRODUCT) {
-				if (Amp.shouldPrescribeVmp(c) == false) {
-					return true;
+		});
+		List<Locale.LanguageRange> locale = Locale.LanguageRange.parse(Locale.getDefault().toLanguageTag());
+		HashMap<Long, String> result = new HashMap<>();
+		for (Product p : Product.values()) {
+			for (long conceptId : graph.conceptsForProduct(p)) {
+				Map<String, String> terms = candidates.get(conceptId);
+				String term = null;
+				if (terms != null) {
+					String tag = Locale.lookupTag(locale, terms.keySet());
+					term = tag != null ? terms.get(tag) : terms.values().iterator().next();
+				} else {
+					term = Cayenne.objectForPK(context, Concept.class, conceptId).getPreferredDescription().getTerm();
 				}
+				result.put(conceptId, term);
 			}
 		}
-		return false;
+		return result;
 	}
 
-	String _prescribingNotes(Concept c, Product product) {
-		String result = null;
-		if (c.isActive()) {
-			switch(product) {
-			case ACTUAL_MEDICINAL_PRODUCT:
-				if (Amp.shouldPrescribeVmp(c)) {
-					result = Amp.getVmp(c).get().getPreferredDescription().getTerm();
-				}
-				break;
-			case ACTUAL_MEDICINAL_PRODUCT_PACK:
-				result = Ampp.getAmp(c).map(amp -> amp.getPreferredDescription().getTerm()).orElse(null);
-				break;
-			case TRADE_FAMILY:
-				Tf tf = new Tf(c);
-				if (tf.getAmps().anyMatch(Amp::shouldPrescribeVmp)) {
-					if (tf.getVtms().findAny().isPresent()) {
-						result = tf.getVtms().map(vtm -> vtm.getConcept().getPreferredDescription().getTerm()).collect(Collectors.joining(", "));
-					} else {
-						long count = tf.getVmps().count();
-						if (count > 0) {
-							StringBuilder sb = new StringBuilder();
-							sb.append("One of ");
-							sb.append(count);
-							sb.append("VMPs (e.g. ");
-							sb.append(tf.getVmps().findAny().get().getConcept().getPreferredDescription().getTerm());
-							sb.append(")");
-							result = sb.toString();
-						}
-					}
-				}
-				break;
-			case VIRTUAL_MEDICINAL_PRODUCT:
-				Vmp vmp = new Vmp(c);
-				if (!vmp.isPrescribable()) { 
-					if (vmp.getTfs().count() > 0) {
-						result = vmp.getTfs().map(t -> t.getConcept().getPreferredDescription().getTerm()).collect(Collectors.joining(", "));
-					} else {
-						long count = vmp.getAmps().count();
-						if (count > 0) {
-							StringBuilder sb = new StringBuilder();
-							sb.append("One of ");
-							sb.append(count);
-							sb.append("AMPs (e.g. ");
-							sb.append(vmp.getAmps().findAny().get().getConcept().getPreferredDescription().getTerm());
-							sb.append(")");
-							result = sb.toString();
-						}
-					}
-				}
-				break;
-			case VIRTUAL_MEDICINAL_PRODUCT_PACK:
-				result = Vmpp.getVmp(c).map(v -> v.getPreferredDescription().getTerm()).orElse(null);
-				break;
-			case VIRTUAL_THERAPEUTIC_MOIETY:
-				Vtm vtm = new Vtm(c);
-				if (vtm.getVmps().allMatch(v -> v.isPrescribable() == false)) {
-					result = vtm.getTfs().map(t -> t.getConcept().getPreferredDescription().getTerm()).collect(Collectors.joining(", "));
-				}
-				break;
-			default:
-				break;
-
-			}
-		} else {
-			result = "Inactive or outdated";
+	static String _prescribingNotes(long conceptId, Product product, DmdPrescribing prescribing, Map<Long, String> terms) {
+		if (!prescribing.isActive(conceptId)) {
+			return "Inactive or outdated";
 		}
-		return result;
+		long[] prescribeAs = prescribing.prescribeAs(conceptId);
+		if (prescribeAs.length == 0) {
+			return product == Product.VIRTUAL_THERAPEUTIC_MOIETY && !prescribing.isPrescribable(conceptId) ? "" : null;
+		}
+		Product target = prescribing.getGraph().productForConcept(prescribeAs[0]);
+		if ((product == Product.TRADE_FAMILY && target == Product.VIRTUAL_MEDICINAL_PRODUCT)
+				|| (product == Product.VIRTUAL_MEDICINAL_PRODUCT && target == Product.ACTUAL_MEDICINAL_PRODUCT)) {
+			StringBuilder sb = new StringBuilder();
+			sb.append("One of ");
+			sb.append(prescribeAs.length);
+			sb.append(target.abbreviation());
+			sb.append("s (e.g. ");
+			sb.append(terms.get(prescribeAs[0]));
+			sb.append(")");
+			return sb.toString();
+		}
+		return LongStream.of(prescribeAs).mapToObj(terms::get).collect(Collectors.joining(", "));
 	}
 }
@@ -0,0 +1,149 @@
+package com.eldrix.terminology.server.commands;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Processes a large line-oriented file, or any other sequence of items, in parallel while
+ * preserving the order of the output.
+ *
+ * Items are read in chunks, and each chunk is processed on a pool of worker threads. Results are
+ * written in the order the chunks were read. Only a bounded number of chunks are in flight at any
+ * one time, so memory use is independent of the size of the input.
+ *
+ * @author Mark Wardle
+ */
+class ParallelPipeline {
+	private static final int DEFAULT_CHUNK_SIZE = 10000;
+	private final int _threads;
+	private final int _chunkSize;
+
+	ParallelPipeline() {
+		this(Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE);
+	}
+
+	ParallelPipeline(int threads, int chunkSize) {
+		_threads = Math.max(1, threads);
+		_chunkSize = Math.max(1, chunkSize);
+	}
+
+	/**
+	 * Open a file for reading as UTF-8, or standard input if no file is specified.
+	 * Closing the reader for standard input leaves standard input open.
+	 */
+	static BufferedReader reader(String file) throws IOException {
+		InputStream in = file != null ? new FileInputStream(file) : new FilterInputStream(System.in) {
+			@Override
+			public void close() {
+				// leave standard input open
+			}
+		};
+		return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Open a file for writing as UTF-8, or standard output if no file is specified.
+	 * Closing the writer for standard output flushes it but leaves standard output open.
+	 */
+	static Writer writer(String file) throws IOException {
+		OutputStream out = file != null ? new FileOutputStream(file) : new FilterOutputStream(System.out) {
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+			}
+			@Override
+			public void close() throws IOException {
+				flush();
+			}
+		};
+		return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Process all lines from the reader, writing the output of each chunk to the writer in order.
+	 * @param reader - input
+	 * @param writer - output
+	 * @param processor - function that converts a chunk of input lines into output text
+	 * @return the number of lines processed
+	 * @throws IOException
+	 */
+	long run(BufferedReader reader, Writer writer, Function<List<String>, String> processor) throws IOException {
+		try {
+			return run(reader.lines().iterator(), writer, processor);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Process all items, writing the output of each chunk to the writer in order.
+	 * @param items - input
+	 * @param writer - output
+	 * @param processor - function that converts a chunk of items into output text
+	 * @return the number of items processed
+	 * @throws IOException
+	 */
+	<T> long run(Iterator<T> items, Writer writer, Function<List<T>, String> processor) throws IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(_threads);
+		ArrayDeque<Future<String>> pending = new ArrayDeque<>();
+		long count = 0;
+		try {
+			List<T> chunk = new ArrayList<>(_chunkSize);
+			while (items.hasNext()) {
+				chunk.add(items.next());
+				count++;
+				if (chunk.size() == _chunkSize) {
+					final List<T> submitted = chunk;
+					pending.add(executor.submit(() -> processor.apply(submitted)));
+					chunk = new ArrayList<>(_chunkSize);
+					while (pending.size() > _threads * 2) {
+						writer.write(_get(pending.poll()));
+					}
+				}
+			}
+			if (chunk.size() > 0) {
+				final List<T> submitted = chunk;
+				pending.add(executor.submit(() -> processor.apply(submitted)));
+			}
+			while (!pending.isEmpty()) {
+				writer.write(_get(pending.poll()));
+			}
+			writer.flush();
+		} finally {
+			executor.shutdownNow();
+		}
+		return count;
+	}
+
+	private static String _get(Future<String> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+	}
+}
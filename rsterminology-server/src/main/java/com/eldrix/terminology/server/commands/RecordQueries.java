@@ -0,0 +1,85 @@
+package com.eldrix.terminology.server.commands;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.eclipse.jetty.server.Server;
+
+import com.eldrix.terminology.server.QueryLog;
+import com.eldrix.terminology.server.resources.QueryRecorder;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+
+import io.bootique.cli.Cli;
+import io.bootique.command.CommandOutcome;
+import io.bootique.command.CommandWithMetadata;
+import io.bootique.meta.application.CommandMetadata;
+
+/**
+ * Starts the server, recording anonymised search and concept requests to a {@link QueryLog}
+ * for later use by {@link ReplayQueries} or as warm-up queries.
+ * Requests are appended to the file until the server is stopped.
+ *
+ * @author Mark Wardle
+ */
+public class RecordQueries extends CommandWithMetadata {
+
+	@Inject
+	public Provider<Server> server;
+
+	private static CommandMetadata createMetadata() {
+		return CommandMetadata.builder(RecordQueries.class)
+				.description("Starts the server, recording search and concept requests. Usage: <file>")
+				.build();
+	}
+
+	public RecordQueries() {
+		super(createMetadata());
+	}
+
+	@Override
+	public CommandOutcome run(Cli cli) {
+		List<String> args = cli.standaloneArguments();
+		if (args.size() != 1) {
+			return CommandOutcome.failed(1, "Usage: <file>");
+		}
+		BufferedWriter writer;
+		try {
+			writer = Files.newBufferedWriter(Paths.get(args.get(0)), StandardCharsets.UTF_8,
+					StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		} catch (IOException e) {
+			return CommandOutcome.failed(1, e);
+		}
+		QueryRecorder.start(writer);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try {
+				QueryRecorder.stop();
+				writer.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}));
+		Server s = server.get();
+		try {
+			s.start();
+		} catch (Exception e) {
+			return CommandOutcome.failed(1, e);
+		}
+		System.out.println("Recording requests to " + args.get(0));
+		try {
+			Thread.currentThread().join();
+		} catch (InterruptedException e) {
+			try {
+				s.stop();
+			} catch (Exception e1) {
+				return CommandOutcome.failed(1, e1);
+			}
+		}
+		return CommandOutcome.succeeded();
+	}
+}
@@ -0,0 +1,206 @@
+package com.eldrix.terminology.server.commands;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import com.eldrix.terminology.server.QueryLog;
+import com.eldrix.terminology.server.Warmup;
+import com.eldrix.terminology.snomedct.Search;
+
+import io.bootique.cli.Cli;
+import io.bootique.command.CommandOutcome;
+import io.bootique.command.CommandWithMetadata;
+import io.bootique.meta.application.CommandMetadata;
+
+/**
+ * Replays a {@link QueryLog} at a given concurrency, reporting throughput and latency centiles.
+ *
+ * If a base URL (e.g. "http://localhost:8080/") is given, every request is sent to a running server.
+ * Otherwise, searches are run directly against a local index, either that specified or the default,
+ * as the search endpoint would run them, and other requests are skipped.
+ *
+ * @author Mark Wardle
+ */
+public class ReplayQueries extends CommandWithMetadata {
+	private static final String DEFAULT_ROOT = "138875005";
+	private static final int DEFAULT_MAX_HITS = 200;
+
+	private static CommandMetadata createMetadata() {
+		return CommandMetadata.builder(ReplayQueries.class)
+				.description("Replays recorded requests and reports latency. Usage: <file> [concurrency] [url|index]")
+				.build();
+	}
+
+	public ReplayQueries() {
+		super(createMetadata());
+	}
+
+	@Override
+	public CommandOutcome run(Cli cli) {
+		List<String> args = cli.standaloneArguments();
+		if (args.isEmpty() || args.size() > 3) {
+			return CommandOutcome.failed(1, "Usage: <file> [concurrency] [url|index]");
+		}
+		try {
+			List<QueryLog.Entry> entries = QueryLog.read(Paths.get(args.get(0)));
+			int concurrency = args.size() > 1 ? Integer.parseInt(args.get(1)) : 1;
+			String target = args.size() > 2 ? args.get(2) : null;
+			Replayer replayer;
+			if (target != null && (target.startsWith("http://") || target.startsWith("https://"))) {
+				replayer = new HttpReplayer(target.endsWith("/") ? target : target + "/");
+			} else {
+				List<QueryLog.Entry> searches = entries.stream().filter(QueryLog.Entry::isSearch).collect(Collectors.toList());
+				System.out.println("Skipping " + (entries.size() - searches.size()) + " requests other than searches");
+				entries = searches;
+				replayer = new SearchReplayer(target == null ? Search.getInstance() : Search.getInstance(target));
+			}
+			_report(_replay(entries, concurrency, replayer));
+			return CommandOutcome.succeeded();
+		} catch (Exception e) {
+			e.printStackTrace();
+			return CommandOutcome.failed(1, e);
+		}
+	}
+
+	private interface Replayer {
+		void replay(QueryLog.Entry entry) throws Exception;
+	}
+
+	private static class HttpReplayer implements Replayer {
+		private final String _baseUrl;
+		HttpReplayer(String baseUrl) {
+			_baseUrl = baseUrl;
+		}
+		@Override
+		public void replay(QueryLog.Entry entry) throws IOException {
+			HttpURLConnection conn = (HttpURLConnection) new URL(_baseUrl + entry.request()).openConnection();
+			try {
+				int status = conn.getResponseCode();
+				if (status >= 400) {
+					throw new IOException("HTTP " + status + ": " + entry.request());
+				}
+				try (InputStream is = conn.getInputStream()) {
+					byte[] buffer = new byte[8192];
+					while (is.read(buffer) != -1) {
+						// consume the body so that the connection can be reused
+					}
+				}
+			} finally {
+				conn.disconnect();
+			}
+		}
+	}
+
+	private static class SearchReplayer implements Replayer {
+		private final Search _search;
+		SearchReplayer(Search search) {
+			_search = search;
+		}
+		@Override
+		public void replay(QueryLog.Entry entry) throws IOException {
+			Search.Request.Builder b = _search.newBuilder();
+			String s = entry.parameter("s");
+			if (s != null) {
+				b.search(s);
+			}
+			b.withRecursiveParent(_longs(entry, "root", DEFAULT_ROOT));
+			List<Long> isA = _longs(entry, "is", null);
+			if (!isA.isEmpty()) {
+				b.withDirectParent(isA);
+			}
+			String maxHits = entry.parameter("maxHits");
+			b.setMaxHits(maxHits == null ? DEFAULT_MAX_HITS : Integer.parseInt(maxHits));
+			if (!Boolean.parseBoolean(entry.parameter("inactive"))) {
+				b.onlyActive();
+			}
+			if (!Boolean.parseBoolean(entry.parameter("fsn"))) {
+				b.withoutFullySpecifiedNames();
+			}
+			if (Boolean.parseBoolean(entry.parameter("fuzzy"))) {
+				b.useFuzzy();
+			}
+			if (!"false".equals(entry.parameter("fallbackFuzzy"))) {
+				b.correctSpelling();
+			}
+			if (Boolean.parseBoolean(entry.parameter("grouped"))) {
+				b.groupByConcept();
+			}
+			b.build().search();
+		}
+
+		private static List<Long> _longs(QueryLog.Entry entry, String name, String defaultValue) {
+			List<String> values = entry.parameters.get(name);
+			if (values == null || values.isEmpty()) {
+				values = defaultValue == null ? new ArrayList<>() : Collections.singletonList(defaultValue);
+			}
+			return values.stream().map(Long::parseLong).collect(Collectors.toList());
+		}
+	}
+
+	private static class Timings {
+		final long[] nanos;
+		final int errors;
+		final long elapsedNanos;
+		Timings(long[] nanos, int errors, long elapsedNanos) {
+			this.nanos = nanos;
+			this.errors = errors;
+			this.elapsedNanos = elapsedNanos;
+		}
+	}
+
+	private static Timings _replay(List<QueryLog.Entry> entries, int concurrency, Replayer replayer) throws Exception {
+		long[] nanos = new long[entries.size()];
+		AtomicInteger errors = new AtomicInteger();
+		AtomicInteger next = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+		long start = System.nanoTime();
+		try {
+			ArrayList<Future<?>> futures = new ArrayList<>();
+			for (int t=0; t<concurrency; t++) {
+				futures.add(executor.submit(() -> {
+					int i;
+					while ((i = next.getAndIncrement()) < entries.size()) {
+						long s = System.nanoTime();
+						try {
+							replayer.replay(entries.get(i));
+						} catch (Exception e) {
+							if (errors.getAndIncrement() == 0) {
+								System.err.println("Error: " + e.getMessage());
+							}
+						}
+						nanos[i] = System.nanoTime() - s;
+					}
+				}));
+			}
+			for (Future<?> f : futures) {
+				f.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		return new Timings(nanos, errors.get(), System.nanoTime() - start);
+	}
+
+	private static void _report(Timings timings) {
+		int n = timings.nanos.length;
+		double seconds = timings.elapsedNanos / 1_000_000_000.0;
+		System.out.println(String.format("Requests: %d, errors: %d, elapsed: %.1fs, throughput: %.1f/s",
+				n, timings.errors, seconds, seconds > 0 ? n / seconds : 0));
+		System.out.println(String.format("Latency (ms): p50 %.2f, p90 %.2f, p99 %.2f, max %.2f",
+				Warmup.percentile(timings.nanos, 0.5) / 1_000_000.0,
+				Warmup.percentile(timings.nanos, 0.9) / 1_000_000.0,
+				Warmup.percentile(timings.nanos, 0.99) / 1_000_000.0,
+				Warmup.percentile(timings.nanos, 1.0) / 1_000_000.0));
+	}
+}
@@ -1,4 +1,11 @@
 package com.eldrix.terminology.server.resources;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
@@ -7,21 +14,41 @@ import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Configuration;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.UriInfo;
 
+import org.apache.cayenne.exp.ExpressionFactory;
+
 import com.eldrix.terminology.server.resources.CrossMapResource.CrossMapTableFilter;
 import com.eldrix.terminology.snomedct.Concept;
+import com.eldrix.terminology.snomedct.ConceptSet;
 import com.eldrix.terminology.snomedct.CrossMapTable;
 import com.eldrix.terminology.snomedct.CrossMapTarget;
 import com.eldrix.terminology.snomedct.Description;
+import com.eldrix.terminology.snomedct.Hierarchy;
 import com.eldrix.terminology.snomedct.Relationship;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 import com.nhl.link.rest.DataResponse;
 import com.nhl.link.rest.LinkRest;
+import com.nhl.link.rest.LinkRestException;
 import com.nhl.link.rest.SelectBuilder;
+import com.nhl.link.rest.annotation.listener.QueryAssembled;
+import com.nhl.link.rest.annotation.listener.SelectRequestParsed;
+import com.nhl.link.rest.encoder.Encoder;
+import com.nhl.link.rest.encoder.EncoderVisitor;
+import com.nhl.link.rest.runtime.processor.select.SelectContext;
+import com.nhl.link.rest.runtime.LinkRestRuntime;
+import com.nhl.link.rest.runtime.cayenne.ICayennePersister;
 
 @Path("snomedct/concepts")
 @Produces(MediaType.APPLICATION_JSON)
 public class ConceptResource {
+	private static final int DEFAULT_ALL_CHILDREN_LIMIT = 50;
+	private static final List<String> UNSUPPORTED_ALL_CHILDREN_PARAMETERS = Arrays.asList("cayenneExp", "sort", "dir");
 
 	@Context
 	private Configuration config;
@@ -76,15 +103,117 @@ public class ConceptResource {
 				.get();
 	}
 
+	/**
+	 * Return the descendants of a concept, in order of concept identifier, a page at a time ("start" and "limit").
+	 * Descendants are found using the in-memory hierarchy and only the requested page is fetched; the total
+	 * is the number of descendants. As the page is chosen before the query, "cayenneExp" and "sort" are not supported.
+	 */
 	@GET
 	@Path("{conceptId}/allChildren")
-	public DataResponse<Concept> isA(@PathParam("conceptId") long conceptId, @Context UriInfo uriInfo) {
-		return LinkRest.select(Concept.class, config)
-				.toManyParent(Concept.class, conceptId, Concept.RECURSIVE_CHILD_CONCEPTS)
-				.fetchLimit(50)
+	public DataResponse<Concept> isA(@PathParam("conceptId") long conceptId,
+			@DefaultValue("0") @QueryParam("start") int start,
+			@DefaultValue("" + DEFAULT_ALL_CHILDREN_LIMIT) @QueryParam("limit") int limit,
+			@Context UriInfo uriInfo) {
+		rejectUnsupportedParameters(uriInfo.getQueryParameters());
+		ICayennePersister cayenne = LinkRestRuntime.service(ICayennePersister.class, config);
+		Hierarchy hierarchy = Hierarchy.getInstance(cayenne.sharedContext());
+		ConceptSet descendants = hierarchy.expand(conceptId).minus(hierarchy.conceptSet(conceptId));
+		long[] page = descendants.stream().skip(Math.max(0, start)).limit(Math.max(0, limit)).toArray();
+		DataResponse<Concept> response = LinkRest.select(Concept.class, config)
+				.listener(new ConceptIdFilter(page))
 				.uri(uriInfo)
 				.get();
+		response.setEncoder(new PageEncoder(response.getEncoder(), descendants.size()));
+		return response;
+	}
+
+	/*
+	 * Reject parameters that would apply only within the page of descendants, rather than to all descendants.
+	 */
+	static void rejectUnsupportedParameters(MultivaluedMap<String, String> parameters) {
+		for (String parameter : UNSUPPORTED_ALL_CHILDREN_PARAMETERS) {
+			if (parameters.containsKey(parameter)) {
+				throw new LinkRestException(Status.BAD_REQUEST, "Parameter not supported for allChildren: " + parameter);
+			}
+		}
+	}
+
+	/**
+	 * Restricts a select to the specified concepts, in order of concept identifier.
+	 * The concepts are already a single page, so the paging requested ("start" and "limit") is not applied again.
+	 */
+	static class ConceptIdFilter {
+		private final long[] _conceptIds;
+
+		ConceptIdFilter(long[] conceptIds) {
+			_conceptIds = conceptIds;
+		}
 
+		@SelectRequestParsed
+		public void requestParsed(SelectContext<Concept> context) {
+			context.getEntity().setFetchOffset(0);
+			context.getEntity().setFetchLimit(0);
+		}
+
+		@QueryAssembled
+		public void queryAssembled(SelectContext<Concept> context) {
+			List<Long> ids = LongStream.of(_conceptIds).boxed().collect(Collectors.toList());
+			context.getSelect().andQualifier(ids.isEmpty() ? ExpressionFactory.expFalse() : Concept.CONCEPT_ID.in(ids));
+			context.getSelect().addOrdering(Concept.CONCEPT_ID.asc());
+		}
+	}
+
+	/**
+	 * Encodes a response holding a single page of results as {"data": [...], "total": n}, writing the envelope itself
+	 * so that the total is the one specified rather than the number of objects in the page. The objects are
+	 * encoded by the encoder that LinkRest built for the request, so that include and exclude are honoured.
+	 */
+	static class PageEncoder implements Encoder {
+		private static final String DATA = "data";
+		private static final String TOTAL = "total";
+		private final Encoder _delegate;
+		private final int _total;
+
+		PageEncoder(Encoder delegate, int total) {
+			_delegate = delegate;
+			_total = total;
+		}
+
+		@Override
+		public boolean encode(String propertyName, Object object, JsonGenerator out) throws IOException {
+			TokenBuffer buffer = new TokenBuffer(out.getCodec(), false);
+			_delegate.encode(null, object, buffer);
+			if (propertyName != null) {
+				out.writeFieldName(propertyName);
+			}
+			out.writeStartObject();
+			try (JsonParser parser = buffer.asParser()) {
+				parser.nextToken();
+				while (parser.nextToken() == JsonToken.FIELD_NAME) {
+					String name = parser.getCurrentName();
+					parser.nextToken();
+					if (DATA.equals(name)) {
+						out.writeFieldName(DATA);
+						out.copyCurrentStructure(parser);
+					} else {
+						parser.skipChildren();
+					}
+				}
+			}
+			out.writeNumberField(TOTAL, _total);
+			out.writeEndObject();
+			return true;
+		}
+
+		@Override
+		public boolean willEncode(String propertyName, Object object) {
+			return true;
+		}
+
+		@Override
+		public int visitEntities(Object object, EncoderVisitor visitor) {
+			return _delegate.visitEntities(object, visitor);
+		}
 	}
 
 	@GET
@@ -2,14 +2,19 @@ package com.eldrix.terminology.server.resources;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Configuration;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.UriInfo;
 
 import org.apache.cayenne.query.Ordering;
@@ -18,9 +23,15 @@ import com.eldrix.terminology.snomedct.Concept;
 import com.eldrix.terminology.snomedct.CrossMapSet;
 import com.eldrix.terminology.snomedct.CrossMapTable;
 import com.eldrix.terminology.snomedct.CrossMapTarget;
+import com.eldrix.terminology.snomedct.CrossMaps;
+import com.eldrix.terminology.snomedct.CrossMaps.MapSet;
+import com.eldrix.terminology.snomedct.CrossMaps.Mapping;
 import com.nhl.link.rest.DataResponse;
 import com.nhl.link.rest.LinkRest;
+import com.nhl.link.rest.LinkRestException;
 import com.nhl.link.rest.annotation.listener.QueryAssembled;
+import com.nhl.link.rest.runtime.LinkRestRuntime;
+import com.nhl.link.rest.runtime.cayenne.ICayennePersister;
 import com.nhl.link.rest.runtime.processor.select.SelectContext;
 
 @Path("snomedct/crossmaps")
@@ -57,6 +68,60 @@ public class CrossMapResource {
 	}
 
 
+	/**
+	 * Map a batch of concepts using the specified cross map set.
+	 * @param setId - cross map set
+	 * @param conceptIds - one or more concept identifiers
+	 * @return a map of each concept to its mappings, in option and priority order
+	 */
+	@GET
+	@Path("{setId}/map")
+	public DataResponse<Map<Long, List<Mapping>>> mapConcepts(
+			@PathParam("setId") long setId,
+			@QueryParam("concept") List<Long> conceptIds,
+			@Context UriInfo uriInfo) {
+		return SearchResource.responseWithObject(_mapSet(setId).mappingsForConcepts(conceptIds));
+	}
+
+	/**
+	 * Return the concepts that map to the specified target code.
+	 * @param setId - cross map set
+	 * @param code - target code, such as an ICD-10 code
+	 */
+	@GET
+	@Path("{setId}/reverse/{code}")
+	public DataResponse<Long> conceptsForCode(
+			@PathParam("setId") long setId,
+			@PathParam("code") String code,
+			@Context UriInfo uriInfo) {
+		long[] conceptIds = _mapSet(setId).conceptsForCode(code);
+		return SearchResource.responseWithList(LongStream.of(conceptIds).boxed().collect(Collectors.toList()));
+	}
+
+	/**
+	 * Reverse map a batch of target codes using the specified cross map set.
+	 * @param setId - cross map set
+	 * @param codes - one or more target codes
+	 * @return a map of each code to the concepts that map to it
+	 */
+	@GET
+	@Path("{setId}/reverse")
+	public DataResponse<Map<String, long[]>> conceptsForCodes(
+			@PathParam("setId") long setId,
+			@QueryParam("code") List<String> codes,
+			@Context UriInfo uriInfo) {
+		return SearchResource.responseWithObject(_mapSet(setId).conceptsForCodes(codes));
+	}
+
+	private MapSet _mapSet(long setId) {
+		ICayennePersister cayenne = LinkRestRuntime.service(ICayennePersister.class, config);
+		MapSet mapSet = CrossMaps.getInstance(cayenne.sharedContext()).mapSet(setId);
+		if (mapSet == null) {
+			throw new LinkRestException(Status.NOT_FOUND, "No cross map set with id: " + setId);
+		}
+		return mapSet;
+	}
+
 	/**
 	 * Filter crossmaps to include only crossmaps matching the specified "map set"
 	 * @author mark
@@ -0,0 +1,21 @@
+package com.eldrix.terminology.server.resources;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+
+import com.eldrix.terminology.metrics.Metrics;
+
+/**
+ * Publishes application metrics in the Prometheus text exposition format.
+ */
+@Path("metrics")
+public class MetricsResource {
+	private static final String PROMETHEUS_TEXT = "text/plain; version=0.0.4; charset=utf-8";
+
+	@GET
+	@Produces(PROMETHEUS_TEXT)
+	public String metrics() {
+		return Metrics.scrape();
+	}
+}
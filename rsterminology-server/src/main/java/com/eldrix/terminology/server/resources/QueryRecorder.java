@@ -0,0 +1,90 @@
+package com.eldrix.terminology.server.resources;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.DynamicFeature;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.FeatureContext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eldrix.terminology.server.QueryLog;
+
+/**
+ * Records anonymised search and concept requests, with their timings, to a {@link QueryLog}.
+ *
+ * Nothing is recorded unless recording has been started using {@link #start(Writer)}, as by the
+ * "record-queries" command.
+ */
+public class QueryRecorder implements DynamicFeature {
+	private static final Logger log = LoggerFactory.getLogger(QueryRecorder.class);
+	private static final String START_PROPERTY = QueryRecorder.class.getName() + ".start";
+	private static final Filter _filter = new Filter();
+	private static volatile Writer _writer;
+	private static volatile long _started;
+
+	/**
+	 * Start recording requests to the writer specified.
+	 */
+	public static void start(Writer writer) {
+		_started = System.nanoTime();
+		_writer = writer;
+	}
+
+	/**
+	 * Stop recording and flush any recorded requests.
+	 */
+	public static void stop() throws IOException {
+		Writer w = _writer;
+		_writer = null;
+		if (w != null) {
+			synchronized(w) {
+				w.flush();
+			}
+		}
+	}
+
+	@Override
+	public void configure(ResourceInfo resourceInfo, FeatureContext context) {
+		Class<?> c = resourceInfo.getResourceClass();
+		if (c == SearchResource.class || c == ConceptResource.class) {
+			context.register(_filter);
+		}
+	}
+
+	private static class Filter implements ContainerRequestFilter, ContainerResponseFilter {
+
+		@Override
+		public void filter(ContainerRequestContext request) throws IOException {
+			if (_writer != null) {
+				request.setProperty(START_PROPERTY, System.nanoTime());
+			}
+		}
+
+		@Override
+		public void filter(ContainerRequestContext request, ContainerResponseContext response) throws IOException {
+			Object start = request.getProperty(START_PROPERTY);
+			Writer w = _writer;
+			if (start == null || w == null) {
+				return;
+			}
+			long now = System.nanoTime();
+			QueryLog.Entry entry = QueryLog.entry((now - _started) / 1_000_000, (now - (Long) start) / 1_000,
+					response.getStatus(), request.getUriInfo().getPath(), request.getUriInfo().getQueryParameters());
+			try {
+				synchronized(w) {
+					w.write(entry.toString());
+					w.write('\n');
+				}
+			} catch (IOException e) {
+				log.warn("Failed to record request: " + e.getMessage());
+			}
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package com.eldrix.terminology.server.resources;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Configuration;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Feature;
+import javax.ws.rs.core.FeatureContext;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response.Status;
+
+import org.glassfish.jersey.server.spi.Container;
+import org.glassfish.jersey.server.spi.ContainerLifecycleListener;
+
+import com.eldrix.terminology.server.Warmup;
+import com.nhl.link.rest.DataResponse;
+import com.nhl.link.rest.runtime.LinkRestRuntime;
+import com.nhl.link.rest.runtime.cayenne.ICayennePersister;
+
+/**
+ * Reports whether the server is ready to handle requests, for use as a readiness probe.
+ * Warm-up is started when the application starts, or on the first request to this endpoint.
+ */
+@Path("ready")
+@Produces(MediaType.APPLICATION_JSON)
+public class ReadyResource {
+	@Context
+	private Configuration config;
+
+	/**
+	 * Return the status of warm-up, with a 200 status once ready and 503 until then.
+	 */
+	@GET
+	public DataResponse<Map<String, Object>> ready() {
+		startWarmup(config);
+		return response(Warmup.isReady(), Warmup.state(), Warmup.rounds(), Warmup.p99Millis());
+	}
+
+	static DataResponse<Map<String, Object>> response(boolean ready, Warmup.State state, int rounds, double p99) {
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("state", state.name());
+		result.put("rounds", rounds);
+		result.put("p99", p99);
+		DataResponse<Map<String, Object>> response = SearchResource.responseWithObject(result);
+		response.setStatus(ready ? Status.OK : Status.SERVICE_UNAVAILABLE);
+		return response;
+	}
+
+	static void startWarmup(Configuration config) {
+		Warmup.start(LinkRestRuntime.service(ICayennePersister.class, config).sharedContext());
+	}
+
+	/**
+	 * Starts warm-up when the application starts.
+	 */
+	public static class Startup implements Feature, ContainerLifecycleListener {
+		@Override
+		public boolean configure(FeatureContext context) {
+			context.register(this);
+			return true;
+		}
+
+		@Override
+		public void onStartup(Container container) {
+			startWarmup(container.getConfiguration());
+		}
+
+		@Override
+		public void onReload(Container container) {
+		}
+
+		@Override
+		public void onShutdown(Container container) {
+		}
+	}
+}
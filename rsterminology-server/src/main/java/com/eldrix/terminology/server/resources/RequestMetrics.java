@@ -0,0 +1,57 @@
+package com.eldrix.terminology.server.resources;
+
+import java.io.IOException;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.DynamicFeature;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.FeatureContext;
+
+import com.eldrix.terminology.cayenne.QueryMetricsFilter;
+import com.eldrix.terminology.metrics.Metrics;
+
+/**
+ * Records the latency and number of Cayenne queries for each request, labelled by the resource method
+ * (e.g. "SearchResource.search") and response status.
+ */
+public class RequestMetrics implements DynamicFeature {
+	private static final String START_PROPERTY = RequestMetrics.class.getName() + ".start";
+	private static final double[] QUERY_BUCKETS = new double[] { 0, 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000 };
+
+	@Override
+	public void configure(ResourceInfo resourceInfo, FeatureContext context) {
+		if (resourceInfo.getResourceClass() == MetricsResource.class) {
+			return;
+		}
+		context.register(new Filter(resourceInfo.getResourceClass().getSimpleName() + "." + resourceInfo.getResourceMethod().getName()));
+	}
+
+	private static class Filter implements ContainerRequestFilter, ContainerResponseFilter {
+		private final String _endpoint;
+
+		Filter(String endpoint) {
+			_endpoint = endpoint;
+		}
+
+		@Override
+		public void filter(ContainerRequestContext request) throws IOException {
+			request.setProperty(START_PROPERTY, System.nanoTime());
+			QueryMetricsFilter.resetThreadCount();
+		}
+
+		@Override
+		public void filter(ContainerRequestContext request, ContainerResponseContext response) throws IOException {
+			Object start = request.getProperty(START_PROPERTY);
+			if (start instanceof Long) {
+				String status = String.valueOf(response.getStatus());
+				Metrics.timer("rsterminology_http_request_seconds", "Time taken to handle a request, by endpoint", "endpoint", _endpoint, "status", status)
+				.recordSince((Long) start);
+				Metrics.histogram("rsterminology_http_request_cayenne_queries", "Number of Cayenne queries made in handling a request, by endpoint", QUERY_BUCKETS, "endpoint", _endpoint)
+				.observe(QueryMetricsFilter.threadCount());
+			}
+		}
+	}
+}
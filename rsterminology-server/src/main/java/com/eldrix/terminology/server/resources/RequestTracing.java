@@ -0,0 +1,133 @@
+package com.eldrix.terminology.server.resources;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.UUID;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.DynamicFeature;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.FeatureContext;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eldrix.terminology.metrics.Trace;
+
+/**
+ * Traces the SQL statements and Lucene queries executed for each request.
+ *
+ * If enabled by setting the system property "com.eldrix.terminology.server.traceHeader" to true, a request with a
+ * "X-Trace" header is given a trace identifier and summary in the "X-Trace" response header, and its full trace is
+ * logged with that identifier; the response entity is then buffered, so the header can include queries made while
+ * writing it. Statements are never returned to the client. Requests slower than the threshold set by
+ * the system property "com.eldrix.terminology.server.slowRequestMillis" (default 1000ms) are logged with their full trace.
+ */
+public class RequestTracing implements DynamicFeature {
+	private static final Logger log = LoggerFactory.getLogger(RequestTracing.class);
+	public static final String TRACE_HEADER = "X-Trace";
+	private static final String SLOW_REQUEST_PROPERTY_KEY = "com.eldrix.terminology.server.slowRequestMillis";
+	private static final long SLOW_REQUEST_NANOS = Long.getLong(SLOW_REQUEST_PROPERTY_KEY, 1000) * 1_000_000;
+	private static final String TRACE_HEADER_PROPERTY_KEY = "com.eldrix.terminology.server.traceHeader";
+	private static final String REQUEST_PROPERTY = RequestTracing.class.getName() + ".request";
+	private static final String HEADER_PROPERTY = RequestTracing.class.getName() + ".header";
+	private final Filter _filter;
+
+	public RequestTracing() {
+		this(Boolean.getBoolean(TRACE_HEADER_PROPERTY_KEY));
+	}
+
+	RequestTracing(boolean headerEnabled) {
+		_filter = new Filter(headerEnabled);
+	}
+
+	@Override
+	public void configure(ResourceInfo resourceInfo, FeatureContext context) {
+		if (resourceInfo.getResourceClass() != MetricsResource.class) {
+			context.register(_filter);
+		}
+	}
+
+	/*
+	 * Starts the trace when the request is received and stops it once the response entity has been written, so that
+	 * the trace includes queries made while encoding the entity, such as faulting related objects.
+	 * Responses without an entity are finished by the response filter instead.
+	 */
+	private static class Filter implements ContainerRequestFilter, ContainerResponseFilter, WriterInterceptor {
+		private final boolean _headerEnabled;
+
+		Filter(boolean headerEnabled) {
+			_headerEnabled = headerEnabled;
+		}
+
+		@Override
+		public void filter(ContainerRequestContext request) throws IOException {
+			Trace.start();
+			request.setProperty(REQUEST_PROPERTY, request.getMethod() + " " + request.getUriInfo().getRequestUri());
+			if (_headerEnabled && request.getHeaderString(TRACE_HEADER) != null) {
+				request.setProperty(HEADER_PROPERTY, Boolean.TRUE);
+			}
+		}
+
+		@Override
+		public void filter(ContainerRequestContext request, ContainerResponseContext response) throws IOException {
+			if (!response.hasEntity()) {
+				_finish((String) request.getProperty(REQUEST_PROPERTY), request.getProperty(HEADER_PROPERTY) != null ? response.getHeaders() : null);
+			}
+		}
+
+		@Override
+		public void aroundWriteTo(WriterInterceptorContext context) throws IOException, WebApplicationException {
+			String request = (String) context.getProperty(REQUEST_PROPERTY);
+			if (request == null || !Trace.isActive()) {
+				context.proceed();
+				return;
+			}
+			if (context.getProperty(HEADER_PROPERTY) == null) {
+				try {
+					context.proceed();
+				} finally {
+					_finish(request, null);
+				}
+				return;
+			}
+			// buffer the entity, so the header can be added once the entity has been written
+			OutputStream out = context.getOutputStream();
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			context.setOutputStream(buffer);
+			try {
+				context.proceed();
+			} finally {
+				context.setOutputStream(out);
+				_finish(request, context.getHeaders());
+			}
+			buffer.writeTo(out);
+		}
+
+		/*
+		 * Stop the trace, adding the trace header if requested, and log it if requested or slow.
+		 */
+		private static void _finish(String request, MultivaluedMap<String, Object> headers) {
+			Trace trace = Trace.stop();
+			if (trace == null) {
+				return;
+			}
+			if (headers != null) {
+				String id = UUID.randomUUID().toString();
+				headers.add(TRACE_HEADER, "id=" + id + " " + trace.summary());
+				log.info("Trace " + id + ": " + request + " " + trace);
+			}
+			if (trace.elapsedNanos() > SLOW_REQUEST_NANOS) {
+				log.warn("Slow request: " + request + " " + trace);
+			}
+		}
+	}
+}
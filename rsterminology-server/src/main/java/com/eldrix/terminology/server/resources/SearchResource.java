@@ -1,13 +1,21 @@
 package com.eldrix.terminology.server.resources;
 
+import java.io.BufferedReader;
 import java.io.IOException;
-import java.util.HashSet;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.Consumes;
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
@@ -26,14 +34,24 @@ import org.apache.cayenne.query.SelectQuery;
 import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.queryparser.classic.ParseException;
 
+import com.eldrix.terminology.medicine.BatchMedicationParser;
+import com.eldrix.terminology.medicine.DrugNameResolver;
 import com.eldrix.terminology.medicine.ParsedMedication;
 import com.eldrix.terminology.medicine.ParsedMedicationBuilder;
-import com.eldrix.terminology.snomedct.Concept;
+import com.eldrix.terminology.metrics.Metrics;
+import com.eldrix.terminology.snomedct.Classifier;
+import com.eldrix.terminology.snomedct.ConceptSet;
 import com.eldrix.terminology.snomedct.Description;
+import com.eldrix.terminology.snomedct.Ecl;
+import com.eldrix.terminology.snomedct.Hierarchy;
 import com.eldrix.terminology.snomedct.Project;
+import com.eldrix.terminology.snomedct.ReadCodes;
 import com.eldrix.terminology.snomedct.Search;
 import com.eldrix.terminology.snomedct.Search.ResultItem;
 import com.eldrix.terminology.snomedct.SearchUtilities;
+import com.eldrix.terminology.snomedct.SemanticSimilarity;
+import com.eldrix.terminology.snomedct.semantic.Category;
+import com.eldrix.terminology.snomedct.semantic.Dmd;
 import com.nhl.link.rest.DataResponse;
 import com.nhl.link.rest.LinkRestException;
 import com.nhl.link.rest.encoder.DataResponseEncoder;
@@ -47,6 +65,20 @@ import com.nhl.link.rest.runtime.cayenne.ICayennePersister;
 @Produces(MediaType.APPLICATION_JSON)
 public class SearchResource {
 	private static final String ERROR_NO_SEARCH_PARAMETER = "No search parameter specified";
+	static final String PARTIAL_HEADER = "X-Search-Partial";
+	private static final long SEARCH_TIMEOUT_MILLIS = 2000;		// so that a pathological search cannot tie up a worker thread
+	private static final int CLASSIFIER_CACHE_SIZE = 16;
+	private static final String MAXIMUM_SIMILARITY_CONCEPTS_PROPERTY_KEY = "com.eldrix.terminology.server.maxSimilarityConcepts";
+	private static final int MAXIMUM_SIMILARITY_CONCEPTS = Integer.getInteger(MAXIMUM_SIMILARITY_CONCEPTS_PROPERTY_KEY, 2000);	// the matrix grows with the square
+	private static final Metrics.Counter _classifierCacheHits = Metrics.counter("rsterminology_cache_requests_total", "Cache lookups", "cache", "classifier", "result", "hit");
+	private static final Metrics.Counter _classifierCacheMisses = Metrics.counter("rsterminology_cache_requests_total", "Cache lookups", "cache", "classifier", "result", "miss");
+	private static final Map<List<Long>, Classifier> _classifiers = new LinkedHashMap<List<Long>, Classifier>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<List<Long>, Classifier> eldest) {
+			return size() > CLASSIFIER_CACHE_SIZE;
+		}
+	};
 
 	@Context
 	private Configuration config;
@@ -60,10 +92,14 @@ public class SearchResource {
 	 * @param fsn - whether to include FSN terms in search results (defaults to 0)
 	 * @param inactive - whether to include inactive terms in search results (defaults to 0)
 	 * @param fuzzy - whether to use a fuzzy search for search (default to false)
-	 * @param fallbackFuzzy - whether to use a fuzzy search if no results found for non-fuzzy search (defaults to true)
+	 * @param fallbackFuzzy - whether to correct misspelt search terms for a non-fuzzy search (defaults to true)
+	 * @param grouped - whether to return only the best matching description for each concept (defaults to false)
 	 * @param project - optional name of project to limit search results to curated list for that project
+	 * @param ecl - optional expression constraint to limit search results, e.g. "<< 64572001 MINUS << 404684003"
+	 * @param general - how strongly to rank general concepts above more specific concepts (defaults to 0, not at all)
 	 * @param uriInfo
-	 * @return
+	 * @return the top hits; if the search ran out of time, these are the best found so far and the
+	 * response has the header "X-Search-Partial: true"
 	 */
 	@GET
 	@Path("search")
@@ -75,14 +111,26 @@ public class SearchResource {
 			@DefaultValue("false") @QueryParam("inactive") boolean includeInactive,
 			@DefaultValue("false") @QueryParam("fuzzy") boolean fuzzy,
 			@DefaultValue("true") @QueryParam("fallbackFuzzy") boolean fallbackFuzzy,
+			@DefaultValue("false") @QueryParam("grouped") boolean grouped,
 			@QueryParam("project") String project,
-			@Context UriInfo uriInfo) {
+			@QueryParam("ecl") String ecl,
+			@DefaultValue("0") @QueryParam("general") float general,
+			@Context UriInfo uriInfo,
+			@Context HttpServletResponse response) {
 		if (search == null || search.length() == 0) {
 			throw new LinkRestException(Status.BAD_REQUEST, ERROR_NO_SEARCH_PARAMETER);
 		}
 		try {
-			List<ResultItem> result = _performSearch(search, recursiveParents, directParents, maxHits, includeFsn,
-					includeInactive, fuzzy, fallbackFuzzy, project);
+			Search.Results results = _performSearch(search, recursiveParents, directParents, maxHits, includeFsn,
+					includeInactive, fuzzy, fallbackFuzzy, grouped, ecl, general);
+			_flagPartial(results, response);
+			List<ResultItem> result = results.getItems();
+			if (project != null && project.length() > 0) {
+				ICayennePersister cayenne = LinkRestRuntime.service(ICayennePersister.class, config);
+				ObjectContext context = cayenne.newContext();
+				Project p = ObjectSelect.query(Project.class, Project.NAME.eq(project)).selectOne(context);
+				result = SearchUtilities.filterSearchForProject(result, p, recursiveParents);
+			}
 			return responseWithList(result);
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -90,11 +138,130 @@ public class SearchResource {
 		}
 	}
 
-	private List<ResultItem> _performSearch(String search, final List<Long> recursiveParents,
+	/**
+	 * Search for a concept, returning the top hits together with counts of all hits within each facet root,
+	 * for example, to show how many hits are clinical findings and how many are procedures.
+	 * @param search - search term
+	 * @param root - one or more root concept identifiers
+	 * @param is - zero or more direct parent concept identifiers
+	 * @param facet - zero or more facet root concept identifiers; defaults to the top-level categories
+	 * @param maxHits - number of hits
+	 * @param fsn - whether to include FSN terms in search results (defaults to 0)
+	 * @param inactive - whether to include inactive terms in search results (defaults to 0)
+	 * @param fuzzy - whether to use a fuzzy search for search (default to false)
+	 * @param fallbackFuzzy - whether to correct misspelt search terms for a non-fuzzy search (defaults to true)
+	 * @param grouped - whether to return only the best matching description for each concept (defaults to false)
+	 * @return the top hits, with counts of all hits for each facet root; if the search ran out of time,
+	 * the response has the header "X-Search-Partial: true"
+	 */
+	@GET
+	@Path("search/facets")
+	public DataResponse<Search.Results> searchWithFacets(@QueryParam("s") String search,
+			@DefaultValue("138875005") @QueryParam("root") final List<Long> recursiveParents,
+			@QueryParam("is") final List<Long> directParents,
+			@QueryParam("facet") final List<Long> facets,
+			@DefaultValue("200") @QueryParam("maxHits") int maxHits,
+			@DefaultValue("false") @QueryParam("fsn") boolean includeFsn,
+			@DefaultValue("false") @QueryParam("inactive") boolean includeInactive,
+			@DefaultValue("false") @QueryParam("fuzzy") boolean fuzzy,
+			@DefaultValue("true") @QueryParam("fallbackFuzzy") boolean fallbackFuzzy,
+			@DefaultValue("false") @QueryParam("grouped") boolean grouped,
+			@Context UriInfo uriInfo,
+			@Context HttpServletResponse response) {
+		if (search == null || search.length() == 0) {
+			throw new LinkRestException(Status.BAD_REQUEST, ERROR_NO_SEARCH_PARAMETER);
+		}
+		try {
+			Search.Request.Builder b = _searchBuilder(search, recursiveParents, directParents, maxHits, includeFsn, includeInactive, fuzzy, grouped);
+			if (facets.isEmpty()) {
+				b.withFacets(Category.DISEASE, Category.CLINICAL_FINDING, Category.PROCEDURE, Category.PHARMACEUTICAL_OR_BIOLOGICAL_PRODUCT);
+			} else {
+				b.withFacets(facets.stream().mapToLong(Long::longValue).toArray());
+			}
+			if (!fuzzy && fallbackFuzzy) {
+				b.correctSpelling();
+			}
+			return responseWithObject(_flagPartial(b.build().searchWithFacets(), response));
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new LinkRestException(Status.INTERNAL_SERVER_ERROR, e.getLocalizedMessage(), e);
+		}
+	}
+
+	/**
+	 * Search for DM&D products, for example to populate a prescribing pick-list.
+	 * @param search - search term
+	 * @param products - zero or more product types (e.g. VTM, VMP, AMP, TF); defaults to all
+	 * @param prescribable - whether to include only prescribable products (defaults to false)
+	 * @param available - whether to include only available VMPs and AMPs (defaults to false)
+	 * @param maxHits - number of hits
+	 * @return the top hits, with counts of all hits by product type; if the search ran out of time,
+	 * the response has the header "X-Search-Partial: true"
+	 */
+	@GET
+	@Path("dmd/search")
+	public DataResponse<Search.Results> searchDmd(@QueryParam("s") String search,
+			@QueryParam("product") List<String> products,
+			@DefaultValue("false") @QueryParam("prescribable") boolean prescribable,
+			@DefaultValue("false") @QueryParam("available") boolean available,
+			@DefaultValue("200") @QueryParam("maxHits") int maxHits,
+			@Context UriInfo uriInfo,
+			@Context HttpServletResponse response) {
+		if (search == null || search.length() == 0) {
+			throw new LinkRestException(Status.BAD_REQUEST, ERROR_NO_SEARCH_PARAMETER);
+		}
+		Search.Request.Builder b;
+		try {
+			b = Search.getInstance().newBuilder();
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new LinkRestException(Status.INTERNAL_SERVER_ERROR, e.getLocalizedMessage(), e);
+		}
+		b.search(search).setMaxHits(maxHits).withTimeout(SEARCH_TIMEOUT_MILLIS).onlyActive().withoutFullySpecifiedNames()
+		.withDmdProducts(products.isEmpty() ? Dmd.Product.values() : products.stream().map(SearchResource::_product).toArray(Dmd.Product[]::new));
+		if (prescribable) {
+			b.onlyPrescribable();
+		}
+		if (available) {
+			b.onlyAvailable();
+		}
+		try {
+			return responseWithObject(_flagPartial(b.build().searchWithFacets(), response));
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new LinkRestException(Status.INTERNAL_SERVER_ERROR, e.getLocalizedMessage(), e);
+		}
+	}
+
+	private static Dmd.Product _product(String abbreviation) {
+		for (Dmd.Product p : Dmd.Product.values()) {
+			if (p.abbreviation().equalsIgnoreCase(abbreviation)) {
+				return p;
+			}
+		}
+		throw new LinkRestException(Status.BAD_REQUEST, "Unknown DM&D product type: " + abbreviation);
+	}
+
+	private Search.Results _performSearch(String search, final List<Long> recursiveParents,
 			final List<Long> directParents, int maxHits, boolean includeFsn, boolean includeInactive, boolean fuzzy,
-			boolean fallbackFuzzy, String project) throws CorruptIndexException, IOException {
+			boolean fallbackFuzzy, boolean grouped, String ecl, float general) throws CorruptIndexException, IOException {
+		Search.Request.Builder b = _searchBuilder(search, recursiveParents, directParents, maxHits, includeFsn, includeInactive, fuzzy, grouped);
+		if (!fuzzy && fallbackFuzzy) {
+			b.correctSpelling();
+		}
+		if (ecl != null && ecl.length() > 0) {
+			b.withFilters(Search.Filter.forConcepts(_evaluate(ecl)));
+		}
+		if (general > 0) {
+			b.preferGeneralConcepts(general);
+		}
+		return b.build().searchWithTotal();
+	}
+
+	private static Search.Request.Builder _searchBuilder(String search, final List<Long> recursiveParents,
+			final List<Long> directParents, int maxHits, boolean includeFsn, boolean includeInactive, boolean fuzzy, boolean grouped) throws CorruptIndexException, IOException {
 		Search.Request.Builder b = Search.getInstance().newBuilder();
-		b.setMaxHits(maxHits)
+		b.setMaxHits(maxHits).withTimeout(SEARCH_TIMEOUT_MILLIS)
 		.withRecursiveParent(recursiveParents);
 		if (search != null && search.length() > 0) {
 			b.search(search);
@@ -111,17 +278,10 @@ public class SearchResource {
 		if (directParents.size() > 0) {
 			b.withDirectParent(directParents);
 		}
-		List<ResultItem> result = b.build().search();
-		if (!fuzzy && fallbackFuzzy && result.size() == 0) {
-			result = b.useFuzzy().build().search();
+		if (grouped) {
+			b.groupByConcept();
 		}
-		if (project != null && project.length() > 0) {
-			ICayennePersister cayenne = LinkRestRuntime.service(ICayennePersister.class, config);
-			ObjectContext context = cayenne.newContext();
-			Project p = ObjectSelect.query(Project.class, Project.NAME.eq(project)).selectOne(context);
-			result = SearchUtilities.filterSearchForProject(result, p, recursiveParents);
-		}
-		return result;
+		return b;
 	}
 
 
@@ -130,10 +290,182 @@ public class SearchResource {
 	@GET
 	@Path("dmd/parse")
 	public DataResponse<ParsedMedication> parseMedication(@QueryParam("s") String search, @Context UriInfo uriInfo) throws CorruptIndexException, IOException, ParseException {
+		_drugNameResolver();
 		ParsedMedication pm = new ParsedMedicationBuilder().parseString(search).build(Search.getInstance());
 		return responseWithObject(pm);
 	}
 
+	/**
+	 * Parse a list of medications, one per line, returning the results in the same order.
+	 * Each distinct drug name is mapped only once.
+	 * @param body - medications, one per line
+	 */
+	@POST
+	@Path("dmd/parse")
+	@Consumes(MediaType.TEXT_PLAIN)
+	public DataResponse<ParsedMedication> parseMedications(String body, @Context UriInfo uriInfo) throws CorruptIndexException, IOException {
+		List<String> lines = new BufferedReader(new StringReader(body)).lines()
+				.filter(line -> line.trim().length() > 0)
+				.collect(Collectors.toList());
+		_drugNameResolver();
+		return responseWithList(new BatchMedicationParser(Search.getInstance()).parse(lines));
+	}
+
+	/**
+	 * Return the concepts matching an expression constraint, in order of concept identifier.
+	 * For example, "<< 64572001 MINUS << 404684003" or "< 373873005 : 127489000 = << 387517004".
+	 * @param ecl - expression constraint
+	 * @param maxHits - maximum number of concepts to return
+	 * @return the total number of matching concepts and their identifiers
+	 */
+	@GET
+	@Path("ecl")
+	public DataResponse<Map<String, Object>> expand(@QueryParam("s") String ecl,
+			@DefaultValue("10000") @QueryParam("maxHits") int maxHits,
+			@Context UriInfo uriInfo) {
+		if (ecl == null || ecl.length() == 0) {
+			throw new LinkRestException(Status.BAD_REQUEST, ERROR_NO_SEARCH_PARAMETER);
+		}
+		ConceptSet concepts = _evaluate(ecl);
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("total", concepts.size());
+		result.put("concepts", concepts.stream().limit(Math.max(0, maxHits)).boxed().collect(Collectors.toList()));
+		return responseWithObject(result);
+	}
+
+	private ConceptSet _evaluate(String ecl) {
+		try {
+			return Ecl.getInstance(LinkRestRuntime.service(ICayennePersister.class, config).sharedContext()).evaluate(ecl);
+		} catch (Ecl.ParseException e) {
+			throw new LinkRestException(Status.BAD_REQUEST, e.getMessage());
+		}
+	}
+
+	/**
+	 * Classify a list of concepts against one or more roots, returning the roots matched by each concept
+	 * in the same order. A concept matches a root if it is the root or one of its descendants.
+	 * @param roots - one or more root concept identifiers
+	 * @param body - concept identifiers, separated by whitespace or commas
+	 */
+	@POST
+	@Path("classify")
+	@Consumes(MediaType.TEXT_PLAIN)
+	public DataResponse<Map<String, Object>> classify(@QueryParam("root") List<Long> roots, String body, @Context UriInfo uriInfo) {
+		if (roots == null || roots.isEmpty()) {
+			throw new LinkRestException(Status.BAD_REQUEST, "No root parameter specified");
+		}
+		long[] conceptIds = _conceptIds(body);
+		long[][] matches = _classifier(roots).classify(conceptIds);
+		List<Map<String, Object>> result = new ArrayList<>(conceptIds.length);
+		for (int i=0; i<conceptIds.length; i++) {
+			Map<String, Object> item = new LinkedHashMap<>();
+			item.put("conceptId", conceptIds[i]);
+			item.put("roots", LongStream.of(matches[i]).boxed().collect(Collectors.toList()));
+			result.add(item);
+		}
+		return responseWithList(result);
+	}
+
+	/**
+	 * Return the similarity of a concept to one or more others, together with their lowest common ancestors.
+	 * @param conceptId - concept identifier
+	 * @param others - one or more concept identifiers to compare
+	 * @param measure - resnik, lin (the default) or wu-palmer
+	 */
+	@GET
+	@Path("similarity")
+	public DataResponse<Map<String, Object>> similarity(@QueryParam("id") Long conceptId, @QueryParam("to") List<Long> others,
+			@DefaultValue("lin") @QueryParam("measure") String measure, @Context UriInfo uriInfo) {
+		if (conceptId == null || others == null || others.isEmpty()) {
+			throw new LinkRestException(Status.BAD_REQUEST, "Specify a concept (id) and one or more concepts to compare (to)");
+		}
+		SemanticSimilarity similarity = _similarity();
+		long[] to = others.stream().mapToLong(Long::longValue).toArray();
+		double[] similarities = similarity.similarities(_measure(measure), conceptId, to);
+		List<Map<String, Object>> result = new ArrayList<>(to.length);
+		for (int i=0; i<to.length; i++) {
+			Map<String, Object> item = new LinkedHashMap<>();
+			item.put("conceptId", to[i]);
+			item.put("similarity", similarities[i]);
+			item.put("lowestCommonAncestors", LongStream.of(similarity.lowestCommonAncestors(conceptId, to[i])).boxed().collect(Collectors.toList()));
+			result.add(item);
+		}
+		return responseWithList(result);
+	}
+
+	/**
+	 * Return the similarity of every pair of a list of concepts, for example to cluster them.
+	 * At most 2000 concepts may be compared, unless set by the system property
+	 * "com.eldrix.terminology.server.maxSimilarityConcepts".
+	 * @param measure - resnik, lin (the default) or wu-palmer
+	 * @param body - concept identifiers, separated by whitespace or commas
+	 * @return the concepts and a symmetric matrix of similarities, in the same order
+	 */
+	@POST
+	@Path("similarity")
+	@Consumes(MediaType.TEXT_PLAIN)
+	public DataResponse<Map<String, Object>> similarities(@DefaultValue("lin") @QueryParam("measure") String measure, String body, @Context UriInfo uriInfo) {
+		long[] conceptIds = _conceptIds(body);
+		if (conceptIds.length > MAXIMUM_SIMILARITY_CONCEPTS) {
+			throw new LinkRestException(Status.REQUEST_ENTITY_TOO_LARGE, "Too many concepts to compare: " + conceptIds.length + " (maximum " + MAXIMUM_SIMILARITY_CONCEPTS + ")");
+		}
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("concepts", conceptIds);
+		result.put("similarity", _similarity().similarities(_measure(measure), conceptIds));		// written as nested arrays
+		return responseWithObject(result);
+	}
+
+	private SemanticSimilarity _similarity() {
+		return SemanticSimilarity.getInstance(LinkRestRuntime.service(ICayennePersister.class, config).sharedContext());
+	}
+
+	private static SemanticSimilarity.Measure _measure(String measure) {
+		try {
+			return SemanticSimilarity.Measure.valueOf(measure.trim().toUpperCase().replace('-', '_'));
+		} catch (IllegalArgumentException e) {
+			throw new LinkRestException(Status.BAD_REQUEST, "Invalid measure: " + measure);
+		}
+	}
+
+	/*
+	 * Parse concept identifiers separated by whitespace or commas.
+	 */
+	private static long[] _conceptIds(String body) {
+		try {
+			return Stream.of(body.split("[\\s,]+")).filter(id -> id.length() > 0).mapToLong(Long::parseLong).toArray();
+		} catch (NumberFormatException e) {
+			throw new LinkRestException(Status.BAD_REQUEST, "Invalid concept identifier: " + e.getMessage());
+		}
+	}
+
+	/*
+	 * Return a classifier for the roots, reusing a recent one, as building a classifier for many roots takes a little time.
+	 */
+	private Classifier _classifier(List<Long> roots) {
+		List<Long> key = roots.stream().sorted().distinct().collect(Collectors.toList());
+		synchronized(_classifiers) {
+			Classifier cached = _classifiers.get(key);
+			if (cached != null) {
+				_classifierCacheHits.increment();
+				return cached;
+			}
+		}
+		_classifierCacheMisses.increment();
+		Hierarchy hierarchy = Hierarchy.getInstance(LinkRestRuntime.service(ICayennePersister.class, config).sharedContext());
+		Classifier result = new Classifier(hierarchy, key.stream().mapToLong(Long::longValue).toArray());
+		synchronized(_classifiers) {
+			_classifiers.put(key, result);
+		}
+		return result;
+	}
+
+	/*
+	 * Ensure the shared drug name dictionary is loaded, so that medication parsing only searches the index on a miss.
+	 */
+	private DrugNameResolver _drugNameResolver() {
+		return DrugNameResolver.getInstance(LinkRestRuntime.service(ICayennePersister.class, config).sharedContext());
+	}
+
 	/**
 	 * Return the synonyms for a search term
 	 * @param search - search term
@@ -142,9 +474,10 @@ public class SearchResource {
 	 * @param fsn - whether to include fully specified names, default false
 	 * @param inactive - whether to include inactive concepts, default false
 	 * @param fuzzy - whether to perform a fuzzy match, default false, as otherwise one gets surprising matches.
-	 * @param fallbackFuzzy - whether to fallback to a fuzzy search if there are no results, default true.
+	 * @param fallbackFuzzy - whether to correct misspelt search terms for a non-fuzzy search, default true.
 	 * @param uriInfo
-	 * @return
+	 * @return the synonyms; if the search ran out of time, these are for the best matching concepts found so far
+	 * and the response has the header "X-Search-Partial: true"
 	 */
 	@GET
 	@Path("synonyms")
@@ -156,12 +489,13 @@ public class SearchResource {
 			@DefaultValue("false") @QueryParam("fuzzy") boolean fuzzy,
 			@DefaultValue("true") @QueryParam("fallbackFuzzy") boolean fallbackFuzzy,
 			@DefaultValue("false") @QueryParam("includeChildren") boolean includeChildren,
-			@Context UriInfo uriInfo) {
+			@Context UriInfo uriInfo,
+			@Context HttpServletResponse response) {
 		if (search == null || search.length() == 0) {
 			throw new LinkRestException(Status.BAD_REQUEST, ERROR_NO_SEARCH_PARAMETER);
 		}
 		try {
-			List<String> result = _performSynonymSearch(search, roots, maxHits, includeFsn, includeInactive, fuzzy, fallbackFuzzy, includeChildren);
+			List<String> result = _performSynonymSearch(search, roots, maxHits, includeFsn, includeInactive, fuzzy, fallbackFuzzy, includeChildren, response);
 			return responseWithList(result);
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -170,24 +504,40 @@ public class SearchResource {
 	}
 
 	/**
-	 * Search for a concept by using Read code
+	 * Search for a concept by using Read code.
+	 * @param readCode - the Read code
+	 * @param prefix - whether to treat the Read code as a prefix (defaults to true)
 	 */
 	@GET
 	@Path("read/{readCode}")
-	public DataResponse<Long> getByRead(@PathParam("readCode") String readCode, 
+	public DataResponse<Long> getByRead(@PathParam("readCode") String readCode,
+			@DefaultValue("true") @QueryParam("prefix") boolean prefix,
 			@Context UriInfo uriInfo) {
-		ICayennePersister cayenne = LinkRestRuntime.service(ICayennePersister.class, config);
-		ObjectContext context = cayenne.newContext();
-		Expression qual = Concept.CTV_ID.startsWith(readCode);
-		List<Concept> concepts = ObjectSelect.query(Concept.class, qual).select(context);
-		List<Long> results = concepts.stream().map(c -> c.getConceptId()).collect(Collectors.toList()); 
-		return responseWithList(results);
+		ReadCodes readCodes = ReadCodes.getInstance(LinkRestRuntime.service(ICayennePersister.class, config).sharedContext());
+		long[] conceptIds = prefix ? readCodes.conceptsForPrefix(readCode) : readCodes.conceptsForCode(readCode);
+		return responseWithList(LongStream.of(conceptIds).boxed().collect(Collectors.toList()));
+	}
+
+	/**
+	 * Map a batch of Read codes to concepts.
+	 * @param readCodes - one or more Read codes
+	 * @param prefix - whether to treat each Read code as a prefix (defaults to false)
+	 * @return a map of each Read code to its concept identifiers
+	 */
+	@GET
+	@Path("read")
+	public DataResponse<Map<String, long[]>> getByReadCodes(@QueryParam("code") List<String> codes,
+			@DefaultValue("false") @QueryParam("prefix") boolean prefix,
+			@Context UriInfo uriInfo) {
+		ReadCodes readCodes = ReadCodes.getInstance(LinkRestRuntime.service(ICayennePersister.class, config).sharedContext());
+		return responseWithObject(readCodes.conceptsForCodes(codes, prefix));
 	}
 
 	private List<String> _performSynonymSearch(String search, List<Long> roots, int maxHits, boolean includeFsn,
-			boolean includeInactive, boolean fuzzy, boolean fallbackFuzzy, boolean includeChildren) throws IOException, CorruptIndexException {
+			boolean includeInactive, boolean fuzzy, boolean fallbackFuzzy, boolean includeChildren,
+			HttpServletResponse response) throws IOException, CorruptIndexException {
 		Search.Request.Builder b = Search.getInstance().newBuilder()
-				.search(search).setMaxHits(maxHits).withRecursiveParent(roots);
+				.search(search).setMaxHits(maxHits).withTimeout(SEARCH_TIMEOUT_MILLIS).withRecursiveParent(roots);
 		if (!includeInactive) {
 			b.onlyActive();
 		}
@@ -196,26 +546,28 @@ public class SearchResource {
 		}
 		if (fuzzy) {
 			b.useFuzzy();
+		} else if (fallbackFuzzy) {
+			b.correctSpelling();
 		}
-		List<Long> conceptIds = b.build().searchForConcepts();
-		if (!fuzzy && fallbackFuzzy && conceptIds.size() == 0) {
-			conceptIds = b.useFuzzy().build().searchForConcepts();
-		}
+		Search.Results results = _flagPartial(b.build().searchWithTotal(), response);
+		List<Long> conceptIds = results.getItems().stream()
+				.map(ResultItem::getConceptId)
+				.distinct()
+				.collect(Collectors.toList());
 		ICayennePersister cayenne = LinkRestRuntime.service(ICayennePersister.class, config);
-		ObjectContext context = cayenne.newContext();
-		Expression qual;
 		if (includeChildren) {
-			Expression q1 = Concept.CONCEPT_ID.in(conceptIds);
-			List<Concept> concepts = ObjectSelect.query(Concept.class, q1).select(context);
-			Set<Concept> allConcepts = new HashSet<>();
-			concepts.forEach(c -> {
-				allConcepts.add(c);
-				allConcepts.addAll(c.getRecursiveChildConcepts());
-			});
-			qual = Description.CONCEPT.in(allConcepts);
-		} else {
-			qual = Description.CONCEPT_ID.in(conceptIds);
+			ConceptSet concepts = Hierarchy.getInstance(cayenne.sharedContext()).expand(conceptIds.stream().mapToLong(Long::longValue).toArray());
+			Search.Request.Builder children = Search.getInstance().newBuilder().withFilters(Search.Filter.forConcepts(concepts));
+			if (!includeInactive) {
+				children.onlyActiveDescriptions();
+			}
+			if (!includeFsn) {
+				children.withoutFullySpecifiedNames();
+			}
+			return children.build().searchForAllDescriptions();
 		}
+		ObjectContext context = cayenne.newContext();
+		Expression qual = Description.CONCEPT_ID.in(conceptIds);
 		if (!includeFsn) {
 			qual = qual.andExp(Description.DESCRIPTION_TYPE_CODE.ne(Description.Type.FULLY_SPECIFIED_NAME.code));
 		}
@@ -229,17 +581,27 @@ public class SearchResource {
 				.collect(Collectors.toList());
 	}
 
-	<T> DataResponse<T> responseWithList(List<T> data) {
+	/*
+	 * Flag the response if the search ran out of time, returning the results.
+	 */
+	private static Search.Results _flagPartial(Search.Results results, HttpServletResponse response) {
+		if (results.isPartial()) {
+			response.setHeader(PARTIAL_HEADER, "true");
+		}
+		return results;
+	}
+
+	static <T> DataResponse<T> responseWithList(List<T> data) {
 		DataResponse<T> response = DataResponse.forObjects(data);
 		response.setEncoder(encoder());
 		return response;
 	}
-	<T> DataResponse<T> responseWithObject(T object) {
+	static <T> DataResponse<T> responseWithObject(T object) {
 		DataResponse<T> response = DataResponse.forObject(object);
 		response.setEncoder(encoder());
 		return response;
 	}
-	Encoder encoder() {
+	static Encoder encoder() {
 		return new DataResponseEncoder("data", new ListEncoder(GenericEncoder.encoder()), "total", GenericEncoder.encoder());
 	}
 }
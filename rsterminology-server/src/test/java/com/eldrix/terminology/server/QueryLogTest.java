@@ -0,0 +1,85 @@
+package com.eldrix.terminology.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class QueryLogTest {
+
+	private static Map<String, List<String>> parameters(String... namesAndValues) {
+		LinkedHashMap<String, List<String>> result = new LinkedHashMap<>();
+		for (int i=0; i<namesAndValues.length; i+=2) {
+			result.computeIfAbsent(namesAndValues[i], k -> new ArrayList<>()).add(namesAndValues[i+1]);
+		}
+		return result;
+	}
+
+	@Test
+	public void testAnonymise() {
+		QueryLog.Entry e = QueryLog.entry(1520, 3200, 200, "/snomedct/search",
+				parameters("s", "mult scler 1234567890", "maxHits", "20", "patient", "Smith", "root", "64572001"));
+		assertEquals("snomedct/search", e.path);
+		assertEquals("mult scler 0", e.parameter("s"));
+		assertNull(e.parameter("patient"));
+		assertEquals("64572001", e.parameter("root"));
+		assertEquals(Arrays.asList("s", "maxHits", "root"), Arrays.asList(e.parameters.keySet().toArray()));
+	}
+
+	@Test
+	public void testAnonymiseFreeText() {
+		QueryLog.Entry e = QueryLog.entry(0, 0, 200, "snomedct/synonyms",
+				parameters("prefix", "4857773456", "project", "clinic 12345678"));
+		assertEquals("0", e.parameter("prefix"));
+		assertEquals("clinic 0", e.parameter("project"));
+	}
+
+	/**
+	 * Concept identifiers in expressions are kept, but quoted literals and terms are anonymised.
+	 */
+	@Test
+	public void testAnonymiseExpressions() {
+		QueryLog.Entry e = QueryLog.entry(0, 0, 200, "snomedct/concepts",
+				parameters("ecl", "<< 24700007 |Multiple sclerosis 9434765919|", "cayenneExp", "conceptId = 24700007 and fullySpecifiedName like '9434765919%'"));
+		assertEquals("<< 24700007 |Multiple sclerosis 0|", e.parameter("ecl"));
+		assertEquals("conceptId = 24700007 and fullySpecifiedName like '0%'", e.parameter("cayenneExp"));
+	}
+
+	@Test
+	public void testRoundTrip() {
+		QueryLog.Entry e = QueryLog.entry(1520, 3200, 200, "snomedct/search", parameters("s", "multiple scl", "maxHits", "20", "root", "64572001", "root", "71388002"));
+		assertEquals("1520\t3200\t200\tsnomedct/search?s=multiple+scl&maxHits=20&root=64572001&root=71388002", e.toString());
+		QueryLog.Entry parsed = QueryLog.parse(e.toString());
+		assertEquals(1520, parsed.offsetMillis);
+		assertEquals(3200, parsed.durationMicros);
+		assertEquals(200, parsed.status);
+		assertEquals("snomedct/search", parsed.path);
+		assertEquals(e.parameters, parsed.parameters);
+		assertTrue(parsed.isSearch());
+	}
+
+	@Test
+	public void testParse() {
+		assertNull(QueryLog.parse(""));
+		assertNull(QueryLog.parse("# comment"));
+		QueryLog.Entry plain = QueryLog.parse("heart attack");
+		assertTrue(plain.isSearch());
+		assertEquals("heart attack", plain.parameter("s"));
+		QueryLog.Entry noQuery = QueryLog.parse("5\t10\t200\tsnomedct/concepts/24700007");
+		assertEquals("snomedct/concepts/24700007", noQuery.path);
+		assertEquals(Collections.emptyMap(), noQuery.parameters);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testInvalid() {
+		QueryLog.parse("5\t10\tsnomedct/search");
+	}
+}
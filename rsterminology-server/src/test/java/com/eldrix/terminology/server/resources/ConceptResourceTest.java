@@ -0,0 +1,58 @@
+package com.eldrix.terminology.server.resources;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response.Status;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nhl.link.rest.DataResponse;
+import com.nhl.link.rest.LinkRestException;
+
+public class ConceptResourceTest {
+
+	private static String json(DataResponse<?> response) throws IOException {
+		StringWriter writer = new StringWriter();
+		try (JsonGenerator out = new ObjectMapper().getFactory().createGenerator(writer)) {
+			response.writeData(out);
+		}
+		return writer.toString();
+	}
+
+	@Test
+	public void testPageEncoder() throws IOException {
+		DataResponse<Object> response = SearchResource.responseWithList(Arrays.asList(
+				Collections.singletonMap("total", 5), Collections.singletonMap("total", 6)));
+		assertEquals("{\"data\":[{\"total\":5},{\"total\":6}],\"total\":2}", json(response));
+		response.setEncoder(new ConceptResource.PageEncoder(response.getEncoder(), 1250));
+		assertEquals("{\"data\":[{\"total\":5},{\"total\":6}],\"total\":1250}", json(response));
+		response.setEncoder(new ConceptResource.PageEncoder(response.getEncoder(), 0));
+		response.setObjects(Collections.emptyList());
+		assertEquals("{\"data\":[],\"total\":0}", json(response));
+	}
+
+	@Test
+	public void testUnsupportedParameters() {
+		MultivaluedMap<String, String> parameters = new MultivaluedHashMap<>();
+		parameters.putSingle("start", "50");
+		parameters.putSingle("include", "descriptions");
+		ConceptResource.rejectUnsupportedParameters(parameters);
+		parameters.putSingle("sort", "conceptId");
+		try {
+			ConceptResource.rejectUnsupportedParameters(parameters);
+			fail("sort should be rejected");
+		} catch (LinkRestException e) {
+			assertEquals(Status.BAD_REQUEST, e.getStatus());
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package com.eldrix.terminology.server.resources;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Map;
+
+import javax.ws.rs.core.Response.Status;
+
+import org.junit.Test;
+
+import com.eldrix.terminology.server.Warmup;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nhl.link.rest.DataResponse;
+
+public class ReadyResourceTest {
+
+	private static String json(DataResponse<?> response) throws IOException {
+		StringWriter writer = new StringWriter();
+		try (JsonGenerator out = new ObjectMapper().getFactory().createGenerator(writer)) {
+			response.writeData(out);
+		}
+		return writer.toString();
+	}
+
+	@Test
+	public void testReady() throws IOException {
+		DataResponse<Map<String, Object>> response = ReadyResource.response(true, Warmup.State.READY, 3, 12.5);
+		assertEquals(Status.OK, response.getStatus());
+		assertEquals("{\"data\":[{\"state\":\"READY\",\"rounds\":3,\"p99\":12.5}],\"total\":1}", json(response));
+	}
+
+	@Test
+	public void testNotReady() throws IOException {
+		DataResponse<Map<String, Object>> response = ReadyResource.response(false, Warmup.State.WARMING, 1, 250.0);
+		assertEquals(Status.SERVICE_UNAVAILABLE, response.getStatus());
+		assertEquals("{\"data\":[{\"state\":\"WARMING\",\"rounds\":1,\"p99\":250.0}],\"total\":1}", json(response));
+	}
+}
@@ -0,0 +1,82 @@
+package com.eldrix.terminology.server.resources;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.junit.Test;
+
+import com.eldrix.terminology.metrics.Trace;
+
+public class RequestTracingTest {
+
+	@Path("test")
+	public static class TestResource {
+		@GET
+		@Path("lazy")
+		public StreamingOutput lazy() {
+			Trace.record(Trace.SQL, "select during request", 0);
+			return out -> {
+				Trace.record(Trace.SQL, "select during writing", 0);	// e.g. faulting a relationship while encoding
+				out.write("done".getBytes());
+			};
+		}
+
+		@GET
+		@Path("empty")
+		public Response empty() {
+			Trace.record(Trace.SQL, "select", 0);
+			return Response.noContent().build();
+		}
+	}
+
+	private static ContainerResponse get(String path, ByteArrayOutputStream entity) throws Exception {
+		ApplicationHandler handler = new ApplicationHandler(new ResourceConfig(TestResource.class).register(new RequestTracing(true)));
+		ContainerRequest request = new ContainerRequest(URI.create("http://localhost/"), URI.create("http://localhost/" + path), "GET", null, new org.glassfish.jersey.internal.MapPropertiesDelegate());
+		request.header(RequestTracing.TRACE_HEADER, "");
+		return handler.apply(request, entity).get();
+	}
+
+	@Test
+	public void testQueriesWhileWriting() throws Exception {
+		ByteArrayOutputStream entity = new ByteArrayOutputStream();
+		ContainerResponse response = get("test/lazy", entity);
+		assertEquals(200, response.getStatus());
+		assertEquals("done", entity.toString());
+		String header = response.getHeaderString(RequestTracing.TRACE_HEADER);
+		assertTrue(header, header.contains(" sql=2/"));
+		assertFalse(Trace.isActive());
+	}
+
+	@Test
+	public void testNoEntity() throws Exception {
+		ContainerResponse response = get("test/empty", new ByteArrayOutputStream());
+		assertEquals(204, response.getStatus());
+		String header = response.getHeaderString(RequestTracing.TRACE_HEADER);
+		assertTrue(header, header.contains(" sql=1/"));
+		assertFalse(Trace.isActive());
+	}
+
+	@Test
+	public void testWithoutHeader() throws Exception {
+		ApplicationHandler handler = new ApplicationHandler(new ResourceConfig(TestResource.class).register(new RequestTracing(false)));
+		ContainerRequest request = new ContainerRequest(URI.create("http://localhost/"), URI.create("http://localhost/test/lazy"), "GET", null, new org.glassfish.jersey.internal.MapPropertiesDelegate());
+		request.header(RequestTracing.TRACE_HEADER, "");
+		ContainerResponse response = handler.apply(request, new ByteArrayOutputStream()).get();
+		assertNull(response.getHeaderString(RequestTracing.TRACE_HEADER));
+		assertFalse(Trace.isActive());
+	}
+}